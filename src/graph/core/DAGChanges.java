@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The IDs of the nodes and edges created, modified or removed since the last
+ * checkpoint, used to write delta checkpoints. Changes may be recorded
+ * concurrently.
+ *
+ * @author Sam Sarjant
+ */
+public class DAGChanges {
+	private final Set<Integer> changedEdges_ = newIDSet();
+
+	private final Set<Integer> changedNodes_ = newIDSet();
+
+	/** If the changes cannot be expressed as a delta (e.g. a clear). */
+	private volatile boolean fullRequired_;
+
+	/** If module state changed that is not covered by the object changes. */
+	private volatile boolean modulesChanged_;
+
+	private final Set<Integer> removedEdges_ = newIDSet();
+
+	private final Set<Integer> removedNodes_ = newIDSet();
+
+	private static Set<Integer> newIDSet() {
+		return Collections
+				.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	}
+
+	/**
+	 * Adds all of the changes of another change set to this one (e.g. when a
+	 * delta could not be saved).
+	 *
+	 * @param changes
+	 *            The changes to add.
+	 */
+	public void addAll(DAGChanges changes) {
+		changedNodes_.addAll(changes.changedNodes_);
+		changedEdges_.addAll(changes.changedEdges_);
+		removedNodes_.addAll(changes.removedNodes_);
+		removedEdges_.addAll(changes.removedEdges_);
+		fullRequired_ |= changes.fullRequired_;
+		modulesChanged_ |= changes.modulesChanged_;
+	}
+
+	/**
+	 * Records an object as created or modified.
+	 *
+	 * @param dagObj
+	 *            The changed node or edge.
+	 */
+	public void changed(DAGObject dagObj) {
+		if (dagObj instanceof DAGEdge)
+			changedEdges_.add(dagObj.getID());
+		else if (dagObj instanceof DAGNode)
+			changedNodes_.add(dagObj.getID());
+	}
+
+	public Set<Integer> getChangedEdges() {
+		return changedEdges_;
+	}
+
+	public Set<Integer> getChangedNodes() {
+		return changedNodes_;
+	}
+
+	public Set<Integer> getRemovedEdges() {
+		return removedEdges_;
+	}
+
+	public Set<Integer> getRemovedNodes() {
+		return removedNodes_;
+	}
+
+	public boolean isFullRequired() {
+		return fullRequired_;
+	}
+
+	public boolean isModulesChanged() {
+		return modulesChanged_;
+	}
+
+	/**
+	 * Notes that the modules must be saved, even if no objects changed.
+	 */
+	public void modulesChanged() {
+		modulesChanged_ = true;
+	}
+
+	/**
+	 * Records an object as removed.
+	 *
+	 * @param dagObj
+	 *            The removed node or edge.
+	 */
+	public void removed(DAGObject dagObj) {
+		if (dagObj instanceof DAGEdge)
+			removedEdges_.add(dagObj.getID());
+		else if (dagObj instanceof DAGNode)
+			removedNodes_.add(dagObj.getID());
+	}
+
+	/**
+	 * Notes that the changes can only be saved as a full checkpoint.
+	 */
+	public void requireFull() {
+		fullRequired_ = true;
+	}
+
+	/**
+	 * @return The total number of changed and removed objects.
+	 */
+	public int size() {
+		return changedNodes_.size() + changedEdges_.size()
+				+ removedNodes_.size() + removedEdges_.size();
+	}
+}
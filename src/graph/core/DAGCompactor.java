@@ -0,0 +1,329 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.io.File;
+import java.util.Arrays;
+
+import util.collection.trove.TArrayIndexedCollection;
+
+/**
+ * An offline tool that renumbers the nodes and edges of a saved DAG densely
+ * from 1, removing the gaps left by removed objects. Nodes can optionally be
+ * ordered so related nodes get neighbouring IDs, and edges are then ordered
+ * by their nodes.
+ *
+ * The DAG is loaded (merging any delta checkpoints and replaying the
+ * write-ahead log), renumbered, and written as a full checkpoint with the new
+ * ID counters. Creator references are renumbered too, and edges with nodes
+ * that no longer exist are dropped. The saved modules index the old IDs, so
+ * they are rebuilt when the DAG is next loaded, keeping only their own
+ * configuration. The DAG must not be in use while compacting.
+ *
+ * @author Sam Sarjant
+ */
+public class DAGCompactor {
+	private final DirectedAcyclicGraph dag_;
+
+	/** The loaded edges, in old ID order. */
+	private DAGEdge[] edges_;
+
+	/** The loaded nodes, in old ID order. */
+	private DAGNode[] nodes_;
+
+	/** The old IDs of the nodes, for looking up node indices. */
+	private int[] oldNodeIDs_;
+
+	public DAGCompactor(DirectedAcyclicGraph dag) {
+		dag_ = dag;
+	}
+
+	/**
+	 * Orders the nodes breadth-first: each unplaced node (in old ID order)
+	 * starts a traversal that places the nodes sharing edges with each placed
+	 * node.
+	 *
+	 * @return The indices of the nodes, in their new order.
+	 */
+	private int[] breadthFirstOrder() {
+		// Index the edges of each node
+		int[] start = new int[nodes_.length + 1];
+		for (DAGEdge edge : edges_)
+			for (Node node : edge.getNodes()) {
+				int index = indexOf(node);
+				if (index != -1)
+					start[index + 1]++;
+			}
+		for (int i = 0; i < nodes_.length; i++)
+			start[i + 1] += start[i];
+		int[] nodeEdges = new int[start[nodes_.length]];
+		int[] fill = Arrays.copyOf(start, nodes_.length);
+		for (int e = 0; e < edges_.length; e++)
+			for (Node node : edges_[e].getNodes()) {
+				int index = indexOf(node);
+				if (index != -1)
+					nodeEdges[fill[index]++] = e;
+			}
+
+		// The order doubles as the traversal queue
+		int[] order = new int[nodes_.length];
+		boolean[] placed = new boolean[nodes_.length];
+		int head = 0;
+		int tail = 0;
+		for (int root = 0; root < nodes_.length; root++) {
+			if (placed[root])
+				continue;
+			placed[root] = true;
+			order[tail++] = root;
+			while (head < tail) {
+				int current = order[head++];
+				for (int i = start[current]; i < start[current + 1]; i++)
+					for (Node node : edges_[nodeEdges[i]].getNodes()) {
+						int index = indexOf(node);
+						if (index != -1 && !placed[index]) {
+							placed[index] = true;
+							order[tail++] = index;
+						}
+					}
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return The index of a DAG node in the loaded nodes, or -1.
+	 */
+	private int indexOf(Node node) {
+		if (!(node instanceof DAGNode))
+			return -1;
+		int index = Arrays.binarySearch(oldNodeIDs_, ((DAGNode) node).getID());
+		return (index >= 0) ? index : -1;
+	}
+
+	/**
+	 * Orders the nodes by predicate: each node is placed with the other
+	 * arguments of the predicate of the first edge it is an argument of.
+	 * Nodes that are never arguments are placed by themselves.
+	 *
+	 * @return The indices of the nodes, in their new order.
+	 */
+	private int[] predicateOrder() {
+		int[] cluster = new int[nodes_.length];
+		Arrays.fill(cluster, -1);
+		for (DAGEdge edge : edges_) {
+			Node[] edgeNodes = edge.getNodes();
+			int predicate = indexOf(edgeNodes[0]);
+			if (predicate == -1)
+				continue;
+			for (int i = 1; i < edgeNodes.length; i++) {
+				int index = indexOf(edgeNodes[i]);
+				if (index != -1 && cluster[index] == -1)
+					cluster[index] = predicate;
+			}
+		}
+
+		long[] keys = new long[nodes_.length];
+		for (int i = 0; i < nodes_.length; i++)
+			keys[i] = ((long) ((cluster[i] == -1) ? i : cluster[i]) << 32) | i;
+		return sortedIndices(keys);
+	}
+
+	/**
+	 * Sorts keys of the form (sort key << 32 | index) and extracts the
+	 * indices.
+	 */
+	private static int[] sortedIndices(long[] keys) {
+		Arrays.sort(keys);
+		int[] order = new int[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			order[i] = (int) keys[i];
+		return order;
+	}
+
+	/**
+	 * Renumbers the DAG and writes it as a full checkpoint.
+	 *
+	 * @param order
+	 *            The order to number the nodes in.
+	 */
+	public void compact(NodeOrder order) {
+		int oldNodeCounter = dag_.getNextNodeID();
+		int oldEdgeCounter = dag_.getNextEdgeID();
+		System.out.print("Renumbering " + order + "... ");
+		renumber(order);
+		System.out.println("Done!");
+		System.out.println("Node IDs: " + oldNodeCounter + " -> "
+				+ dag_.getNextNodeID() + ", edge IDs: " + oldEdgeCounter + " -> "
+				+ dag_.getNextEdgeID());
+		dag_.compact();
+	}
+
+	/**
+	 * Renumbers the nodes and edges of the DAG, replacing its collections.
+	 *
+	 * @param order
+	 *            The order to number the nodes in.
+	 */
+	public void renumber(NodeOrder order) {
+		// Load every object (edges first decode their nodes by old ID)
+		nodes_ = withoutNulls(dag_.nodes_.toArray(new DAGNode[dag_.nodes_
+				.size()]));
+		edges_ = withoutNulls(dag_.edges_.toArray(new DAGEdge[dag_.edges_
+				.size()]));
+		Arrays.sort(nodes_);
+		Arrays.sort(edges_);
+		oldNodeIDs_ = new int[nodes_.length];
+		for (int i = 0; i < nodes_.length; i++)
+			oldNodeIDs_[i] = nodes_[i].getID();
+		edges_ = withExistingNodes(edges_);
+
+		int[] nodeOrder = null;
+		switch (order) {
+		case BFS:
+			nodeOrder = breadthFirstOrder();
+			break;
+		case PREDICATE:
+			nodeOrder = predicateOrder();
+			break;
+		default:
+			nodeOrder = new int[nodes_.length];
+			for (int i = 0; i < nodeOrder.length; i++)
+				nodeOrder[i] = i;
+		}
+		int[] newNodeIDs = new int[nodes_.length];
+		for (int i = 0; i < nodeOrder.length; i++)
+			newNodeIDs[nodeOrder[i]] = i + 1;
+
+		// Order edges by their first placed node, unless keeping the ID order
+		int[] edgeOrder = new int[edges_.length];
+		if (order == NodeOrder.ID) {
+			for (int i = 0; i < edgeOrder.length; i++)
+				edgeOrder[i] = i;
+		} else {
+			long[] keys = new long[edges_.length];
+			for (int e = 0; e < edges_.length; e++) {
+				int first = Integer.MAX_VALUE;
+				for (Node node : edges_[e].getNodes()) {
+					int index = indexOf(node);
+					if (index != -1)
+						first = Math.min(first, newNodeIDs[index]);
+				}
+				keys[e] = ((long) first << 32) | e;
+			}
+			edgeOrder = sortedIndices(keys);
+		}
+
+		// Creators are referenced by node ID, so renumber them first
+		for (DAGNode node : nodes_)
+			renumberCreator(node, newNodeIDs);
+		for (DAGEdge edge : edges_)
+			renumberCreator(edge, newNodeIDs);
+
+		TArrayIndexedCollection<DAGNode> nodes = new TArrayIndexedCollection<>(
+				nodes_.length + 1);
+		for (int i = 0; i < nodeOrder.length; i++) {
+			DAGNode node = nodes_[nodeOrder[i]];
+			node.setID(i + 1);
+			nodes.add(node);
+		}
+		TArrayIndexedCollection<DAGEdge> edges = new TArrayIndexedCollection<>(
+				edges_.length + 1);
+		for (int i = 0; i < edgeOrder.length; i++) {
+			DAGEdge edge = edges_[edgeOrder[i]];
+			edge.setID(i + 1);
+			edges.add(edge);
+		}
+		dag_.replaceRenumbered(nodes, edges);
+		nodes_ = null;
+		edges_ = null;
+		oldNodeIDs_ = null;
+	}
+
+	/**
+	 * Renumbers the creator of an object. Creators that no longer exist are
+	 * dropped.
+	 */
+	private void renumberCreator(DAGObject dagObj, int[] newNodeIDs) {
+		int creatorID = dagObj.getCreatorID();
+		if (creatorID == -1)
+			return;
+		int index = Arrays.binarySearch(oldNodeIDs_, creatorID);
+		dagObj.setCreatorID((index >= 0) ? newNodeIDs[index] : -1);
+	}
+
+	/**
+	 * Removes the edges with DAG nodes that are not among the loaded nodes,
+	 * as those nodes would keep their old IDs.
+	 */
+	private DAGEdge[] withExistingNodes(DAGEdge[] edges) {
+		int length = 0;
+		for (DAGEdge edge : edges) {
+			boolean exists = true;
+			for (Node node : edge.getNodes())
+				if (node instanceof DAGNode && indexOf(node) == -1)
+					exists = false;
+			if (exists)
+				edges[length++] = edge;
+			else
+				System.err.println("Dropping edge with missing node: " + edge);
+		}
+		return (length == edges.length) ? edges : Arrays
+				.copyOf(edges, length);
+	}
+
+	/**
+	 * Removes any nulls from an array (e.g. objects that could not be
+	 * decoded).
+	 */
+	private static <T> T[] withoutNulls(T[] array) {
+		int length = 0;
+		for (T obj : array)
+			if (obj != null)
+				array[length++] = obj;
+		return (length == array.length) ? array : Arrays.copyOf(array, length);
+	}
+
+	/**
+	 * Compacts a saved DAG. Arguments: [-r rootDir] [-o id|bfs|predicate].
+	 */
+	public static void main(String[] args) {
+		File rootDir = DirectedAcyclicGraph.DEFAULT_ROOT;
+		NodeOrder order = NodeOrder.ID;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-r"))
+				rootDir = new File(args[++i]);
+			else if (args[i].equals("-o"))
+				order = NodeOrder.valueOf(args[++i].toUpperCase());
+		}
+
+		try {
+			DirectedAcyclicGraph dag = new DirectedAcyclicGraph(rootDir, null,
+					null);
+			dag.initialiseInternal();
+			new DAGCompactor(dag).compact(order);
+			dag.shutdown(false);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The orders nodes can be renumbered in.
+	 */
+	public enum NodeOrder {
+		/** Breadth-first over shared edges. */
+		BFS,
+		/** Keep the existing order. */
+		ID,
+		/** Grouped by the predicate of the first edge they are in. */
+		PREDICATE;
+	}
+}
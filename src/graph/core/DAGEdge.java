@@ -17,6 +17,8 @@ import java.util.Arrays;
 
 import org.apache.commons.lang3.StringUtils;
 
+import util.collection.trove.TIndexedCollection;
+
 /**
  * An unnamed edge between two or more nodes. The nodes are not necessarily
  * ordered - it is up to the agent to determine if they are or not.
@@ -26,9 +28,6 @@ import org.apache.commons.lang3.StringUtils;
 public class DAGEdge extends DAGObject implements Edge {
 	private static final long serialVersionUID = 8148137157637389069L;
 
-	/** The counter for assigning ids to edges. */
-	public static int idCounter_ = 1;
-
 	/** The nodes of the edge. */
 	protected Node[] edgeNodes_;
 
@@ -58,6 +57,26 @@ public class DAGEdge extends DAGObject implements Edge {
 	 */
 	protected DAGEdge(Node creator, boolean placeholder, Node... nodes) {
 		super(creator);
+		setNodes(nodes);
+	}
+
+	/**
+	 * An edge with a reserved ID (see
+	 * {@link DirectedAcyclicGraph#requestEdgeIDs(int)}).
+	 *
+	 * @param id
+	 *            The reserved ID.
+	 * @param creator
+	 *            The creator of the edge.
+	 * @param nodes
+	 *            The nodes of the edge.
+	 */
+	protected DAGEdge(int id, Node creator, Node... nodes) {
+		super(creator, id);
+		setNodes(nodes);
+	}
+
+	private void setNodes(Node[] nodes) {
 		if (nodes.length < 2)
 			throw new IllegalArgumentException(
 					"An edge must be between two or more nodes. "
@@ -80,7 +99,8 @@ public class DAGEdge extends DAGObject implements Edge {
 
 	@Override
 	protected int requestID() {
-		return idCounter_++;
+		DirectedAcyclicGraph dag = DirectedAcyclicGraph.current();
+		return (dag == null) ? -1 : dag.requestEdgeIDs(1);
 	}
 
 	@Override
@@ -133,7 +153,21 @@ public class DAGEdge extends DAGObject implements Edge {
 		return buffer.toString();
 	}
 
-	public static void setCounter(int count) {
-		idCounter_ = count;
+	/**
+	 * Replaces any node of this edge with the node of the same ID in a
+	 * collection (e.g. stand-ins created while loading edges in parallel with
+	 * nodes).
+	 *
+	 * @param nodes
+	 *            The loaded nodes.
+	 */
+	public void resolveNodes(TIndexedCollection<DAGNode> nodes) {
+		for (int i = 0; i < edgeNodes_.length; i++) {
+			if (edgeNodes_[i] instanceof DAGNode) {
+				DAGNode loaded = nodes.get(((DAGNode) edgeNodes_[i]).getID());
+				if (loaded != null)
+					edgeNodes_[i] = loaded;
+			}
+		}
 	}
 }
@@ -28,9 +28,6 @@ public class DAGNode extends DAGObject implements Node {
 
 	public static final String ANON_TO_STRING = "__ANON__";
 
-	/** The counter for assigning ids to edges. */
-	public static int idCounter_ = 1;
-
 	public static final Pattern QUOTED_NAME = Pattern
 			.compile("\"[^\"\\\\]*(?:\\\\.[^\"\\\\]*)*\"");
 
@@ -54,8 +51,50 @@ public class DAGNode extends DAGObject implements Node {
 
 	protected DAGNode(String name, Node creator) {
 		super(creator);
+		setName(name);
+	}
+
+	/**
+	 * An anonymous node with a reserved ID (see
+	 * {@link DirectedAcyclicGraph#requestNodeIDs(int)}).
+	 *
+	 * @param id
+	 *            The reserved ID.
+	 * @param creator
+	 *            The creator of the node.
+	 */
+	protected DAGNode(int id, Node creator) {
+		super(creator, id);
+	}
+
+	/**
+	 * A named node with a reserved ID (see
+	 * {@link DirectedAcyclicGraph#requestNodeIDs(int)}).
+	 *
+	 * @param id
+	 *            The reserved ID.
+	 * @param name
+	 *            The name of the node.
+	 * @param creator
+	 *            The creator of the node.
+	 */
+	protected DAGNode(int id, String name, Node creator) {
+		super(creator, id);
+		setName(name);
+	}
+
+	/**
+	 * An unnamed stand-in node with a known ID.
+	 *
+	 * @param id
+	 *            The ID of the node.
+	 */
+	private DAGNode(int id) {
+		super(null, id);
+	}
 
-		if (!name.matches(VALID_NAME.pattern())) {
+	private void setName(String name) {
+		if (!NodeLexer.isValidName(name)) {
 			System.err.println("Node name:" + name
 					+ " is invalid. Must not start with [ ()'?].");
 			name = "INVALID_NAME" + name;
@@ -77,7 +116,8 @@ public class DAGNode extends DAGObject implements Node {
 
 	@Override
 	protected int requestID() {
-		return idCounter_++;
+		DirectedAcyclicGraph dag = DirectedAcyclicGraph.current();
+		return (dag == null) ? -1 : dag.requestNodeIDs(1);
 	}
 
 	@Override
@@ -108,8 +148,21 @@ public class DAGNode extends DAGObject implements Node {
 		return getName();
 	}
 
+	/**
+	 * Creates a stand-in for a node that is referenced (by ID) before it has
+	 * been loaded. Stand-ins must be replaced with the loaded node (see
+	 * {@link DAGEdge#resolveNodes}).
+	 *
+	 * @param id
+	 *            The ID of the node.
+	 * @return A stand-in node with the ID.
+	 */
+	public static DAGNode placeholder(int id) {
+		return new DAGNode(id);
+	}
+
 	public static boolean isValidName(String nodeStr) {
-		return nodeStr.matches(VALID_NAME.pattern())
+		return NodeLexer.isValidName(nodeStr)
 				&& PrimitiveNode.parseNode(nodeStr) == null;
 	}
 }
@@ -20,6 +20,7 @@ import java.util.Arrays;
 import java.util.Date;
 
 import org.nustaq.serialization.annotations.OneOf;
+import org.nustaq.serialization.annotations.Version;
 
 import util.UniqueID;
 
@@ -38,34 +39,73 @@ public abstract class DAGObject implements UniqueID, Serializable,
 	public static final String CREATION_DATE = "creationDate";
 	public static final String CREATOR = "creator";
 
+	public static final PropertyKey CREATION_DATE_KEY = PropertyKey
+			.get(CREATION_DATE);
+	public static final PropertyKey CREATOR_KEY = PropertyKey.get(CREATOR);
+	private static final Object[] NO_PROPERTIES = new Object[0];
+	private static final long NO_DATE = Long.MIN_VALUE;
+
+	/**
+	 * The creation time, in milliseconds. Versioned so objects saved before
+	 * this field existed can still be read.
+	 */
+	@Version(1)
+	private long creationDate_ = NO_DATE;
+
 	/**
-	 * Unfortunately, I cannot delegate this annotation to a subclass, so
-	 * serialisation shortcuts must be defined here.
+	 * The ID of the creator node, if the creator is a DAG node. Other
+	 * creators are kept by name, as a property.
+	 */
+	@Version(1)
+	private int creatorID_ = -1;
+
+	/**
+	 * The properties, stored as alternating interned keys and string values.
+	 * Arrays are never modified once shared, only replaced. Objects saved in
+	 * the original layout deserialise a String[] of alternating key names and
+	 * values here (see {@link #migrateProperties()}), and the serialisation
+	 * shortcuts must remain so those strings can be decoded.
 	 */
 	@OneOf({ CREATION_DATE, CREATOR, "ancsID", "predID",
 			DirectedAcyclicGraph.EPHEMERAL_MARK, "CommonConcepts", "CYCImport",
 			"MT", SubDAGExtractorModule.TAG_PREFIX, "provenance" })
-	private String[] properties_;
+	private Object[] properties_;
 
 	public void clearProps() {
-		properties_ = new String[0];
+		properties_ = NO_PROPERTIES;
 	}
 
 	protected int id_;
 
 	protected DAGObject(Node creator) {
-		int index = 0;
-		if (creator != null) {
-			properties_ = new String[4];
-			properties_[index++] = CREATOR;
-			properties_[index++] = creator.getIdentifier(true);
-		} else
-			properties_ = new String[2];
-		properties_[index++] = CREATION_DATE;
-		properties_[index++] = "" + System.currentTimeMillis();
+		setCreationDetails(creator);
 		id_ = requestID();
 	}
 
+	/**
+	 * Constructor for an object with a pre-assigned (reserved) ID.
+	 *
+	 * @param creator
+	 *            The creator of the object (can be null).
+	 * @param id
+	 *            The ID of the object.
+	 */
+	protected DAGObject(Node creator, int id) {
+		setCreationDetails(creator);
+		id_ = id;
+	}
+
+	private void setCreationDetails(Node creator) {
+		properties_ = NO_PROPERTIES;
+		if (creator instanceof DAGNode && ((DAGNode) creator).getID() >= 0)
+			// DAG creators are only stored by ID, and named when needed
+			creatorID_ = ((DAGNode) creator).getID();
+		else if (creator != null)
+			properties_ = new Object[] { CREATOR_KEY,
+					creator.getIdentifier(true) };
+		creationDate_ = System.currentTimeMillis();
+	}
+
 	public DAGObject() {
 		this(null);
 	}
@@ -80,33 +120,101 @@ public abstract class DAGObject implements UniqueID, Serializable,
 	protected abstract void writeFullObject(ObjectOutput out)
 			throws IOException;
 
-	synchronized void put(String key, String value) {
-		for (int i = 0; i < properties_.length; i += 2) {
-			if (properties_[i].equals(key)) {
-				properties_[i + 1] = value;
+	/**
+	 * Converts properties read in the original layout (a String[] of
+	 * alternating key names and values, including the creator and creation
+	 * date) to interned keys and header fields. Does nothing if the
+	 * properties are already in the current layout.
+	 */
+	public synchronized void migrateProperties() {
+		if (properties_ != null && !(properties_ instanceof String[]))
+			return;
+		String[] properties = (String[]) properties_;
+		properties_ = NO_PROPERTIES;
+		if (properties == null)
+			return;
+		creationDate_ = NO_DATE;
+		creatorID_ = -1;
+		for (int i = 0; i + 1 < properties.length; i += 2)
+			if (properties[i] != null)
+				put(PropertyKey.get(properties[i]), properties[i + 1]);
+	}
+
+	/**
+	 * Gets the name of the creator node, if the creator is stored by ID.
+	 *
+	 * @return The creator name or null if there is no such creator (e.g. it
+	 *         has been removed).
+	 */
+	private String resolveCreator() {
+		if (creatorID_ == -1)
+			return null;
+		DirectedAcyclicGraph dag = DirectedAcyclicGraph.current();
+		DAGNode creator = (dag == null) ? null : dag.getNodeByID(creatorID_);
+		return (creator == null) ? null : creator.getIdentifier(true);
+	}
+
+	void put(String key, String value) {
+		put(PropertyKey.get(key), value);
+	}
+
+	synchronized void put(PropertyKey key, String value) {
+		if (key == CREATION_DATE_KEY) {
+			long date = NO_DATE;
+			try {
+				date = Long.parseLong(value);
+			} catch (NumberFormatException e) {
+			}
+			// Non-numeric dates are stored as ordinary properties
+			remove(key);
+			if (date != NO_DATE) {
+				creationDate_ = date;
+				return;
+			}
+		} else if (key == CREATOR_KEY)
+			creatorID_ = -1;
+
+		Object[] properties = properties_;
+		for (int i = 0; i < properties.length; i += 2) {
+			if (properties[i] == key) {
+				Object[] propCopy = Arrays.copyOf(properties, properties.length);
+				propCopy[i + 1] = value;
+				properties_ = propCopy;
 				return;
 			}
 		}
 
-		String[] propCopy = new String[properties_.length + 2];
-		System.arraycopy(properties_, 0, propCopy, 0, properties_.length);
-		propCopy[properties_.length] = key;
-		propCopy[properties_.length + 1] = value;
+		Object[] propCopy = Arrays.copyOf(properties, properties.length + 2);
+		propCopy[properties.length] = key;
+		propCopy[properties.length + 1] = value;
 		properties_ = propCopy;
 	}
 
-	synchronized void remove(String key) {
-		for (int i = 0; i < properties_.length; i += 2) {
-			if (properties_[i].equals(key)) {
-				String[] propCopy = new String[properties_.length - 2];
-				if (i > 0) {
-					System.arraycopy(properties_, 0, propCopy, 0, i);
-				}
-				if (i < properties_.length - 2) {
-					System.arraycopy(properties_, i + 2, propCopy, i,
-							properties_.length - i - 2);
+	void remove(String key) {
+		PropertyKey propKey = PropertyKey.find(key);
+		if (propKey != null)
+			remove(propKey);
+	}
+
+	synchronized void remove(PropertyKey key) {
+		if (key == CREATION_DATE_KEY)
+			creationDate_ = NO_DATE;
+		else if (key == CREATOR_KEY)
+			creatorID_ = -1;
+
+		Object[] properties = properties_;
+		for (int i = 0; i < properties.length; i += 2) {
+			if (properties[i] == key) {
+				if (properties.length == 2) {
+					properties_ = NO_PROPERTIES;
+					return;
 				}
+				Object[] propCopy = new Object[properties.length - 2];
+				System.arraycopy(properties, 0, propCopy, 0, i);
+				System.arraycopy(properties, i + 2, propCopy, i,
+						properties.length - i - 2);
 				properties_ = propCopy;
+				return;
 			}
 		}
 	}
@@ -133,11 +241,29 @@ public abstract class DAGObject implements UniqueID, Serializable,
 	}
 
 	public Date getCreationDate() {
-		return new Date(Long.parseLong(getProperty(CREATION_DATE)));
+		if (creationDate_ == NO_DATE)
+			return null;
+		return new Date(creationDate_);
+	}
+
+	/**
+	 * @return The creation time in milliseconds, or Long.MIN_VALUE if not
+	 *         set.
+	 */
+	public long getCreationTime() {
+		return creationDate_;
 	}
 
 	public String getCreator() {
-		return getProperty(CREATOR);
+		return getProperty(CREATOR_KEY);
+	}
+
+	/**
+	 * @return The ID of the creator node, or -1 if the creator is not a DAG
+	 *         node (or there is no creator).
+	 */
+	public int getCreatorID() {
+		return creatorID_;
 	}
 
 	@Override
@@ -151,16 +277,60 @@ public abstract class DAGObject implements UniqueID, Serializable,
 	}
 
 	public String[] getProperties() {
-		return Arrays.copyOf(properties_, properties_.length);
+		Object[] properties = properties_;
+		String creator = getCreator();
+		int numHeader = ((creator != null) ? 2 : 0)
+				+ ((creationDate_ != NO_DATE) ? 2 : 0);
+		String[] props = new String[properties.length + numHeader];
+		int index = 0;
+		if (creator != null) {
+			props[index++] = CREATOR;
+			props[index++] = creator;
+		}
+		if (creationDate_ != NO_DATE) {
+			props[index++] = CREATION_DATE;
+			props[index++] = Long.toString(creationDate_);
+		}
+		for (int i = 0; i < properties.length; i += 2) {
+			if (properties[i] == CREATOR_KEY)
+				continue;
+			props[index++] = ((PropertyKey) properties[i]).getName();
+			props[index++] = (String) properties[i + 1];
+		}
+		if (index < props.length)
+			return Arrays.copyOf(props, index);
+		return props;
 	}
 
-	public String getProperty(String key) {
-		for (int i = 0; i < properties_.length; i += 2)
-			if (properties_[i].equals(key))
-				return properties_[i + 1];
+	/**
+	 * Gets a property value using a pre-resolved key. This is the fast path
+	 * for callers checking the same key against many objects.
+	 *
+	 * @param key
+	 *            The interned key (may be null).
+	 * @return The value of the property or null.
+	 */
+	public String getProperty(PropertyKey key) {
+		if (key == null)
+			return null;
+		if (key == CREATION_DATE_KEY && creationDate_ != NO_DATE)
+			return Long.toString(creationDate_);
+		if (key == CREATOR_KEY && creatorID_ != -1) {
+			String creator = resolveCreator();
+			if (creator != null)
+				return creator;
+		}
+		Object[] properties = properties_;
+		for (int i = 0; i < properties.length; i += 2)
+			if (properties[i] == key)
+				return (String) properties[i + 1];
 		return null;
 	}
 
+	public String getProperty(String key) {
+		return getProperty(PropertyKey.find(key));
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -170,6 +340,16 @@ public abstract class DAGObject implements UniqueID, Serializable,
 		return result;
 	}
 
+	/**
+	 * Changes the ID of the creator node (e.g. when nodes are renumbered).
+	 * 
+	 * @param creatorID
+	 *            The new ID of the creator, or -1 for no creator.
+	 */
+	void setCreatorID(int creatorID) {
+		creatorID_ = creatorID;
+	}
+
 	/**
 	 * Only use this method if you're absolutely sure of the object's ID, and
 	 * the object represents a skeleton reference.
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary encoding of single nodes and edges, used by the
+ * write-ahead log and the memory-mapped snapshot format. Unlike the FST
+ * collection files, each object is encoded on its own, so objects can be
+ * decoded individually. DAG nodes within edges and creators are encoded by
+ * ID.
+ *
+ * @author Sam Sarjant
+ */
+public final class DAGObjectCodec {
+	private static final byte DAG_NODE = 0;
+
+	private static final byte EDGE = 'E';
+
+	private static final byte NODE = 'N';
+
+	private static final byte OTHER_NODE = 1;
+
+	private DAGObjectCodec() {
+	}
+
+	/**
+	 * Reads the properties of an object, then its creator ID. The written
+	 * creator name is kept, so the creator can still be named if the creator
+	 * node has since been removed.
+	 */
+	private static void readProperties(DataInput in, DAGObject dagObj,
+			int creatorID) throws IOException {
+		int length = in.readInt();
+		for (int i = 0; i < length; i += 2) {
+			String key = readString(in);
+			String value = readString(in);
+			dagObj.put(key, value);
+		}
+		// Set last, as putting the creator name clears the ID
+		if (creatorID != -1)
+			dagObj.setCreatorID(creatorID);
+	}
+
+	private static void writeProperties(DataOutput out, DAGObject dagObj)
+			throws IOException {
+		String[] properties = dagObj.getProperties();
+		out.writeInt(properties.length);
+		for (String property : properties)
+			writeString(out, property);
+	}
+
+	/**
+	 * Reads a node or edge written by {@link #write(DataOutput, DAGObject)}.
+	 *
+	 * @param in
+	 *            The input to read from.
+	 * @param dag
+	 *            The DAG to resolve edge nodes against.
+	 * @return The decoded object, or null if it is an edge with a missing
+	 *         node.
+	 * @throws IOException
+	 *             If the object could not be read.
+	 */
+	public static DAGObject read(DataInput in, DirectedAcyclicGraph dag)
+			throws IOException {
+		byte type = in.readByte();
+		if (type == NODE)
+			return readNode(in);
+		else if (type == EDGE)
+			return readEdge(in, dag);
+		throw new IOException("Unknown object type " + type);
+	}
+
+	/**
+	 * Reads an edge written by {@link #writeEdge(DataOutput, DAGEdge)}. Each
+	 * object is read from its own record, so reading stops early if a node is
+	 * missing.
+	 *
+	 * @return The edge, or null if one of its DAG nodes is missing.
+	 */
+	public static DAGEdge readEdge(DataInput in, DirectedAcyclicGraph dag)
+			throws IOException {
+		int id = in.readInt();
+		int creatorID = in.readInt();
+		Node[] nodes = new Node[in.readInt()];
+		for (int i = 0; i < nodes.length; i++) {
+			if (in.readByte() == DAG_NODE)
+				nodes[i] = dag.getNodeByID(in.readInt());
+			else
+				nodes[i] = dag.findOrCreateNode(readString(in), null);
+			if (nodes[i] == null)
+				return null;
+		}
+		DAGEdge edge = new DAGEdge(id, null, nodes);
+		readProperties(in, edge, creatorID);
+		return edge;
+	}
+
+	/**
+	 * Reads a node written by {@link #writeNode(DataOutput, DAGNode)}.
+	 */
+	public static DAGNode readNode(DataInput in) throws IOException {
+		int id = in.readInt();
+		String name = readString(in);
+		int creatorID = in.readInt();
+		DAGNode node = new DAGNode(id, name, null);
+		readProperties(in, node, creatorID);
+		return node;
+	}
+
+	public static String readString(DataInput in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a node or edge, prefixed by its type.
+	 *
+	 * @param out
+	 *            The output to write to.
+	 * @param dagObj
+	 *            The node or edge to write.
+	 * @throws IOException
+	 *             If the object could not be written.
+	 */
+	public static void write(DataOutput out, DAGObject dagObj)
+			throws IOException {
+		if (dagObj instanceof DAGEdge) {
+			out.writeByte(EDGE);
+			writeEdge(out, (DAGEdge) dagObj);
+		} else {
+			out.writeByte(NODE);
+			writeNode(out, (DAGNode) dagObj);
+		}
+	}
+
+	public static void writeEdge(DataOutput out, DAGEdge edge)
+			throws IOException {
+		out.writeInt(edge.getID());
+		out.writeInt(edge.getCreatorID());
+		Node[] nodes = edge.getNodes();
+		out.writeInt(nodes.length);
+		for (Node n : nodes) {
+			if (n instanceof DAGNode) {
+				out.writeByte(DAG_NODE);
+				out.writeInt(((DAGNode) n).getID());
+			} else {
+				out.writeByte(OTHER_NODE);
+				writeString(out, n.getIdentifier(true));
+			}
+		}
+		writeProperties(out, edge);
+	}
+
+	public static void writeNode(DataOutput out, DAGNode node)
+			throws IOException {
+		out.writeInt(node.getID());
+		writeString(out, node.getName());
+		out.writeInt(node.getCreatorID());
+		writeProperties(out, node);
+	}
+
+	public static void writeString(DataOutput out, String str)
+			throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import util.collection.trove.TIndexedCollection;
+
+/**
+ * A consistent, read-only, point-in-time view of the nodes and edges of a DAG.
+ * Snapshots can be iterated without locking while the DAG continues to be
+ * modified. Note that only membership is captured: the properties of the
+ * snapshotted objects are shared with the live DAG.
+ *
+ * @author Sam Sarjant
+ */
+public class DAGSnapshot {
+	private final TIndexedCollection<DAGEdge> edges_;
+
+	private final TIndexedCollection<DAGNode> nodes_;
+
+	private final long time_;
+
+	public DAGSnapshot(TIndexedCollection<DAGNode> nodes,
+			TIndexedCollection<DAGEdge> edges) {
+		nodes_ = nodes;
+		edges_ = edges;
+		time_ = System.currentTimeMillis();
+	}
+
+	public DAGEdge getEdgeByID(int id) {
+		return edges_.get(id);
+	}
+
+	public TIndexedCollection<DAGEdge> getEdges() {
+		return edges_;
+	}
+
+	public DAGNode getNodeByID(int id) {
+		return nodes_.get(id);
+	}
+
+	public TIndexedCollection<DAGNode> getNodes() {
+		return nodes_;
+	}
+
+	/**
+	 * @return The time (in ms) the snapshot was taken.
+	 */
+	public long getTime() {
+		return time_;
+	}
+}
@@ -13,7 +13,6 @@ package graph.core;
 import gnu.trove.iterator.TIntObjectIterator;
 import graph.module.DAGModule;
 import graph.module.NodeAliasModule;
-import graph.module.NodeAliasModule;
 import graph.module.RelatedEdgeModule;
 
 import java.io.BufferedReader;
@@ -22,20 +21,40 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.regex.Matcher;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.SerializationException;
@@ -43,10 +62,13 @@ import org.apache.commons.lang3.StringUtils;
 
 import util.BooleanFlags;
 import util.FSTDAGObjectSerialiser;
+import util.FSTPrimitiveNodeSerialiser;
+import util.StripedLock;
 import util.UtilityMethods;
+import util.collection.IDSampler;
 import util.collection.IndexedCollection;
+import util.collection.trove.TArrayIndexedCollection;
 import util.collection.trove.TIndexedCollection;
-import util.collection.trove.TLockHashMapIndexedCollection;
 import util.serialisation.DefaultSerialisationMechanism;
 import util.serialisation.FSTSerialisationMechanism;
 import util.serialisation.SerialisationMechanism;
@@ -57,49 +79,158 @@ import util.serialisation.SerialisationMechanism;
  * @author Sam Sarjant
  */
 public class DirectedAcyclicGraph {
+	/** The command log, under the root directory. */
 	private static final String DAG_FILE = "commandLog.log";
 
+	/** The prefix of delta checkpoint directories. */
+	private static final String DELTA_PREFIX = "delta";
+
 	private static final String EDGE_FILE = "edges.dat";
 
 	private static final String EDGE_ID_FIELD = "edgeID";
 
+	private static final String EDGE_MAP_FILE = "edges.map";
+
 	private static final int MAX_OBJ_SERIALISATION = 5000000;
 
+	/** The maximum number of chunk files being written at once. */
+	private static final int MAX_PARALLEL_SAVES = 4;
+
+	/** The directory modules are saved to before a checkpoint completes. */
+	private static final String MODULE_STAGING_DIR = "checkpointModules";
+
 	private static final String NODE_FILE = "nodes.dat";
 
 	private static final String NODE_ID_FIELD = "nodeID";
 
+	private static final String NODE_MAP_FILE = "nodes.map";
+
 	private static final String NUM_EDGES_FIELD = "numEdges";
 
 	private static final String NUM_NODES_FIELD = "numNodes";
 
+	private static final String REMOVED_FILE = "removed";
+
+	/** The suffix of files being saved, until they are complete. */
+	private static final String TEMP_SUFFIX = ".tmp";
+
 	public static final File DEFAULT_ROOT = new File("dag");
 
 	public static final BooleanFlags edgeFlags_;
 
 	public static final String EPHEMERAL_MARK = "ephem";
 
+	public static final PropertyKey EPHEMERAL_KEY = PropertyKey
+			.get(EPHEMERAL_MARK);
+
 	public static final String GLOBALS_FILE = "dagDetails";
 
-	public static final File MODULE_FILE = new File("activeModules.config");
+	/** The most objects sampled by a single random sampling request. */
+	public static final int MAX_RANDOM_SAMPLES = 10000;
+
+	/** The modules used, under the root directory (see {@link #configFile}). */
+	public static final String MODULE_FILE = "activeModules.config";
 
-	public static final File DAG_CONFIG_FILE = new File("DAGconfig.config");
+	/** The DAG settings, under the root directory (see {@link #configFile}). */
+	public static final String DAG_CONFIG_FILE = "DAGconfig.config";
 
 	public static final BooleanFlags nodeFlags_;
 
 	public static final Pattern PRIMITIVE_PATTERN = Pattern
 			.compile("((?:-?[\\d][\\d.E]*)|\\S)\\)*");
 
-	public static DirectedAcyclicGraph selfRef_;
+	/** The graph each thread (and the threads it starts) works on. */
+	private static final InheritableThreadLocal<DirectedAcyclicGraph> current_ = new InheritableThreadLocal<>();
+
+	/** The first graph created, for threads not working on a graph. */
+	private static volatile DirectedAcyclicGraph default_;
+
+	/** The number of attempts made to sample a random object. */
+	private static final int MAX_SAMPLE_ATTEMPTS = 1000;
+
+	/** The number of stripes for node/edge creation locks. */
+	private static final int NUM_CREATE_STRIPES = 64;
+
+	private volatile boolean changedState_ = false;
+
+	/** The ID of the next edge. */
+	private final AtomicInteger edgeIDs_ = new AtomicInteger(1);
+
+	/** The ID of the next node. */
+	private final AtomicInteger nodeIDs_ = new AtomicInteger(1);
 
-	private boolean changedState_ = false;
+	/** Serialises creations of the same node name/edge nodes. */
+	private final StripedLock createLocks_ = new StripedLock(
+			NUM_CREATE_STRIPES);
+
+	/** Nodes created but not yet indexed by the modules, by name. */
+	private final ConcurrentHashMap<String, DAGNode> pendingNodes_ =
+			new ConcurrentHashMap<>();
+
+	/** Edges created but not yet indexed by the modules, by edge nodes. */
+	private final ConcurrentHashMap<List<Node>, DAGEdge> pendingEdges_ =
+			new ConcurrentHashMap<>();
 
 	private BufferedWriter dagOut_;
 
 	private Map<String, Integer> moduleMap_;
 
+	/** The objects changed since the last checkpoint. */
+	private volatile DAGChanges changes_ = new DAGChanges();
+
+	private final AtomicBoolean compacting_ = new AtomicBoolean();
+
+	/** Serialises checkpoints, without blocking writes. */
+	private final Lock checkpointLock_ = new ReentrantLock();
+
+	/** The stage of the running checkpoint, or null if none is running. */
+	private volatile String checkpointStage_;
+
+	private volatile long checkpointStart_;
+
+	/** The number of objects to write in the running checkpoint. */
+	private volatile long checkpointTotal_;
+
+	/** The number of objects written so far in the running checkpoint. */
+	private final AtomicLong checkpointWritten_ = new AtomicLong();
+
+	private volatile long lastCheckpointDuration_ = -1;
+
+	private volatile boolean lastCheckpointFull_;
+
+	private volatile long lastCheckpointTime_ = -1;
+
+	/**
+	 * The fraction of the DAG that may change before a full checkpoint is
+	 * written instead of a delta.
+	 */
+	private double deltaThreshold_ = 0.05;
+
+	/** The number of deltas that triggers a background compaction. */
+	private int maxDeltas_ = 8;
+
+	/** If full checkpoints are saved in the memory-mapped format. */
+	private boolean mappedSnapshots_ = false;
+
+	/** The write-ahead log, or null if not (yet) logging. */
+	private volatile WriteAheadLog wal_;
+
+	private boolean walEnabled_ = true;
+
+	private WriteAheadLog.SyncMode walSyncMode_ = WriteAheadLog.SyncMode.BATCH;
+
+	private long walSyncInterval_ = 100;
+
+	private int walSyncRecords_ = 1000;
+
+	/** The change queues of the asynchronous modules. */
+	private final List<ModuleEventQueue> moduleQueues_ = new CopyOnWriteArrayList<>();
+
 	private ArrayList<DAGModule<?>> modules_;
 
+	/** The modules notified of changes as they are made. */
+	private ArrayList<DAGModule<?>> syncModules_;
+
 	protected File edgeFile_;
 
 	protected final Lock edgeLock_;
@@ -114,6 +245,21 @@ public class DirectedAcyclicGraph {
 
 	protected final Random random_;
 
+	/** The IDs of the live edges, for random sampling. */
+	private final IDSampler edgeSampler_ = new IDSampler();
+
+	/** The largest edge arity seen, for degree-weighted sampling. */
+	private volatile int maxArity_;
+
+	/** The IDs of the live nodes, for random sampling. */
+	private final IDSampler nodeSampler_ = new IDSampler();
+
+	/**
+	 * Creations and removals share the read lock, while node removal (which
+	 * must see every edge using the node) and snapshots take the write lock.
+	 */
+	protected final ReadWriteLock structureLock_ = new ReentrantReadWriteLock();
+
 	public boolean noChecks_ = false;
 
 	public File rootDir_;
@@ -124,16 +270,16 @@ public class DirectedAcyclicGraph {
 		this(DEFAULT_ROOT, null, null);
 	}
 
-	@SuppressWarnings("unchecked")
 	public DirectedAcyclicGraph(File rootDir, File nodeFile, File edgeFile) {
 		startTime_ = System.currentTimeMillis();
 		System.out.print("Initialising... ");
 
 		// Read the config in
 		try {
-			DAG_CONFIG_FILE.createNewFile();
+			File configFile = configFile(rootDir, DAG_CONFIG_FILE);
+			configFile.createNewFile();
 			BufferedReader reader = new BufferedReader(new FileReader(
-					DAG_CONFIG_FILE));
+					configFile));
 			String line = null;
 			while ((line = reader.readLine()) != null) {
 				String[] split = line.split("=");
@@ -146,13 +292,18 @@ public class DirectedAcyclicGraph {
 
 		FSTSerialisationMechanism.conf.registerSerializer(DAGObject.class,
 				new FSTDAGObjectSerialiser(), true);
-		selfRef_ = this;
+		FSTSerialisationMechanism.conf.registerSerializer(
+				PrimitiveNode.class, new FSTPrimitiveNodeSerialiser(), false);
+		if (default_ == null)
+			default_ = this;
+		// Threads started while loading (and their objects) use this graph
+		DirectedAcyclicGraph previous = bind();
 
 		try {
 			int i = 0;
-			File dagFile = new File(DAG_FILE);
+			File dagFile = new File(rootDir, DAG_FILE);
 			while (dagFile.exists())
-				dagFile = new File(DAG_FILE + i++);
+				dagFile = new File(rootDir, DAG_FILE + i++);
 			dagOut_ = new BufferedWriter(new FileWriter(dagFile));
 		} catch (IOException e) {
 			System.err.println("Problem creating command out file.");
@@ -160,18 +311,27 @@ public class DirectedAcyclicGraph {
 		}
 
 		random_ = new Random();
-		nodes_ = (TIndexedCollection<DAGNode>) readDAGFile(rootDir, NODE_FILE);
-		nodeLock_ = new ReentrantLock();
-		edges_ = (TIndexedCollection<DAGEdge>) readDAGFile(rootDir, EDGE_FILE);
-		edgeLock_ = new ReentrantLock();
-		nodeFile_ = nodeFile;
-		edgeFile_ = edgeFile;
-
-		// Load the modules in
-		modules_ = new ArrayList<>();
-		moduleMap_ = new HashMap<>();
-		rootDir_ = rootDir;
-		readModules(rootDir);
+		ExecutorService loadPool = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		try {
+			readDAGFiles(rootDir, loadPool);
+			addSampleIDs(nodeSampler_, nodes_);
+			addSampleIDs(edgeSampler_, edges_);
+			nodeLock_ = new ReentrantLock();
+			edgeLock_ = new ReentrantLock();
+			nodeFile_ = nodeFile;
+			edgeFile_ = edgeFile;
+
+			// Load the modules in
+			modules_ = new ArrayList<>();
+			syncModules_ = new ArrayList<>();
+			moduleMap_ = new ConcurrentHashMap<>();
+			rootDir_ = rootDir;
+			readModules(rootDir, loadPool);
+		} finally {
+			loadPool.shutdown();
+			current_.set(previous);
+		}
 
 		System.out.println("Done!");
 	}
@@ -185,6 +345,303 @@ public class DirectedAcyclicGraph {
 	protected void readConfigLine(String variable, String value) {
 		if (variable.equalsIgnoreCase("noChecks"))
 			noChecks_ = value.equalsIgnoreCase("TRUE");
+		else if (variable.equalsIgnoreCase("deltaThreshold"))
+			deltaThreshold_ = Double.parseDouble(value);
+		else if (variable.equalsIgnoreCase("maxDeltas"))
+			maxDeltas_ = Integer.parseInt(value);
+		else if (variable.equalsIgnoreCase("snapshotFormat"))
+			mappedSnapshots_ = value.equalsIgnoreCase("mapped");
+		else if (variable.equalsIgnoreCase("writeAheadLog"))
+			walEnabled_ = value.equalsIgnoreCase("TRUE");
+		else if (variable.equalsIgnoreCase("walSync"))
+			walSyncMode_ = WriteAheadLog.SyncMode.valueOf(value.toUpperCase());
+		else if (variable.equalsIgnoreCase("walSyncInterval"))
+			walSyncInterval_ = Long.parseLong(value);
+		else if (variable.equalsIgnoreCase("walSyncRecords"))
+			walSyncRecords_ = Integer.parseInt(value);
+	}
+
+	/**
+	 * Saves a checkpoint of the DAG: either the full node and edge collections,
+	 * or a delta of only the objects changed since the last checkpoint if few
+	 * have changed. Writes are only blocked while the snapshot is cut and the
+	 * synchronous modules are captured; the snapshot and modules are then
+	 * serialised while writes continue. Checkpoints are serialised on the checkpoint lock.
+	 * 
+	 * Snapshots share node and edge objects with the DAG, so a property change
+	 * made after the cut may also be written. This is harmless, as the change
+	 * is also in the next change set and log segment.
+	 * 
+	 * @param full
+	 *            If a full checkpoint must be written.
+	 */
+	private void checkpoint(boolean full) {
+		// Serialised objects resolve IDs against the current graph
+		DirectedAcyclicGraph previous = bind();
+		checkpointLock_.lock();
+		try {
+			if (!full && clearIfUnchanged())
+				return;
+			checkpointStart_ = System.currentTimeMillis();
+			checkpointWritten_.set(0);
+			checkpointTotal_ = 0;
+			checkpointStage_ = "cutting snapshot";
+			full = writeCheckpoint(full);
+			lastCheckpointFull_ = full;
+			lastCheckpointTime_ = System.currentTimeMillis();
+			lastCheckpointDuration_ = lastCheckpointTime_ - checkpointStart_;
+		} finally {
+			checkpointStage_ = null;
+			checkpointLock_.unlock();
+			current_.set(previous);
+		}
+	}
+
+	/**
+	 * Clears the changed state if nothing has changed since the last
+	 * checkpoint, so repeated saves do not write empty checkpoints.
+	 * 
+	 * @return True if there is nothing to save.
+	 */
+	private boolean clearIfUnchanged() {
+		structureLock_.writeLock().lock();
+		try {
+			if (changes_.size() != 0 || changes_.isFullRequired()
+					|| changes_.isModulesChanged())
+				return false;
+			changedState_ = false;
+			return true;
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a checkpoint, updating the checkpoint stage as it goes.
+	 * 
+	 * @param full
+	 *            If a full checkpoint must be written.
+	 * @return True if a full checkpoint was written, false if a delta.
+	 */
+	private boolean writeCheckpoint(boolean full) {
+		// Save 'global' values
+		System.out.print("Please wait while saving state... ");
+		try {
+			((FSTSerialisationMechanism) SerialisationMechanism.FST
+					.getSerialiser()).reset();
+			FSTSerialisationMechanism.conf.registerSerializer(DAGObject.class,
+					new FSTDAGObjectSerialiser(), true);
+			FSTSerialisationMechanism.conf.registerSerializer(
+					PrimitiveNode.class, new FSTPrimitiveNodeSerialiser(),
+					false);
+			dagOut_.flush();
+		} catch (IOException e1) {
+			e1.printStackTrace();
+		}
+		// The checkpoint covers the log and changes up to the snapshot
+		DAGSnapshot snapshot;
+		DAGChanges changes;
+		int checkpoint = -1;
+		File staging = new File(rootDir_, MODULE_STAGING_DIR);
+		List<Future<Boolean>> moduleSaves;
+		List<Callable<Boolean>> capturedModules = new ArrayList<>();
+		structureLock_.writeLock().lock();
+		try {
+			snapshot = new DAGSnapshot(snapshotOf(nodes_), snapshotOf(edges_));
+			changes = changes_;
+			changes_ = new DAGChanges();
+			// Mutations set this after recording their change, so any
+			// setting it from here on are in the next change set
+			changedState_ = false;
+			if (wal_ != null)
+				checkpoint = wal_.rotate();
+			checkpointStage_ = "saving modules";
+			moduleSaves = saveModules(staging, capturedModules);
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
+		List<File> deltas = deltaFiles(rootDir_);
+		full |= changes.isFullRequired()
+				|| (collectionFiles(rootDir_, NODE_FILE).isEmpty() && !new File(
+						rootDir_, NODE_MAP_FILE).exists())
+				|| changes.size() > deltaThreshold_
+						* (snapshot.getNodes().size() + snapshot.getEdges()
+								.size());
+		checkpointTotal_ = (full) ? snapshot.getNodes().size()
+				+ snapshot.getEdges().size() : changes.getChangedNodes()
+				.size() + changes.getChangedEdges().size();
+
+		checkpointStage_ = "writing details";
+		boolean saved = true;
+		File globals = new File(rootDir_, GLOBALS_FILE);
+		try {
+			globals.createNewFile();
+			BufferedWriter out = new BufferedWriter(new FileWriter(globals));
+			writeDAGDetails(out, snapshot);
+			out.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+			saved = false;
+		}
+
+		// Save node and edge collections (or just the changes)
+		try {
+			ExecutorService savePool = Executors
+					.newFixedThreadPool(MAX_PARALLEL_SAVES);
+			try {
+				if (full && mappedSnapshots_) {
+					checkpointStage_ = "writing mapped nodes";
+					MappedDAGFile.write(snapshot.getNodes(), new File(
+							rootDir_, NODE_MAP_FILE));
+					checkpointWritten_.addAndGet(snapshot.getNodes().size());
+					checkpointStage_ = "writing mapped edges";
+					MappedDAGFile.write(snapshot.getEdges(), new File(
+							rootDir_, EDGE_MAP_FILE));
+					checkpointWritten_.addAndGet(snapshot.getEdges().size());
+					for (File file : collectionFiles(rootDir_, NODE_FILE))
+						file.delete();
+					for (File file : collectionFiles(rootDir_, EDGE_FILE))
+						file.delete();
+				} else if (full) {
+					checkpointStage_ = "writing nodes";
+					List<File> nodeFiles = saveDAGFile(snapshot.getNodes(),
+							rootDir_, NODE_FILE, MAX_OBJ_SERIALISATION,
+							savePool);
+					checkpointStage_ = "writing edges";
+					List<File> edgeFiles;
+					try {
+						edgeFiles = saveDAGFile(snapshot.getEdges(), rootDir_,
+								EDGE_FILE, MAX_OBJ_SERIALISATION, savePool);
+					} catch (IOException e) {
+						deleteFiles(nodeFiles);
+						throw e;
+					}
+					// Only replaced once both collections are fully written
+					checkpointStage_ = "replacing files";
+					replaceDAGFiles(rootDir_, NODE_FILE, nodeFiles);
+					replaceDAGFiles(rootDir_, EDGE_FILE, edgeFiles);
+					new File(rootDir_, NODE_MAP_FILE).delete();
+					new File(rootDir_, EDGE_MAP_FILE).delete();
+				} else if (changes.size() > 0) {
+					int number = (deltas.isEmpty()) ? 0 : deltaNumber(deltas
+							.get(deltas.size() - 1)) + 1;
+					checkpointStage_ = "writing delta " + number;
+					saveDelta(snapshot, changes, number, savePool);
+				}
+			} finally {
+				savePool.shutdown();
+			}
+		} catch (IOException e) {
+			System.err.println("Error serialising DAG.");
+			e.printStackTrace();
+			saved = false;
+		}
+		if (!saved) {
+			// Keep the changes for the next checkpoint
+			changes_.addAll(changes);
+			changedState_ = true;
+		} else if (full)
+			for (File delta : deltas)
+				deleteDirectory(delta);
+
+		// Only replace the modules once they match the saved nodes and edges
+		checkpointStage_ = "saving modules";
+		for (Callable<Boolean> captured : capturedModules) {
+			FutureTask<Boolean> save = new FutureTask<>(captured);
+			save.run();
+			moduleSaves.add(save);
+		}
+		for (Future<Boolean> save : moduleSaves) {
+			try {
+				saved &= save.get();
+			} catch (InterruptedException | ExecutionException e) {
+				e.printStackTrace();
+				saved = false;
+			}
+		}
+		try {
+			if (saved)
+				DAGModule.moveModuleFiles(staging, rootDir_);
+		} catch (IOException e) {
+			System.err.println("Error moving saved modules.");
+			e.printStackTrace();
+			saved = false;
+		}
+		deleteDirectory(staging);
+		if (checkpoint != -1 && saved)
+			wal_.deleteBefore(checkpoint);
+		else if (!saved) {
+			// Retry the modules at the next checkpoint
+			changes_.modulesChanged();
+			changedState_ = true;
+		}
+
+		System.out.println("Done!");
+		return full;
+	}
+
+	/**
+	 * Saves the modules as they are at a checkpoint cut, as they cannot be
+	 * saved while they are being changed. Must be called while the structure
+	 * write lock is held. Synchronous modules are captured immediately (see
+	 * {@link DAGModule#captureState(File)}), to be saved once the lock is
+	 * released, and asynchronous modules are saved on their own threads once
+	 * they reach the cut.
+	 * 
+	 * @param rootDir
+	 *            The root directory to save the modules under.
+	 * @param captured
+	 *            The list to add the captured synchronous module saves to.
+	 * @return The asynchronous module saves, to wait for.
+	 */
+	private List<Future<Boolean>> saveModules(final File rootDir,
+			List<Callable<Boolean>> captured) {
+		DAGModule.deleteModuleFiles(rootDir);
+		Map<DAGModule<?>, ModuleEventQueue> queues = new IdentityHashMap<>();
+		for (ModuleEventQueue queue : moduleQueues_)
+			queues.put(queue.getModule(), queue);
+		List<Future<Boolean>> saves = new ArrayList<>();
+		Set<DAGModule<?>> savedModules = Collections
+				.newSetFromMap(new IdentityHashMap<DAGModule<?>, Boolean>());
+		for (final DAGModule<?> module : modules_) {
+			if (!savedModules.add(module))
+				continue;
+			ModuleEventQueue queue = queues.get(module);
+			if (queue == null) {
+				captured.add(module.captureState(rootDir));
+				continue;
+			}
+			FutureTask<Boolean> save = new FutureTask<>(
+					new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return module.saveModule(rootDir);
+						}
+					});
+			queue.runAt(queue.fence(), save);
+			saves.add(save);
+		}
+		return saves;
+	}
+
+	/**
+	 * Runs a compaction on a background thread, unless one is running.
+	 */
+	private void compactInBackground() {
+		if (!compacting_.compareAndSet(false, true))
+			return;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				current_.set(DirectedAcyclicGraph.this);
+				try {
+					compact();
+				} finally {
+					compacting_.set(false);
+				}
+			}
+		}, "DAG compaction");
+		thread.start();
 	}
 
 	private Collection<String> compilePertinentProperties() {
@@ -196,6 +653,161 @@ public class DirectedAcyclicGraph {
 		return props;
 	}
 
+	/**
+	 * Gets a configuration file of a graph, under its root directory. A graph
+	 * without the file starts with a copy of the shared file in the working
+	 * directory, if there is one.
+	 * 
+	 * @param rootDir
+	 *            The root directory of the graph.
+	 * @param name
+	 *            The name of the configuration file.
+	 * @return The graph's configuration file (which may not exist).
+	 * @throws IOException
+	 *             If the shared file could not be copied.
+	 */
+	private static File configFile(File rootDir, String name)
+			throws IOException {
+		rootDir.mkdirs();
+		File file = new File(rootDir, name);
+		File shared = new File(name);
+		if (!file.exists() && shared.exists())
+			Files.copy(shared.toPath(), file.toPath());
+		return file;
+	}
+
+	/**
+	 * Gets the delta checkpoint directories.
+	 * 
+	 * @param rootDir
+	 *            The root directory.
+	 * @return The delta directories, in the order they were written.
+	 */
+	private List<File> deltaFiles(File rootDir) {
+		List<File> deltas = new ArrayList<>();
+		File[] files = rootDir.listFiles();
+		if (files == null)
+			return deltas;
+		for (File file : files)
+			if (file.isDirectory() && deltaNumber(file) != -1)
+				deltas.add(file);
+		Collections.sort(deltas, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Integer.compare(deltaNumber(o1), deltaNumber(o2));
+			}
+		});
+		return deltas;
+	}
+
+	/**
+	 * @return The number of a delta directory, or -1 if it is not one.
+	 */
+	private static int deltaNumber(File delta) {
+		String name = delta.getName();
+		if (!name.startsWith(DELTA_PREFIX))
+			return -1;
+		try {
+			return Integer.parseInt(name.substring(DELTA_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void deleteDirectory(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		dir.delete();
+	}
+
+	/**
+	 * Saves a delta checkpoint: the changed objects that are in the snapshot,
+	 * and the IDs of the removed objects that are not. The delta is written
+	 * to a temporary directory and then renamed, so a partially written delta
+	 * is never read.
+	 * 
+	 * @param snapshot
+	 *            The snapshot of the checkpoint.
+	 * @param changes
+	 *            The changes since the last checkpoint.
+	 * @param number
+	 *            The number of the delta.
+	 * @param pool
+	 *            The pool to serialise on.
+	 * @throws IOException
+	 *             If the delta could not be written.
+	 */
+	private void saveDelta(DAGSnapshot snapshot, DAGChanges changes,
+			int number, ExecutorService pool) throws IOException {
+		TIndexedCollection<DAGNode> nodes = new TArrayIndexedCollection<>();
+		for (int id : changes.getChangedNodes()) {
+			DAGNode node = snapshot.getNodeByID(id);
+			if (node != null)
+				nodes.add(node);
+		}
+		TIndexedCollection<DAGEdge> edges = new TArrayIndexedCollection<>();
+		for (int id : changes.getChangedEdges()) {
+			DAGEdge edge = snapshot.getEdgeByID(id);
+			if (edge != null)
+				edges.add(edge);
+		}
+
+		File tempDir = new File(rootDir_, DELTA_PREFIX + number
+				+ TEMP_SUFFIX);
+		deleteDirectory(tempDir);
+		tempDir.mkdirs();
+		replaceDAGFiles(tempDir, NODE_FILE,
+				saveDAGFile(nodes, tempDir, NODE_FILE, MAX_OBJ_SERIALISATION,
+						pool));
+		replaceDAGFiles(tempDir, EDGE_FILE,
+				saveDAGFile(edges, tempDir, EDGE_FILE, MAX_OBJ_SERIALISATION,
+						pool));
+		BufferedWriter out = new BufferedWriter(new FileWriter(new File(
+				tempDir, REMOVED_FILE)));
+		for (int id : changes.getRemovedNodes())
+			if (snapshot.getNodeByID(id) == null)
+				out.write("N " + id + "\n");
+		for (int id : changes.getRemovedEdges())
+			if (snapshot.getEdgeByID(id) == null)
+				out.write("E " + id + "\n");
+		out.close();
+
+		if (!tempDir.renameTo(new File(rootDir_, DELTA_PREFIX + number)))
+			throw new IOException("Could not rename delta " + tempDir);
+	}
+
+	/**
+	 * Reads the removed object IDs of a delta checkpoint.
+	 * 
+	 * @param delta
+	 *            The delta directory.
+	 * @param removedNodes
+	 *            The set to add the removed node IDs to.
+	 * @param removedEdges
+	 *            The set to add the removed edge IDs to.
+	 */
+	private void readDeltaRemovals(File delta, Collection<Integer> removedNodes,
+			Collection<Integer> removedEdges) {
+		File removed = new File(delta, REMOVED_FILE);
+		if (!removed.exists())
+			return;
+		try (BufferedReader in = new BufferedReader(new FileReader(removed))) {
+			String input = null;
+			while ((input = in.readLine()) != null) {
+				String[] split = input.split(" ");
+				if (split[0].equals("N"))
+					removedNodes.add(Integer.parseInt(split[1]));
+				else if (split[0].equals("E"))
+					removedEdges.add(Integer.parseInt(split[1]));
+			}
+		} catch (Exception e) {
+			System.err.println("Error reading removals of " + delta);
+			e.printStackTrace();
+		}
+	}
+
 	private void readDAGDetails(File rootDir) {
 		File details = new File(rootDir, GLOBALS_FILE);
 		try {
@@ -206,9 +818,9 @@ public class DirectedAcyclicGraph {
 					if (!input.startsWith("%")) {
 						String[] split = input.split("=");
 						if (split[0].equals(NODE_ID_FIELD))
-							DAGNode.idCounter_ = Integer.parseInt(split[1]);
+							nodeIDs_.set(Integer.parseInt(split[1]));
 						else if (split[0].equals(EDGE_ID_FIELD))
-							DAGEdge.idCounter_ = Integer.parseInt(split[1]);
+							edgeIDs_.set(Integer.parseInt(split[1]));
 					}
 				}
 				in.close();
@@ -218,66 +830,272 @@ public class DirectedAcyclicGraph {
 		}
 	}
 
-	private TIndexedCollection<? extends DAGObject> readDAGFile(File rootDir,
-			String collectionFile) {
-		TIndexedCollection<DAGObject> indexedCollection = null;
+	/**
+	 * Gets the files a collection is saved in: either a single file, or split
+	 * files numbered from 0.
+	 * 
+	 * @param rootDir
+	 *            The root directory.
+	 * @param collectionFile
+	 *            The collection file name.
+	 * @return The existing files, in order.
+	 */
+	private List<File> collectionFiles(File rootDir, String collectionFile) {
+		List<File> files = new ArrayList<>();
+		File serFile = new File(rootDir, collectionFile);
+		if (serFile.exists())
+			files.add(serFile);
+		else {
+			for (int n = 0; (serFile = new File(rootDir, collectionFile + n))
+					.exists(); n++)
+				files.add(serFile);
+		}
+		return files;
+	}
+
+	/**
+	 * Reads the node and edge collections, deserialising all of their files
+	 * concurrently. Edges refer to their nodes by ID, so edge files are read
+	 * with stand-in nodes that are resolved once all nodes are loaded. Any
+	 * delta checkpoints are applied over the loaded collections, in order.
+	 * 
+	 * @param rootDir
+	 *            The root directory to read from.
+	 * @param pool
+	 *            The pool to read on.
+	 */
+	private void readDAGFiles(File rootDir, ExecutorService pool) {
+		if (new File(rootDir, NODE_MAP_FILE).exists()) {
+			try {
+				readMappedFiles(rootDir);
+				return;
+			} catch (IOException e) {
+				System.err.println("Error mapping the DAG files.");
+				e.printStackTrace();
+			}
+		}
+
+		List<File> nodeFiles = collectionFiles(rootDir, NODE_FILE);
+		List<File> edgeFiles = collectionFiles(rootDir, EDGE_FILE);
+		final TArrayIndexedCollection<DAGNode> nodes = new TArrayIndexedCollection<>(
+				MAX_OBJ_SERIALISATION * Math.max(1, nodeFiles.size()));
+		final TArrayIndexedCollection<DAGEdge> edges = new TArrayIndexedCollection<>(
+				MAX_OBJ_SERIALISATION * Math.max(1, edgeFiles.size()));
+		if (!nodeFiles.isEmpty() || !edgeFiles.isEmpty())
+			System.out.println("Loading " + nodeFiles.size() + " node and "
+					+ edgeFiles.size() + " edge files...");
+
+		// Node files are queued first, so edge tasks waiting on the nodes
+		// never block them
+		final CountDownLatch nodesLoaded = new CountDownLatch(nodeFiles.size());
+		final CountDownLatch nodesReady = new CountDownLatch(1);
+		List<Future<?>> tasks = new ArrayList<>();
+		List<DAGNode> deltaNodes = new ArrayList<>();
+		List<DAGEdge> deltaEdges = new ArrayList<>();
+		Set<Integer> removedNodes = new HashSet<>();
+		Set<Integer> removedEdges = new HashSet<>();
+		FSTDAGObjectSerialiser.setNodePlaceholders(this, true);
+		try {
+			for (final File file : nodeFiles) {
+				tasks.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							DAGObject[] array = readCollectionFile(file);
+							if (array != null)
+								nodes.addAll(Arrays.copyOf(array,
+										array.length, DAGNode[].class));
+						} finally {
+							nodesLoaded.countDown();
+						}
+					}
+				}));
+			}
+			for (final File file : edgeFiles) {
+				tasks.add(pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						DAGObject[] array = readCollectionFile(file);
+						if (array == null)
+							return;
+						DAGEdge[] edgeArray = new DAGEdge[array.length];
+						try {
+							nodesReady.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						for (int i = 0; i < array.length; i++) {
+							edgeArray[i] = (DAGEdge) array[i];
+							edgeArray[i].resolveNodes(nodes);
+						}
+						edges.addAll(edgeArray);
+					}
+				}));
+			}
+
+			// Read the deltas while the base loads
+			try {
+				readDeltas(rootDir, deltaNodes, deltaEdges, removedNodes,
+						removedEdges);
+				nodesLoaded.await();
+				applyDelta(nodes, deltaNodes, removedNodes);
+			} finally {
+				nodesReady.countDown();
+			}
+			for (Future<?> task : tasks)
+				task.get();
+			for (DAGEdge edge : deltaEdges)
+				edge.resolveNodes(nodes);
+			applyDelta(edges, deltaEdges, removedEdges);
+		} catch (InterruptedException | ExecutionException e) {
+			System.err.println("Exception while loading the DAG.");
+			e.printStackTrace();
+		} finally {
+			FSTDAGObjectSerialiser.setNodePlaceholders(this, false);
+		}
+		nodes_ = nodes;
+		edges_ = edges;
+	}
+
+	/**
+	 * Maps the node and edge snapshot files, so objects are only decoded when
+	 * first used, then applies any delta checkpoints.
+	 * 
+	 * @param rootDir
+	 *            The root directory to read from.
+	 * @throws IOException
+	 *             If the files could not be mapped.
+	 */
+	private void readMappedFiles(File rootDir) throws IOException {
+		System.out.println("Mapping node and edge files...");
+		TIndexedCollection<DAGNode> nodes = new MappedIndexedCollection<>(
+				new MappedDAGFile(new File(rootDir, NODE_MAP_FILE)), this);
+		TIndexedCollection<DAGEdge> edges = new MappedIndexedCollection<>(
+				new MappedDAGFile(new File(rootDir, EDGE_MAP_FILE)), this);
+		nodes_ = nodes;
+		edges_ = edges;
+
+		List<DAGNode> deltaNodes = new ArrayList<>();
+		List<DAGEdge> deltaEdges = new ArrayList<>();
+		Set<Integer> removedNodes = new HashSet<>();
+		Set<Integer> removedEdges = new HashSet<>();
+		FSTDAGObjectSerialiser.setNodePlaceholders(this, true);
 		try {
-			File serFile = new File(rootDir, collectionFile);
-			if (serFile.exists()) {
-				indexedCollection = new TLockHashMapIndexedCollection<DAGObject>(
-						MAX_OBJ_SERIALISATION);
-				// Read it in
-				System.out.println("Loading " + collectionFile + "...");
-				Object deserialised = SerialisationMechanism.FST
-						.getSerialiser().deserialize(serFile);
-				if (deserialised instanceof DAGObject[]) {
-					DAGObject[] array = (DAGObject[]) deserialised;
+			readDeltas(rootDir, deltaNodes, deltaEdges, removedNodes,
+					removedEdges);
+		} finally {
+			FSTDAGObjectSerialiser.setNodePlaceholders(this, false);
+		}
+		applyDelta(nodes, deltaNodes, removedNodes);
+		for (DAGEdge edge : deltaEdges)
+			edge.resolveNodes(nodes);
+		applyDelta(edges, deltaEdges, removedEdges);
+	}
+
+	/**
+	 * Reads the changed objects and removed IDs of all delta checkpoints, in
+	 * order. Edges are read with stand-in nodes.
+	 */
+	private void readDeltas(File rootDir, List<DAGNode> deltaNodes,
+			List<DAGEdge> deltaEdges, Set<Integer> removedNodes,
+			Set<Integer> removedEdges) {
+		for (File delta : deltaFiles(rootDir)) {
+			System.out.println("Loading " + delta.getName() + "...");
+			for (File file : collectionFiles(delta, NODE_FILE)) {
+				DAGObject[] array = readCollectionFile(file);
+				if (array != null)
 					for (DAGObject obj : array)
-						indexedCollection.add(obj);
-				} else {
-					throw new SerializationException(
-							"Serialised object is not an array!");
-				}
-			} else {
-				serFile = new File(rootDir, collectionFile + "0");
-				if (serFile.exists()) {
-					// Find number of files
-					int n = 1;
-					while (new File(rootDir, collectionFile + n).exists())
-						n++;
-					indexedCollection = new TLockHashMapIndexedCollection<DAGObject>(
-							MAX_OBJ_SERIALISATION * n);
-					// Load and deserialise the files
-					System.out.println("Loading the " + n + " split "
-							+ collectionFile + "s...");
-					for (int i = 0; i < n; i++) {
-						serFile = new File(rootDir, collectionFile + i);
-						DAGObject[] array = (DAGObject[]) SerialisationMechanism.FST
-								.getSerialiser().deserialize(serFile);
-						for (DAGObject obj : array)
-							indexedCollection.add(obj);
-						System.out.println(collectionFile + i + " complete.");
-					}
-				} else
-					// TODO Might be able to squeeze memory here by swapping
-					// hashmap for array
-					indexedCollection = new TLockHashMapIndexedCollection<DAGObject>(
-							MAX_OBJ_SERIALISATION);
+						deltaNodes.add((DAGNode) obj);
+			}
+			for (File file : collectionFiles(delta, EDGE_FILE)) {
+				DAGObject[] array = readCollectionFile(file);
+				if (array != null)
+					for (DAGObject obj : array)
+						deltaEdges.add((DAGEdge) obj);
 			}
+			readDeltaRemovals(delta, removedNodes, removedEdges);
+		}
+	}
+
+	/**
+	 * Adds the IDs of a loaded collection to a sampler, without decoding any
+	 * mapped objects.
+	 */
+	private static void addSampleIDs(IDSampler sampler,
+			TIndexedCollection<? extends DAGObject> collection) {
+		if (collection instanceof MappedIndexedCollection) {
+			MappedIndexedCollection<?> mapped = (MappedIndexedCollection<?>) collection;
+			for (int id = mapped.nextID(0); id != -1; id = mapped
+					.nextID(id + 1))
+				sampler.add(id);
+		} else {
+			TIntObjectIterator<? extends DAGObject> iter = collection
+					.iterator();
+			for (int i = collection.size(); i-- > 0;) {
+				iter.advance();
+				sampler.add(iter.key());
+			}
+		}
+	}
+
+	/**
+	 * Raises an ID counter past an ID, if it is not already.
+	 */
+	private static void raiseCounter(AtomicInteger counter, int id) {
+		int next = counter.get();
+		while (next <= id && !counter.compareAndSet(next, id + 1))
+			next = counter.get();
+	}
+
+	/**
+	 * Applies the changes of the delta checkpoints to a collection. Later
+	 * deltas replace the objects of earlier ones.
+	 */
+	private static <T extends DAGObject> void applyDelta(
+			TIndexedCollection<T> collection, List<T> changed,
+			Set<Integer> removed) {
+		for (T obj : changed)
+			collection.add(obj);
+		for (int id : removed) {
+			T obj = collection.get(id);
+			if (obj != null)
+				collection.remove(obj);
+		}
+	}
+
+	/**
+	 * Deserialises a single collection file.
+	 * 
+	 * @param serFile
+	 *            The file to read.
+	 * @return The objects in the file, or null if it could not be read.
+	 */
+	private DAGObject[] readCollectionFile(File serFile) {
+		try {
+			Object deserialised = SerialisationMechanism.FST.getSerialiser()
+					.deserialize(serFile);
+			if (deserialised instanceof DAGObject[]) {
+				System.out.println(serFile.getName() + " complete.");
+				return (DAGObject[]) deserialised;
+			}
+			throw new SerializationException(
+					"Serialised object is not an array!");
 		} catch (Exception e) {
 			System.err.println("Exception while deserialising '"
-					+ collectionFile + "'. Creating new collection.");
+					+ serFile.getName() + "'. Skipping file.");
+			e.printStackTrace();
 		}
-		return indexedCollection;
+		return null;
 	}
 
-	private void readModules(File rootDir) {
+	private void readModules(File rootDir, ExecutorService pool) {
 		Collection<String> modules = new ArrayList<>();
 		try {
-			if (!MODULE_FILE.exists()) {
-				MODULE_FILE.createNewFile();
+			File moduleFile = configFile(rootDir, MODULE_FILE);
+			if (!moduleFile.exists()) {
+				moduleFile.createNewFile();
 				BufferedWriter out = new BufferedWriter(new FileWriter(
-						MODULE_FILE));
+						moduleFile));
 				out.write("% Put the utilised modules here. One per line, in the form <classpath>\n");
 				out.write("% E.g.:\n");
 				out.write("% graph.module.RelatedEdgeModule");
@@ -286,7 +1104,7 @@ public class DirectedAcyclicGraph {
 			}
 
 			BufferedReader reader = new BufferedReader(new FileReader(
-					MODULE_FILE));
+					moduleFile));
 			String input = null;
 			while ((input = reader.readLine()) != null) {
 				if (input.startsWith("%"))
@@ -298,12 +1116,22 @@ public class DirectedAcyclicGraph {
 			e.printStackTrace();
 		}
 
-		for (String module : modules) {
+		// Deserialise the modules concurrently, but add them in order
+		List<Future<DAGModule<?>>> loaded = new ArrayList<>();
+		for (final String module : modules) {
 			System.out.println("Loading " + module + " module...");
+			loaded.add(pool.submit(new Callable<DAGModule<?>>() {
+				@Override
+				public DAGModule<?> call() throws Exception {
+					return DAGModule.loadCreateModule(rootDir_,
+							Class.forName(module));
+				}
+			}));
+		}
+		int i = 0;
+		for (String module : modules) {
 			try {
-				DAGModule<?> dagModule = DAGModule.loadCreateModule(rootDir_,
-						Class.forName(module));
-				addModule(dagModule);
+				addModule(loaded.get(i++).get());
 			} catch (Exception e) {
 				System.err.println("Error loading " + module);
 				e.printStackTrace();
@@ -313,6 +1141,27 @@ public class DirectedAcyclicGraph {
 			module.setDAG(this);
 	}
 
+	/**
+	 * Replays the mutations logged since the last checkpoint, then opens the
+	 * write-ahead log for further mutations.
+	 */
+	private void replayLog() {
+		if (!walEnabled_ || wal_ != null)
+			return;
+		WriteAheadLog wal = new WriteAheadLog(rootDir_, walSyncMode_,
+				walSyncRecords_, walSyncInterval_);
+		System.out.print("Replaying write-ahead log... ");
+		int count = wal.replay(this);
+		System.out.println(count + " records replayed.");
+		try {
+			wal.open();
+			wal_ = wal;
+		} catch (IOException e) {
+			System.err.println("Could not open the write-ahead log.");
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Reads a plain text file of nodes/edges and creates new nodes/edges for
 	 * every item (including triggering module-based operations).
@@ -327,102 +1176,143 @@ public class DirectedAcyclicGraph {
 			throws IOException {
 		System.out.println("Reading in " + ((isEdge) ? "edges" : "nodes")
 				+ "...");
-		// Total lines
-		LineNumberReader lnr = new LineNumberReader(new FileReader(filename));
-		lnr.skip(Long.MAX_VALUE);
-		int numLines = lnr.getLineNumber();
-		float onePercent = numLines * 0.01f;
-		int percent = 1;
-		lnr.close();
-
-		BufferedReader reader = new BufferedReader(new FileReader(filename));
-
-		String columnProps = reader.readLine();
-		String[] props = columnProps.split("\\t");
-		int lineNum = 1;
-		// Read every line
-		String input = null;
-		while ((input = reader.readLine()) != null) {
-			try {
-				lineNum++;
-				String[] split = UtilityMethods.splitToArray(input, '\t');
-				if (split.length <= 1) {
-					System.err.println("Error splitting input (" + lineNum
-							+ ") " + input);
-					continue;
-				}
-
-				DAGObject dagObj = parseDAGObject(split[0], isEdge);
-				if (dagObj == null) {
-					System.err.println("(" + lineNum + ") " + input);
-					continue;
-				}
-
-				// Adding props
-				for (int i = 1; i < split.length; i++) {
-					if (!split[i].isEmpty()) {
-						addProperty(dagObj, props[i], split[i]);
-					}
-				}
-
-				// Status update
-				if (lineNum >= percent * onePercent) {
-					if ((percent % 10) == 0)
-						System.out.print(percent + "%");
-					else
-						System.out.print(".");
-					percent++;
-				}
-			} catch (Exception e) {
-				System.err.println(lineNum + "(ERROR): " + input);
-				e.printStackTrace();
-				System.exit(1);
-			}
-		}
-
-		System.out.println();
-		reader.close();
+		PlainTextLoader loader = new PlainTextLoader(this, isEdge, Runtime
+				.getRuntime().availableProcessors());
+		int numLoaded = loader.load(filename);
+		System.out.println("Loaded " + numLoaded + " lines.");
+		if (loader.getNumRejects() > 0)
+			System.err.println(loader.getNumRejects()
+					+ " lines rejected. See " + loader.getRejectFile());
 	}
 
-	private void saveDAGFile(
+	/**
+	 * Saves a collection as one serialised array (or split arrays of at most
+	 * maxNumObjects). The collection is streamed into chunk buffers which are
+	 * serialised concurrently, with at most {@link #MAX_PARALLEL_SAVES} chunks
+	 * held at a time. Each chunk is written to a temporary file, which is not
+	 * read until it is renamed into place by
+	 * {@link #replaceDAGFiles(File, String, List)}.
+	 * 
+	 * @param collection
+	 *            The collection of DAG objects to save (should not change
+	 *            while saving, e.g. a snapshot).
+	 * @param rootDir
+	 *            The root directory to save into.
+	 * @param collectionFile
+	 *            The file to save under.
+	 * @param maxNumObjects
+	 *            The maximum number of objects per file.
+	 * @param pool
+	 *            The pool to serialise chunks on.
+	 * @return The temporary files written, in order.
+	 * @throws IOException
+	 *             If any chunk could not be written. No temporary files are
+	 *             left behind.
+	 */
+	private List<File> saveDAGFile(
 			TIndexedCollection<? extends DAGObject> collection, File rootDir,
-			String collectionFile, int maxNumObjects) throws IOException {
-		byte serialisationType = (collectionFile.equals(EDGE_FILE)) ? FSTDAGObjectSerialiser.NODES
+			String collectionFile, int maxNumObjects, ExecutorService pool)
+			throws IOException {
+		final byte serialisationType = (collectionFile.equals(EDGE_FILE)) ? FSTDAGObjectSerialiser.NODES
 				: DefaultSerialisationMechanism.NORMAL;
 
 		// Splitting the file if necessary
 		int size = collection.size();
 		boolean isSplitting = size > maxNumObjects;
-		// TODO Alter this to an iterative solution - less memory usage.
-		DAGObject[] array = Arrays.copyOf(collection.toArray(), size,
-				DAGObject[].class);
-		for (int i = 0; i < size; i += maxNumObjects) {
-			Object[] subarray = null;
-			File serFile = null;
-			if (isSplitting) {
-				int arraySize = Math.min(maxNumObjects, size - i);
-				subarray = new DAGObject[arraySize];
-				System.arraycopy(array, i, subarray, 0, arraySize);
-				serFile = new File(rootDir, collectionFile
-						+ (i / maxNumObjects));
-			} else {
-				subarray = array;
-				serFile = new File(rootDir, collectionFile);
+		TIntObjectIterator<? extends DAGObject> iter = collection.iterator();
+		Deque<Future<Void>> pending = new ArrayDeque<>();
+		List<File> tempFiles = new ArrayList<>();
+		try {
+			for (int i = 0; i < size || tempFiles.isEmpty(); i +=
+					maxNumObjects) {
+				// Bound the number of chunks held in memory
+				if (pending.size() >= MAX_PARALLEL_SAVES)
+					pending.poll().get();
+
+				int chunkSize = Math.max(0, Math.min(maxNumObjects, size - i));
+				DAGObject[] buffer = new DAGObject[chunkSize];
+				int filled = 0;
+				while (filled < chunkSize && iter.hasNext()) {
+					iter.advance();
+					buffer[filled++] = iter.value();
+				}
+				final Object[] chunk = (filled == chunkSize) ? buffer : Arrays
+						.copyOf(buffer, filled);
+
+				String name = (isSplitting) ? collectionFile
+						+ tempFiles.size() : collectionFile;
+				final File tempFile = new File(rootDir, name + TEMP_SUFFIX);
+				tempFiles.add(tempFile);
+				pending.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						// Write the chunk
+						tempFile.getParentFile().mkdirs();
+						tempFile.createNewFile();
+						SerialisationMechanism.FST.getSerialiser().serialize(
+								chunk, tempFile, serialisationType);
+						checkpointWritten_.addAndGet(chunk.length);
+						return null;
+					}
+				}));
 			}
+			while (!pending.isEmpty())
+				pending.poll().get();
+		} catch (InterruptedException | ExecutionException e) {
+			// Let the other chunks finish before removing their files
+			for (Future<Void> chunk : pending) {
+				try {
+					chunk.get();
+				} catch (InterruptedException | ExecutionException e2) {
+				}
+			}
+			deleteFiles(tempFiles);
+			throw new IOException("Error saving " + collectionFile, e);
+		}
+		return tempFiles;
+	}
 
-			// Write the subarray
-			serFile.getParentFile().mkdirs();
-			serFile.createNewFile();
-			try {
-				SerialisationMechanism.FST.getSerialiser().serialize(subarray,
-						serFile, serialisationType);
-			} catch (Exception e) {
-				e.printStackTrace();
+	/**
+	 * Renames the temporary files of a saved collection into place, then
+	 * removes the files left over from previous (larger or differently split)
+	 * saves.
+	 * 
+	 * @param rootDir
+	 *            The root directory the collection was saved into.
+	 * @param collectionFile
+	 *            The file the collection was saved under.
+	 * @param tempFiles
+	 *            The temporary files returned by
+	 *            {@link #saveDAGFile(TIndexedCollection, File, String, int, ExecutorService)}
+	 *            .
+	 * @throws IOException
+	 *             If a file could not be renamed.
+	 */
+	private static void replaceDAGFiles(File rootDir, String collectionFile,
+			List<File> tempFiles) throws IOException {
+		for (File temp : tempFiles) {
+			String name = temp.getName();
+			File file = new File(rootDir, name.substring(0, name.length()
+					- TEMP_SUFFIX.length()));
+			if (!temp.renameTo(file)) {
+				file.delete();
+				if (!temp.renameTo(file))
+					throw new IOException("Could not rename " + temp);
 			}
 		}
 
+		boolean isSplitting = !tempFiles.get(0).getName()
+				.equals(collectionFile + TEMP_SUFFIX);
 		if (isSplitting)
 			new File(rootDir, collectionFile).delete();
+		for (int n = (isSplitting) ? tempFiles.size() : 0; new File(rootDir,
+				collectionFile + n).exists(); n++)
+			new File(rootDir, collectionFile + n).delete();
+	}
+
+	private static void deleteFiles(List<File> files) {
+		for (File file : files)
+			file.delete();
 	}
 
 	/**
@@ -504,33 +1394,41 @@ public class DirectedAcyclicGraph {
 		tempFile.renameTo(txtFile);
 	}
 
-	private void writeDAGDetails(BufferedWriter out) throws IOException {
+	private void writeDAGDetails(BufferedWriter out, DAGSnapshot snapshot)
+			throws IOException {
 		out.write("% Do not change the contents of this file "
 				+ "unless you know what you're doing!\n");
-		out.write(NUM_NODES_FIELD + "=" + nodes_.size() + "\n");
-		out.write(NODE_ID_FIELD + "=" + DAGNode.idCounter_ + "\n");
-		out.write(NUM_EDGES_FIELD + "=" + edges_.size() + "\n");
-		out.write(EDGE_ID_FIELD + "=" + DAGEdge.idCounter_ + "\n");
+		out.write(NUM_NODES_FIELD + "=" + snapshot.getNodes().size() + "\n");
+		out.write(NODE_ID_FIELD + "=" + nodeIDs_.get() + "\n");
+		out.write(NUM_EDGES_FIELD + "=" + snapshot.getEdges().size() + "\n");
+		out.write(EDGE_ID_FIELD + "=" + edgeIDs_.get() + "\n");
 	}
 
 	protected synchronized void addModule(DAGModule<?> module) {
 		modules_.add(module);
+		if (module.isAsynchronous())
+			moduleQueues_.add(new ModuleEventQueue(module));
+		else
+			syncModules_.add(module);
 		moduleMap_.put(module.getClass().getCanonicalName(),
 				modules_.indexOf(module));
 	}
 
-	protected void exportAsEdges(BufferedWriter out) throws IOException {
-		TIntObjectIterator<DAGEdge> iter = edges_.iterator();
-		for (int i = edges_.size(); i-- > 0;) {
+	protected void exportAsEdges(BufferedWriter out, DAGSnapshot snapshot)
+			throws IOException {
+		TIndexedCollection<DAGEdge> edges = snapshot.getEdges();
+		TIntObjectIterator<DAGEdge> iter = edges.iterator();
+		for (int i = edges.size(); i-- > 0;) {
 			iter.advance();
 			out.write(iter.value().getIdentifier(true) + "\n");
 		}
 	}
 
-	protected void exportToCSV(BufferedWriter out, DAGExportFormat format)
-			throws IOException {
-		TIntObjectIterator<DAGEdge> iter = edges_.iterator();
-		for (int i = edges_.size(); i-- > 0;) {
+	protected void exportToCSV(BufferedWriter out, DAGExportFormat format,
+			DAGSnapshot snapshot) throws IOException {
+		TIndexedCollection<DAGEdge> edges = snapshot.getEdges();
+		TIntObjectIterator<DAGEdge> iter = edges.iterator();
+		for (int i = edges.size(); i-- > 0;) {
 			iter.advance();
 			Node[] nodes = iter.value().getNodes();
 			for (Node n : nodes) {
@@ -541,11 +1439,13 @@ public class DirectedAcyclicGraph {
 		}
 	}
 
-	protected void exportToDAG(BufferedWriter out) throws IOException {
+	protected void exportToDAG(BufferedWriter out, DAGSnapshot snapshot)
+			throws IOException {
 		Collection<String> pertinentProperties = compilePertinentProperties();
 
-		TIntObjectIterator<DAGNode> nodeIter = nodes_.iterator();
-		for (int j = nodes_.size(); j-- > 0;) {
+		TIndexedCollection<DAGNode> nodes = snapshot.getNodes();
+		TIntObjectIterator<DAGNode> nodeIter = nodes.iterator();
+		for (int j = nodes.size(); j-- > 0;) {
 			nodeIter.advance();
 			DAGNode n = nodeIter.value();
 			out.write("$0$=addnode " + n.getIdentifier(true) + "\n");
@@ -556,8 +1456,9 @@ public class DirectedAcyclicGraph {
 							+ props[i + 1] + "\\n|\n");
 			}
 		}
-		TIntObjectIterator<DAGEdge> edgeIter = edges_.iterator();
-		for (int j = edges_.size(); j-- > 0;) {
+		TIndexedCollection<DAGEdge> edges = snapshot.getEdges();
+		TIntObjectIterator<DAGEdge> edgeIter = edges.iterator();
+		for (int j = edges.size(); j-- > 0;) {
 			edgeIter.advance();
 			DAGEdge e = edgeIter.value();
 			out.write("$0$=addedge " + e.getIdentifier(true) + "\n");
@@ -570,8 +1471,38 @@ public class DirectedAcyclicGraph {
 		}
 	}
 
-	protected void initialiseInternal() {
+	/**
+	 * Snapshots a collection, copying it if it does not support snapshots.
+	 * Must be called while holding the structure write lock.
+	 */
+	private <T extends DAGObject> TIndexedCollection<T> snapshotOf(
+			TIndexedCollection<T> collection) {
+		if (collection instanceof TArrayIndexedCollection)
+			return ((TArrayIndexedCollection<T>) collection).snapshot();
+		if (collection instanceof MappedIndexedCollection)
+			return ((MappedIndexedCollection<T>) collection).snapshot();
+		TIndexedCollection<T> copy = new TArrayIndexedCollection<>(
+				collection.size());
+		TIntObjectIterator<T> iter = collection.iterator();
+		for (int i = collection.size(); i-- > 0;) {
+			iter.advance();
+			copy.add(iter.value());
+		}
+		return copy;
+	}
+
+	/**
+	 * Loads the saved DAG, checks the modules against it and replays the
+	 * write-ahead log, then reads any plain text node/edge files.
+	 * 
+	 * @return True if any module changed.
+	 */
+	protected boolean initialiseInternal() {
 		readDAGDetails(rootDir_);
+		// Checked before the log is replayed over them, as a new or empty
+		// module partly filled by the replay would look loaded
+		boolean modulesChanged = reloadModules(false);
+		replayLog();
 		if (nodeFile_ != null) {
 			// Read in node/edge file
 			try {
@@ -592,6 +1523,56 @@ public class DirectedAcyclicGraph {
 				System.exit(1);
 			}
 		}
+		return modulesChanged;
+	}
+
+	/**
+	 * Replaces the nodes and edges with renumbered ones (see
+	 * {@link DAGCompactor}). The modules index the old IDs, so they are
+	 * dropped and their saved files deleted, to be rebuilt when the DAG is
+	 * next loaded. Modules with configuration of their own are saved again
+	 * with only that configuration (see
+	 * {@link DAGModule#clearForRenumbering()}). The next checkpoint is full.
+	 * 
+	 * @param nodes
+	 *            The renumbered nodes.
+	 * @param edges
+	 *            The renumbered edges.
+	 */
+	synchronized void replaceRenumbered(TIndexedCollection<DAGNode> nodes,
+			TIndexedCollection<DAGEdge> edges) {
+		awaitModules();
+		for (ModuleEventQueue queue : moduleQueues_)
+			queue.close();
+		structureLock_.writeLock().lock();
+		try {
+			nodes_ = nodes;
+			edges_ = edges;
+			nodeSampler_.clear();
+			edgeSampler_.clear();
+			addSampleIDs(nodeSampler_, nodes);
+			addSampleIDs(edgeSampler_, edges);
+			nodeIDs_.set(nodes.size() + 1);
+			edgeIDs_.set(edges.size() + 1);
+			changes_.requireFull();
+			changedState_ = true;
+
+			// Keep the configuration of modules that cannot be rebuilt
+			Set<DAGModule<?>> kept = Collections
+					.newSetFromMap(new IdentityHashMap<DAGModule<?>, Boolean>());
+			for (DAGModule<?> module : modules_)
+				if (!kept.contains(module) && module.clearForRenumbering())
+					kept.add(module);
+			modules_.clear();
+			syncModules_.clear();
+			moduleQueues_.clear();
+			moduleMap_.clear();
+			DAGModule.deleteModuleFiles(rootDir_);
+			for (DAGModule<?> module : kept)
+				module.saveModule(rootDir_);
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
 	}
 
 	protected SortedSet<DAGEdge> orderedReassertables() {
@@ -603,51 +1584,353 @@ public class DirectedAcyclicGraph {
 		return nodeStr;
 	}
 
+	/**
+	 * Finds or creates a batch of edges in one operation. Edges are
+	 * deduplicated within the batch, new edges are given a contiguous block of
+	 * IDs, and each module is notified once with all of the new edges it
+	 * supports. The batch is applied atomically with respect to other writers.
+	 * 
+	 * @param edgeNodes
+	 *            The nodes of each edge.
+	 * @param creator
+	 *            The creator of the edges (can be null).
+	 * @param ephemeral
+	 *            If new edges should be created as ephemeral.
+	 * @return The found/created edge (or ErrorEdge) for each element of the
+	 *         batch, in order.
+	 */
+	public Edge[] addEdges(List<Node[]> edgeNodes, Node creator,
+			boolean ephemeral) {
+		DirectedAcyclicGraph previous = bind();
+		try {
+			return addEdgesInternal(edgeNodes, creator, ephemeral);
+		} finally {
+			current_.set(previous);
+		}
+	}
+
+	private Edge[] addEdgesInternal(List<Node[]> edgeNodes, Node creator,
+			boolean ephemeral) {
+		Edge[] results = new Edge[edgeNodes.size()];
+		int[] duplicateOf = new int[results.length];
+		Map<DAGEdge, DAGModule<?>> rejected = null;
+		List<DAGEdge> created = null;
+		WriteAheadLog wal = null;
+		long record = 0;
+		structureLock_.writeLock().lock();
+		try {
+			// Resolve existing edges and duplicates
+			Map<List<Node>, Integer> batchIndex = new HashMap<>();
+			List<Integer> pending = new ArrayList<>();
+			for (int i = 0; i < results.length; i++) {
+				Node[] nodes = edgeNodes.get(i);
+				List<Node> key = Arrays.asList(nodes);
+				Integer first = batchIndex.get(key);
+				if (first != null) {
+					duplicateOf[i] = first;
+					continue;
+				}
+				batchIndex.put(key, i);
+				duplicateOf[i] = -1;
+				results[i] = findEdge(nodes);
+				if (results[i] == null) {
+					results[i] = checkNodesExist(nodes);
+					if (results[i] == null)
+						pending.add(i);
+				}
+			}
+
+			// Create the new edges
+			int id = requestEdgeIDs(pending.size());
+			created = new ArrayList<>(pending.size());
+			for (int i : pending) {
+				DAGEdge edge = new DAGEdge(id++, creator, edgeNodes.get(i));
+				edges_.add(edge);
+				addSampled(edge);
+				created.add(edge);
+				results[i] = edge;
+			}
+			if (!created.isEmpty()) {
+				if (!ephemeral)
+					rejected = notifyAddEdges(created);
+				List<DAGEdge> accepted = new ArrayList<>(created.size());
+				for (DAGEdge edge : created) {
+					if (rejected != null && rejected.containsKey(edge))
+						continue;
+					if (!ephemeral)
+						queueModuleEvent(ModuleEventQueue.EventType.ADD_EDGE,
+								edge, null, null);
+					changes_.changed(edge);
+					accepted.add(edge);
+				}
+				// Written as one run, the sync is waited on once unlocked
+				wal = wal_;
+				if (wal != null)
+					record = wal.writeAddEdges(accepted);
+				changedState_ = true;
+			}
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
+		if (wal != null)
+			wal.awaitSync(record);
+
+		// Marking and removal take the graph monitor, so never under the lock
+		if (ephemeral && created != null)
+			for (DAGEdge edge : created)
+				addProperty(edge, EPHEMERAL_MARK, "T");
+		for (int i = 0; i < results.length; i++) {
+			if (duplicateOf[i] != -1)
+				results[i] = results[duplicateOf[i]];
+			else if (rejected != null && rejected.containsKey(results[i])) {
+				DAGEdge edge = (DAGEdge) results[i];
+				removeEdge(edge);
+				results[i] = new ModuleRejectedErrorEdge(edge,
+						rejected.get(edge));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Finds or creates a batch of named nodes in one operation. Names are
+	 * deduplicated within the batch, new nodes are given a contiguous block of
+	 * IDs, and each module is notified once with all of the new nodes it
+	 * supports. The batch is applied atomically with respect to other writers.
+	 * 
+	 * @param nodeNames
+	 *            The names of the nodes.
+	 * @param creator
+	 *            The creator of the nodes (can be null).
+	 * @param ephemeral
+	 *            If new nodes should be created as ephemeral.
+	 * @return The found/created node for each name, in order, or null for
+	 *         invalid names.
+	 */
+	public DAGNode[] addNodes(List<String> nodeNames, Node creator,
+			boolean ephemeral) {
+		DirectedAcyclicGraph previous = bind();
+		try {
+			return addNodesInternal(nodeNames, creator, ephemeral);
+		} finally {
+			current_.set(previous);
+		}
+	}
+
+	private DAGNode[] addNodesInternal(List<String> nodeNames, Node creator,
+			boolean ephemeral) {
+		DAGNode[] results = new DAGNode[nodeNames.size()];
+		List<DAGNode> created = null;
+		WriteAheadLog wal = null;
+		long record = 0;
+		structureLock_.writeLock().lock();
+		try {
+			// Resolve existing nodes and duplicates
+			Map<String, DAGNode> batchNodes = new HashMap<>();
+			List<String> pending = new ArrayList<>();
+			for (String name : nodeNames) {
+				if (batchNodes.containsKey(name))
+					continue;
+				DAGNode node = null;
+				if (DAGNode.isValidName(name)) {
+					node = findDAGNode(name);
+					if (node == null)
+						pending.add(name);
+				}
+				batchNodes.put(name, node);
+			}
+
+			// Create the new nodes
+			int id = requestNodeIDs(pending.size());
+			created = new ArrayList<>(pending.size());
+			for (String name : pending) {
+				DAGNode node = new DAGNode(id++, name, creator);
+				nodes_.add(node);
+				nodeSampler_.add(node.getID());
+				created.add(node);
+				batchNodes.put(name, node);
+			}
+			for (int i = 0; i < results.length; i++)
+				results[i] = batchNodes.get(nodeNames.get(i));
+
+			if (!created.isEmpty()) {
+				for (DAGModule<?> module : syncModules_) {
+					List<DAGNode> supported = new ArrayList<>(created.size());
+					for (DAGNode node : created)
+						if (module.supportsNode(node))
+							supported.add(node);
+					if (!supported.isEmpty())
+						module.addNodes(supported);
+				}
+				for (DAGNode node : created) {
+					queueModuleEvent(ModuleEventQueue.EventType.ADD_NODE,
+							node, null, null);
+					changes_.changed(node);
+				}
+				// Written as one run, the sync is waited on once unlocked
+				wal = wal_;
+				if (wal != null)
+					record = wal.writeAddNodes(created);
+				changedState_ = true;
+			}
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
+		if (wal != null)
+			wal.awaitSync(record);
+
+		// Marking takes the graph monitor, so never under the lock
+		if (ephemeral)
+			for (DAGNode node : created)
+				addProperty(node, EPHEMERAL_MARK, "T");
+		return results;
+	}
+
 	public synchronized void addProperty(DAGObject dagObj, String key,
 			String value) {
-		changedState_ = true;
-		dagObj.put(key, value);
-		if (dagObj instanceof DAGNode)
-			nodes_.add((DAGNode) dagObj);
-		else if (dagObj instanceof DAGEdge)
-			edges_.add((DAGEdge) dagObj);
-
-		for (DAGModule<?> module : modules_) {
-			if ((dagObj instanceof DAGEdge && module
-					.supportsEdge((DAGEdge) dagObj))
-					|| (dagObj instanceof DAGNode && module
-							.supportsNode((DAGNode) dagObj)))
-				module.addProperty(dagObj, key, value);
+		// Excluded from checkpoint cuts
+		structureLock_.readLock().lock();
+		try {
+			dagObj.put(key, value);
+			changes_.changed(dagObj);
+			changedState_ = true;
+			if (wal_ != null)
+				wal_.logAddProperty(dagObj, key, value);
+			if (dagObj instanceof DAGNode)
+				nodes_.add((DAGNode) dagObj);
+			else if (dagObj instanceof DAGEdge)
+				edges_.add((DAGEdge) dagObj);
+			queueModuleEvent(ModuleEventQueue.EventType.ADD_PROPERTY, dagObj,
+					key, value);
+			for (DAGModule<?> module : syncModules_) {
+				if ((dagObj instanceof DAGEdge && module
+						.supportsEdge((DAGEdge) dagObj))
+						|| (dagObj instanceof DAGNode && module
+								.supportsNode((DAGNode) dagObj)))
+					module.addProperty(dagObj, key, value);
+			}
+		} finally {
+			structureLock_.readLock().unlock();
 		}
 	}
 
 	public void clear() {
-		changedState_ = true;
-		nodes_.clear();
-		edges_.clear();
+		structureLock_.writeLock().lock();
+		try {
+			changes_.requireFull();
+			changedState_ = true;
+			if (wal_ != null)
+				wal_.logClear();
+			nodes_.clear();
+			edges_.clear();
+			nodeSampler_.clear();
+			edgeSampler_.clear();
+			queueModuleEvent(ModuleEventQueue.EventType.CLEAR, null, null,
+					null);
+
+			// Trigger modules
+			for (DAGModule<?> module : syncModules_)
+				module.clear();
+		} finally {
+			structureLock_.writeLock().unlock();
+		}
+	}
 
-		// Trigger modules
-		for (DAGModule<?> module : modules_)
-			module.clear();
+	/**
+	 * Waits until an asynchronous module has processed every change made
+	 * before this call. Returns immediately for synchronous modules.
+	 * 
+	 * @param module
+	 *            The module to wait for.
+	 */
+	public void awaitModule(DAGModule<?> module) {
+		for (ModuleEventQueue queue : moduleQueues_) {
+			if (queue.getModule() != module)
+				continue;
+			try {
+				queue.await(queue.fence());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Waits until every asynchronous module has processed every change made
+	 * before this call.
+	 */
+	public void awaitModules() {
+		for (ModuleEventQueue queue : moduleQueues_)
+			awaitModule(queue.getModule());
+	}
+
+	/**
+	 * Writes a full checkpoint of the DAG, merging any delta checkpoints into
+	 * the base checkpoint.
+	 */
+	public void compact() {
+		checkpoint(true);
+	}
+
+	/**
+	 * Gets the graph the calling thread is working on: the graph bound by
+	 * {@link #setCurrent(DirectedAcyclicGraph)} (or inherited from the thread
+	 * that started this one), or else the first graph created. Objects use
+	 * this to resolve IDs, as they do not hold their graph.
+	 * 
+	 * @return The current graph, or null if no graph has been created.
+	 */
+	public static DirectedAcyclicGraph current() {
+		DirectedAcyclicGraph dag = current_.get();
+		return (dag != null) ? dag : default_;
+	}
+
+	/**
+	 * Binds the calling thread (and threads it starts) to a graph.
+	 * 
+	 * @param dag
+	 *            The graph to work on, or null to use the first graph.
+	 */
+	public static void setCurrent(DirectedAcyclicGraph dag) {
+		current_.set(dag);
+	}
+
+	/**
+	 * Binds the calling thread to this graph, for an operation that creates
+	 * or serialises objects (which resolve IDs through {@link #current()}).
+	 * 
+	 * @return The graph previously bound, to restore once done.
+	 */
+	private DirectedAcyclicGraph bind() {
+		DirectedAcyclicGraph previous = current_.get();
+		current_.set(this);
+		return previous;
 	}
 
 	public void export(File file, DAGExportFormat format) throws IOException {
-		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		// Export a fixed view, so writes can continue during the export
+		DirectedAcyclicGraph previous = bind();
+		try {
+			DAGSnapshot snapshot = snapshot();
+			BufferedWriter out = new BufferedWriter(new FileWriter(file));
+
+			switch (format) {
+			case DAG_COMMANDS:
+				exportToDAG(out, snapshot);
+				break;
+			case CSV_ALL:
+			case CSV_TAXONOMIC:
+				exportToCSV(out, format, snapshot);
+				break;
+			case EDGES:
+				exportAsEdges(out, snapshot);
+				break;
+			}
 
-		switch (format) {
-		case DAG_COMMANDS:
-			exportToDAG(out);
-			break;
-		case CSV_ALL:
-		case CSV_TAXONOMIC:
-			exportToCSV(out, format);
-			break;
-		case EDGES:
-			exportAsEdges(out);
-			break;
+			out.close();
+		} finally {
+			current_.set(previous);
 		}
-
-		out.close();
 	}
 
 	public DAGNode findDAGNode(String nodeName) {
@@ -695,52 +1978,173 @@ public class DirectedAcyclicGraph {
 	 *            (false), ephemeral (false).
 	 * @return The created edge or an ErrorEdge if there was an error.
 	 */
-	public synchronized Edge findOrCreateEdge(Node[] edgeNodes, Node creator,
+	public Edge findOrCreateEdge(Node[] edgeNodes, Node creator,
+			boolean... flags) {
+		DirectedAcyclicGraph previous = bind();
+		try {
+			return findOrCreateEdgeInternal(edgeNodes, creator, flags);
+		} finally {
+			current_.set(previous);
+		}
+	}
+
+	private Edge findOrCreateEdgeInternal(Node[] edgeNodes, Node creator,
 			boolean... flags) {
 		BooleanFlags bFlags = edgeFlags_.loadFlags(flags);
 		boolean createNew = bFlags.getFlag("createNew");
-		edgeLock_.lock();
+		// Lookups run against the concurrent indices without locking
+		Edge edge = findEdge(edgeNodes);
+		if (edge == null && createNew)
+			edge = createEdge(edgeNodes, creator, bFlags.getFlag("ephemeral"));
+		return edge;
+	}
+
+	/**
+	 * Creates and adds a new edge, unless another writer created it first.
+	 * 
+	 * @param edgeNodes
+	 *            The nodes of the edge.
+	 * @param creator
+	 *            The creator of the edge (can be null).
+	 * @param ephemeral
+	 *            If the edge should be created as ephemeral.
+	 * @return The created (or concurrently created) edge, or an ErrorEdge if
+	 *         there was an error.
+	 */
+	private Edge createEdge(Node[] edgeNodes, Node creator, boolean ephemeral) {
+		List<Node> key = Arrays.asList(edgeNodes);
+		DAGEdge edge = null;
+		DAGModule<?> rejectedModule = null;
+		WriteAheadLog wal = null;
+		long record = 0;
+		structureLock_.readLock().lock();
 		try {
-			Edge edge = findEdge(edgeNodes);
-			if (edge == null && createNew) {
+			// The stripe only covers the claim, as module hooks may create
+			// further objects (under other stripes)
+			ReentrantLock stripe = createLocks_.lock(key.hashCode());
+			try {
+				Edge existing = pendingEdges_.get(key);
+				if (existing == null)
+					existing = findEdge(edgeNodes);
+				if (existing != null)
+					return existing;
+
 				// Check all the nodes are in the DAG
-				if (!noChecks_) {
-					for (Node n : edgeNodes)
-						if (n instanceof DAGNode
-								&& ((DAGNode) n).getID() != -1
-								&& !n.equals(getNodeByID(((DAGNode) n).getID())))
-							return new NonExistentErrorEdge((DAGNode) n);
-				}
+				Edge error = checkNodesExist(edgeNodes);
+				if (error != null)
+					return error;
+
+				edge = new DAGEdge(requestEdgeIDs(1), creator, edgeNodes);
+				pendingEdges_.put(key, edge);
+			} finally {
+				createLocks_.unlock(stripe);
+			}
 
-				edge = new DAGEdge(creator, true, edgeNodes);
-				boolean result = edges_.add((DAGEdge) edge);
-				if (result) {
-					if (bFlags.getFlag("ephemeral"))
-						addProperty((DAGEdge) edge, EPHEMERAL_MARK, "T");
-					else {
-						// Trigger modules
-						DAGModule<?> rejectedModule = null;
-						for (DAGModule<?> module : modules_) {
-							if (!module.supportsEdge((DAGEdge) edge))
-								continue;
-							if (!module.addEdge((DAGEdge) edge)) {
-								rejectedModule = module;
-								break;
-							}
-						}
-						if (rejectedModule != null) {
-							removeEdge(edge);
-							return new ModuleRejectedErrorEdge((DAGEdge) edge,
-									rejectedModule);
-						}
-					}
-					changedState_ = true;
+			// Modules and the sampler see the edge before it is published, so
+			// a concurrent removal always finds it in them
+			if (!ephemeral)
+				rejectedModule = notifyAddEdge(edge);
+			if (rejectedModule == null) {
+				addSampled(edge);
+				// Queued and logged with the add, as removeEdge does, so a
+				// concurrent removal is always queued and logged after it
+				edgeLock_.lock();
+				try {
+					edges_.add(edge);
+					if (!ephemeral)
+						queueModuleEvent(ModuleEventQueue.EventType.ADD_EDGE,
+								edge, null, null);
+					changes_.changed(edge);
+					// Only written here, the sync is waited on once unlocked
+					wal = wal_;
+					if (wal != null)
+						record = wal.writeAddEdge(edge);
+				} finally {
+					edgeLock_.unlock();
 				}
+				changedState_ = true;
 			}
+		} finally {
+			structureLock_.readLock().unlock();
+		}
+		if (wal != null)
+			wal.awaitSync(record);
+
+		// Marking takes the graph monitor, so never under the lock
+		try {
+			if (rejectedModule != null)
+				return new ModuleRejectedErrorEdge(edge, rejectedModule);
+			if (ephemeral)
+				addProperty(edge, EPHEMERAL_MARK, "T");
 			return edge;
 		} finally {
-			edgeLock_.unlock();
+			// Now indexed (or rejected), so later creations look it up
+			pendingEdges_.remove(key, edge);
+		}
+	}
+
+	/**
+	 * Notifies the modules of a new, unpublished edge. If a module rejects
+	 * it, the modules that accepted it are told to remove it again.
+	 * 
+	 * @param edge
+	 *            The new edge.
+	 * @return The module that rejected the edge, or null if none did.
+	 */
+	private DAGModule<?> notifyAddEdge(DAGEdge edge) {
+		List<DAGModule<?>> accepted = new ArrayList<>();
+		for (DAGModule<?> module : syncModules_) {
+			if (!module.supportsEdge(edge))
+				continue;
+			if (!module.addEdge(edge)) {
+				for (DAGModule<?> undo : accepted)
+					undo.removeEdge(edge);
+				return module;
+			}
+			accepted.add(module);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks that all DAG nodes of an edge are in the DAG.
+	 * 
+	 * @param edgeNodes
+	 *            The nodes of the edge.
+	 * @return An error edge for the first missing node, or null if all exist
+	 *         (or checks are disabled).
+	 */
+	private Edge checkNodesExist(Node[] edgeNodes) {
+		if (!noChecks_) {
+			for (Node n : edgeNodes)
+				if (n instanceof DAGNode && ((DAGNode) n).getID() != -1
+						&& !n.equals(getNodeByID(((DAGNode) n).getID())))
+					return new NonExistentErrorEdge((DAGNode) n);
+		}
+		return null;
+	}
+
+	/**
+	 * Notifies the modules of a batch of new edges. Each module only receives
+	 * the supported edges not rejected by an earlier module.
+	 * 
+	 * @param edges
+	 *            The new edges.
+	 * @return The rejected edges, mapped to the module that rejected them.
+	 */
+	private Map<DAGEdge, DAGModule<?>> notifyAddEdges(List<DAGEdge> edges) {
+		Map<DAGEdge, DAGModule<?>> rejected = new HashMap<>();
+		for (DAGModule<?> module : syncModules_) {
+			List<DAGEdge> supported = new ArrayList<>(edges.size());
+			for (DAGEdge edge : edges)
+				if (!rejected.containsKey(edge) && module.supportsEdge(edge))
+					supported.add(edge);
+			if (supported.isEmpty())
+				continue;
+			for (DAGEdge edge : module.addEdges(supported))
+				rejected.put(edge, module);
 		}
+		return rejected;
 	}
 
 	/**
@@ -778,60 +2182,120 @@ public class DirectedAcyclicGraph {
 	 * @return Either a found node, a created node, or null if impossible to
 	 *         parse.
 	 */
-	public synchronized Node findOrCreateNode(String nodeStr, Node creator,
+	public Node findOrCreateNode(String nodeStr, Node creator,
+			boolean... flags) {
+		DirectedAcyclicGraph previous = bind();
+		try {
+			return findOrCreateNodeInternal(nodeStr, creator, flags);
+		} finally {
+			current_.set(previous);
+		}
+	}
+
+	private Node findOrCreateNodeInternal(String nodeStr, Node creator,
 			boolean... flags) {
 		BooleanFlags bFlags = nodeFlags_.loadFlags(flags);
 		boolean createNew = bFlags.getFlag("createNew");
 		boolean dagNodeOnly = bFlags.getFlag("dagNodeOnly");
 		nodeStr = preParseNode(nodeStr, creator, createNew, dagNodeOnly);
 
-		nodeLock_.lock();
-		try {
-			DAGNode node = null;
-			if (nodeStr == null) {
-				return null;
-			} else if (createNew && nodeStr.isEmpty()) {
-				node = new DAGNode(creator);
-				if (bFlags.getFlag("ephemeral"))
-					addProperty(node, EPHEMERAL_MARK, "T");
-				changedState_ = true;
-				return node;
-			} else if (!dagNodeOnly && nodeStr.startsWith("\"")) {
-				return new StringNode(nodeStr);
-			} else if (nodeStr.matches("\\d+")) {
-				node = getNodeByID(Integer.parseInt(nodeStr));
-			} else if (nodeStr.matches("-?\\d+\\.[\\dE+-]+")) {
-				return PrimitiveNode.parseNode(nodeStr);
-			} else if (!dagNodeOnly && nodeStr.startsWith("'")) {
-				return PrimitiveNode.parseNode(nodeStr.substring(1));
-			}
+		if (nodeStr == null)
+			return null;
+		NodeLexer.Token token = NodeLexer.classify(nodeStr);
+
+		// Lookups run against the concurrent indices without locking
+		DAGNode node = null;
+		if (createNew && token == NodeLexer.Token.EMPTY) {
+			node = new DAGNode(requestNodeIDs(1), creator);
+			if (bFlags.getFlag("ephemeral"))
+				addProperty(node, EPHEMERAL_MARK, "T");
+			changedState_ = true;
+			return node;
+		} else if (!dagNodeOnly
+				&& (token == NodeLexer.Token.STRING
+				|| token == NodeLexer.Token.QUOTED_NAME)) {
+			return StringNode.parseNode(nodeStr);
+		} else if (token == NodeLexer.Token.ID) {
+			node = getNodeByID(Integer.parseInt(nodeStr));
+		} else if (token == NodeLexer.Token.DECIMAL) {
+			return PrimitiveNode.parseNode(nodeStr);
+		} else if (!dagNodeOnly && token == NodeLexer.Token.PRIMITIVE) {
+			return PrimitiveNode.parseNode(nodeStr.substring(1));
+		}
 
-			if (node != null)
-				return node;
+		if (node != null)
+			return node;
 
-			// Reject invalid nodeStrings
-			if (!DAGNode.VALID_NAME.matcher(nodeStr).matches())
-				return null;
-			node = findDAGNode(nodeStr);
-			if (node == null && createNew && DAGNode.isValidName(nodeStr)) {
-				// Create a new node
-				node = new DAGNode(nodeStr, creator);
-				boolean result = nodes_.add(node);
-				if (result) {
-					if (bFlags.getFlag("ephemeral"))
-						addProperty(node, EPHEMERAL_MARK, "t");
-					// Trigger modules
-					for (DAGModule<?> module : modules_) {
-						if (module.supportsNode(node))
-							module.addNode(node);
-					}
-					changedState_ = true;
-				} else
+		// Reject invalid nodeStrings
+		if (token != NodeLexer.Token.NAME
+				&& token != NodeLexer.Token.QUOTED_NAME
+				&& !(token == NodeLexer.Token.ID && nodeStr.length() > 1))
+			return null;
+		node = findDAGNode(nodeStr);
+		if (node == null && createNew && DAGNode.isValidName(nodeStr))
+			node = createNode(nodeStr, creator, bFlags.getFlag("ephemeral"));
+		return node;
+	}
+
+	/**
+	 * Creates and adds a new named node, unless another writer created it
+	 * first.
+	 * 
+	 * @param nodeStr
+	 *            The name of the node.
+	 * @param creator
+	 *            The creator of the node (can be null).
+	 * @param ephemeral
+	 *            If the node should be created as ephemeral.
+	 * @return The created (or concurrently created) node, or null if it could
+	 *         not be added.
+	 */
+	private DAGNode createNode(String nodeStr, Node creator, boolean ephemeral) {
+		DAGNode node = null;
+		structureLock_.readLock().lock();
+		try {
+			// The stripe only covers the claim, as module hooks may create
+			// further objects (under other stripes)
+			ReentrantLock stripe = createLocks_.lock(nodeStr.hashCode());
+			try {
+				DAGNode existing = pendingNodes_.get(nodeStr);
+				if (existing == null)
+					existing = findDAGNode(nodeStr);
+				if (existing != null)
+					return existing;
+
+				node = new DAGNode(requestNodeIDs(1), nodeStr, creator);
+				if (!nodes_.add(node))
 					return null;
+				pendingNodes_.put(nodeStr, node);
+			} finally {
+				createLocks_.unlock(stripe);
+			}
+
+			nodeSampler_.add(node.getID());
+			// Trigger modules
+			for (DAGModule<?> module : syncModules_) {
+				if (module.supportsNode(node))
+					module.addNode(node);
 			}
+			queueModuleEvent(ModuleEventQueue.EventType.ADD_NODE, node, null,
+					null);
+			changes_.changed(node);
+			if (wal_ != null)
+				wal_.logAddNode(node);
+			changedState_ = true;
+		} finally {
+			structureLock_.readLock().unlock();
+		}
+
+		// Marking takes the graph monitor, so never under the lock
+		try {
+			if (ephemeral)
+				addProperty(node, EPHEMERAL_MARK, "T");
 			return node;
 		} finally {
-			nodeLock_.unlock();
+			// Now indexed, so later creations look it up
+			pendingNodes_.remove(nodeStr, node);
 		}
 	}
 
@@ -889,6 +2353,36 @@ public class DirectedAcyclicGraph {
 		return modules_.get(moduleMap_.get(moduleClass.getCanonicalName()));
 	}
 
+	/**
+	 * Describes the running checkpoint (its stage, progress and time taken so
+	 * far) and the last completed checkpoint.
+	 * 
+	 * @return A (multi-line) description of the checkpoint status.
+	 */
+	public String getCheckpointStatus() {
+		StringBuilder buffer = new StringBuilder();
+		String stage = checkpointStage_;
+		if (stage == null)
+			buffer.append("Checkpoint: idle\n");
+		else {
+			buffer.append("Checkpoint: " + stage);
+			long total = checkpointTotal_;
+			if (total > 0)
+				buffer.append(", " + checkpointWritten_.get() + "/" + total
+						+ " objects");
+			buffer.append(" (" + (System.currentTimeMillis() - checkpointStart_)
+					+ "ms)\n");
+		}
+		if (lastCheckpointTime_ == -1)
+			buffer.append("Last checkpoint: none");
+		else
+			buffer.append("Last checkpoint: "
+					+ ((lastCheckpointFull_) ? "full" : "delta") + " at "
+					+ new Date(lastCheckpointTime_) + ", took "
+					+ lastCheckpointDuration_ + "ms");
+		return buffer.toString();
+	}
+
 	public ArrayList<DAGModule<?>> getModules() {
 		return modules_;
 	}
@@ -916,10 +2410,31 @@ public class DirectedAcyclicGraph {
 		return nodes_.size();
 	}
 
+	/**
+	 * @return The ID the next created edge will be given.
+	 */
+	public int getNextEdgeID() {
+		return edgeIDs_.get();
+	}
+
+	/**
+	 * @return The ID the next created node will be given.
+	 */
+	public int getNextNodeID() {
+		return nodeIDs_.get();
+	}
+
+	/**
+	 * Samples an edge uniformly at random, in constant time.
+	 * 
+	 * @return A random edge, or null if there are no edges.
+	 */
 	public Edge getRandomEdge() {
-		while (DAGEdge.idCounter_ > 0) {
-			int maxID = DAGEdge.idCounter_ + 1;
-			int id = random_.nextInt(maxID);
+		// Retry if the sampled edge is removed concurrently
+		for (int i = 0; i < MAX_SAMPLE_ATTEMPTS; i++) {
+			int id = edgeSampler_.sample(random_);
+			if (id == -1)
+				return null;
 			Edge e = getEdgeByID(id);
 			if (e != null)
 				return e;
@@ -927,10 +2442,36 @@ public class DirectedAcyclicGraph {
 		return null;
 	}
 
+	/**
+	 * Samples a number of edges uniformly at random (with replacement).
+	 * 
+	 * @param count
+	 *            The number of edges to sample (at most
+	 *            {@link #MAX_RANDOM_SAMPLES}).
+	 * @return The random edges (empty if there are no edges).
+	 */
+	public List<Edge> getRandomEdges(int count) {
+		count = Math.min(count, MAX_RANDOM_SAMPLES);
+		List<Edge> edges = new ArrayList<>(Math.max(count, 0));
+		for (int i = 0; i < count; i++) {
+			Edge e = getRandomEdge();
+			if (e == null)
+				break;
+			edges.add(e);
+		}
+		return edges;
+	}
+
+	/**
+	 * Samples a node uniformly at random, in constant time.
+	 * 
+	 * @return A random node, or null if there are no nodes.
+	 */
 	public Node getRandomNode() {
-		while (DAGNode.idCounter_ > 0) {
-			int maxID = DAGNode.idCounter_ + 1;
-			int id = random_.nextInt(maxID);
+		for (int i = 0; i < MAX_SAMPLE_ATTEMPTS; i++) {
+			int id = nodeSampler_.sample(random_);
+			if (id == -1)
+				return null;
 			Node n = getNodeByID(id);
 			if (n != null)
 				return n;
@@ -938,6 +2479,55 @@ public class DirectedAcyclicGraph {
 		return null;
 	}
 
+	/**
+	 * Samples a node with probability proportional to its degree (the number
+	 * of edge arguments it fills). A uniformly random argument slot is chosen
+	 * by sampling an edge and a position up to the largest arity seen,
+	 * retrying if the position is past the end of the edge or is not a DAG
+	 * node. Until an edge of the largest arity has been created or sampled,
+	 * longer edges are slightly favoured.
+	 * 
+	 * @return A random node, or null if no edge has a DAG node.
+	 */
+	public DAGNode getRandomNodeByDegree() {
+		for (int i = 0; i < MAX_SAMPLE_ATTEMPTS; i++) {
+			DAGEdge edge = (DAGEdge) getRandomEdge();
+			if (edge == null)
+				return null;
+			Node[] nodes = edge.getNodes();
+			int maxArity = maxArity_;
+			if (nodes.length > maxArity)
+				maxArity_ = maxArity = nodes.length;
+			int position = random_.nextInt(maxArity);
+			if (position < nodes.length && nodes[position] instanceof DAGNode)
+				return (DAGNode) nodes[position];
+		}
+		return null;
+	}
+
+	/**
+	 * Samples a number of nodes at random (with replacement).
+	 * 
+	 * @param count
+	 *            The number of nodes to sample (at most
+	 *            {@link #MAX_RANDOM_SAMPLES}).
+	 * @param byDegree
+	 *            If nodes are weighted by degree (see
+	 *            {@link #getRandomNodeByDegree()}) rather than uniform.
+	 * @return The random nodes (empty if there are no nodes).
+	 */
+	public List<Node> getRandomNodes(int count, boolean byDegree) {
+		count = Math.min(count, MAX_RANDOM_SAMPLES);
+		List<Node> nodes = new ArrayList<>(Math.max(count, 0));
+		for (int i = 0; i < count; i++) {
+			Node n = (byDegree) ? getRandomNodeByDegree() : getRandomNode();
+			if (n == null)
+				break;
+			nodes.add(n);
+		}
+		return nodes;
+	}
+
 	public synchronized void groundEphemeral() {
 		// Compile module properties to remove
 		Collection<String> props = compilePertinentProperties();
@@ -948,11 +2538,13 @@ public class DirectedAcyclicGraph {
 		// Run through the edges, reasserting them as non-ephemeral
 		SortedSet<DAGEdge> reassertables = orderedReassertables();
 		// TODO Could be achieved concurrently DO TOMORROW
-		TIntObjectIterator<DAGEdge> edgeIter = edges_.iterator();
-		for (int i = edges_.size(); i-- > 0;) {
+		DAGSnapshot snapshot = snapshot();
+		TIndexedCollection<DAGEdge> edges = snapshot.getEdges();
+		TIntObjectIterator<DAGEdge> edgeIter = edges.iterator();
+		for (int i = edges.size(); i-- > 0;) {
 			edgeIter.advance();
 			DAGEdge e = edgeIter.value();
-			if (e.getProperty(EPHEMERAL_MARK) != null) {
+			if (e.getProperty(EPHEMERAL_KEY) != null) {
 				reassertables.add(e);
 			}
 		}
@@ -972,11 +2564,24 @@ public class DirectedAcyclicGraph {
 			}
 		}
 
-		TIntObjectIterator<DAGNode> nodeIter = nodes_.iterator();
-		for (int i = nodes_.size(); i-- > 0;) {
+		TIndexedCollection<DAGNode> nodes = snapshot.getNodes();
+		TIntObjectIterator<DAGNode> nodeIter = nodes.iterator();
+		for (int i = nodes.size(); i-- > 0;) {
 			nodeIter.advance();
-			for (String prop : props)
-				nodeIter.value().remove(prop);
+			DAGNode node = nodeIter.value();
+			for (String prop : props) {
+				if (node.getProperty(prop) == null)
+					continue;
+				structureLock_.readLock().lock();
+				try {
+					changes_.changed(node);
+					if (wal_ != null)
+						wal_.logRemoveProperty(node, prop);
+					node.remove(prop);
+				} finally {
+					structureLock_.readLock().unlock();
+				}
+			}
 		}
 		System.out.println("Done!");
 
@@ -985,10 +2590,15 @@ public class DirectedAcyclicGraph {
 	}
 
 	public final void initialise() {
-		initialiseInternal();
-		boolean saveState = reloadModules(false);
-		if (saveState)
-			saveState();
+		DirectedAcyclicGraph previous = bind();
+		try {
+			if (initialiseInternal()) {
+				moduleStateChanged();
+				saveState();
+			}
+		} finally {
+			current_.set(previous);
+		}
 	}
 
 	/**
@@ -1022,18 +2632,7 @@ public class DirectedAcyclicGraph {
 	 */
 	public DAGObject parseDAGObject(String dagStr, boolean isEdge) {
 		// Parse DAGObject
-		dagStr = dagStr.replaceAll("\\t", " ");
-		// Replace primitives
-		ArrayList<String> split = UtilityMethods.split(dagStr, ' ',
-				UtilityMethods.JUST_QUOTE);
-		if (split.size() > 1) {
-			for (int i = 0; i < split.size(); i++) {
-				Matcher m = PRIMITIVE_PATTERN.matcher(split.get(i));
-				if (m.matches())
-					split.set(i, "'" + split.get(i));
-			}
-			dagStr = StringUtils.join(split, ' ');
-		}
+		dagStr = markPrimitives(dagStr);
 
 		DAGObject dagObj = null;
 		if (isEdge) {
@@ -1061,6 +2660,29 @@ public class DirectedAcyclicGraph {
 		return dagObj;
 	}
 
+	/**
+	 * Normalises a DAG object string from a plain text file, marking
+	 * primitive tokens within an edge with an apostrophe.
+	 * 
+	 * @param dagStr
+	 *            The DAG object string.
+	 * @return The normalised string.
+	 */
+	public static String markPrimitives(String dagStr) {
+		dagStr = dagStr.replace('\t', ' ');
+		// Replace primitives
+		ArrayList<String> split = UtilityMethods.split(dagStr, ' ',
+				UtilityMethods.JUST_QUOTE);
+		if (split.size() > 1) {
+			for (int i = 0; i < split.size(); i++) {
+				if (NodeLexer.isPrimitiveToken(split.get(i)))
+					split.set(i, "'" + split.get(i));
+			}
+			dagStr = StringUtils.join(split, ' ');
+		}
+		return dagStr;
+	}
+
 	public Node[] parseNodes(String strNodes, Node creator,
 			boolean createNodes, boolean dagNodeOnly) {
 		if (strNodes.startsWith("("))
@@ -1081,11 +2703,205 @@ public class DirectedAcyclicGraph {
 		return nodes;
 	}
 
+	/**
+	 * Parses the nodes of a batch of edge strings, resolving each distinct
+	 * node string once and creating any missing named nodes as a single batch.
+	 * Other missing nodes (e.g. functions) are created individually.
+	 * 
+	 * @param strEdges
+	 *            The edge strings.
+	 * @param creator
+	 *            The creator of any new nodes.
+	 * @param createNodes
+	 *            If missing named nodes should be created.
+	 * @return The nodes of each edge string, in order (null elements for edge
+	 *         strings that could not be parsed).
+	 */
+	public List<Node[]> parseNodes(List<String> strEdges, Node creator,
+			boolean createNodes) {
+		List<List<String>> splits = new ArrayList<>(strEdges.size());
+		Map<String, Node> resolved = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String strNodes : strEdges) {
+			if (strNodes.startsWith("("))
+				strNodes = UtilityMethods.shrinkString(strNodes, 1);
+			ArrayList<String> split = UtilityMethods.split(strNodes, ' ');
+			splits.add(split);
+			for (String arg : split) {
+				if (resolved.containsKey(arg))
+					continue;
+				Node n = findOrCreateNode(arg, creator, false, false, false);
+				if (n == null && createNodes) {
+					if (NodeLexer.classify(arg) == NodeLexer.Token.NAME)
+						missing.add(arg);
+					else
+						// Functions etc. need the full (preParseNode) path
+						n = findOrCreateNode(arg, creator, true);
+				}
+				resolved.put(arg, n);
+			}
+		}
+		if (!missing.isEmpty()) {
+			DAGNode[] created = addNodes(missing, creator, false);
+			for (int i = 0; i < created.length; i++)
+				resolved.put(missing.get(i), created[i]);
+		}
+
+		List<Node[]> edgeNodes = new ArrayList<>(splits.size());
+		for (List<String> split : splits) {
+			Node[] nodes = new Node[split.size()];
+			for (int i = 0; nodes != null && i < nodes.length; i++) {
+				nodes[i] = resolved.get(split.get(i));
+				if (nodes[i] == null)
+					nodes = null;
+			}
+			edgeNodes.add(nodes);
+		}
+		return edgeNodes;
+	}
+
+	/**
+	 * Adds a new edge to the edge sampler.
+	 */
+	private void addSampled(DAGEdge edge) {
+		edgeSampler_.add(edge.getID());
+		if (edge.getNodes().length > maxArity_)
+			maxArity_ = edge.getNodes().length;
+	}
+
+	/**
+	 * Queues a change for each asynchronous module. Must be called within the
+	 * change's lock, so changes are queued in order.
+	 */
+	private void queueModuleEvent(ModuleEventQueue.EventType type,
+			DAGObject dagObj, String key, String value) {
+		for (ModuleEventQueue queue : moduleQueues_)
+			queue.queue(type, dagObj, key, value);
+	}
+
+	/**
+	 * Orders a module after the modules it depends on.
+	 * 
+	 * @param module
+	 *            The module to order.
+	 * @param ordered
+	 *            The ordered modules so far.
+	 * @param visited
+	 *            The modules already ordered or being ordered (to skip
+	 *            duplicates and dependency cycles).
+	 */
+	private void orderModule(DAGModule<?> module, List<DAGModule<?>> ordered,
+			Set<DAGModule<?>> visited) {
+		if (!visited.add(module))
+			return;
+		for (Class<? extends DAGModule<?>> dependency : module
+				.getDependencies()) {
+			DAGModule<?> depModule = getModule(dependency);
+			if (depModule != null)
+				orderModule(depModule, ordered, visited);
+		}
+		ordered.add(module);
+	}
+
+	/**
+	 * Reserves a contiguous block of edge IDs.
+	 * 
+	 * @param count
+	 *            The number of IDs to reserve.
+	 * @return The first ID of the block.
+	 */
+	public int requestEdgeIDs(int count) {
+		return edgeIDs_.getAndAdd(count);
+	}
+
+	/**
+	 * Reserves a contiguous block of node IDs.
+	 * 
+	 * @param count
+	 *            The number of IDs to reserve.
+	 * @return The first ID of the block.
+	 */
+	public int requestNodeIDs(int count) {
+		return nodeIDs_.getAndAdd(count);
+	}
+
+	/**
+	 * Calls {@link DAGModule#initialisationComplete} on every module,
+	 * rebuilding them if necessary. Modules are rebuilt concurrently, except
+	 * that each module waits for the modules it depends on. The DAG cannot be
+	 * changed while the modules are rebuilt, as a rebuild replaces a module's
+	 * state with that of the nodes and edges, so modules must not change the
+	 * DAG while rebuilding.
+	 * 
+	 * @param forceRebuild
+	 *            If the modules should be rebuilt even if up-to-date.
+	 * @return True if any module changed.
+	 */
 	public boolean reloadModules(boolean forceRebuild) {
-		boolean saveState = false;
+		// The rebuilding threads inherit the current graph
+		DirectedAcyclicGraph previous = bind();
+		structureLock_.writeLock().lock();
+		try {
+			awaitModules();
+			return rebuildModules(forceRebuild);
+		} finally {
+			structureLock_.writeLock().unlock();
+			current_.set(previous);
+		}
+	}
+
+	/**
+	 * Rebuilds the modules for {@link #reloadModules(boolean)}. Must be
+	 * called while the structure write lock is held.
+	 * 
+	 * @param forceRebuild
+	 *            If the modules should be rebuilt even if up-to-date.
+	 * @return True if any module changed.
+	 */
+	private boolean rebuildModules(final boolean forceRebuild) {
+		List<DAGModule<?>> ordered = new ArrayList<>();
+		Set<DAGModule<?>> visited = Collections
+				.newSetFromMap(new IdentityHashMap<DAGModule<?>, Boolean>());
 		for (DAGModule<?> module : modules_)
-			saveState |= module.initialisationComplete(nodes_, edges_,
-					forceRebuild);
+			orderModule(module, ordered, visited);
+		if (ordered.isEmpty())
+			return false;
+
+		// Modules only wait on earlier submitted modules, so cannot starve
+		// the pool
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(
+				ordered.size(), Runtime.getRuntime().availableProcessors()));
+		Map<DAGModule<?>, Future<Boolean>> rebuilds = new IdentityHashMap<>();
+		for (final DAGModule<?> module : ordered) {
+			final Collection<Future<Boolean>> dependencies = new ArrayList<>();
+			for (Class<? extends DAGModule<?>> dependency : module
+					.getDependencies()) {
+				Future<Boolean> depRebuild = rebuilds
+						.get(getModule(dependency));
+				if (depRebuild != null)
+					dependencies.add(depRebuild);
+			}
+			rebuilds.put(module, pool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					for (Future<Boolean> depRebuild : dependencies)
+						depRebuild.get();
+					return module.initialisationComplete(nodes_, edges_,
+							forceRebuild);
+				}
+			}));
+		}
+		pool.shutdown();
+
+		boolean saveState = false;
+		for (DAGModule<?> module : ordered) {
+			try {
+				saveState |= rebuilds.get(module).get();
+			} catch (InterruptedException | ExecutionException e) {
+				System.err.println("Error rebuilding " + module);
+				e.printStackTrace();
+			}
+		}
 		return saveState;
 	}
 
@@ -1101,21 +2917,31 @@ public class DirectedAcyclicGraph {
 			return false;
 
 		// Remove the edge
+		structureLock_.readLock().lock();
 		edgeLock_.lock();
 		try {
 			boolean result = edges_.remove((DAGEdge) edge);
 
-			if (result && ((DAGEdge) edge).getProperty(EPHEMERAL_MARK) == null) {
+			if (result && ((DAGEdge) edge).getProperty(EPHEMERAL_KEY) == null) {
 				// Trigger modules
-				for (DAGModule<?> module : modules_) {
+				for (DAGModule<?> module : syncModules_) {
 					if (module.supportsEdge((DAGEdge) edge))
 						module.removeEdge((DAGEdge) edge);
 				}
+				queueModuleEvent(ModuleEventQueue.EventType.REMOVE_EDGE,
+						(DAGEdge) edge, null, null);
 				changedState_ = true;
 			}
+			if (result) {
+				edgeSampler_.remove(((DAGEdge) edge).getID());
+				changes_.removed((DAGEdge) edge);
+				if (wal_ != null)
+					wal_.logRemoveEdge((DAGEdge) edge);
+			}
 			return result;
 		} finally {
 			edgeLock_.unlock();
+			structureLock_.readLock().unlock();
 		}
 	}
 
@@ -1133,12 +2959,14 @@ public class DirectedAcyclicGraph {
 			return false;
 
 		// Remove node
+		structureLock_.writeLock().lock();
 		nodeLock_.lock();
 		try {
-			boolean result = nodes_.remove(node);
+			boolean result = nodes_.contains(node);
 
 			if (result) {
-				// Remove edges associated with node.
+				// Remove edges associated with node. Removed first, as mapped
+				// edges cannot be decoded once their nodes are gone.
 				if (moduleMap_.containsKey(RelatedEdgeModule.class
 						.getCanonicalName())) {
 					Collection<DAGEdge> relatedEdges = (Collection<DAGEdge>) getModule(
@@ -1158,17 +2986,25 @@ public class DirectedAcyclicGraph {
 					for (DAGEdge edge : removed)
 						removeEdge(edge);
 				}
+				nodes_.remove(node);
 
 				// Trigger modules
-				for (DAGModule<?> module : modules_) {
+				for (DAGModule<?> module : syncModules_) {
 					if (module.supportsNode(node))
 						module.removeNode(node);
 				}
+				queueModuleEvent(ModuleEventQueue.EventType.REMOVE_NODE, node,
+						null, null);
+				nodeSampler_.remove(node.getID());
+				changes_.removed(node);
+				if (wal_ != null)
+					wal_.logRemoveNode(node);
 				changedState_ = true;
 			}
 			return result;
 		} finally {
 			nodeLock_.unlock();
+			structureLock_.writeLock().unlock();
 		}
 	}
 
@@ -1185,66 +3021,141 @@ public class DirectedAcyclicGraph {
 	}
 
 	public synchronized void removeProperty(DAGObject dagObj, String key) {
-		dagObj.remove(key);
+		structureLock_.readLock().lock();
+		try {
+			dagObj.remove(key);
+			changes_.changed(dagObj);
+			if (wal_ != null)
+				wal_.logRemoveProperty(dagObj, key);
+			queueModuleEvent(ModuleEventQueue.EventType.REMOVE_PROPERTY,
+					dagObj, key, null);
+			for (DAGModule<?> module : syncModules_) {
+				if ((dagObj instanceof DAGEdge && module
+						.supportsEdge((DAGEdge) dagObj))
+						|| (dagObj instanceof DAGNode && module
+								.supportsNode((DAGNode) dagObj)))
+					module.removeProperty(dagObj, key);
+			}
+		} finally {
+			structureLock_.readLock().unlock();
+		}
+		changedState_ = true;
+	}
 
-		for (DAGModule<?> module : modules_) {
-			if ((dagObj instanceof DAGEdge && module
-					.supportsEdge((DAGEdge) dagObj))
-					|| (dagObj instanceof DAGNode && module
-							.supportsNode((DAGNode) dagObj)))
-				module.removeProperty(dagObj, key);
+	/**
+	 * Adds a node recovered from the write-ahead log, with its logged ID,
+	 * unless it is already present.
+	 *
+	 * @param node
+	 *            The recovered node.
+	 */
+	synchronized void restoreNode(DAGNode node) {
+		if (nodes_.get(node.getID()) != null || !nodes_.add(node))
+			return;
+		nodeSampler_.add(node.getID());
+		raiseCounter(nodeIDs_, node.getID());
+		changes_.changed(node);
+		for (DAGModule<?> module : syncModules_) {
+			if (module.supportsNode(node))
+				module.addNode(node);
 		}
+		queueModuleEvent(ModuleEventQueue.EventType.ADD_NODE, node, null, null);
 		changedState_ = true;
 	}
 
-	public synchronized void saveState() {
-		if (!changedState_)
+	/**
+	 * Adds an edge recovered from the write-ahead log, with its logged ID,
+	 * unless it is already present.
+	 *
+	 * @param edge
+	 *            The recovered edge.
+	 */
+	synchronized void restoreEdge(DAGEdge edge) {
+		if (edges_.get(edge.getID()) != null || !edges_.add(edge))
 			return;
-		// Save 'global' values
-		System.out.print("Please wait while saving state... ");
-		try {
-			((FSTSerialisationMechanism) SerialisationMechanism.FST
-					.getSerialiser()).reset();
-			FSTSerialisationMechanism.conf.registerSerializer(DAGObject.class,
-					new FSTDAGObjectSerialiser(), true);
-			dagOut_.flush();
-		} catch (IOException e1) {
-			e1.printStackTrace();
+		addSampled(edge);
+		raiseCounter(edgeIDs_, edge.getID());
+		changes_.changed(edge);
+		changedState_ = true;
+		if (edge.getProperty(EPHEMERAL_KEY) != null)
+			return;
+		for (DAGModule<?> module : syncModules_) {
+			if (module.supportsEdge(edge) && !module.addEdge(edge)) {
+				removeEdge(edge);
+				return;
+			}
 		}
-		File globals = new File(rootDir_, GLOBALS_FILE);
+		queueModuleEvent(ModuleEventQueue.EventType.ADD_EDGE, edge, null, null);
+	}
+
+	/**
+	 * Notes that a module's state changed outside of the node and edge
+	 * changes (e.g. it was rebuilt or reconfigured), so the modules are saved
+	 * at the next checkpoint even if the nodes and edges are unchanged.
+	 */
+	public void moduleStateChanged() {
+		structureLock_.readLock().lock();
 		try {
-			globals.createNewFile();
-			BufferedWriter out = new BufferedWriter(new FileWriter(globals));
-			writeDAGDetails(out);
-			out.close();
-		} catch (Exception e) {
-			e.printStackTrace();
+			changes_.modulesChanged();
+			changedState_ = true;
+		} finally {
+			structureLock_.readLock().unlock();
 		}
+	}
+
+	public void saveState() {
+		if (!changedState_)
+			return;
+		checkpoint(false);
+		if (deltaFiles(rootDir_).size() >= maxDeltas_)
+			compactInBackground();
+	}
 
-		// Save node and edge collections
+	/**
+	 * Takes a consistent, point-in-time snapshot of the nodes and edges of the
+	 * DAG. Taking the snapshot briefly waits for in-progress writes, but the
+	 * snapshot itself can be read for as long as needed without blocking
+	 * further writes.
+	 *
+	 * Must not be called while creating a node or edge (e.g. from a module
+	 * hook).
+	 *
+	 * @return A read-only snapshot of the DAG.
+	 */
+	public DAGSnapshot snapshot() {
+		structureLock_.writeLock().lock();
 		try {
-			saveDAGFile(nodes_, rootDir_, NODE_FILE, MAX_OBJ_SERIALISATION);
-			saveDAGFile(edges_, rootDir_, EDGE_FILE, MAX_OBJ_SERIALISATION);
-		} catch (IOException e) {
-			System.err.println("Error serialising DAG.");
+			return new DAGSnapshot(snapshotOf(nodes_), snapshotOf(edges_));
+		} finally {
+			structureLock_.writeLock().unlock();
 		}
+	}
 
-		// Save modules
-		Set<DAGModule<?>> saved = new HashSet<>();
-		for (DAGModule<?> module : modules_) {
-			if (!saved.contains(module))
-				module.saveModule(rootDir_);
-			saved.add(module);
+	/**
+	 * Closes the DAG without exiting, e.g. when other graphs share the
+	 * process.
+	 * 
+	 * @param sync
+	 *            If the state should be saved first.
+	 */
+	public void close(boolean sync) {
+		if (sync)
+			saveState();
+		for (ModuleEventQueue queue : moduleQueues_)
+			queue.close();
+		if (wal_ != null)
+			wal_.close();
+		try {
+			dagOut_.close();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-
-		System.out.println("Done!");
 	}
 
 	public void shutdown(boolean sync) {
-		if (sync) {
+		if (sync)
 			System.out.println("Saving state and shutting down.");
-			saveState();
-		}
+		close(sync);
 		System.out.println("Goodbye.");
 		System.exit(0);
 	}
@@ -1,16 +1,21 @@
 package graph.core;
 
+import graph.core.cli.DumpCommand;
+
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 import util.UtilityMethods;
 
@@ -19,154 +24,268 @@ import util.UtilityMethods;
  * external program rather than from the DAG itself. This is to combat
  * OutOfMemory Exceptions when the DAG cannot serialise itself.
  * 
+ * The objects are streamed in chunks by the dump command (see
+ * {@link DumpCommand}). If the connection is lost, the extractor reconnects
+ * and resumes from the last object received.
+ * 
  * @author Sam Sarjant
  */
 public class ExternalExtractor {
-	private Socket socket_;
+	/** The number of times to reconnect before giving up. */
+	private static final int MAX_RETRIES = 5;
 
-	public ExternalExtractor(int port) throws UnknownHostException, IOException {
-		socket_ = new Socket("localhost", port);
-	}
+	private static final String END_MESSAGE = "--END--";
 
-	public static void main(String[] args) {
-		boolean nodes = false;
-		boolean edges = false;
-		int port = -1;
-		for (int i = 0; i < args.length; i++) {
-			if (args[i].equals("-p"))
-				port = Integer.parseInt(args[++i]);
-			else if (args[i].equals("-n"))
-				nodes = true;
-			else if (args[i].equals("-e"))
-				edges = true;
-		}
+	private int chunkSize_ = DumpCommand.DEFAULT_CHUNK_SIZE;
 
-		// Default to nodes and edges true
-		if (!nodes && !edges) {
-			nodes = true;
-			edges = true;
-		}
+	private BufferedReader in_;
 
-		try {
-			ExternalExtractor ee = new ExternalExtractor(port);
-			ee.extract(nodes, edges);
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
+	private PrintWriter out_;
+
+	/** The ID to resume the current dump from. */
+	private int resumeID_;
+
+	private final int port_;
+
+	private Socket socket_;
+
+	public ExternalExtractor(int port) {
+		port_ = port;
 	}
 
-	private void extract(boolean nodes, boolean edges) throws Exception {
-		PrintWriter out = new PrintWriter(socket_.getOutputStream(), true);
-		BufferedReader in = new BufferedReader(new InputStreamReader(
+	/**
+	 * Connects (or reconnects) to the DAG and initialises the environment.
+	 */
+	private void connect() throws IOException {
+		disconnect();
+		socket_ = new Socket("localhost", port_);
+		out_ = new PrintWriter(socket_.getOutputStream(), true);
+		in_ = new BufferedReader(new InputStreamReader(
 				socket_.getInputStream(), "UTF-8"));
 
 		// Init vars
-		out.println("set /env/time false");
-		in.readLine();
-		out.println("set /env/endmessage --END--");
-		in.readLine();
-		out.println("set /env/prompt ");
-		in.readLine();
-		out.println("set /env/pretty true");
-		in.readLine();
-
-		// Read the nodes
-		if (nodes) {
-			File nodeFile = new File("nodeExtract.txt");
-			nodeFile.createNewFile();
-			extractDAG(false, out, in, nodeFile);
+		out_.println("set /env/time false");
+		in_.readLine();
+		out_.println("set /env/endmessage " + END_MESSAGE);
+		in_.readLine();
+		out_.println("set /env/prompt ");
+		in_.readLine();
+		out_.println("set /env/pretty true");
+		in_.readLine();
+	}
+
+	private void disconnect() {
+		try {
+			if (socket_ != null)
+				socket_.close();
+		} catch (IOException e) {
 		}
-		if (edges) {
-			File nodeFile = new File("edgeExtract.txt");
-			nodeFile.createNewFile();
-			extractDAG(true, out, in, nodeFile);
+		socket_ = null;
+	}
+
+	/**
+	 * Streams the objects from the resume ID, writing each complete chunk to
+	 * the row file and advancing the resume ID past it.
+	 * 
+	 * @return True if the dump completed, false if the connection was lost.
+	 */
+	private boolean dump(boolean isEdges, BufferedWriter rowOut,
+			Map<String, Integer> propIndexMap) throws IOException {
+		out_.println("dump " + ((isEdges) ? "E" : "N") + " " + resumeID_ + " "
+				+ chunkSize_);
+		ArrayList<String> rows = new ArrayList<>(chunkSize_);
+		String frame = null;
+		while ((frame = in_.readLine()) != null) {
+			ArrayList<String> split = UtilityMethods.split(frame, '|');
+			if (split.get(0).equals("chunk")) {
+				int count = Integer.parseInt(split.get(1));
+				rows.clear();
+				for (int i = 0; i < count; i++) {
+					String row = in_.readLine();
+					if (row == null)
+						return false;
+					rows.add(row);
+				}
+				for (String row : rows)
+					writeRow(row, rowOut, propIndexMap);
+				resumeID_ = Integer.parseInt(split.get(2)) + 1;
+				out_.println();
+			} else if (split.get(0).equals("end")) {
+				in_.readLine();
+				return true;
+			} else {
+				throw new IOException("Unexpected dump response: " + frame);
+			}
 		}
+		return false;
+	}
 
-		in.close();
-		out.close();
+	/**
+	 * Extracts the nodes and/or edges to nodeExtract.txt and edgeExtract.txt.
+	 * 
+	 * @param nodes
+	 *            If the nodes should be extracted.
+	 * @param edges
+	 *            If the edges should be extracted.
+	 * @param fromID
+	 *            The ID to start extracting each collection from.
+	 */
+	public void extract(boolean nodes, boolean edges, int fromID)
+			throws IOException {
+		connect();
+		if (nodes)
+			extractDAG(false, fromID, new File("nodeExtract.txt"));
+		if (edges)
+			extractDAG(true, fromID, new File("edgeExtract.txt"));
+		disconnect();
 	}
 
 	/**
-	 * Extracts data from the DAG via a series of next commands
+	 * Extracts a collection from the DAG with the dump command. The rows are
+	 * written while streaming, as the property header is only known once every
+	 * object has been seen.
 	 * 
 	 * @param isEdges
 	 *            If the collection being extracted is edges (otherwise nodes).
-	 * @param out
-	 *            The socket writer.
-	 * @param in
-	 *            The socket reader.
+	 * @param fromID
+	 *            The ID to start extracting from.
 	 * @param file
 	 *            The file to write to.
 	 * @throws IOException
 	 */
-	private void extractDAG(boolean isEdges, PrintWriter out,
-			BufferedReader in, File file) throws IOException {
-		BufferedWriter fileOut = new BufferedWriter(new FileWriter(file));
-		String nextCommand = (isEdges) ? "nextedge" : "nextnode";
-		String propType = (isEdges) ? "E" : "N";
-		ArrayList<String> propIndexMap = new ArrayList<>();
-
-		int index = 0;
-		while (index != -1) {
-			out.println(nextCommand + " " + index);
-			String result = in.readLine();
-			in.readLine();
-			ArrayList<String> split = UtilityMethods.split(result, '|',
-					UtilityMethods.JUST_QUOTE);
-
-			// Index
-			index = Integer.parseInt(split.get(0));
-			if (index == -1)
-				break;
-
-			// DAG Name
-			String nodeName = split.get(1);
-			nodeName = nodeName.replaceAll("\\t", " ");
-			fileOut.write(nodeName);
-
-			// Props
-			int lastIndex = 0;
-			String[] propMap = new String[20];
-			out.println("listprops " + propType + " " + index);
-			while (!(result = in.readLine()).equals("--END--")) {
-				split = UtilityMethods.split(result, '=');
-				String key = UtilityMethods.shrinkString(split.get(0), 1);
-				Integer propIndex = propIndexMap.indexOf(key);
-				if (propIndex == -1) {
-					propIndex = propIndexMap.size();
-					propIndexMap.add(key);
+	private void extractDAG(boolean isEdges, int fromID, File file)
+			throws IOException {
+		File rowFile = new File(file.getPath() + ".rows");
+		Map<String, Integer> propIndexMap = new HashMap<>();
+		ArrayList<String> propNames = new ArrayList<>();
+		try (BufferedWriter rowOut = new BufferedWriter(new FileWriter(
+				rowFile), 1 << 16)) {
+			resumeID_ = fromID;
+			int retries = 0;
+			while (true) {
+				int startID = resumeID_;
+				try {
+					if (dump(isEdges, rowOut, propIndexMap))
+						break;
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
 				}
-				propMap[propIndex] = UtilityMethods.shrinkString(split.get(1),
-						1);
-				lastIndex = Math.max(lastIndex, propIndex);
+				if (resumeID_ != startID)
+					retries = 0;
+				if (++retries > MAX_RETRIES)
+					throw new IOException("Could not resume dump from ID "
+							+ resumeID_);
+				System.err.println("Connection lost, resuming from ID "
+						+ resumeID_);
+				connect();
 			}
+		}
+		for (int i = 0; i < propIndexMap.size(); i++)
+			propNames.add(null);
+		for (Map.Entry<String, Integer> entry : propIndexMap.entrySet())
+			propNames.set(entry.getValue(), entry.getKey());
 
-			// Writing the props (in order)
-			for (int i = 0; i <= lastIndex; i++) {
-				fileOut.write("\t");
-				if (propMap[i] != null)
-					fileOut.write(propMap[i].replaceAll("\\t", " "));
-			}
+		// Write the props header, then append the rows
+		try (BufferedWriter fileOut = new BufferedWriter(new FileWriter(file))) {
+			fileOut.write("DAGObject");
+			for (String prop : propNames)
+				fileOut.write("\t" + prop);
 			fileOut.write("\n");
 		}
+		try (FileChannel rowChannel = new FileInputStream(rowFile)
+				.getChannel();
+				FileChannel fileChannel = new FileOutputStream(file, true)
+						.getChannel()) {
+			long position = 0;
+			long size = rowChannel.size();
+			while (position < size)
+				position += rowChannel.transferTo(position, size - position,
+						fileChannel);
+		}
+		rowFile.delete();
+	}
+
+	/**
+	 * Writes a dump row as the object name followed by its property values, in
+	 * property index order.
+	 */
+	private void writeRow(String row, BufferedWriter rowOut,
+			Map<String, Integer> propIndexMap) throws IOException {
+		String[] fields = row.split("\t", -1);
+		rowOut.write(clean(fields[1]));
+
+		// Props
+		int lastIndex = -1;
+		String[] propMap = new String[Math.max(fields.length - 2, 0)];
+		int[] propIndices = new int[propMap.length];
+		for (int i = 2; i < fields.length; i++) {
+			int equals = fields[i].indexOf('=');
+			String key = DumpCommand.unescape(fields[i].substring(0, equals));
+			Integer propIndex = propIndexMap.get(key);
+			if (propIndex == null) {
+				propIndex = propIndexMap.size();
+				propIndexMap.put(key, propIndex);
+			}
+			propIndices[i - 2] = propIndex;
+			propMap[i - 2] = fields[i].substring(equals + 1);
+			lastIndex = Math.max(lastIndex, propIndex);
+		}
 
-		fileOut.close();
-
-		// Write props at top of file
-		File tempFile = new File("temp.txt");
-		BufferedWriter tempOut = new BufferedWriter(new FileWriter(tempFile));
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-		tempOut.write("DAGObject");
-		for (String prop : propIndexMap)
-			tempOut.write("\t" + prop);
-		tempOut.write("\n");
-
-		String input = null;
-		while ((input = reader.readLine()) != null)
-			tempOut.write(input + "\n");
-		reader.close();
-		tempOut.close();
-		file.delete();
-		tempFile.renameTo(file);
+		// Writing the props (in order)
+		String[] ordered = new String[lastIndex + 1];
+		for (int i = 0; i < propMap.length; i++)
+			ordered[propIndices[i]] = propMap[i];
+		for (int i = 0; i < ordered.length; i++) {
+			rowOut.write("\t");
+			if (ordered[i] != null)
+				rowOut.write(clean(ordered[i]));
+		}
+		rowOut.write("\n");
+	}
+
+	/**
+	 * Unescapes a dump field and replaces any whitespace that would break the
+	 * extract format.
+	 */
+	private static String clean(String field) {
+		return DumpCommand.unescape(field).replaceAll("[\\t\\r\\n]", " ");
+	}
+
+	/**
+	 * Extracts the DAG. Arguments: -p port [-n] [-e] [-f fromID] [-c
+	 * chunkSize].
+	 */
+	public static void main(String[] args) {
+		boolean nodes = false;
+		boolean edges = false;
+		int port = -1;
+		int fromID = 0;
+		int chunkSize = DumpCommand.DEFAULT_CHUNK_SIZE;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-p"))
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-n"))
+				nodes = true;
+			else if (args[i].equals("-e"))
+				edges = true;
+			else if (args[i].equals("-f"))
+				fromID = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-c"))
+				chunkSize = Integer.parseInt(args[++i]);
+		}
+
+		// Default to nodes and edges true
+		if (!nodes && !edges) {
+			nodes = true;
+			edges = true;
+		}
+
+		try {
+			ExternalExtractor ee = new ExternalExtractor(port);
+			ee.chunkSize_ = chunkSize;
+			ee.extract(nodes, edges, fromID);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 }
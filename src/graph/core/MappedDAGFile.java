@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import gnu.trove.iterator.TIntObjectIterator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import util.collection.trove.TIndexedCollection;
+
+/**
+ * A memory-mapped snapshot of a node or edge collection. The file holds each
+ * object encoded on its own (see {@link DAGObjectCodec}), followed by an
+ * offset table indexed by ID, so single objects can be read without reading
+ * the rest of the file. The file is mapped rather than read, so unused parts
+ * of it stay in the OS page cache rather than the heap.
+ *
+ * The file layout is: a header (magic, object count, maximum ID, table
+ * position), the length-prefixed object records, then one offset per ID from
+ * 0 to the maximum ID (0 if there is no such object).
+ *
+ * @author Sam Sarjant
+ */
+public class MappedDAGFile {
+	/** The size of each mapped region (a multiple of 8). */
+	private static final long REGION_SIZE = 1 << 30;
+
+	private static final int HEADER_SIZE = 20;
+
+	private static final int MAGIC = 0x4441474d;
+
+	private final int count_;
+
+	private final File file_;
+
+	private final int maxID_;
+
+	private final MappedByteBuffer[] regions_;
+
+	private final long tablePosition_;
+
+	/**
+	 * Maps an existing snapshot file.
+	 *
+	 * @param file
+	 *            The file to map.
+	 * @throws IOException
+	 *             If the file could not be mapped or is not a snapshot.
+	 */
+	public MappedDAGFile(File file) throws IOException {
+		file_ = file;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			regions_ = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+			for (int i = 0; i < regions_.length; i++) {
+				long start = i * REGION_SIZE;
+				regions_[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, Math.min(REGION_SIZE, size - start));
+			}
+		}
+		if (regions_.length == 0 || regions_[0].getInt(0) != MAGIC)
+			throw new IOException(file + " is not a mapped DAG file.");
+		count_ = regions_[0].getInt(4);
+		maxID_ = regions_[0].getInt(8);
+		tablePosition_ = regions_[0].getLong(12);
+	}
+
+	/**
+	 * Gets the position of an object's record.
+	 *
+	 * @return The position, or 0 if there is no object with the ID.
+	 */
+	private long offset(int id) {
+		if (id < 0 || id > maxID_)
+			return 0;
+		long position = tablePosition_ + 8L * id;
+		return regions_[(int) (position / REGION_SIZE)]
+				.getLong((int) (position % REGION_SIZE));
+	}
+
+	/**
+	 * Copies bytes from the file, possibly spanning regions.
+	 */
+	private void read(long position, byte[] dest) {
+		int copied = 0;
+		while (copied < dest.length) {
+			ByteBuffer region = regions_[(int) (position / REGION_SIZE)]
+					.duplicate();
+			region.position((int) (position % REGION_SIZE));
+			int length = Math.min(dest.length - copied, region.remaining());
+			region.get(dest, copied, length);
+			copied += length;
+			position += length;
+		}
+	}
+
+	public boolean contains(int id) {
+		return offset(id) != 0;
+	}
+
+	public int getCount() {
+		return count_;
+	}
+
+	public File getFile() {
+		return file_;
+	}
+
+	public int getMaxID() {
+		return maxID_;
+	}
+
+	/**
+	 * Finds the first ID with an object at or after a given ID.
+	 *
+	 * @param id
+	 *            The ID to start searching from.
+	 * @return The first ID with an object, or -1 if there are no more.
+	 */
+	public int nextID(int id) {
+		for (id = Math.max(id, 0); id <= maxID_; id++)
+			if (offset(id) != 0)
+				return id;
+		return -1;
+	}
+
+	/**
+	 * Gets the encoded record of an object.
+	 *
+	 * @param id
+	 *            The ID of the object.
+	 * @return The record bytes, or null if there is no such object.
+	 */
+	public byte[] getRecord(int id) {
+		long offset = offset(id);
+		if (offset == 0)
+			return null;
+		byte[] length = new byte[4];
+		read(offset, length);
+		byte[] record = new byte[ByteBuffer.wrap(length).getInt()];
+		read(offset + 4, record);
+		return record;
+	}
+
+	/**
+	 * Decodes an object.
+	 *
+	 * @param id
+	 *            The ID of the object.
+	 * @param dag
+	 *            The DAG to resolve edge nodes against.
+	 * @return The decoded object, or null if there is no such object.
+	 */
+	public DAGObject decode(int id, DirectedAcyclicGraph dag) {
+		byte[] record = getRecord(id);
+		if (record == null)
+			return null;
+		try {
+			return DAGObjectCodec.read(new DataInputStream(
+					new ByteArrayInputStream(record)), dag);
+		} catch (IOException e) {
+			System.err.println("Error decoding object " + id + " from "
+					+ file_);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a collection as a mapped snapshot file. The file is written to a
+	 * temporary file and renamed into place, so an existing mapping of the
+	 * file is unaffected. Objects still undecoded in a mapped collection are
+	 * copied across without decoding them.
+	 *
+	 * @param collection
+	 *            The collection to write (should not change while writing,
+	 *            e.g. a snapshot).
+	 * @param file
+	 *            The file to write.
+	 * @throws IOException
+	 *             If the file could not be written.
+	 */
+	public static void write(TIndexedCollection<? extends DAGObject> collection,
+			File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		SnapshotWriter writer = new SnapshotWriter(temp);
+		try {
+			if (collection instanceof MappedIndexedCollection) {
+				MappedIndexedCollection<?> mapped = (MappedIndexedCollection<?>) collection;
+				for (int id = mapped.nextID(0); id != -1; id = mapped
+						.nextID(id + 1)) {
+					byte[] record = mapped.getRawRecord(id);
+					if (record != null) {
+						writer.add(id, record);
+						continue;
+					}
+					DAGObject dagObj = mapped.get(id);
+					if (dagObj != null)
+						writer.add(dagObj);
+				}
+			} else {
+				TIntObjectIterator<? extends DAGObject> iter = collection
+						.iterator();
+				for (int i = collection.size(); i-- > 0;) {
+					iter.advance();
+					writer.add(iter.value());
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp);
+		}
+	}
+
+	/**
+	 * Writes the records and offset table of a snapshot file.
+	 */
+	private static class SnapshotWriter {
+		private final ByteArrayOutputStream buffer_ = new ByteArrayOutputStream();
+
+		private int count_;
+
+		private final File file_;
+
+		private int maxID_ = -1;
+
+		private long[] offsets_ = new long[1024];
+
+		private final DataOutputStream out_;
+
+		private long position_ = HEADER_SIZE;
+
+		public SnapshotWriter(File file) throws IOException {
+			file_ = file;
+			out_ = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file), 1 << 16));
+			out_.write(new byte[HEADER_SIZE]);
+		}
+
+		public void add(DAGObject dagObj) throws IOException {
+			buffer_.reset();
+			DAGObjectCodec.write(new DataOutputStream(buffer_), dagObj);
+			add(dagObj.getID(), buffer_.toByteArray());
+		}
+
+		public void add(int id, byte[] record) throws IOException {
+			if (id >= offsets_.length)
+				offsets_ = Arrays.copyOf(offsets_,
+						Math.max(id + 1, offsets_.length * 2));
+			offsets_[id] = position_;
+			maxID_ = Math.max(maxID_, id);
+			count_++;
+			out_.writeInt(record.length);
+			out_.write(record);
+			position_ += 4 + record.length;
+		}
+
+		/**
+		 * Writes the offset table and header.
+		 */
+		public void close() throws IOException {
+			// Pad the table to 8 bytes, so no offset spans two regions
+			while (position_ % 8 != 0) {
+				out_.writeByte(0);
+				position_++;
+			}
+			for (int i = 0; i <= maxID_; i++)
+				out_.writeLong(offsets_[i]);
+			out_.close();
+
+			try (RandomAccessFile raf = new RandomAccessFile(file_, "rw")) {
+				raf.writeInt(MAGIC);
+				raf.writeInt(count_);
+				raf.writeInt(maxID_);
+				raf.writeLong(position_);
+			}
+		}
+	}
+}
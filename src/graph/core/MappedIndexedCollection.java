@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import gnu.trove.iterator.TIntObjectIterator;
+
+import java.lang.reflect.Array;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+import util.UniqueID;
+import util.collection.trove.TArrayIndexedCollection;
+import util.collection.trove.TIndexedCollection;
+
+/**
+ * An indexed collection of nodes or edges over a memory-mapped snapshot file
+ * (see {@link MappedDAGFile}). Objects are only decoded from the file when
+ * first accessed, and are then cached, so the collection is usable as soon as
+ * the file is mapped. Objects added, replaced or decoded are held in an
+ * array collection over the file, and removed file objects are marked in a
+ * bit set, as are the IDs of added objects that are not in the file.
+ *
+ * Reads of decoded objects are lock-free. Writes are serialised on the
+ * collection. Snapshots (see {@link #snapshot()}) share the objects decoded
+ * before the snapshot with this collection, and decode any others without
+ * caching them.
+ *
+ * @author Sam Sarjant
+ */
+public class MappedIndexedCollection<T extends DAGObject> implements
+		TIndexedCollection<T> {
+	private final MappedDAGFile base_;
+
+	/** The objects decoded from, added to or replaced in the file. */
+	private final TArrayIndexedCollection<T> cache_;
+
+	private final DirectedAcyclicGraph dag_;
+
+	/** The IDs of the added objects that are not in the file. */
+	private final BitSet added_;
+
+	/** The collection this is a snapshot of, or null. */
+	private final MappedIndexedCollection<T> live_;
+
+	/** The file objects that have been removed. */
+	private final BitSet removed_;
+
+	private volatile int size_;
+
+	/**
+	 * Constructor for a new collection over a mapped file.
+	 *
+	 * @param base
+	 *            The mapped file.
+	 * @param dag
+	 *            The DAG to resolve edge nodes against.
+	 */
+	public MappedIndexedCollection(MappedDAGFile base, DirectedAcyclicGraph dag) {
+		base_ = base;
+		dag_ = dag;
+		cache_ = new TArrayIndexedCollection<>(base.getMaxID());
+		removed_ = new BitSet(base.getMaxID() + 1);
+		added_ = new BitSet();
+		size_ = base.getCount();
+		live_ = null;
+	}
+
+	/**
+	 * Constructor for a read-only snapshot.
+	 *
+	 * @param live
+	 *            The collection to snapshot (locked by the caller).
+	 */
+	private MappedIndexedCollection(MappedIndexedCollection<T> live) {
+		base_ = live.base_;
+		dag_ = live.dag_;
+		cache_ = live.cache_.snapshot();
+		removed_ = (BitSet) live.removed_.clone();
+		added_ = (BitSet) live.added_.clone();
+		size_ = live.size_;
+		live_ = live;
+	}
+
+	private void checkWritable() {
+		if (live_ != null)
+			throw new UnsupportedOperationException(
+					"Cannot modify a collection snapshot.");
+	}
+
+	@SuppressWarnings("unchecked")
+	private T decode(int id) {
+		return (T) base_.decode(id, dag_);
+	}
+
+	@Override
+	public synchronized boolean add(T obj) {
+		checkWritable();
+		int id = obj.getID();
+		if (id < 0 || cache_.get(id) == obj)
+			return false;
+		boolean present = cache_.get(id) != null
+				|| (base_.contains(id) && !removed_.get(id));
+		cache_.add(obj);
+		if (base_.contains(id))
+			removed_.clear(id);
+		else
+			added_.set(id);
+		if (!present)
+			size_++;
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		checkWritable();
+		cache_.clear();
+		removed_.set(0, base_.getMaxID() + 1);
+		added_.clear();
+		size_ = 0;
+	}
+
+	@Override
+	public boolean contains(Object obj) {
+		if (!(obj instanceof UniqueID))
+			return false;
+		T existing = get(((UniqueID) obj).getID());
+		return existing != null && existing.equals(obj);
+	}
+
+	@Override
+	public T get(int id) {
+		T obj = cache_.get(id);
+		if (obj != null || !base_.contains(id))
+			return obj;
+		synchronized (this) {
+			if (removed_.get(id))
+				return null;
+		}
+		if (live_ != null) {
+			// Undecoded at the snapshot, so the file holds its state then.
+			// Not cached, so exports do not pull the file onto the heap.
+			return decode(id);
+		}
+
+		// Decode outside the lock, as edges look up their nodes
+		T decoded = decode(id);
+		if (decoded == null)
+			return null;
+		synchronized (this) {
+			obj = cache_.get(id);
+			if (obj != null || removed_.get(id))
+				return obj;
+			cache_.add(decoded);
+			return decoded;
+		}
+	}
+
+	/**
+	 * @return The mapped file this collection is over.
+	 */
+	public MappedDAGFile getBase() {
+		return base_;
+	}
+
+	/**
+	 * Gets the encoded file record of an object, if the object has not been
+	 * decoded (and so cannot have been modified).
+	 *
+	 * @param id
+	 *            The ID of the object.
+	 * @return The record, or null if the object is decoded or not present.
+	 */
+	public synchronized byte[] getRawRecord(int id) {
+		if (cache_.get(id) != null || removed_.get(id))
+			return null;
+		return base_.getRecord(id);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size_ == 0;
+	}
+
+	@Override
+	public TIntObjectIterator<T> iterator() {
+		return new MappedIterator();
+	}
+
+	/**
+	 * Finds the first ID at or after a given ID that may hold an object.
+	 *
+	 * @param id
+	 *            The ID to start searching from.
+	 * @return The first such ID, or -1 if there are no more objects.
+	 */
+	public int nextID(int id) {
+		// Decoded/replaced objects are file IDs, so only added IDs need
+		// checking outside of the file
+		int baseID = base_.nextID(id);
+		int addedID;
+		synchronized (this) {
+			while (baseID != -1 && removed_.get(baseID))
+				baseID = base_.nextID(baseID + 1);
+			addedID = added_.nextSetBit(Math.max(id, 0));
+		}
+		if (addedID == -1)
+			return baseID;
+		if (baseID == -1)
+			return addedID;
+		return Math.min(addedID, baseID);
+	}
+
+	@Override
+	public synchronized boolean remove(T obj) {
+		checkWritable();
+		int id = obj.getID();
+		if (id < 0)
+			return false;
+		T cached = cache_.get(id);
+		if (cached != null) {
+			if (!cached.equals(obj))
+				return false;
+			cache_.remove(cached);
+		} else if (!base_.contains(id) || removed_.get(id))
+			return false;
+		if (base_.contains(id))
+			removed_.set(id);
+		else
+			added_.clear(id);
+		size_--;
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size_;
+	}
+
+	/**
+	 * Takes a read-only, point-in-time snapshot of the collection.
+	 *
+	 * @return A read-only snapshot of the collection.
+	 */
+	public synchronized MappedIndexedCollection<T> snapshot() {
+		if (live_ != null)
+			return this;
+		return new MappedIndexedCollection<>(this);
+	}
+
+	@Override
+	public Object[] toArray() {
+		return toArray(new Object[size_]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E> E[] toArray(E[] array) {
+		int size = size_;
+		if (array.length < size)
+			array = (E[]) Array.newInstance(array.getClass()
+					.getComponentType(), size);
+		int i = 0;
+		TIntObjectIterator<T> iter = iterator();
+		while (iter.hasNext() && i < array.length) {
+			iter.advance();
+			array[i++] = (E) iter.value();
+		}
+		if (i < array.length)
+			array[i] = null;
+		return array;
+	}
+
+	@Override
+	public String toString() {
+		return ((live_ != null) ? "Mapped snapshot (" : "Mapped collection (")
+				+ size_ + " objects, " + cache_.size() + " decoded, over "
+				+ base_.getFile() + ")";
+	}
+
+	/**
+	 * Iterates the objects in ID order, decoding them as needed.
+	 */
+	private class MappedIterator implements TIntObjectIterator<T> {
+		private T current_;
+		private int currentID_ = -1;
+		private T next_;
+		private int nextID_;
+
+		public MappedIterator() {
+			findNext(0);
+		}
+
+		private void findNext(int from) {
+			next_ = null;
+			for (nextID_ = nextID(from); nextID_ != -1; nextID_ = nextID(nextID_ + 1)) {
+				next_ = get(nextID_);
+				if (next_ != null)
+					return;
+			}
+		}
+
+		@Override
+		public void advance() {
+			if (nextID_ == -1)
+				throw new NoSuchElementException();
+			currentID_ = nextID_;
+			current_ = next_;
+			findNext(currentID_ + 1);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextID_ != -1;
+		}
+
+		@Override
+		public int key() {
+			return currentID_;
+		}
+
+		@Override
+		public void remove() {
+			if (current_ == null)
+				throw new IllegalStateException();
+			MappedIndexedCollection.this.remove(current_);
+			current_ = null;
+		}
+
+		@Override
+		public T setValue(T value) {
+			T old = current_;
+			MappedIndexedCollection.this.add(value);
+			current_ = value;
+			return old;
+		}
+
+		@Override
+		public T value() {
+			return current_;
+		}
+	}
+}
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import graph.module.DAGModule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Delivers DAG changes to an asynchronous module (see
+ * {@link DAGModule#isAsynchronous()}) on the module's own thread. Changes are
+ * delivered in the order they were queued, in batches: runs of added nodes or
+ * edges are passed to the module's batch methods.
+ *
+ * Each queued change is numbered, so callers can take a fence (see
+ * {@link #fence()}) and wait until the module has processed every change up
+ * to it (see {@link #await(long)}), or run a task on the module's thread at
+ * that point (see {@link #runAt(long, Runnable)}).
+ *
+ * The queue is bounded: once a module falls too far behind, writers wait
+ * for it to catch up rather than queuing changes without limit.
+ *
+ * @author Sam Sarjant
+ */
+public class ModuleEventQueue implements Runnable {
+	/** The maximum number of changes delivered at once. */
+	private static final int MAX_BATCH = 4096;
+
+	/** The number of undelivered changes at which writers wait. */
+	private static final int MAX_QUEUED = 65536;
+
+	private final DAGModule<?> module_;
+
+	/** The number of changes processed by the module. */
+	private long processed_;
+
+	private final ArrayDeque<ModuleEvent> queue_ = new ArrayDeque<>();
+
+	/** The number of changes queued. */
+	private long queued_;
+
+	private boolean running_ = true;
+
+	/** If the module thread has stopped delivering changes. */
+	private boolean stopped_;
+
+	/** The tasks to run once the changes up to their fence are processed. */
+	private final TreeMap<Long, List<Runnable>> tasks_ = new TreeMap<>();
+
+	private final Thread thread_;
+
+	/**
+	 * Creates and starts a queue for a module.
+	 *
+	 * @param module
+	 *            The asynchronous module.
+	 */
+	public ModuleEventQueue(DAGModule<?> module) {
+		module_ = module;
+		thread_ = new Thread(this, module.getClass().getSimpleName()
+				+ " events");
+		thread_.setDaemon(true);
+		thread_.start();
+	}
+
+	/**
+	 * Delivers a batch of changes to the module.
+	 */
+	private void deliver(List<ModuleEvent> events) {
+		List<DAGNode> nodes = new ArrayList<>();
+		List<DAGEdge> edges = new ArrayList<>();
+		for (ModuleEvent event : events) {
+			try {
+				// Flush runs of additions when a different change comes
+				if (event.type_ != EventType.ADD_NODE && !nodes.isEmpty()) {
+					module_.addNodes(nodes);
+					nodes = new ArrayList<>();
+				}
+				if (event.type_ != EventType.ADD_EDGE && !edges.isEmpty()) {
+					module_.addEdges(edges);
+					edges = new ArrayList<>();
+				}
+
+				switch (event.type_) {
+				case ADD_NODE:
+					if (module_.supportsNode((DAGNode) event.dagObj_))
+						nodes.add((DAGNode) event.dagObj_);
+					break;
+				case ADD_EDGE:
+					if (module_.supportsEdge((DAGEdge) event.dagObj_))
+						edges.add((DAGEdge) event.dagObj_);
+					break;
+				case ADD_PROPERTY:
+					if (supports(event.dagObj_))
+						module_.addProperty(event.dagObj_, event.key_,
+								event.value_);
+					break;
+				case REMOVE_PROPERTY:
+					if (supports(event.dagObj_))
+						module_.removeProperty(event.dagObj_, event.key_);
+					break;
+				case REMOVE_NODE:
+					if (module_.supportsNode((DAGNode) event.dagObj_))
+						module_.removeNode((DAGNode) event.dagObj_);
+					break;
+				case REMOVE_EDGE:
+					if (module_.supportsEdge((DAGEdge) event.dagObj_))
+						module_.removeEdge((DAGEdge) event.dagObj_);
+					break;
+				case CLEAR:
+					module_.clear();
+					break;
+				}
+			} catch (Exception e) {
+				System.err.println("Error delivering " + event.type_ + " to "
+						+ module_);
+				e.printStackTrace();
+			}
+		}
+		try {
+			if (!nodes.isEmpty())
+				module_.addNodes(nodes);
+			if (!edges.isEmpty())
+				module_.addEdges(edges);
+		} catch (Exception e) {
+			System.err.println("Error delivering additions to " + module_);
+			e.printStackTrace();
+		}
+	}
+
+	private boolean supports(DAGObject dagObj) {
+		return (dagObj instanceof DAGEdge && module_
+				.supportsEdge((DAGEdge) dagObj))
+				|| (dagObj instanceof DAGNode && module_
+						.supportsNode((DAGNode) dagObj));
+	}
+
+	/**
+	 * Waits until the module has processed every change up to a fence.
+	 *
+	 * @param fence
+	 *            The fence to wait for.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting.
+	 */
+	public synchronized void await(long fence) throws InterruptedException {
+		while (processed_ < fence && thread_.isAlive())
+			wait();
+	}
+
+	private boolean hasDueTasks() {
+		return !tasks_.isEmpty() && tasks_.firstKey() <= processed_;
+	}
+
+	/**
+	 * Removes the tasks that are due to run.
+	 * 
+	 * @return The due tasks, or null if there are none.
+	 */
+	private List<Runnable> pollDueTasks() {
+		if (!hasDueTasks())
+			return null;
+		List<Runnable> due = new ArrayList<>();
+		while (hasDueTasks())
+			due.addAll(tasks_.pollFirstEntry().getValue());
+		return due;
+	}
+
+	/**
+	 * Runs a task on the module's thread once the module has processed every
+	 * change up to a fence, and before it processes any later change.
+	 *
+	 * @param fence
+	 *            The fence to run the task at (no earlier than the changes
+	 *            already processed).
+	 * @param task
+	 *            The task to run.
+	 */
+	public void runAt(long fence, Runnable task) {
+		synchronized (this) {
+			if (!stopped_) {
+				List<Runnable> tasks = tasks_.get(fence);
+				if (tasks == null)
+					tasks_.put(fence, tasks = new ArrayList<>());
+				tasks.add(task);
+				notifyAll();
+				return;
+			}
+		}
+		// Stopped, so nothing else will change the module
+		task.run();
+	}
+
+	/**
+	 * Stops the queue once every queued change has been delivered.
+	 */
+	public void close() {
+		synchronized (this) {
+			running_ = false;
+			notifyAll();
+		}
+		try {
+			thread_.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return A fence covering every change queued so far.
+	 */
+	public synchronized long fence() {
+		return queued_;
+	}
+
+	public DAGModule<?> getModule() {
+		return module_;
+	}
+
+	/**
+	 * @return The number of changes queued but not yet processed.
+	 */
+	public synchronized long getPending() {
+		return queued_ - processed_;
+	}
+
+	/**
+	 * Queues a change for the module, waiting first if the queue is full
+	 * (unless called from the module's own thread).
+	 *
+	 * @param type
+	 *            The type of change.
+	 * @param dagObj
+	 *            The changed node or edge (null for a clear).
+	 * @param key
+	 *            The property key, for property changes.
+	 * @param value
+	 *            The property value, for added properties.
+	 * @return The fence of the change.
+	 */
+	public synchronized long queue(EventType type, DAGObject dagObj,
+			String key, String value) {
+		while (queue_.size() >= MAX_QUEUED && running_
+				&& thread_.isAlive() && Thread.currentThread() != thread_) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		queue_.add(new ModuleEvent(type, dagObj, key, value));
+		notifyAll();
+		return ++queued_;
+	}
+
+	@Override
+	public void run() {
+		List<ModuleEvent> batch = new ArrayList<>();
+		while (true) {
+			List<Runnable> due;
+			synchronized (this) {
+				while (queue_.isEmpty() && running_ && !hasDueTasks()) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						running_ = false;
+						queue_.clear();
+					}
+				}
+				due = pollDueTasks();
+				if (due == null && queue_.isEmpty()) {
+					// Tasks queued by now would never run, so run them here
+					stopped_ = true;
+					due = new ArrayList<>();
+					for (List<Runnable> tasks : tasks_.values())
+						due.addAll(tasks);
+					tasks_.clear();
+				} else if (due == null) {
+					// Batches stop at the next task's fence
+					long limit = MAX_BATCH;
+					if (!tasks_.isEmpty())
+						limit = Math.min(limit, tasks_.firstKey() - processed_);
+					while (!queue_.isEmpty() && batch.size() < limit)
+						batch.add(queue_.poll());
+				}
+			}
+			if (due != null) {
+				for (Runnable task : due)
+					task.run();
+				if (stopped_)
+					return;
+				continue;
+			}
+
+			deliver(batch);
+			synchronized (this) {
+				processed_ += batch.size();
+				notifyAll();
+			}
+			batch.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return module_ + " (" + getPending() + " pending)";
+	}
+
+	/**
+	 * The types of change delivered to modules.
+	 */
+	public enum EventType {
+		ADD_EDGE, ADD_NODE, ADD_PROPERTY, CLEAR, REMOVE_EDGE, REMOVE_NODE, REMOVE_PROPERTY;
+	}
+
+	private static class ModuleEvent {
+		private final DAGObject dagObj_;
+		private final String key_;
+		private final EventType type_;
+		private final String value_;
+
+		public ModuleEvent(EventType type, DAGObject dagObj, String key,
+				String value) {
+			type_ = type;
+			dagObj_ = dagObj;
+			key_ = key;
+			value_ = value;
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+/**
+ * A hand-written lexer for node tokens. It accepts exactly the same grammar as
+ * the node patterns in {@link DAGNode} and {@link DirectedAcyclicGraph}, but
+ * classifies a token in a single pass without compiling or running any
+ * regular expressions.
+ *
+ * @author Sam Sarjant
+ */
+public final class NodeLexer {
+	/** The token types a node string can be. */
+	public enum Token {
+		/** The empty string. */
+		EMPTY,
+		/** A string starting with a quote that is not a valid quoted name. */
+		STRING,
+		/** A valid quoted name (also a string). */
+		QUOTED_NAME,
+		/** A non-negative integer (node ID). */
+		ID,
+		/** A decimal number (-?\d+\.[\dE+-]+). */
+		DECIMAL,
+		/** A primitive marked with a leading apostrophe. */
+		PRIMITIVE,
+		/** A valid unquoted name. */
+		NAME,
+		/** Anything else. */
+		INVALID;
+	}
+
+	private NodeLexer() {
+	}
+
+	/**
+	 * Classifies a node string.
+	 *
+	 * @param str
+	 *            The node string.
+	 * @return The token type of the string.
+	 */
+	public static Token classify(String str) {
+		int len = str.length();
+		if (len == 0)
+			return Token.EMPTY;
+		char first = str.charAt(0);
+		if (first == '"')
+			return (isQuotedName(str)) ? Token.QUOTED_NAME : Token.STRING;
+		if (first == '\'')
+			return Token.PRIMITIVE;
+
+		// Scan numbers
+		int i = (first == '-') ? 1 : 0;
+		int digitStart = i;
+		while (i < len && isDigit(str.charAt(i)))
+			i++;
+		if (i == len && digitStart == 0)
+			return Token.ID;
+		if (i > digitStart && i < len - 1 && str.charAt(i) == '.') {
+			int j = i + 1;
+			while (j < len && isDecimalChar(str.charAt(j)))
+				j++;
+			if (j == len)
+				return Token.DECIMAL;
+		}
+
+		return (isUnspacedName(str)) ? Token.NAME : Token.INVALID;
+	}
+
+	/**
+	 * Gets the suffix of a string matching [-+]?\d[\dE+-.]*[fd]? (the
+	 * floating point grammar of primitive nodes).
+	 *
+	 * @param str
+	 *            The string to check.
+	 * @return 'f' or 'd' for a matching suffixed string, ' ' for a matching
+	 *         unsuffixed string, or 0 if the string does not match.
+	 */
+	public static char floatingSuffix(String str) {
+		int len = str.length();
+		int i = 0;
+		if (len > 0 && (str.charAt(0) == '-' || str.charAt(0) == '+'))
+			i++;
+		if (i >= len || !isDigit(str.charAt(i)))
+			return 0;
+		for (i++; i < len; i++) {
+			char c = str.charAt(i);
+			if (isDigit(c) || c == 'E' || (c >= '+' && c <= '.'))
+				continue;
+			if (i == len - 1 && (c == 'f' || c == 'd'))
+				return c;
+			return 0;
+		}
+		return ' ';
+	}
+
+	/**
+	 * If a token is a primitive token within an edge string: an optionally
+	 * negative number of digits, dots and Es, or any single non-whitespace
+	 * character, followed by any number of closing brackets.
+	 *
+	 * @param str
+	 *            The token to check.
+	 * @return True if the token is a primitive token.
+	 */
+	public static boolean isPrimitiveToken(String str) {
+		int end = str.length();
+		while (end > 0 && str.charAt(end - 1) == ')')
+			end--;
+		if (end == 0)
+			return str.length() > 0;
+		if (end == 1)
+			return !isWhitespace(str.charAt(0));
+
+		int i = (str.charAt(0) == '-') ? 1 : 0;
+		if (!isDigit(str.charAt(i)))
+			return false;
+		for (i++; i < end; i++) {
+			char c = str.charAt(i);
+			if (!isDigit(c) && c != '.' && c != 'E')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * If a string is a quoted name: a quoted string where any inner quotes
+	 * are escaped.
+	 *
+	 * @param str
+	 *            The string to check.
+	 * @return True if the string is a quoted name.
+	 */
+	public static boolean isQuotedName(String str) {
+		int len = str.length();
+		if (len < 2 || str.charAt(0) != '"')
+			return false;
+		for (int i = 1; i < len; i++) {
+			char c = str.charAt(i);
+			if (c == '\\') {
+				i++;
+				if (i >= len || isLineTerminator(str.charAt(i)))
+					return false;
+			} else if (c == '"')
+				return i == len - 1;
+		}
+		return false;
+	}
+
+	/**
+	 * If a string is an unquoted name: an alphanumeric character followed by
+	 * one or more characters that are not whitespace, brackets, question
+	 * marks or apostrophes.
+	 *
+	 * @param str
+	 *            The string to check.
+	 * @return True if the string is an unquoted name.
+	 */
+	public static boolean isUnspacedName(String str) {
+		int len = str.length();
+		if (len < 2)
+			return false;
+		char first = str.charAt(0);
+		if (!isDigit(first) && !(first >= 'a' && first <= 'z')
+				&& !(first >= 'A' && first <= 'Z'))
+			return false;
+		for (int i = 1; i < len; i++) {
+			char c = str.charAt(i);
+			if (isWhitespace(c) || c == '?' || c == '(' || c == ')'
+					|| c == '\'')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * If a character is a regex line terminator.
+	 *
+	 * @param c
+	 *            The character to check.
+	 * @return True if the character terminates a line.
+	 */
+	public static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+				|| c == '\u2029';
+	}
+
+	/**
+	 * If a string is a valid (quoted or unquoted) node name.
+	 *
+	 * @param str
+	 *            The string to check.
+	 * @return True if the string is a valid name.
+	 */
+	public static boolean isValidName(String str) {
+		if (str.isEmpty())
+			return false;
+		if (str.charAt(0) == '"')
+			return isQuotedName(str);
+		return isUnspacedName(str);
+	}
+
+	/**
+	 * Counts the digits of an optionally negative integer string.
+	 *
+	 * @param str
+	 *            The string to check.
+	 * @return The number of digits, or -1 if the string is not -?\d+.
+	 */
+	public static int signedDigits(String str) {
+		int len = str.length();
+		int start = (len > 0 && str.charAt(0) == '-') ? 1 : 0;
+		if (start == len)
+			return -1;
+		for (int i = start; i < len; i++)
+			if (!isDigit(str.charAt(i)))
+				return -1;
+		return len - start;
+	}
+
+	/**
+	 * Unquotes a string node string: strips all leading quotes and a single
+	 * trailing unescaped quote, and replaces tabs with spaces.
+	 *
+	 * @param str
+	 *            The string to unquote.
+	 * @return The unquoted string.
+	 */
+	public static String unquote(String str) {
+		int start = 0;
+		int len = str.length();
+		while (start < len && str.charAt(start) == '"')
+			start++;
+
+		// A trailing quote may precede a final line terminator
+		int end = len;
+		int quote = len - 1;
+		if (quote > start && isLineTerminator(str.charAt(quote))) {
+			quote--;
+			if (str.charAt(quote + 1) == '\n' && quote > start
+					&& str.charAt(quote) == '\r')
+				quote--;
+		}
+		if (quote > start && str.charAt(quote) == '"') {
+			// Must be preceded by an even number of backslashes and another
+			// character
+			int backslashes = 0;
+			int i = quote - 1;
+			while (i >= start && str.charAt(i) == '\\') {
+				backslashes++;
+				i--;
+			}
+			if (i >= start && backslashes % 2 == 0)
+				end = quote;
+		}
+
+		String result;
+		if (end == len)
+			result = (start == 0) ? str : str.substring(start);
+		else
+			result = str.substring(start, end) + str.substring(end + 1);
+		return result.replace('\t', ' ');
+	}
+
+	private static boolean isDecimalChar(char c) {
+		return isDigit(c) || c == 'E' || c == '+' || c == '-';
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B'
+				|| c == '\f' || c == '\r';
+	}
+}
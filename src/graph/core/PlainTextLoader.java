@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import util.UtilityMethods;
+
+/**
+ * Loads a plain text file of nodes/edges (a tab-separated header of property
+ * keys, then one object and its property values per line) in a pipeline. A
+ * reader thread splits the file into chunks of lines, worker threads parse the
+ * chunks in parallel, and the calling thread applies the parsed chunks to the
+ * DAG in file order (edges in batches).
+ *
+ * Bad lines do not stop the load: they are reported and written to a reject
+ * file (along with the header, so the file can be corrected and reloaded).
+ *
+ * @author Sam Sarjant
+ */
+public class PlainTextLoader {
+	/** The number of lines per parsed chunk. */
+	private static final int CHUNK_SIZE = 1000;
+
+	/** The suffix of the reject file, appended to the loaded file name. */
+	public static final String REJECT_SUFFIX = ".rejects";
+
+	private final DirectedAcyclicGraph dag_;
+
+	private final boolean isEdge_;
+
+	private final int numThreads_;
+
+	private String header_;
+
+	private int numLoaded_;
+
+	private int numRejects_;
+
+	/** An error thrown by the reader thread. */
+	private volatile IOException readError_;
+
+	private File rejectFile_;
+
+	private BufferedWriter rejectOut_;
+
+	/**
+	 * Constructor for a new loader.
+	 *
+	 * @param dag
+	 *            The DAG to load into.
+	 * @param isEdge
+	 *            If loading edges (otherwise nodes).
+	 * @param numThreads
+	 *            The number of parsing threads.
+	 */
+	public PlainTextLoader(DirectedAcyclicGraph dag, boolean isEdge,
+			int numThreads) {
+		dag_ = dag;
+		isEdge_ = isEdge;
+		numThreads_ = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Applies a parsed chunk to the DAG, in line order.
+	 *
+	 * @param chunk
+	 *            The parsed chunk.
+	 * @param props
+	 *            The property keys of the file columns.
+	 */
+	private void apply(Chunk chunk, String[] props) throws IOException {
+		int size = chunk.lines_.size();
+		DAGObject[] objects = new DAGObject[size];
+		if (isEdge_)
+			createEdges(chunk, objects);
+		else {
+			for (int i = 0; i < size; i++) {
+				if (chunk.errors_[i] != null)
+					continue;
+				try {
+					Node n = dag_.findOrCreateNode(chunk.dagStrs_[i], null,
+							true);
+					if (n instanceof DAGObject)
+						objects[i] = (DAGObject) n;
+					else
+						chunk.errors_[i] = "NullNode";
+				} catch (Exception e) {
+					chunk.errors_[i] = e.toString();
+				}
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (objects[i] != null) {
+				// Adding props
+				try {
+					String[] split = chunk.columns_[i];
+					for (int j = 1; j < split.length; j++) {
+						if (!split[j].isEmpty())
+							dag_.addProperty(objects[i], props[j], split[j]);
+					}
+					numLoaded_++;
+					continue;
+				} catch (Exception e) {
+					chunk.errors_[i] = "Error adding properties: " + e;
+				}
+			}
+			reject(chunk.firstLine_ + i, chunk.lines_.get(i),
+					chunk.errors_[i]);
+		}
+	}
+
+	/**
+	 * Creates the edges of a chunk as a single batch, falling back to
+	 * line-by-line creation if the batch fails.
+	 */
+	private void createEdges(Chunk chunk, DAGObject[] objects) {
+		List<String> edgeStrs = new ArrayList<>(objects.length);
+		List<Integer> indices = new ArrayList<>(objects.length);
+		for (int i = 0; i < objects.length; i++) {
+			if (chunk.errors_[i] == null) {
+				edgeStrs.add(chunk.dagStrs_[i]);
+				indices.add(i);
+			}
+		}
+
+		try {
+			List<Node[]> edgeNodes = dag_.parseNodes(edgeStrs, null, true);
+			List<Node[]> parsed = new ArrayList<>(edgeNodes.size());
+			List<Integer> parsedIndices = new ArrayList<>(edgeNodes.size());
+			for (int j = 0; j < edgeNodes.size(); j++) {
+				if (edgeNodes.get(j) == null)
+					chunk.errors_[indices.get(j)] = "NullNodes";
+				else {
+					parsed.add(edgeNodes.get(j));
+					parsedIndices.add(indices.get(j));
+				}
+			}
+
+			Edge[] edges = dag_.addEdges(parsed, null, false);
+			for (int k = 0; k < edges.length; k++) {
+				if (edges[k] instanceof ErrorEdge)
+					chunk.errors_[parsedIndices.get(k)] = "ErrorEdge: "
+							+ ((ErrorEdge) edges[k]).getError(true);
+				else
+					objects[parsedIndices.get(k)] = (DAGEdge) edges[k];
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			for (int i : indices) {
+				if (objects[i] != null || chunk.errors_[i] != null)
+					continue;
+				try {
+					objects[i] = dag_.parseDAGObject(chunk.dagStrs_[i], true);
+					if (objects[i] == null)
+						chunk.errors_[i] = "Could not create edge";
+				} catch (Exception e2) {
+					chunk.errors_[i] = e2.toString();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the file into chunks, submitting each for parsing and queueing
+	 * the pending results in file order.
+	 */
+	private void readChunks(BufferedReader reader, CountingInputStream counter,
+			ExecutorService workers, BlockingQueue<Future<Chunk>> parsed)
+			throws IOException, InterruptedException {
+		int lineNum = 1;
+		List<String> lines = new ArrayList<>(CHUNK_SIZE);
+		String input = null;
+		while ((input = reader.readLine()) != null) {
+			lineNum++;
+			lines.add(input);
+			if (lines.size() == CHUNK_SIZE) {
+				parsed.put(workers.submit(new ParseTask(new Chunk(lineNum
+						- lines.size() + 1, lines, counter.getCount()))));
+				lines = new ArrayList<>(CHUNK_SIZE);
+			}
+		}
+		if (!lines.isEmpty())
+			parsed.put(workers.submit(new ParseTask(new Chunk(lineNum
+					- lines.size() + 1, lines, counter.getCount()))));
+	}
+
+	/**
+	 * Records a rejected line.
+	 */
+	private void reject(int lineNum, String input, String reason)
+			throws IOException {
+		System.err.println("(" + lineNum + ") " + reason + ": " + input);
+		if (rejectOut_ == null) {
+			rejectOut_ = new BufferedWriter(new FileWriter(rejectFile_));
+			rejectOut_.write(header_ + "\n");
+		}
+		rejectOut_.write(input + "\n");
+		numRejects_++;
+	}
+
+	/**
+	 * @return The number of lines loaded by the last load.
+	 */
+	public int getNumLoaded() {
+		return numLoaded_;
+	}
+
+	/**
+	 * @return The number of lines rejected by the last load.
+	 */
+	public int getNumRejects() {
+		return numRejects_;
+	}
+
+	/**
+	 * @return The file rejected lines are written to.
+	 */
+	public File getRejectFile() {
+		return rejectFile_;
+	}
+
+	/**
+	 * Loads a plain text file into the DAG.
+	 *
+	 * @param file
+	 *            The file to load.
+	 * @return The number of lines loaded.
+	 * @throws IOException
+	 *             If the file could not be read.
+	 */
+	public int load(File file) throws IOException {
+		numLoaded_ = 0;
+		numRejects_ = 0;
+		readError_ = null;
+		rejectFile_ = new File(file.getPath() + REJECT_SUFFIX);
+		rejectFile_.delete();
+
+		final CountingInputStream counter = new CountingInputStream(
+				new FileInputStream(file));
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				counter));
+		header_ = reader.readLine();
+		if (header_ == null) {
+			reader.close();
+			return 0;
+		}
+		String[] props = header_.split("\\t");
+		long fileLength = Math.max(1, file.length());
+
+		final ExecutorService workers = Executors
+				.newFixedThreadPool(numThreads_);
+		final BlockingQueue<Future<Chunk>> parsed = new ArrayBlockingQueue<>(
+				numThreads_ * 4);
+		Thread readerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					readChunks(reader, counter, workers, parsed);
+				} catch (IOException e) {
+					readError_ = e;
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					parsed.put(endOfFile());
+				} catch (InterruptedException e) {
+				}
+			}
+		}, "Plain text reader");
+		readerThread.start();
+
+		// Apply the chunks in order
+		int percent = 1;
+		try {
+			Chunk chunk = null;
+			while ((chunk = parsed.take().get()).lines_ != null) {
+				apply(chunk, props);
+
+				// Status update
+				while (chunk.endOffset_ * 100 >= percent * fileLength
+						&& percent <= 100) {
+					if ((percent % 10) == 0)
+						System.out.print(percent + "%");
+					else
+						System.out.print(".");
+					percent++;
+				}
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Error loading " + file, e);
+		} finally {
+			readerThread.interrupt();
+			workers.shutdownNow();
+			reader.close();
+			if (rejectOut_ != null) {
+				rejectOut_.close();
+				rejectOut_ = null;
+			}
+		}
+		System.out.println();
+		if (readError_ != null)
+			throw readError_;
+		return numLoaded_;
+	}
+
+	/**
+	 * @return A completed future holding the end-of-file marker chunk.
+	 */
+	private static Future<Chunk> endOfFile() {
+		FutureTask<Chunk> end = new FutureTask<>(new Callable<Chunk>() {
+			@Override
+			public Chunk call() {
+				return new Chunk(-1, null, -1);
+			}
+		});
+		end.run();
+		return end;
+	}
+
+	/**
+	 * A chunk of consecutive lines and their parsed forms.
+	 */
+	private static class Chunk {
+		/** The split columns of each line. */
+		private String[][] columns_;
+
+		/** The normalised DAG object string of each line. */
+		private String[] dagStrs_;
+
+		/** The byte offset of the end of the chunk (approximately). */
+		private final long endOffset_;
+
+		/** The reason each line was rejected (or null). */
+		private String[] errors_;
+
+		private final int firstLine_;
+
+		private final List<String> lines_;
+
+		public Chunk(int firstLine, List<String> lines, long endOffset) {
+			firstLine_ = firstLine;
+			lines_ = lines;
+			endOffset_ = endOffset;
+		}
+	}
+
+	/**
+	 * Counts the bytes read through a stream, for progress reporting.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private volatile long count_;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		public long getCount() {
+			return count_;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				count_++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count_ += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count_ += skipped;
+			return skipped;
+		}
+	}
+
+	/**
+	 * Splits and normalises the lines of a chunk.
+	 */
+	private static class ParseTask implements Callable<Chunk> {
+		private final Chunk chunk_;
+
+		public ParseTask(Chunk chunk) {
+			chunk_ = chunk;
+		}
+
+		@Override
+		public Chunk call() {
+			int size = chunk_.lines_.size();
+			chunk_.columns_ = new String[size][];
+			chunk_.dagStrs_ = new String[size];
+			chunk_.errors_ = new String[size];
+			for (int i = 0; i < size; i++) {
+				try {
+					String[] split = UtilityMethods.splitToArray(
+							chunk_.lines_.get(i), '\t');
+					if (split.length <= 1) {
+						chunk_.errors_[i] = "Error splitting input";
+						continue;
+					}
+					chunk_.columns_[i] = split;
+					chunk_.dagStrs_[i] = DirectedAcyclicGraph
+							.markPrimitives(split[0]);
+				} catch (Exception e) {
+					chunk_.errors_[i] = e.toString();
+				}
+			}
+			return chunk_;
+		}
+	}
+}
@@ -10,41 +10,51 @@
  ******************************************************************************/
 package graph.core;
 
-public class PrimitiveNode implements Node {
+import util.collection.WeakInterner;
+
+/**
+ * A node representing a primitive value. Each primitive type has its own
+ * unboxed subclass. Instances are canonical: common small values are cached
+ * and all others are interned, so equal primitives share one node.
+ *
+ * @author Sam Sarjant
+ */
+public abstract class PrimitiveNode implements Node {
 	private static final long serialVersionUID = 3362826577155380695L;
 
-	private Object primitive_;
+	/** The largest cached char/short value. */
+	private static final int CACHE_HIGH = 1023;
 
-	private PrimitiveNode(boolean value) {
-		primitive_ = value;
-	}
+	/** The smallest cached short value. */
+	private static final int CACHE_LOW = -128;
 
-	private PrimitiveNode(byte value) {
-		primitive_ = value;
-	}
+	private static final CharNode[] charCache_ = new CharNode[CACHE_HIGH + 1];
 
-	private PrimitiveNode(char value) {
-		primitive_ = value;
-	}
+	private static final WeakInterner<PrimitiveNode> pool_ = new WeakInterner<>();
 
-	private PrimitiveNode(double value) {
-		primitive_ = value;
-	}
+	private static final ShortNode[] shortCache_ = new ShortNode[CACHE_HIGH
+			- CACHE_LOW + 1];
 
-	private PrimitiveNode(float value) {
-		primitive_ = value;
+	static {
+		for (int i = 0; i < charCache_.length; i++)
+			charCache_[i] = new CharNode((char) i);
+		for (int i = 0; i < shortCache_.length; i++)
+			shortCache_[i] = new ShortNode((short) (i + CACHE_LOW));
 	}
 
-	private PrimitiveNode(int value) {
-		primitive_ = value;
+	private PrimitiveNode() {
 	}
 
-	private PrimitiveNode(long value) {
-		primitive_ = value;
-	}
+	/**
+	 * Compares the primitive value with another node of the same class.
+	 */
+	protected abstract boolean primitiveEquals(PrimitiveNode other);
 
-	private PrimitiveNode(short value) {
-		primitive_ = value;
+	/**
+	 * Replaces deserialised primitives with their canonical instance.
+	 */
+	protected Object readResolve() {
+		return intern(this);
 	}
 
 	@Override
@@ -55,70 +65,360 @@ public class PrimitiveNode implements Node {
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
-		PrimitiveNode other = (PrimitiveNode) obj;
-		if (primitive_ == null) {
-			if (other.primitive_ != null)
-				return false;
-		} else if (!primitive_.equals(other.primitive_))
-			return false;
-		return true;
+		return primitiveEquals((PrimitiveNode) obj);
 	}
 
 	@Override
-	public String getName() {
-		return primitive_.toString();
+	public String getIdentifier() {
+		return "'" + getName();
 	}
 
-	public Object getPrimitive() {
-		return primitive_;
+	@Override
+	public String getIdentifier(boolean useName) {
+		return getIdentifier();
 	}
 
+	/**
+	 * @return The primitive value, boxed.
+	 */
+	public abstract Object getPrimitive();
+
 	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result
-				+ ((primitive_ == null) ? 0 : primitive_.hashCode());
-		return result;
-	}
+	public abstract int hashCode();
 
 	@Override
 	public String toString() {
 		return getName();
 	}
 
-	@Override
-	public String getIdentifier() {
-		return "'" + getName();
-	}
-
-	@Override
-	public String getIdentifier(boolean useName) {
-		return getIdentifier();
+	private static PrimitiveNode intern(PrimitiveNode node) {
+		if (node instanceof BooleanNode)
+			return (((BooleanNode) node).value_) ? BooleanNode.TRUE
+					: BooleanNode.FALSE;
+		if (node instanceof CharNode)
+			return valueOf(((CharNode) node).value_);
+		if (node instanceof ShortNode)
+			return valueOf(((ShortNode) node).value_);
+		return pool_.intern(node);
 	}
 
 	public static PrimitiveNode parseNode(String name) {
 		try {
-			if (name.matches("'.'"))
-				return new PrimitiveNode(name.charAt(1));
+			int length = name.length();
+			if (length == 3 && name.charAt(0) == '\'' && name.charAt(2) == '\''
+					&& !NodeLexer.isLineTerminator(name.charAt(1)))
+				return valueOf(name.charAt(1));
 			if (name.equals("true"))
-				return new PrimitiveNode(true);
+				return BooleanNode.TRUE;
 			if (name.equals("false"))
-				return new PrimitiveNode(false);
-			if (name.matches("-?\\d{1,4}"))
-				return new PrimitiveNode(Short.valueOf(name));
-			if (name.matches("-?\\d{5,9}"))
-				return new PrimitiveNode(Integer.valueOf(name));
-			if (name.matches("-?\\d{10,18}"))
-				return new PrimitiveNode(Long.valueOf(name));
-			if (name.matches("[-+]?\\d[\\dE+-.]*f?"))
-				return new PrimitiveNode(Float.valueOf(name));
-			if (name.matches("[-+]?\\d[\\dE+-.]*d?"))
-				return new PrimitiveNode(Double.valueOf(name));
-			if (name.length() == 1)
-				return new PrimitiveNode(name.charAt(0));
+				return BooleanNode.FALSE;
+			int digits = NodeLexer.signedDigits(name);
+			if (digits >= 1 && digits <= 4)
+				return valueOf(Short.parseShort(name));
+			if (digits >= 5 && digits <= 9)
+				return valueOf(Integer.parseInt(name));
+			if (digits >= 10 && digits <= 18)
+				return valueOf(Long.parseLong(name));
+			char suffix = NodeLexer.floatingSuffix(name);
+			if (suffix == 'f' || suffix == ' ')
+				return valueOf(Float.parseFloat(name));
+			if (suffix == 'd')
+				return valueOf(Double.parseDouble(name));
+			if (length == 1)
+				return valueOf(name.charAt(0));
 		} catch (Exception e) {
 		}
 		return null;
 	}
+
+	/**
+	 * Gets the node for a boxed primitive value.
+	 *
+	 * @param value
+	 *            The boxed value.
+	 * @return The node for the value, or null if it is not a supported
+	 *         primitive.
+	 */
+	public static PrimitiveNode valueOf(Object value) {
+		if (value instanceof Boolean)
+			return valueOf(((Boolean) value).booleanValue());
+		if (value instanceof Character)
+			return valueOf(((Character) value).charValue());
+		if (value instanceof Byte || value instanceof Short)
+			return valueOf(((Number) value).shortValue());
+		if (value instanceof Integer)
+			return valueOf(((Integer) value).intValue());
+		if (value instanceof Long)
+			return valueOf(((Long) value).longValue());
+		if (value instanceof Float)
+			return valueOf(((Float) value).floatValue());
+		if (value instanceof Double)
+			return valueOf(((Double) value).doubleValue());
+		return null;
+	}
+
+	public static PrimitiveNode valueOf(boolean value) {
+		return (value) ? BooleanNode.TRUE : BooleanNode.FALSE;
+	}
+
+	public static PrimitiveNode valueOf(char value) {
+		if (value <= CACHE_HIGH)
+			return charCache_[value];
+		return pool_.intern(new CharNode(value));
+	}
+
+	public static PrimitiveNode valueOf(double value) {
+		return pool_.intern(new DoubleNode(value));
+	}
+
+	public static PrimitiveNode valueOf(float value) {
+		return pool_.intern(new FloatNode(value));
+	}
+
+	public static PrimitiveNode valueOf(int value) {
+		return pool_.intern(new IntNode(value));
+	}
+
+	public static PrimitiveNode valueOf(long value) {
+		return pool_.intern(new LongNode(value));
+	}
+
+	public static PrimitiveNode valueOf(short value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH)
+			return shortCache_[value - CACHE_LOW];
+		return pool_.intern(new ShortNode(value));
+	}
+
+	public static final class BooleanNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private static final BooleanNode FALSE = new BooleanNode(false);
+		private static final BooleanNode TRUE = new BooleanNode(true);
+		private final boolean value_;
+
+		private BooleanNode(boolean value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return value_ == ((BooleanNode) other).value_;
+		}
+
+		@Override
+		public String getName() {
+			return Boolean.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public boolean getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return Boolean.hashCode(value_);
+		}
+	}
+
+	public static final class CharNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final char value_;
+
+		private CharNode(char value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return value_ == ((CharNode) other).value_;
+		}
+
+		@Override
+		public String getName() {
+			return String.valueOf(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public char getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return value_;
+		}
+	}
+
+	public static final class DoubleNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final double value_;
+
+		private DoubleNode(double value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return Double.compare(value_, ((DoubleNode) other).value_) == 0;
+		}
+
+		@Override
+		public String getName() {
+			return Double.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public double getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return Double.hashCode(value_);
+		}
+	}
+
+	public static final class FloatNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final float value_;
+
+		private FloatNode(float value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return Float.compare(value_, ((FloatNode) other).value_) == 0;
+		}
+
+		@Override
+		public String getName() {
+			return Float.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public float getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return Float.hashCode(value_);
+		}
+	}
+
+	public static final class IntNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final int value_;
+
+		private IntNode(int value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return value_ == ((IntNode) other).value_;
+		}
+
+		@Override
+		public String getName() {
+			return Integer.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public int getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return value_;
+		}
+	}
+
+	public static final class LongNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final long value_;
+
+		private LongNode(long value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return value_ == ((LongNode) other).value_;
+		}
+
+		@Override
+		public String getName() {
+			return Long.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public long getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(value_);
+		}
+	}
+
+	public static final class ShortNode extends PrimitiveNode {
+		private static final long serialVersionUID = 1L;
+		private final short value_;
+
+		private ShortNode(short value) {
+			value_ = value;
+		}
+
+		@Override
+		protected boolean primitiveEquals(PrimitiveNode other) {
+			return value_ == ((ShortNode) other).value_;
+		}
+
+		@Override
+		public String getName() {
+			return Short.toString(value_);
+		}
+
+		@Override
+		public Object getPrimitive() {
+			return value_;
+		}
+
+		public short getValue() {
+			return value_;
+		}
+
+		@Override
+		public int hashCode() {
+			return value_;
+		}
+	}
 }
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An interned property key. Every distinct key name is represented by exactly
+ * one PropertyKey, so DAG objects store a reference to the shared key rather
+ * than their own copy of the name, and key comparisons are identity checks.
+ * Each key also has a small dense integer ID for modules that index by key.
+ *
+ * Key IDs are only valid for the lifetime of the process - keys are serialised
+ * by name and re-interned when read back in.
+ *
+ * @author Sam Sarjant
+ */
+public final class PropertyKey implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** The keys, indexed by name. */
+	private static final ConcurrentMap<String, PropertyKey> keys_ = new ConcurrentHashMap<>();
+
+	/** The keys, indexed by ID. */
+	private static volatile PropertyKey[] keysByID_ = new PropertyKey[32];
+
+	private static int numKeys_ = 0;
+
+	/** The process-local ID of the key. */
+	private final transient int id_;
+
+	/** The name of the key. */
+	private final String name_;
+
+	private PropertyKey(int id, String name) {
+		id_ = id;
+		name_ = name;
+	}
+
+	/**
+	 * Replaces a deserialised key with the interned instance.
+	 *
+	 * @return The interned key of the same name.
+	 */
+	private Object readResolve() {
+		return get(name_);
+	}
+
+	public int getID() {
+		return id_;
+	}
+
+	public String getName() {
+		return name_;
+	}
+
+	@Override
+	public String toString() {
+		return name_;
+	}
+
+	/**
+	 * Finds an existing key by name.
+	 *
+	 * @param name
+	 *            The name of the key.
+	 * @return The key, or null if no key of that name has been created (in
+	 *         which case no object can have the property).
+	 */
+	public static PropertyKey find(String name) {
+		return keys_.get(name);
+	}
+
+	/**
+	 * Gets a key by its ID.
+	 *
+	 * @param id
+	 *            The ID of the key.
+	 * @return The key with the given ID or null.
+	 */
+	public static PropertyKey fromID(int id) {
+		PropertyKey[] keys = keysByID_;
+		if (id < 0 || id >= keys.length)
+			return null;
+		return keys[id];
+	}
+
+	/**
+	 * Gets the interned key for a name, creating it if necessary.
+	 *
+	 * @param name
+	 *            The name of the key.
+	 * @return The key for the name.
+	 */
+	public static PropertyKey get(String name) {
+		PropertyKey key = keys_.get(name);
+		if (key != null)
+			return key;
+
+		synchronized (PropertyKey.class) {
+			key = keys_.get(name);
+			if (key == null) {
+				key = new PropertyKey(numKeys_, name);
+				PropertyKey[] keys = keysByID_;
+				if (numKeys_ >= keys.length)
+					keys = Arrays.copyOf(keys, keys.length * 2);
+				keys[numKeys_++] = key;
+				keysByID_ = keys;
+				keys_.put(name, key);
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * @return The number of distinct keys created so far.
+	 */
+	public static synchronized int numKeys() {
+		return numKeys_;
+	}
+}
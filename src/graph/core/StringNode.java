@@ -14,18 +14,23 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import util.collection.WeakInterner;
+
 public class StringNode implements Node {
 	private static final long serialVersionUID = 2912475401266723942L;
+	private static final WeakInterner<StringNode> pool_ = new WeakInterner<>();
 	private String str_;
 
 	public StringNode(String string) {
-		// Trim the front
-		while (string.startsWith("\""))
-			string = string.substring(1);
-		// Trim the back
-		str_ = string.replaceFirst("([^\\\\](\\\\{2})*)\"$", "$1");
-		// Remove tabs
-		str_ = str_.replaceAll("\\t", " ");
+		// Trim the quotes and remove tabs
+		str_ = NodeLexer.unquote(string);
+	}
+
+	/**
+	 * Replaces deserialised string nodes with their canonical instance.
+	 */
+	protected Object readResolve() {
+		return pool_.intern(this);
 	}
 
 	@Override
@@ -81,4 +86,15 @@ public class StringNode implements Node {
 	public void writeExternal(ObjectOutput out) throws IOException {
 		out.writeObject(str_);
 	}
+
+	/**
+	 * Parses a string node, returning the canonical instance for the string.
+	 *
+	 * @param string
+	 *            The (optionally quoted) string.
+	 * @return The shared string node for the string.
+	 */
+	public static StringNode parseNode(String string) {
+		return pool_.intern(new StringNode(string));
+	}
 }
@@ -0,0 +1,621 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *    Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A binary write-ahead log of the mutations made to a DAG since the last
+ * checkpoint (saveState). Each record is written as its length, its type and
+ * payload, then a CRC of the type and payload, so a torn final record is
+ * detected and ignored on replay.
+ *
+ * Appends are group committed: records are buffered as they arrive and a
+ * background thread flushes and syncs them every {@code syncRecords} records
+ * or {@code syncInterval} ms, whichever comes first. In ALWAYS mode each
+ * appender also waits until its record is synced, sharing the sync with any
+ * other appenders that arrived in the meantime.
+ *
+ * The log is split into numbered segments. A checkpoint starts a new segment
+ * (see {@link #rotate()}), and the segments before it are deleted once the
+ * checkpoint has been saved. Replaying is idempotent, so replaying a segment
+ * that was partially captured by a checkpoint is harmless.
+ *
+ * @author Sam Sarjant
+ */
+public class WriteAheadLog {
+	private static final byte ADD_EDGE = 2;
+
+	private static final byte ADD_NODE = 1;
+
+	private static final byte ADD_PROPERTY = 3;
+
+	private static final byte CLEAR = 7;
+
+	private static final byte EDGE_OBJECT = 'E';
+
+	private static final String LOG_PREFIX = "wal";
+
+	private static final String LOG_SUFFIX = ".log";
+
+	/** Records larger than this are treated as corrupt. */
+	private static final int MAX_RECORD = 1 << 30;
+
+	private static final byte NODE_OBJECT = 'N';
+
+	private static final byte REMOVE_EDGE = 6;
+
+	private static final byte REMOVE_NODE = 5;
+
+	private static final byte REMOVE_PROPERTY = 4;
+
+	/** The number of records appended. */
+	private long appended_;
+
+	private boolean closed_;
+
+	private FileOutputStream fileOut_;
+
+	private DataOutputStream out_;
+
+	private final File rootDir_;
+
+	/** The current segment number. */
+	private int segment_;
+
+	private final SyncMode syncMode_;
+
+	private final long syncInterval_;
+
+	/** Held while syncing, so the file is not swapped mid-sync. */
+	private final Object syncLock_ = new Object();
+
+	/** The number of records durably synced. */
+	private long synced_;
+
+	private final int syncRecords_;
+
+	/**
+	 * Constructor for a new write-ahead log. The log must be replayed before
+	 * it is opened for appending.
+	 *
+	 * @param rootDir
+	 *            The directory of the DAG.
+	 * @param syncMode
+	 *            When appenders wait for a sync.
+	 * @param syncRecords
+	 *            The number of buffered records that triggers a sync.
+	 * @param syncInterval
+	 *            The maximum time (ms) records are buffered before a sync.
+	 */
+	public WriteAheadLog(File rootDir, SyncMode syncMode, int syncRecords,
+			long syncInterval) {
+		rootDir_ = rootDir;
+		syncMode_ = syncMode;
+		syncRecords_ = Math.max(1, syncRecords);
+		syncInterval_ = Math.max(1, syncInterval);
+	}
+
+	/**
+	 * Appends a record, waiting for it to be synced if required.
+	 */
+	private void append(ByteArrayOutputStream record) {
+		awaitSync(write(record));
+	}
+
+	/**
+	 * Waits until a record is synced, if appenders wait in this sync mode.
+	 * 
+	 * @param number
+	 *            The number of the record, as returned when it was written.
+	 */
+	public synchronized void awaitSync(long number) {
+		if (syncMode_ != SyncMode.ALWAYS)
+			return;
+		try {
+			while (synced_ < number && !closed_)
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes a record to the buffer without waiting for it to be synced.
+	 * 
+	 * @return The number of the record, or 0 if it was not written.
+	 */
+	private synchronized long write(ByteArrayOutputStream record) {
+		if (closed_)
+			return 0;
+		try {
+			byte[] bytes = record.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(bytes);
+			out_.writeInt(bytes.length);
+			out_.write(bytes);
+			out_.writeInt((int) crc.getValue());
+		} catch (IOException e) {
+			System.err.println("Error writing to the write-ahead log.");
+			e.printStackTrace();
+			return 0;
+		}
+		long number = ++appended_;
+		if (syncMode_ == SyncMode.ALWAYS || (syncMode_ == SyncMode.BATCH
+				&& appended_ - synced_ >= syncRecords_))
+			notifyAll();
+		return number;
+	}
+
+	private File segmentFile(int segment) {
+		return new File(rootDir_, LOG_PREFIX + segment + LOG_SUFFIX);
+	}
+
+	/**
+	 * @return The numbers of the existing segments, in order.
+	 */
+	private int[] segments() {
+		String[] names = rootDir_.list();
+		if (names == null)
+			return new int[0];
+		int[] segments = new int[names.length];
+		int count = 0;
+		for (String name : names) {
+			if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX))
+				continue;
+			try {
+				segments[count] = Integer.parseInt(name.substring(
+						LOG_PREFIX.length(),
+						name.length() - LOG_SUFFIX.length()));
+				count++;
+			} catch (NumberFormatException e) {
+			}
+		}
+		segments = Arrays.copyOf(segments, count);
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Truncates a segment after its last complete record, so records appended
+	 * in later segments are not hidden behind a torn one.
+	 */
+	private static void truncate(File file, long length) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(length);
+			raf.getChannel().force(false);
+		} catch (IOException e) {
+			System.err.println("Could not truncate " + file);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Flushes and syncs the buffered records.
+	 */
+	private void sync() {
+		long target;
+		synchronized (syncLock_) {
+			synchronized (this) {
+				if (closed_ || synced_ == appended_)
+					return;
+				target = appended_;
+				try {
+					out_.flush();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			// Sync outside the monitor so appends can continue meanwhile
+			try {
+				fileOut_.getChannel().force(false);
+			} catch (IOException e) {
+				System.err.println("Error syncing the write-ahead log.");
+				e.printStackTrace();
+			}
+		}
+		synchronized (this) {
+			synced_ = Math.max(synced_, target);
+			notifyAll();
+		}
+	}
+
+	private void openSegment(int segment) throws IOException {
+		segment_ = segment;
+		fileOut_ = new FileOutputStream(segmentFile(segment), true);
+		out_ = new DataOutputStream(new BufferedOutputStream(fileOut_,
+				1 << 16));
+	}
+
+	/**
+	 * Replays a single record.
+	 */
+	private void replayRecord(byte type, DataInputStream in,
+			DirectedAcyclicGraph dag) throws IOException {
+		switch (type) {
+		case ADD_NODE:
+			dag.restoreNode(DAGObjectCodec.readNode(in));
+			break;
+		case ADD_EDGE:
+			DAGEdge edge = DAGObjectCodec.readEdge(in, dag);
+			if (edge != null)
+				dag.restoreEdge(edge);
+			else
+				System.err.println("Could not replay edge: missing node.");
+			break;
+		case ADD_PROPERTY:
+			DAGObject addObj = readObject(in, dag);
+			String key = DAGObjectCodec.readString(in);
+			String value = DAGObjectCodec.readString(in);
+			if (addObj != null)
+				dag.addProperty(addObj, key, value);
+			break;
+		case REMOVE_PROPERTY:
+			DAGObject removeObj = readObject(in, dag);
+			String removeKey = DAGObjectCodec.readString(in);
+			if (removeObj != null)
+				dag.removeProperty(removeObj, removeKey);
+			break;
+		case REMOVE_NODE:
+			dag.removeNode(in.readInt());
+			break;
+		case REMOVE_EDGE:
+			dag.removeEdge(dag.getEdgeByID(in.readInt()));
+			break;
+		case CLEAR:
+			dag.clear();
+			break;
+		default:
+			throw new IOException("Unknown record type " + type);
+		}
+	}
+
+	private static void writeObject(DataOutputStream out, DAGObject dagObj)
+			throws IOException {
+		out.writeByte((dagObj instanceof DAGEdge) ? EDGE_OBJECT : NODE_OBJECT);
+		out.writeInt(dagObj.getID());
+	}
+
+	private static DAGObject readObject(DataInputStream in,
+			DirectedAcyclicGraph dag) throws IOException {
+		byte objType = in.readByte();
+		int id = in.readInt();
+		if (objType == EDGE_OBJECT)
+			return dag.getEdgeByID(id);
+		return dag.getNodeByID(id);
+	}
+
+	/**
+	 * Closes the log, syncing any buffered records.
+	 */
+	public void close() {
+		sync();
+		synchronized (this) {
+			if (closed_)
+				return;
+			closed_ = true;
+			try {
+				out_.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Deletes the segments before a checkpoint segment, once the checkpoint
+	 * has been saved.
+	 *
+	 * @param checkpoint
+	 *            The segment started by the checkpoint.
+	 */
+	public void deleteBefore(int checkpoint) {
+		for (int segment : segments())
+			if (segment < checkpoint && !segmentFile(segment).delete())
+				System.err.println("Could not delete log segment " + segment);
+	}
+
+	/**
+	 * @return The number of records appended since the log was opened.
+	 */
+	public synchronized long getNumAppended() {
+		return appended_;
+	}
+
+	public void logAddEdge(DAGEdge edge) {
+		awaitSync(writeAddEdge(edge));
+	}
+
+	/**
+	 * Writes an added edge without waiting for it to be synced, so the caller
+	 * can release its locks before calling {@link #awaitSync(long)}.
+	 * 
+	 * @param edge
+	 *            The added edge.
+	 * @return The number of the record.
+	 */
+	public long writeAddEdge(DAGEdge edge) {
+		try {
+			return write(addRecord(ADD_EDGE, edge));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes a batch of added edges without waiting for them to be synced.
+	 * The batch is synced together by a single {@link #awaitSync(long)} on
+	 * the returned number.
+	 * 
+	 * @param edges
+	 *            The added edges.
+	 * @return The number of the last record written.
+	 */
+	public long writeAddEdges(Collection<DAGEdge> edges) {
+		return writeAll(ADD_EDGE, edges);
+	}
+
+	public void logAddNode(DAGNode node) {
+		try {
+			append(addRecord(ADD_NODE, node));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes a batch of added nodes without waiting for them to be synced.
+	 * 
+	 * @param nodes
+	 *            The added nodes.
+	 * @return The number of the last record written.
+	 * @see #writeAddEdges(Collection)
+	 */
+	public long writeAddNodes(Collection<DAGNode> nodes) {
+		return writeAll(ADD_NODE, nodes);
+	}
+
+	private ByteArrayOutputStream addRecord(byte type, DAGObject dagObj)
+			throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeByte(type);
+		if (type == ADD_EDGE)
+			DAGObjectCodec.writeEdge(out, (DAGEdge) dagObj);
+		else
+			DAGObjectCodec.writeNode(out, (DAGNode) dagObj);
+		return record;
+	}
+
+	/**
+	 * Encodes the records before taking the monitor, then writes them as one
+	 * contiguous run.
+	 */
+	private long writeAll(byte type, Collection<? extends DAGObject> added) {
+		List<ByteArrayOutputStream> records = new ArrayList<>(added.size());
+		try {
+			for (DAGObject dagObj : added)
+				records.add(addRecord(type, dagObj));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+		long number = 0;
+		synchronized (this) {
+			for (ByteArrayOutputStream record : records)
+				number = Math.max(number, write(record));
+		}
+		return number;
+	}
+
+	public void logAddProperty(DAGObject dagObj, String key, String value) {
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(record);
+			out.writeByte(ADD_PROPERTY);
+			writeObject(out, dagObj);
+			DAGObjectCodec.writeString(out, key);
+			DAGObjectCodec.writeString(out, value);
+			append(record);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void logClear() {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		record.write(CLEAR);
+		append(record);
+	}
+
+	public void logRemoveEdge(DAGEdge edge) {
+		logRemove(REMOVE_EDGE, edge.getID());
+	}
+
+	public void logRemoveNode(DAGNode node) {
+		logRemove(REMOVE_NODE, node.getID());
+	}
+
+	private void logRemove(byte type, int id) {
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(record);
+			out.writeByte(type);
+			out.writeInt(id);
+			append(record);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public void logRemoveProperty(DAGObject dagObj, String key) {
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(record);
+			out.writeByte(REMOVE_PROPERTY);
+			writeObject(out, dagObj);
+			DAGObjectCodec.writeString(out, key);
+			append(record);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Opens a new segment for appending and starts the group commit thread.
+	 * Existing segments are never appended to, as they may end in a torn
+	 * record.
+	 *
+	 * @throws IOException
+	 *             If the segment could not be created.
+	 */
+	public void open() throws IOException {
+		rootDir_.mkdirs();
+		int[] segments = segments();
+		openSegment((segments.length == 0) ? 0
+				: segments[segments.length - 1] + 1);
+		if (syncMode_ == SyncMode.NONE)
+			return;
+
+		Thread syncThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					synchronized (WriteAheadLog.this) {
+						if (closed_)
+							return;
+						// Appenders waiting in ALWAYS mode are synced at once,
+						// even if their notify arrived mid-sync
+						if ((syncMode_ == SyncMode.ALWAYS) ? synced_ == appended_
+								: appended_ - synced_ < syncRecords_) {
+							try {
+								WriteAheadLog.this.wait(syncInterval_);
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+					sync();
+				}
+			}
+		}, "WAL sync");
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	/**
+	 * Replays every existing segment, in order, against a DAG. A torn or
+	 * corrupt record ends its segment: the segment is truncated to the records
+	 * before it, and replaying carries on with the next segment.
+	 *
+	 * @param dag
+	 *            The DAG to replay into (with its checkpoint loaded).
+	 * @return The number of records replayed.
+	 */
+	public int replay(DirectedAcyclicGraph dag) {
+		int count = 0;
+		for (int segment : segments()) {
+			File file = segmentFile(segment);
+			// The end of the last complete record
+			long valid = 0;
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)))) {
+				while (true) {
+					int length;
+					try {
+						length = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					if (length <= 0 || length > MAX_RECORD)
+						throw new IOException("Bad record length " + length);
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					CRC32 crc = new CRC32();
+					crc.update(bytes);
+					if (in.readInt() != (int) crc.getValue())
+						throw new IOException("Record checksum mismatch");
+
+					DataInputStream record = new DataInputStream(
+							new ByteArrayInputStream(bytes, 1,
+									length - 1));
+					replayRecord(bytes[0], record, dag);
+					valid += length + 8;
+					count++;
+				}
+			} catch (IOException e) {
+				System.err.println("Stopped replaying " + file + " after "
+						+ valid + " bytes: " + e);
+				truncate(file, valid);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Starts a new segment for a checkpoint. Must be called while no mutations
+	 * are in progress, so the records before the new segment are exactly
+	 * those captured by the checkpoint.
+	 *
+	 * @return The new segment number, to pass to {@link #deleteBefore(int)}
+	 *         once the checkpoint is saved.
+	 */
+	public int rotate() {
+		synchronized (syncLock_) {
+			synchronized (this) {
+				if (closed_)
+					return segment_;
+				try {
+					out_.flush();
+					fileOut_.getChannel().force(false);
+					out_.close();
+					synced_ = appended_;
+					openSegment(segment_ + 1);
+				} catch (IOException e) {
+					System.err.println("Error rotating the write-ahead log.");
+					e.printStackTrace();
+				}
+				notifyAll();
+				return segment_;
+			}
+		}
+	}
+
+	/**
+	 * When appenders wait for their records to be synced to disk.
+	 */
+	public enum SyncMode {
+		/** Appenders wait for each record to be synced (group committed). */
+		ALWAYS,
+		/** Records are synced in the background in batches. */
+		BATCH,
+		/** Records are only synced at checkpoints and on close. */
+		NONE;
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core.cli;
+
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Edge;
+import graph.core.ErrorEdge;
+import graph.core.Node;
+
+import java.io.BufferedReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import util.UtilityMethods;
+
+public class AddBatchCommand extends DAGCommand {
+	/** The maximum number of edges to add per batch. */
+	private static final int BATCH_SIZE = 10000;
+
+	@Override
+	public String helpText() {
+		return "{0} delimiter [(creator)] : Reads edges, one (node node ...) "
+				+ "per line, until the delimiter is read on its own line, and "
+				+ "adds them in batches with an optional creator. Prints "
+				+ "-1|index|error for each failed edge, then the number of "
+				+ "edges added (or found) and the number of errors.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Creates and adds many edges to the DAG in batches.";
+	}
+
+	@Override
+	protected void executeImpl() {
+		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+		DirectedAcyclicGraph dag = dagHandler.getDAG();
+		if (data.isEmpty()) {
+			printErrorNoData();
+			return;
+		}
+
+		ArrayList<String> split = UtilityMethods.split(data, ' ');
+		String delimiter = split.get(0);
+		Node creator = null;
+		String creatorArg = "";
+		if (split.size() == 2) {
+			creatorArg = " " + split.get(1);
+			try {
+				creator = dag.findOrCreateNode(
+						UtilityMethods.shrinkString(split.get(1), 1), creator);
+			} catch (Exception e) {
+				print("-1|Invalid creator node.\n");
+				return;
+			}
+		}
+		boolean createNodes = dagHandler.get(
+				DAGPortHandler.DYNAMICALLY_ADD_NODES).equals("true");
+		boolean[] flags = dagHandler.asBooleanArray(DAGPortHandler.EDGE_FLAGS);
+		boolean ephemeral = flags.length > 1 && flags[1];
+
+		int[] counts = new int[2];
+		try {
+			BufferedReader in = dagHandler.getReader();
+			List<String> batch = new ArrayList<>(BATCH_SIZE);
+			int index = 0;
+			String line = null;
+			while ((line = in.readLine()) != null && !line.equals(delimiter)) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				batch.add(line);
+				if (batch.size() == BATCH_SIZE) {
+					addBatch(dag, batch, index, creator, creatorArg,
+							createNodes, ephemeral, counts);
+					index += batch.size();
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty())
+				addBatch(dag, batch, index, creator, creatorArg, createNodes,
+						ephemeral, counts);
+		} catch (Exception e) {
+			e.printStackTrace();
+			print("-1|Error reading edges.\n");
+		}
+		print(counts[0] + "|" + counts[1] + "\n");
+	}
+
+	/**
+	 * Adds a single batch of edge strings, printing any errors.
+	 *
+	 * @param firstIndex
+	 *            The index of the first edge of the batch.
+	 * @param creatorArg
+	 *            The creator argument to log with each edge.
+	 * @param counts
+	 *            The running counts of successful and failed edges.
+	 */
+	private void addBatch(DirectedAcyclicGraph dag, List<String> batch,
+			int firstIndex, Node creator, String creatorArg,
+			boolean createNodes, boolean ephemeral, int[] counts) {
+		List<Node[]> edgeNodes = dag.parseNodes(batch, creator, createNodes);
+		List<Node[]> parsed = new ArrayList<>(edgeNodes.size());
+		List<Integer> parsedLines = new ArrayList<>(edgeNodes.size());
+		for (int i = 0; i < edgeNodes.size(); i++) {
+			if (edgeNodes.get(i) == null || edgeNodes.get(i).length < 2) {
+				print("-1|" + (firstIndex + i) + "|Problem parsing nodes.\n");
+				counts[1]++;
+			} else {
+				parsed.add(edgeNodes.get(i));
+				parsedLines.add(i);
+			}
+		}
+
+		Edge[] edges = dag.addEdges(parsed, creator, ephemeral);
+		for (int i = 0; i < edges.length; i++) {
+			int index = parsedLines.get(i);
+			if (edges[i] instanceof ErrorEdge) {
+				print("-1|" + (firstIndex + index) + "|"
+						+ ((ErrorEdge) edges[i]).getError(true) + "\n");
+				counts[1]++;
+			} else {
+				dag.writeCommand("addedge " + batch.get(index) + creatorArg);
+				counts[0]++;
+			}
+		}
+	}
+}
@@ -16,6 +16,8 @@ import graph.core.DirectedAcyclicGraph;
 import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import org.apache.commons.cli.BasicParser;
@@ -36,13 +38,30 @@ public class DAGCommandLineInterface extends Main {
 	private static CommandLine arguments_;
 	protected DirectedAcyclicGraph dag_;
 
+	/** The hosted graphs, by name. Only added to before starting. */
+	protected final Map<String, DirectedAcyclicGraph> graphs_ = new LinkedHashMap<>();
+
 	public DAGCommandLineInterface(int aPort, DirectedAcyclicGraph dag) {
 		super(aPort);
 		dag_ = dag;
+		graphs_.put(DAGPortHandler.DEFAULT_GRAPH, dag);
 
 		initialiseCoreCommands();
 	}
 
+	/**
+	 * Hosts another graph, which sessions can select by name (see
+	 * {@link GraphCommand}). Must be called before starting.
+	 * 
+	 * @param name
+	 *            The name of the graph.
+	 * @param dag
+	 *            The graph.
+	 */
+	public void addGraph(String name, DirectedAcyclicGraph dag) {
+		graphs_.put(name, dag);
+	}
+
 	protected void initialiseCoreCommands() {
 		// Adding core commands
 		CommandParser.addCommand("node", NodeCommand.class);
@@ -50,6 +69,7 @@ public class DAGCommandLineInterface extends Main {
 		CommandParser.addCommand("edgeNodes", EdgeNodesCommand.class);
 		CommandParser.addCommand("addNode", AddNodeCommand.class);
 		CommandParser.addCommand("addEdge", AddEdgeCommand.class);
+		CommandParser.addCommand("addBatch", AddBatchCommand.class);
 		CommandParser.addCommand("removeNode", RemoveNodeCommand.class);
 		CommandParser.addCommand("removeEdge", RemoveEdgeCommand.class);
 		CommandParser.addCommand("randomNode", RandomNodeCommand.class);
@@ -77,21 +97,30 @@ public class DAGCommandLineInterface extends Main {
 		CommandParser.addCommand("varHelp", DAGVarHelpCommand.class);
 		CommandParser.addCommand("script", DAGScriptCommand.class);
 		CommandParser.addCommand("export", ExportCommand.class);
+		CommandParser.addCommand("dump", DumpCommand.class);
+		CommandParser.addCommand("graph", GraphCommand.class);
 	}
 
 	@Override
 	protected PortHandler createPortHandler(Socket serverSocket,
 			CommandQueue commandQueue) throws IOException {
-		return new DAGPortHandler(serverSocket, commandQueue, dag_);
+		return new DAGPortHandler(serverSocket, commandQueue, dag_, graphs_);
 	}
 
 	public static void main(String[] args) {
 		try {
 			DirectedAcyclicGraph dag = new DirectedAcyclicGraph(
 					getRootDir(args), getArgFile(args, "n"), getArgFile(args, "e"));
-			new DAGCommandLineInterface(getPort(args), dag).start();
-
-			dag.initialise();
+			DAGCommandLineInterface cli = new DAGCommandLineInterface(
+					getPort(args), dag);
+			for (Map.Entry<String, File> graph : getGraphDirs(args)
+					.entrySet())
+				cli.addGraph(graph.getKey(), new DirectedAcyclicGraph(
+						graph.getValue(), null, null));
+			cli.start();
+
+			for (DirectedAcyclicGraph graph : cli.graphs_.values())
+				graph.initialise();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -107,6 +136,32 @@ public class DAGCommandLineInterface extends Main {
 		return f;
 	}
 
+	/**
+	 * Gets the additional graphs to host, given as -g name=rootDir.
+	 * 
+	 * @param args
+	 *            The command line arguments.
+	 * @return The root directories of the graphs, by name.
+	 */
+	public static Map<String, File> getGraphDirs(String[] args) {
+		if (arguments_ == null)
+			parseArgs(args);
+
+		Map<String, File> graphs = new LinkedHashMap<>();
+		String[] values = arguments_.getOptionValues("g");
+		if (values != null) {
+			for (String value : values) {
+				String[] split = value.split("=", 2);
+				if (split.length == 2)
+					graphs.put(split[0], new File(split[1]));
+				else
+					System.err.println("Ignoring graph '" + value
+							+ "'. Use -g name=rootDir.");
+			}
+		}
+		return graphs;
+	}
+
 	public static int getPort(String[] args) {
 		if (arguments_ == null)
 			parseArgs(args);
@@ -133,6 +188,8 @@ public class DAGCommandLineInterface extends Main {
 		options.addOption("p", true, "The port number to use.");
 		options.addOption("n", true, "The extracted nodes file to read in.");
 		options.addOption("e", true, "The extracted edges file to read in.");
+		options.addOption("g", true,
+				"An additional graph to host, as name=rootDir (repeatable).");
 
 		CommandLineParser parser = new BasicParser();
 		try {
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.collections4.Predicate;
 
@@ -41,10 +42,34 @@ public class DAGPortHandler extends PortHandler {
 	public static final String NODE_FLAGS = "/env/nodeFlags";
 	public static final String SUBDAG_FILTERING = "/env/subDAGFilter";
 	public static final String HUMAN = "/human";
+	public static final String GRAPH = "/env/graph";
+	public static final String DEFAULT_GRAPH = "default";
 	protected DirectedAcyclicGraph dag_;
 
+	/** The graphs hosted by the process, by name. */
+	protected Map<String, DirectedAcyclicGraph> graphs_;
+
 	public DAGPortHandler(Socket aSocket, CommandQueue aQueue,
 			DirectedAcyclicGraph dag) {
+		this(aSocket, aQueue, dag, Collections.singletonMap(DEFAULT_GRAPH,
+				dag));
+	}
+
+	/**
+	 * A handler for a process hosting several graphs. The session works on
+	 * the graph named by the {@link #GRAPH} variable.
+	 * 
+	 * @param aSocket
+	 *            The client socket.
+	 * @param aQueue
+	 *            The command queue.
+	 * @param dag
+	 *            The default graph.
+	 * @param graphs
+	 *            The hosted graphs, by name (including the default).
+	 */
+	public DAGPortHandler(Socket aSocket, CommandQueue aQueue,
+			DirectedAcyclicGraph dag, Map<String, DirectedAcyclicGraph> graphs) {
 		super(aSocket, aQueue);
 		if (get(SORT_ORDER) == null || get(SORT_ORDER).isEmpty())
 			set(SORT_ORDER, "default");
@@ -56,11 +81,28 @@ public class DAGPortHandler extends PortHandler {
 			set(SUBDAG_FILTERING, "");
 		if (get(HUMAN) == null || get(HUMAN).isEmpty())
 			set(HUMAN, "false");
+		if (get(GRAPH) == null || get(GRAPH).isEmpty())
+			set(GRAPH, DEFAULT_GRAPH);
 		dag_ = dag;
+		graphs_ = graphs;
 	}
 
+	/**
+	 * Gets the graph the session works on, and makes it the current graph of
+	 * the calling thread (see {@link DirectedAcyclicGraph#current()}).
+	 * 
+	 * @return The selected graph, or the default graph if none is selected.
+	 */
 	public DirectedAcyclicGraph getDAG() {
-		return dag_;
+		DirectedAcyclicGraph dag = graphs_.get(get(GRAPH));
+		if (dag == null)
+			dag = dag_;
+		DirectedAcyclicGraph.setCurrent(dag);
+		return dag;
+	}
+
+	public Map<String, DirectedAcyclicGraph> getGraphs() {
+		return graphs_;
 	}
 
 	public String textIDObject(Identifiable obj) {
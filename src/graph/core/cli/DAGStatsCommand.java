@@ -42,6 +42,7 @@ public class DAGStatsCommand extends Command {
 		print("Uptime: " + elapsedStr + "\n");
 		print("Num nodes: " + dagHandler.getDAG().getNumNodes() + "\n");
 		print("Num edges: " + dagHandler.getDAG().getNumEdges() + "\n");
+		print(dagHandler.getDAG().getCheckpointStatus() + "\n");
 		print("Active modules:\n");
 		Collection<DAGModule<?>> modules = dagHandler.getDAG().getModules();
 		for (DAGModule<?> modName : modules)
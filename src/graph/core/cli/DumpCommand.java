@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core.cli;
+
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+import graph.core.DirectedAcyclicGraph;
+
+import java.io.BufferedReader;
+import java.util.ArrayList;
+
+import util.UtilityMethods;
+
+/**
+ * Streams every node or edge, with its properties, in ID order. The objects
+ * are sent in chunks, each framed by a 'chunk|count|lastID' line followed by
+ * count rows of 'ID\tname\tkey=value\t...'. Tabs, newlines and backslashes
+ * in names, keys and values are backslash escaped (see {@link #escape}).
+ *
+ * After each chunk the client replies with a line: anything but 'stop'
+ * requests the next chunk, so the client controls the rate. The stream ends
+ * with an 'end|total|lastID' line. An interrupted dump can be resumed by
+ * dumping from lastID + 1.
+ *
+ * @author Sam Sarjant
+ */
+public class DumpCommand extends DAGCommand {
+	/** The default number of objects per chunk. */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/** The client reply that ends the dump early. */
+	public static final String STOP = "stop";
+
+	@Override
+	public String helpText() {
+		return "{0} N/E [fromID] [chunkSize] : Streams every node/edge "
+				+ "(from an optional ID) with its properties in ID order, "
+				+ "in chunks of 'chunk|count|lastID' followed by count "
+				+ "tab-separated 'ID name key=value...' rows. After each "
+				+ "chunk, send a line to receive the next chunk (or '"
+				+ STOP + "' to stop). Ends with 'end|total|lastID'.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Streams nodes/edges and their properties in chunks.";
+	}
+
+	@Override
+	protected void executeImpl() {
+		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+		DirectedAcyclicGraph dag = dagHandler.getDAG();
+		if (data.isEmpty()) {
+			printErrorNoData();
+			return;
+		}
+
+		ArrayList<String> split = UtilityMethods.split(data, ' ');
+		boolean isEdges = split.get(0).equalsIgnoreCase("E");
+		if (!isEdges && !split.get(0).equalsIgnoreCase("N")) {
+			print("-1|First argument must be N or E.\n");
+			return;
+		}
+		int id = 0;
+		int chunkSize = DEFAULT_CHUNK_SIZE;
+		try {
+			if (split.size() >= 2)
+				id = Math.max(Integer.parseInt(split.get(1)), 0);
+			if (split.size() >= 3)
+				chunkSize = Integer.parseInt(split.get(2));
+		} catch (NumberFormatException e) {
+			print("-1|Could not parse ID/chunk size.\n");
+			return;
+		}
+		if (chunkSize < 1) {
+			print("-1|Chunk size must be positive.\n");
+			return;
+		}
+		boolean useIDs = dagHandler.get(DAGPortHandler.PRETTY_RESULTS).equals(
+				"false");
+
+		BufferedReader in = dagHandler.getReader();
+		StringBuilder chunk = new StringBuilder();
+		int count = 0;
+		int total = 0;
+		int lastID = id - 1;
+		try {
+			while (true) {
+				// Fill the chunk
+				int end = (isEdges) ? dag.getNextEdgeID() : dag.getNextNodeID();
+				for (; id < end && count < chunkSize; id++) {
+					DAGObject dagObj = (isEdges) ? dag.getEdgeByID(id) : dag
+							.getNodeByID(id);
+					if (dagObj == null)
+						continue;
+					appendRow(chunk, dagObj, useIDs);
+					count++;
+					lastID = id;
+				}
+				if (count == 0)
+					break;
+
+				print("chunk|" + count + "|" + lastID + "\n" + chunk);
+				total += count;
+				chunk.setLength(0);
+				count = 0;
+
+				// Wait for the client before sending more
+				String reply = in.readLine();
+				if (reply == null)
+					return;
+				if (reply.trim().equalsIgnoreCase(STOP))
+					break;
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+			print("-1|Error streaming dump.\n");
+			return;
+		}
+		print("end|" + total + "|" + lastID + "\n");
+	}
+
+	/**
+	 * Appends a dump row for a node/edge.
+	 */
+	private void appendRow(StringBuilder chunk, DAGObject dagObj,
+			boolean useIDs) {
+		String name = (dagObj instanceof DAGEdge) ? ((DAGEdge) dagObj)
+				.toString(useIDs) : ((DAGNode) dagObj).getName();
+		chunk.append(dagObj.getID()).append('\t').append(escape(name));
+		String[] properties = dagObj.getProperties();
+		for (int i = 0; i < properties.length; i += 2)
+			chunk.append('\t').append(escape(properties[i])).append('=')
+					.append(escape(properties[i + 1]));
+		chunk.append('\n');
+	}
+
+	/**
+	 * Escapes backslashes, tabs and newlines so a string fits in a single
+	 * dump field.
+	 */
+	public static String escape(String str) {
+		if (str == null)
+			return "";
+		if (str.indexOf('\\') == -1 && str.indexOf('\t') == -1
+				&& str.indexOf('\n') == -1 && str.indexOf('\r') == -1)
+			return str;
+		StringBuilder buffer = new StringBuilder(str.length() + 8);
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '\\':
+				buffer.append("\\\\");
+				break;
+			case '\t':
+				buffer.append("\\t");
+				break;
+			case '\n':
+				buffer.append("\\n");
+				break;
+			case '\r':
+				buffer.append("\\r");
+				break;
+			default:
+				buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Reverses {@link #escape(String)}.
+	 */
+	public static String unescape(String str) {
+		if (str.indexOf('\\') == -1)
+			return str;
+		StringBuilder buffer = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '\\' && i + 1 < str.length()) {
+				c = str.charAt(++i);
+				if (c == 't')
+					c = '\t';
+				else if (c == 'n')
+					c = '\n';
+				else if (c == 'r')
+					c = '\r';
+			}
+			buffer.append(c);
+		}
+		return buffer.toString();
+	}
+}
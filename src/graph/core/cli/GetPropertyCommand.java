@@ -12,6 +12,7 @@ package graph.core.cli;
 
 import graph.core.DAGEdge;
 import graph.core.DAGNode;
+import graph.core.NodeLexer;
 import graph.core.DAGObject;
 import graph.core.Node;
 
@@ -66,7 +67,7 @@ public class GetPropertyCommand extends DAGCommand {
 			}
 
 			String key = split.get(2);
-			if (key.matches(DAGNode.QUOTED_NAME.pattern()))
+			if (NodeLexer.isQuotedName(key))
 				key = UtilityMethods.shrinkString(key, 1);
 
 			String value = dagObj.getProperty(key);
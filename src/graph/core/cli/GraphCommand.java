@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.core.cli;
+
+import java.util.Map;
+
+import graph.core.DirectedAcyclicGraph;
+import core.Command;
+
+public class GraphCommand extends Command {
+	@Override
+	public String helpText() {
+		return "{0} [name] : Selects the graph this session works on, or "
+				+ "lists the graphs hosted by the process if no name is given.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Selects or lists the hosted graphs.";
+	}
+
+	@Override
+	protected void executeImpl() {
+		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+		Map<String, DirectedAcyclicGraph> graphs = dagHandler.getGraphs();
+		String name = data.trim();
+		if (name.isEmpty()) {
+			print(graphs.size() + "|");
+			for (String graph : graphs.keySet())
+				print(graph + "|");
+			print("\n");
+			return;
+		}
+
+		if (!graphs.containsKey(name)) {
+			print("-1|No graph named " + name + ".\n");
+			return;
+		}
+		dagHandler.set(DAGPortHandler.GRAPH, name);
+		print(name + "\n");
+	}
+
+}
@@ -42,7 +42,7 @@ public class LastEdgeCommand extends DAGCommand {
 			}
 		}
 
-		int id = DAGEdge.idCounter_;
+		int id = dag.getNextEdgeID();
 		int numFound = 0;
 		do {
 			id--;
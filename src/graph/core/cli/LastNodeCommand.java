@@ -42,7 +42,7 @@ public class LastNodeCommand extends DAGCommand {
 			}
 		}
 
-		int id = DAGNode.idCounter_;
+		int id = dag.getNextNodeID();
 		int numFound = 0;
 		do {
 			id--;
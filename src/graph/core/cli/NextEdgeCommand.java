@@ -49,7 +49,7 @@ public class NextEdgeCommand extends DAGCommand {
 			if (id != -1) {
 				id++;
 				DAGEdge nextEdge = null;
-				while (nextEdge == null && id < DAGEdge.idCounter_)
+				while (nextEdge == null && id < dag.getNextEdgeID())
 					nextEdge = dag.getEdgeByID(id++);
 				if (nextEdge == null)
 					print("-1|No edges after input edge.\n");
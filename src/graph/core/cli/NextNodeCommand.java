@@ -47,7 +47,7 @@ public class NextNodeCommand extends DAGCommand {
 			if (id != -1) {
 				id++;
 				DAGNode nextNode = null;
-				while (nextNode == null && id < DAGNode.idCounter_)
+				while (nextNode == null && id < dagHandler.getDAG().getNextNodeID())
 					nextNode = dagHandler.getDAG().getNodeByID(id++);
 				if (nextNode == null)
 					print("-1|No nodes after input node.\n");
@@ -10,11 +10,20 @@
  ******************************************************************************/
 package graph.core.cli;
 
-import graph.core.Identifiable;
-import core.Command;
+import java.util.List;
+
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Edge;
 
 public class RandomEdgeCommand extends DAGCommand {
 
+	@Override
+	public String helpText() {
+		return "{0} [N] : Returns a random edge, or N random edges (sampled "
+				+ "with replacement, at most "
+				+ DirectedAcyclicGraph.MAX_RANDOM_SAMPLES + ").";
+	}
+
 	@Override
 	public String shortDescription() {
 		return "Returns a random edge from the DAG.";
@@ -23,11 +32,33 @@ public class RandomEdgeCommand extends DAGCommand {
 	@Override
 	protected void executeImpl() {
 		DAGPortHandler dagHandler = (DAGPortHandler) handler;
-		Identifiable obj = dagHandler.getDAG().getRandomEdge();
-		if (obj == null)
+		int count = -1;
+		if (!data.trim().isEmpty()) {
+			if (!data.trim().matches("\\d+")) {
+				print("-1|Please enter a number of edges.\n");
+				return;
+			}
+			try {
+				count = Math.min(Integer.parseInt(data.trim()),
+						DirectedAcyclicGraph.MAX_RANDOM_SAMPLES);
+			} catch (NumberFormatException e) {
+				// Too large for an int
+				count = DirectedAcyclicGraph.MAX_RANDOM_SAMPLES;
+			}
+		}
+
+		List<Edge> edges = dagHandler.getDAG().getRandomEdges(
+				Math.max(count, 1));
+		if (edges.isEmpty())
 			print("-1|No edges exist.\n");
-		else
-			print(dagHandler.textIDObject(obj) + "\n");
+		else if (count == -1)
+			print(dagHandler.textIDObject(edges.get(0)) + "\n");
+		else {
+			print(edges.size() + "|");
+			for (Edge e : edges)
+				print(dagHandler.textIDObject(e) + "|");
+			print("\n");
+		}
 	}
 
 }
@@ -10,15 +10,28 @@
  ******************************************************************************/
 package graph.core.cli;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 import graph.core.DAGNode;
-import graph.core.Identifiable;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Node;
 import graph.module.SubDAGExtractorModule;
-import core.Command;
 
 public class RandomNodeCommand extends DAGCommand {
+	private final Random random_ = new Random();
+
+	@Override
+	public String helpText() {
+		return "{0} [N] [degree] : Returns a random node, or N random nodes "
+				+ "(sampled with replacement, at most "
+				+ DirectedAcyclicGraph.MAX_RANDOM_SAMPLES
+				+ "). If 'degree' is given, nodes "
+				+ "are weighted by the number of edges they are in. If a "
+				+ "subDAG filter is set, only tagged nodes are sampled "
+				+ "(uniformly).";
+	}
 
 	@Override
 	public String shortDescription() {
@@ -28,26 +41,52 @@ public class RandomNodeCommand extends DAGCommand {
 	@Override
 	protected void executeImpl() {
 		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+		int count = -1;
+		boolean byDegree = false;
+		for (String arg : data.trim().split("\\s+")) {
+			if (arg.matches("\\d+")) {
+				try {
+					count = Math.min(Integer.parseInt(arg),
+							DirectedAcyclicGraph.MAX_RANDOM_SAMPLES);
+				} catch (NumberFormatException e) {
+					// Too large for an int
+					count = DirectedAcyclicGraph.MAX_RANDOM_SAMPLES;
+				}
+			} else if (arg.equalsIgnoreCase("degree"))
+				byDegree = true;
+			else if (!arg.isEmpty()) {
+				print("-1|Unknown argument: " + arg + "\n");
+				return;
+			}
+		}
+
 		String filter = dagHandler.get(DAGPortHandler.SUBDAG_FILTERING);
-		Identifiable obj = null;
+		List<Node> nodes;
 		if (filter == null || filter.isEmpty())
-			obj = dagHandler.getDAG().getRandomNode();
+			nodes = dagHandler.getDAG().getRandomNodes(Math.max(count, 1),
+					byDegree);
 		else {
 			SubDAGExtractorModule subDAGModule = (SubDAGExtractorModule) dagHandler
 					.getDAG().getModule(SubDAGExtractorModule.class);
-			Collection<DAGNode> tagged = subDAGModule.getTagged(filter);
-			if (tagged != null && !tagged.isEmpty()) {
-				DAGNode[] nodeArray = tagged
-						.toArray(new DAGNode[tagged.size()]);
-				Random rand = new Random();
-				obj = nodeArray[rand.nextInt(nodeArray.length)];
+			nodes = new ArrayList<>();
+			for (int i = Math.max(count, 1); i-- > 0;) {
+				DAGNode node = subDAGModule.getRandomTagged(filter, random_);
+				if (node == null)
+					break;
+				nodes.add(node);
 			}
 		}
 
-		if (obj == null)
+		if (nodes.isEmpty())
 			print("-1|No nodes exist.\n");
-		else
-			print(dagHandler.textIDObject(obj) + "\n");
+		else if (count == -1)
+			print(dagHandler.textIDObject(nodes.get(0)) + "\n");
+		else {
+			print(nodes.size() + "|");
+			for (Node n : nodes)
+				print(dagHandler.textIDObject(n) + "|");
+			print("\n");
+		}
 	}
 
 }
@@ -1,8 +1,10 @@
 package graph.core.cli;
 
 import gnu.trove.iterator.TIntObjectIterator;
-import graph.core.DAGNode;
+import graph.core.NodeLexer;
 import graph.core.DAGObject;
+import graph.core.PropertyKey;
+import graph.module.PropertyTrigramModule;
 
 import java.io.BufferedReader;
 import java.util.ArrayList;
@@ -20,7 +22,8 @@ public class SearchPropertyCommand extends CollectionCommand {
 				+ "Searches through all nodes/edges for a property "
 				+ "with the value matching the regex. Returns a list "
 				+ "of all matches, with optional matching value if "
-				+ "enabled. This is realtime, so it may be slow.";
+				+ "enabled. This is realtime, so it may be slow, unless "
+				+ "the property is indexed by the property trigram module.";
 	}
 
 	@Override
@@ -46,7 +49,8 @@ public class SearchPropertyCommand extends CollectionCommand {
 
 		// Nodes or Edges?
 		TIndexedCollection<? extends DAGObject> dagObjs = null;
-		if (split.get(0).equalsIgnoreCase("N"))
+		boolean nodes = split.get(0).equalsIgnoreCase("N");
+		if (nodes)
 			dagObjs = dagHandler.getDAG().getNodes();
 		else if (split.get(0).equalsIgnoreCase("E"))
 			dagObjs = dagHandler.getDAG().getEdges();
@@ -57,31 +61,41 @@ public class SearchPropertyCommand extends CollectionCommand {
 
 		// Property key
 		String key = split.get(1);
-		if (key.matches(DAGNode.QUOTED_NAME.pattern()))
+		if (NodeLexer.isQuotedName(key))
 			key = UtilityMethods.shrinkString(key, 1);
 		boolean showMatch = false;
 		if (split.size() == 3)
 			showMatch = split.get(2).equalsIgnoreCase("T");
 
+		PropertyKey propKey = PropertyKey.find(key);
+
 		// Read in regex
 		try {
 			BufferedReader in = dagHandler.getReader();
 			String regexStr = in.readLine().trim();
 			Pattern regex = Pattern.compile(regexStr);
 
-			// Run through DAG objects, searching for property
+			// Narrow the search through the trigram index, if possible
+			Collection<DAGObject> candidates = null;
+			PropertyTrigramModule trigramModule = (PropertyTrigramModule) dagHandler
+					.getDAG().getModule(PropertyTrigramModule.class);
+			if (trigramModule != null && propKey != null)
+				candidates = trigramModule.findCandidates(nodes, key, regexStr);
+
 			Collection<DAGObject> matches = new ArrayList<>();
-			TIntObjectIterator<? extends DAGObject> iter = dagObjs
-					.iterator();
-			for (int i = dagObjs.size(); i-- > 0;) {
-				iter.advance();
-				DAGObject dagObj = iter.value();
-				String value = dagObj.getProperty(key);
-				if (value != null) {
-					Matcher m = regex.matcher(value);
-					if (m.matches()) {
+			if (candidates != null) {
+				for (DAGObject dagObj : candidates)
+					if (matchesValue(dagObj, propKey, regex))
+						matches.add(dagObj);
+			} else {
+				// Run through DAG objects, searching for property
+				TIntObjectIterator<? extends DAGObject> iter = dagObjs
+						.iterator();
+				for (int i = (propKey == null) ? 0 : dagObjs.size(); i-- > 0;) {
+					iter.advance();
+					DAGObject dagObj = iter.value();
+					if (matchesValue(dagObj, propKey, regex))
 						matches.add(dagObj);
-					}
 				}
 			}
 
@@ -92,11 +106,20 @@ public class SearchPropertyCommand extends CollectionCommand {
 			for (DAGObject match : matches) {
 				print(dagHandler.textIDObject(match) + "|");
 				if (showMatch)
-					print(match.getProperty(key) + "|");
+					print(match.getProperty(propKey) + "|");
 			}
 			print("\n");
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
+
+	private boolean matchesValue(DAGObject dagObj, PropertyKey propKey,
+			Pattern regex) {
+		String value = dagObj.getProperty(propKey);
+		if (value == null)
+			return false;
+		Matcher m = regex.matcher(value);
+		return m.matches();
+	}
 }
\ No newline at end of file
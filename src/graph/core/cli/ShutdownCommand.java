@@ -10,13 +10,14 @@
  ******************************************************************************/
 package graph.core.cli;
 
+import graph.core.DirectedAcyclicGraph;
 import core.Command;
 
 public class ShutdownCommand extends Command {
 
 	@Override
 	public String shortDescription() {
-		return "Shuts down the entire DAG.";
+		return "Shuts down every graph in the process.";
 	}
 
 	private boolean sync_;
@@ -32,6 +33,10 @@ public class ShutdownCommand extends Command {
 			@Override
 			public void run() {
 				DAGPortHandler dagHandler = (DAGPortHandler) handler;
+				for (DirectedAcyclicGraph dag : dagHandler.getGraphs()
+						.values())
+					if (dag != dagHandler.dag_)
+						dag.close(sync_);
 				dagHandler.dag_.shutdown(sync_);
 			}
 		}).start();
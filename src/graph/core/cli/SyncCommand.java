@@ -10,6 +10,7 @@
  ******************************************************************************/
 package graph.core.cli;
 
+import graph.core.DirectedAcyclicGraph;
 import core.Command;
 
 public class SyncCommand extends Command {
@@ -22,11 +23,12 @@ public class SyncCommand extends Command {
 	@Override
 	protected void executeImpl() {
 		print("Syncing DAG information.\n");
+		// The graph the session has selected
+		final DirectedAcyclicGraph dag = ((DAGPortHandler) handler).getDAG();
 		new Thread(new Runnable() {
 			@Override
 			public void run() {
-				DAGPortHandler dagHandler = (DAGPortHandler) handler;
-				dagHandler.dag_.saveState();
+				dag.saveState();
 			}
 		}).start();
 	}
@@ -14,17 +14,23 @@ import graph.core.DAGEdge;
 import graph.core.DAGNode;
 import graph.core.DAGObject;
 import graph.core.Node;
+import graph.core.PropertyKey;
 import graph.core.cli.DAGPortHandler;
 import graph.module.SubDAGExtractorModule;
 
 import org.apache.commons.collections4.Predicate;
 
 public class SubDAGFilter implements Predicate<Object> {
-	private String filterName_;
+	private PropertyKey coreKey_;
 	private DAGPortHandler handler_;
+	private PropertyKey nonCoreKey_;
 
 	public SubDAGFilter(String subDagFilter, DAGPortHandler handler) {
-		filterName_ = subDagFilter;
+		// Unknown keys are left null: no object can have them
+		coreKey_ = PropertyKey.find(SubDAGExtractorModule.TAG_PREFIX
+				+ subDagFilter);
+		nonCoreKey_ = PropertyKey.find(SubDAGExtractorModule.NON_CORE_PREFIX
+				+ subDagFilter);
 		handler_ = handler;
 	}
 
@@ -37,11 +43,8 @@ public class SubDAGFilter implements Predicate<Object> {
 			return true;
 
 		if (dagObj instanceof DAGNode) {
-			if (((DAGNode) dagObj).getProperty(SubDAGExtractorModule.TAG_PREFIX
-					+ filterName_) != null
-					|| ((DAGNode) dagObj)
-							.getProperty(SubDAGExtractorModule.NON_CORE_PREFIX
-									+ filterName_) != null)
+			if (dagObj.getProperty(coreKey_) != null
+					|| dagObj.getProperty(nonCoreKey_) != null)
 				return true;
 			else
 				return false;
@@ -50,11 +50,12 @@ public class CompressedStringNode implements Node {
 	public String getName() {
 		try {
 			// Flush the writer
-			((StringStorageModule) DirectedAcyclicGraph.selfRef_
-					.getModule(StringStorageModule.class)).flush();
+			StringStorageModule module = (StringStorageModule) DirectedAcyclicGraph
+					.current().getModule(StringStorageModule.class);
+			module.flush();
 
 			BufferedReader in = new BufferedReader(new FileReader(
-					StringStorageModule.FILE_LOC + file_));
+					module.getStringFile(file_)));
 			in.skip(pointerStart_);
 
 			String result = in.readLine();
@@ -16,9 +16,15 @@ import graph.core.DAGObject;
 import graph.core.DirectedAcyclicGraph;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import util.collection.trove.TIndexedCollection;
 import util.serialisation.DefaultSerialisationMechanism;
@@ -31,6 +37,8 @@ import util.serialisation.SerialisationMechanism;
  */
 public abstract class DAGModule<T> implements Serializable {
 	protected static final String MODULE_DIR = "modules";
+	/** The number of objects indexed per partial index in parallel rebuilds. */
+	private static final int REBUILD_CHUNK = 4096;
 	private static final long serialVersionUID = -1752235659675219252L;
 	protected transient DirectedAcyclicGraph dag_;
 
@@ -39,9 +47,29 @@ public abstract class DAGModule<T> implements Serializable {
 	protected DAGModule() {
 	}
 
+	/**
+	 * Rebuilds the module by adding every supported node and/or edge. If the
+	 * module is {@link ParallelRebuildable}, the rebuild is run in parallel.
+	 */
 	protected void defaultRebuild(TIndexedCollection<DAGNode> nodes,
 			boolean iterateNodes, TIndexedCollection<DAGEdge> edges,
 			boolean iterateEdges) {
+		if (this instanceof ParallelRebuildable) {
+			DAGObject[] nodeArray = (iterateNodes) ? nodes
+					.toArray(new DAGObject[nodes.size()]) : new DAGObject[0];
+			DAGObject[] objects = nodeArray;
+			if (iterateEdges) {
+				DAGObject[] edgeArray = edges.toArray(new DAGObject[edges
+						.size()]);
+				objects = new DAGObject[nodeArray.length + edgeArray.length];
+				System.arraycopy(nodeArray, 0, objects, 0, nodeArray.length);
+				System.arraycopy(edgeArray, 0, objects, nodeArray.length,
+						edgeArray.length);
+			}
+			parallelRebuild((ParallelRebuildable<?>) this, objects);
+			return;
+		}
+
 		if (iterateNodes) {
 			DAGNode[] nodeArray = nodes.toArray(new DAGNode[nodes.size()]);
 			for (DAGNode node : nodeArray) {
@@ -58,6 +86,22 @@ public abstract class DAGModule<T> implements Serializable {
 		}
 	}
 
+	/**
+	 * Indexes objects into partial indexes across a fork-join pool, then
+	 * merges and applies them.
+	 */
+	private <P> void parallelRebuild(ParallelRebuildable<P> rebuildable,
+			DAGObject[] objects) {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			P index = pool.invoke(new RebuildTask<>(this, rebuildable,
+					objects, 0, objects.length));
+			rebuildable.applyRebuild(index);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	/**
 	 * Called after an edge is added to the DAG.
 	 * 
@@ -80,6 +124,35 @@ public abstract class DAGModule<T> implements Serializable {
 		return true;
 	}
 
+	/**
+	 * Called after a batch of edges is added to the DAG. By default, this
+	 * calls {@link #addEdge(DAGEdge)} for each edge. Modules can override this
+	 * to update their indices in bulk.
+	 * 
+	 * @param edges
+	 *            The supported edges that were added.
+	 * @return The edges that should be removed (possibly empty).
+	 */
+	public Collection<DAGEdge> addEdges(Collection<DAGEdge> edges) {
+		Collection<DAGEdge> rejected = new ArrayList<>();
+		for (DAGEdge edge : edges)
+			if (!addEdge(edge))
+				rejected.add(edge);
+		return rejected;
+	}
+
+	/**
+	 * Called after a batch of nodes is added to the DAG. By default, this
+	 * calls {@link #addNode(DAGNode)} for each node.
+	 * 
+	 * @param nodes
+	 *            The supported nodes that were added.
+	 */
+	public void addNodes(Collection<DAGNode> nodes) {
+		for (DAGNode node : nodes)
+			addNode(node);
+	}
+
 	public void addProperty(DAGObject dagObj, String key, String value) {
 
 	}
@@ -88,6 +161,20 @@ public abstract class DAGModule<T> implements Serializable {
 
 	}
 
+	/**
+	 * Called before the DAG is renumbered (see
+	 * {@link graph.core.DAGCompactor}). A module that holds configuration which cannot be rebuilt from the
+	 * DAG can drop everything it indexes by ID and be kept: it is then saved
+	 * with only its configuration and rebuilt when the DAG is next loaded.
+	 * Modules that are not kept are deleted, and created anew when the DAG is
+	 * next loaded.
+	 * 
+	 * @return True if the module is kept. By default, false.
+	 */
+	public boolean clearForRenumbering() {
+		return false;
+	}
+
 	/**
 	 * Removes any cached information the module has, requiring it to compute
 	 * results on demand.
@@ -98,6 +185,17 @@ public abstract class DAGModule<T> implements Serializable {
 	public abstract T execute(Object... args) throws IllegalArgumentException,
 			ModuleException;
 
+	/**
+	 * Gets the modules this module uses when rebuilding (see
+	 * {@link #initialisationComplete}). These are rebuilt before this module,
+	 * while other modules may be rebuilt concurrently with it.
+	 * 
+	 * @return The classes of the modules this module depends on.
+	 */
+	public Collection<Class<? extends DAGModule<?>>> getDependencies() {
+		return new ArrayList<>(0);
+	}
+
 	/**
 	 * Gets any pertinent properties the module uses on nodes and edges.
 	 * 
@@ -125,6 +223,19 @@ public abstract class DAGModule<T> implements Serializable {
 		return false;
 	}
 
+	/**
+	 * If the module is notified of changes asynchronously. Asynchronous
+	 * modules receive changes in order and in batches on their own thread
+	 * (see {@link graph.core.ModuleEventQueue}), so they do not slow down
+	 * writes, but cannot reject nodes or edges and may lag behind the DAG
+	 * (see {@link DirectedAcyclicGraph#awaitModule(DAGModule)}).
+	 * 
+	 * @return True if the module is asynchronous. By default, false.
+	 */
+	public boolean isAsynchronous() {
+		return false;
+	}
+
 	/**
 	 * Called after 'edge' is removed.
 	 * 
@@ -175,6 +286,47 @@ public abstract class DAGModule<T> implements Serializable {
 		return true;
 	}
 
+	/**
+	 * Captures the state of the module at a checkpoint, while the DAG is not
+	 * changing, and returns a task that saves the captured state once changes
+	 * resume. By default the module is saved as it is captured; modules that
+	 * can copy their state quickly override this to save the copy later.
+	 * 
+	 * @param rootDir
+	 *            The root directory to save the module under.
+	 * @return The task that saves the captured state, returning true if it
+	 *         was saved.
+	 */
+	public Callable<Boolean> captureState(File rootDir) {
+		final boolean saved = saveModule(rootDir);
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return saved;
+			}
+		};
+	}
+
+	/**
+	 * Creates the task that saves a copy of a module made by
+	 * {@link #captureState(File)}.
+	 * 
+	 * @param copy
+	 *            The copy of the module.
+	 * @param rootDir
+	 *            The root directory to save the copy under.
+	 * @return The task that saves the copy.
+	 */
+	protected static Callable<Boolean> saveCopy(final DAGModule<?> copy,
+			final File rootDir) {
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return copy.saveModule(rootDir);
+			}
+		};
+	}
+
 	public void setDAG(DirectedAcyclicGraph directedAcyclicGraph) {
 		dag_ = directedAcyclicGraph;
 	}
@@ -201,6 +353,46 @@ public abstract class DAGModule<T> implements Serializable {
 	 */
 	public abstract boolean supportsNode(DAGNode node);
 
+	/**
+	 * Deletes every saved module (and module index) under a root directory,
+	 * so the modules are created and rebuilt when next loaded.
+	 * 
+	 * @param rootDir
+	 *            The root directory of the DAG.
+	 */
+	public static void deleteModuleFiles(File rootDir) {
+		deleteRecursively(new File(rootDir, MODULE_DIR));
+	}
+
+	/**
+	 * Moves every saved module (and module index) under one root directory to
+	 * another, replacing the existing files of the same modules.
+	 * 
+	 * @param fromRoot
+	 *            The root directory the modules were saved under.
+	 * @param toRoot
+	 *            The root directory of the DAG.
+	 * @throws IOException
+	 *             If a file could not be moved.
+	 */
+	public static void moveModuleFiles(File fromRoot, File toRoot)
+			throws IOException {
+		File[] files = new File(fromRoot, MODULE_DIR).listFiles();
+		if (files == null)
+			return;
+		for (File file : files)
+			Files.move(file.toPath(), moduleFile(toRoot, file.getName())
+					.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				deleteRecursively(child);
+		file.delete();
+	}
+
 	protected static File moduleFile(File rootDir, String moduleName) {
 		File file = new File(rootDir, MODULE_DIR + File.separatorChar
 				+ moduleName);
@@ -228,4 +420,54 @@ public abstract class DAGModule<T> implements Serializable {
 		// TODO In this case, need to rescan dirs.
 		return (DAGModule<?>) moduleClass.newInstance();
 	}
+
+	/**
+	 * Indexes a range of objects into a partial index, splitting the range
+	 * in half until it is small enough.
+	 */
+	@SuppressWarnings("serial")
+	private static class RebuildTask<P> extends RecursiveTask<P> {
+		private final int end_;
+		private final DAGModule<?> module_;
+		private final DAGObject[] objects_;
+		private final ParallelRebuildable<P> rebuildable_;
+		private final int start_;
+
+		public RebuildTask(DAGModule<?> module,
+				ParallelRebuildable<P> rebuildable, DAGObject[] objects,
+				int start, int end) {
+			module_ = module;
+			rebuildable_ = rebuildable;
+			objects_ = objects;
+			start_ = start;
+			end_ = end;
+		}
+
+		@Override
+		protected P compute() {
+			if (end_ - start_ <= REBUILD_CHUNK) {
+				P partial = rebuildable_.newPartial();
+				for (int i = start_; i < end_; i++) {
+					if (objects_[i] instanceof DAGNode) {
+						DAGNode node = (DAGNode) objects_[i];
+						if (module_.supportsNode(node))
+							rebuildable_.addNode(partial, node);
+					} else if (objects_[i] instanceof DAGEdge) {
+						DAGEdge edge = (DAGEdge) objects_[i];
+						if (module_.supportsEdge(edge))
+							rebuildable_.addEdge(partial, edge);
+					}
+				}
+				return partial;
+			}
+
+			int mid = (start_ + end_) >>> 1;
+			RebuildTask<P> left = new RebuildTask<>(module_, rebuildable_,
+					objects_, start_, mid);
+			left.fork();
+			P right = new RebuildTask<>(module_, rebuildable_, objects_, mid,
+					end_).compute();
+			return rebuildable_.merge(left.join(), right);
+		}
+	}
 }
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module;
+
+import java.util.Collection;
+
+/**
+ * A module that indexes the values of registered property keys.
+ *
+ * @author Sam Sarjant
+ */
+public interface KeyIndexModule {
+	/**
+	 * @return The property keys currently indexed.
+	 */
+	public Collection<String> getRegisteredKeys();
+
+	/**
+	 * Registers a property key for indexing, indexing all existing values of
+	 * the key.
+	 * 
+	 * @param key
+	 *            The property key to index.
+	 * @return The number of existing objects indexed, or -1 if the key was
+	 *         already registered.
+	 */
+	public int registerKey(String key);
+
+	/**
+	 * Stops indexing a property key.
+	 * 
+	 * @param key
+	 *            The key to stop indexing.
+	 * @return True if the key was registered.
+	 */
+	public boolean unregisterKey(String key);
+}
@@ -197,7 +197,7 @@ public class NodeAliasLuceneModule extends DAGModule<Collection<DAGNode>>
 			Collection<DAGNode> nonEphemeral = new ArrayList<DAGNode>(
 					nodes.size());
 			for (DAGNode n : nodes)
-				if (n.getProperty(DirectedAcyclicGraph.EPHEMERAL_MARK) == null)
+				if (n.getProperty(DirectedAcyclicGraph.EPHEMERAL_KEY) == null)
 					nonEphemeral.add(n);
 			nodes = nonEphemeral;
 		}
@@ -338,6 +338,15 @@ public class NodeAliasLuceneModule extends DAGModule<Collection<DAGNode>>
 		return true;
 	}
 
+	/**
+	 * Index updates are slow and never reject anything, so are applied
+	 * asynchronously.
+	 */
+	@Override
+	public boolean isAsynchronous() {
+		return true;
+	}
+
 	public boolean removeAlias(DAGNode node, String alias) {
 		alias = processAlias(alias);
 		if (alias.isEmpty())
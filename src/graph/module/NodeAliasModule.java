@@ -16,9 +16,12 @@ import graph.core.DirectedAcyclicGraph;
 import graph.core.Node;
 import graph.core.StringNode;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import util.AliasedObject;
 import util.collection.MergeSet;
@@ -37,6 +40,21 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 	public static final String ALIAS_PROP = "alias";
 	private TStringTrie<DAGNode> aliasTrie_ = new TStringTrie<>();
 
+	/** Guards the trie, so lookups can run concurrently with each other. */
+	private transient volatile ReadWriteLock trieLock_;
+
+	private ReadWriteLock trieLock() {
+		ReadWriteLock lock = trieLock_;
+		if (lock == null) {
+			synchronized (this) {
+				if (trieLock_ == null)
+					trieLock_ = new ReentrantReadWriteLock();
+				lock = trieLock_;
+			}
+		}
+		return lock;
+	}
+
 	private String processAlias(String name) {
 		name = name.replaceAll("\\s{2,}", " ");
 		return name;
@@ -45,7 +63,12 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 	public boolean addAlias(DAGNode node, String alias) {
 		if (alias.isEmpty())
 			return false;
-		aliasTrie_.put(processAlias(alias), node);
+		trieLock().writeLock().lock();
+		try {
+			aliasTrie_.put(processAlias(alias), node);
+		} finally {
+			trieLock().writeLock().unlock();
+		}
 		return true;
 	}
 
@@ -77,7 +100,12 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 
 	@Override
 	public void clear() {
-		aliasTrie_.clear();
+		trieLock().writeLock().lock();
+		try {
+			aliasTrie_.clear();
+		} finally {
+			trieLock().writeLock().unlock();
+		}
 	}
 
 	@Override
@@ -127,8 +155,13 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 	public Collection<AliasedObject<DAGNode>> findAliasedNodes(String alias,
 			boolean caseSensitive, boolean exactString) {
 		Collection<AliasedObject<DAGNode>> aliased = new MergeSet<>();
-		aliasTrie_.getValue(alias.toCharArray(), 0, aliased, !exactString,
-				caseSensitive);
+		trieLock().readLock().lock();
+		try {
+			aliasTrie_.getValue(alias.toCharArray(), 0, aliased, !exactString,
+					caseSensitive);
+		} finally {
+			trieLock().readLock().unlock();
+		}
 		return aliased;
 	}
 
@@ -147,8 +180,14 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 	 */
 	public Collection<DAGNode> findNodeByAlias(String alias,
 			boolean caseSensitive, boolean exactString, boolean excludeEphemeral) {
-		Collection<DAGNode> nodes = aliasTrie_.getValue(processAlias(alias),
-				!exactString, caseSensitive);
+		Collection<DAGNode> nodes;
+		trieLock().readLock().lock();
+		try {
+			nodes = aliasTrie_.getValue(processAlias(alias), !exactString,
+					caseSensitive);
+		} finally {
+			trieLock().readLock().unlock();
+		}
 		if (nodes == null)
 			return new ArrayList<>(0);
 
@@ -156,7 +195,7 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 			Collection<DAGNode> nonEphemeral = new ArrayList<DAGNode>(
 					nodes.size());
 			for (DAGNode n : nodes)
-				if (n.getProperty(DirectedAcyclicGraph.EPHEMERAL_MARK) == null)
+				if (n.getProperty(DirectedAcyclicGraph.EPHEMERAL_KEY) == null)
 					nonEphemeral.add(n);
 			nodes = nonEphemeral;
 		}
@@ -211,7 +250,7 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 
 		// Iterate through all nodes and edges, adding aliases
 		System.out.print("Rebuilding alias trie... ");
-		aliasTrie_.clear();
+		clear();
 		defaultRebuild(nodes, true, edges, true);
 		System.out.println("Done!");
 		return true;
@@ -220,7 +259,12 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 	public boolean removeAlias(DAGNode node, String alias) {
 		if (alias.isEmpty())
 			return false;
-		aliasTrie_.remove(processAlias(alias), node);
+		trieLock().writeLock().lock();
+		try {
+			aliasTrie_.remove(processAlias(alias), node);
+		} finally {
+			trieLock().writeLock().unlock();
+		}
 		return true;
 	}
 
@@ -230,10 +274,15 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 		if (edge.getProperty(ALIAS_PROP) != null) {
 			Node[] edgeNodes = edge.getNodes();
 			boolean changed = false;
-			for (int i = 2; i < edgeNodes.length; i++) {
-				changed |= aliasTrie_.remove(
-						processAlias(edgeNodes[i].getName()),
-						(DAGNode) edgeNodes[1]);
+			trieLock().writeLock().lock();
+			try {
+				for (int i = 2; i < edgeNodes.length; i++) {
+					changed |= aliasTrie_.remove(
+							processAlias(edgeNodes[i].getName()),
+							(DAGNode) edgeNodes[1]);
+				}
+			} finally {
+				trieLock().writeLock().unlock();
 			}
 			return changed;
 		}
@@ -242,11 +291,27 @@ public class NodeAliasModule extends DAGModule<Collection<DAGNode>> implements
 
 	@Override
 	public boolean removeNode(DAGNode node) {
-		if (!node.isAnonymous())
-			return aliasTrie_.remove(processAlias(node.getName()), node);
+		if (!node.isAnonymous()) {
+			trieLock().writeLock().lock();
+			try {
+				return aliasTrie_.remove(processAlias(node.getName()), node);
+			} finally {
+				trieLock().writeLock().unlock();
+			}
+		}
 		return true;
 	}
 
+	@Override
+	public boolean saveModule(File rootDir) {
+		trieLock().readLock().lock();
+		try {
+			return super.saveModule(rootDir);
+		} finally {
+			trieLock().readLock().unlock();
+		}
+	}
+
 	@Override
 	public boolean supportsEdge(DAGEdge edge) {
 		return true;
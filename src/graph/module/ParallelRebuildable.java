@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module;
+
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+
+/**
+ * A module that can be rebuilt in parallel. When such a module calls
+ * {@link DAGModule#defaultRebuild}, the nodes and edges are partitioned
+ * across a fork-join pool, each partition is indexed into its own partial
+ * index, and the partial indexes are merged and then applied to the module.
+ *
+ * @param <P>
+ *            The type of partial index.
+ * @author Sam Sarjant
+ */
+public interface ParallelRebuildable<P> {
+	/**
+	 * Adds a (supported) edge to a partial index. Each partial index is only
+	 * used by one thread at a time.
+	 *
+	 * @param partial
+	 *            The partial index to add to.
+	 * @param edge
+	 *            The edge to add.
+	 */
+	public void addEdge(P partial, DAGEdge edge);
+
+	/**
+	 * Adds a (supported) node to a partial index. Each partial index is only
+	 * used by one thread at a time.
+	 *
+	 * @param partial
+	 *            The partial index to add to.
+	 * @param node
+	 *            The node to add.
+	 */
+	public void addNode(P partial, DAGNode node);
+
+	/**
+	 * Applies the merged index of every node and edge to the module.
+	 *
+	 * @param partial
+	 *            The merged index.
+	 */
+	public void applyRebuild(P partial);
+
+	/**
+	 * Merges two partial indexes. Either may be reused as the result.
+	 *
+	 * @param partialA
+	 *            The partial index of the earlier objects.
+	 * @param partialB
+	 *            The partial index of the later objects.
+	 * @return The merged partial index.
+	 */
+	public P merge(P partialA, P partialB);
+
+	/**
+	 * @return A new, empty partial index.
+	 */
+	public P newPartial();
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file of sorted edge ID posting lists, grouped by node ID and
+ * keyed by an int (e.g. an argument position). A node's lists can be read
+ * without reading the rest of the file, so an index stored this way is
+ * available as soon as the file is mapped.
+ *
+ * The file layout is: a header (magic, node count, maximum node ID, table
+ * position), a record per node, then one offset per node ID from 0 to the
+ * maximum node ID (0 if the node has no record). Each node record is the
+ * number of lists, followed by each list's key, length and sorted edge IDs.
+ *
+ * @author Sam Sarjant
+ */
+public class PostingListFile {
+	/** The size of each mapped region (a multiple of 8). */
+	private static final long REGION_SIZE = 1 << 30;
+
+	private static final int HEADER_SIZE = 20;
+
+	private static final int MAGIC = 0x504f5354;
+
+	private final int count_;
+
+	private final File file_;
+
+	private final int maxID_;
+
+	private final MappedByteBuffer[] regions_;
+
+	private final long tablePosition_;
+
+	/**
+	 * Maps an existing posting list file.
+	 *
+	 * @param file
+	 *            The file to map.
+	 * @throws IOException
+	 *             If the file could not be mapped or is not a posting list
+	 *             file.
+	 */
+	public PostingListFile(File file) throws IOException {
+		file_ = file;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			regions_ = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+			for (int i = 0; i < regions_.length; i++) {
+				long start = i * REGION_SIZE;
+				regions_[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						start, Math.min(REGION_SIZE, size - start));
+			}
+		}
+		if (regions_.length == 0 || regions_[0].getInt(0) != MAGIC)
+			throw new IOException(file + " is not a posting list file.");
+		count_ = regions_[0].getInt(4);
+		maxID_ = regions_[0].getInt(8);
+		tablePosition_ = regions_[0].getLong(12);
+	}
+
+	/**
+	 * Reads an int. Records are int-aligned, so no int spans two regions.
+	 */
+	private int getInt(long position) {
+		return regions_[(int) (position / REGION_SIZE)]
+				.getInt((int) (position % REGION_SIZE));
+	}
+
+	private long offset(int id) {
+		if (id < 0 || id > maxID_)
+			return 0;
+		long position = tablePosition_ + 8L * id;
+		return regions_[(int) (position / REGION_SIZE)]
+				.getLong((int) (position % REGION_SIZE));
+	}
+
+	public boolean contains(int nodeID) {
+		return offset(nodeID) != 0;
+	}
+
+	/**
+	 * @return The number of nodes with posting lists.
+	 */
+	public int getCount() {
+		return count_;
+	}
+
+	public File getFile() {
+		return file_;
+	}
+
+	public int getMaxID() {
+		return maxID_;
+	}
+
+	/**
+	 * Gets the posting lists of a node.
+	 *
+	 * @param nodeID
+	 *            The ID of the node.
+	 * @return The node record (number of lists, then each list's key, length
+	 *         and edge IDs), or null if the node has no lists.
+	 */
+	public int[] getRecord(int nodeID) {
+		long position = offset(nodeID);
+		if (position == 0)
+			return null;
+		// Find the record length
+		int numLists = getInt(position);
+		long end = position + 4;
+		for (int i = 0; i < numLists; i++)
+			end += 8 + 4L * getInt(end + 4);
+
+		int[] record = new int[(int) ((end - position) / 4)];
+		for (int i = 0; i < record.length; i++, position += 4)
+			record[i] = getInt(position);
+		return record;
+	}
+
+	/**
+	 * Finds the first node ID with lists at or after a given ID.
+	 *
+	 * @param nodeID
+	 *            The ID to start searching from.
+	 * @return The first node ID with lists, or -1 if there are no more.
+	 */
+	public int nextID(int nodeID) {
+		for (nodeID = Math.max(nodeID, 0); nodeID <= maxID_; nodeID++)
+			if (offset(nodeID) != 0)
+				return nodeID;
+		return -1;
+	}
+
+	/**
+	 * Writes a posting list file. The file is written to a temporary file and
+	 * renamed into place when the writer is closed, so an existing mapping of
+	 * the file is unaffected.
+	 */
+	public static class Writer {
+		private int count_;
+
+		private final File file_;
+
+		private int maxID_ = -1;
+
+		private long[] offsets_ = new long[1024];
+
+		private final DataOutputStream out_;
+
+		private long position_ = HEADER_SIZE;
+
+		private final File temp_;
+
+		public Writer(File file) throws IOException {
+			file_ = file;
+			temp_ = new File(file.getPath() + ".tmp");
+			out_ = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp_), 1 << 16));
+			out_.write(new byte[HEADER_SIZE]);
+		}
+
+		/**
+		 * Adds the posting lists of a node. Nodes may be added in any order,
+		 * but only once each.
+		 *
+		 * @param nodeID
+		 *            The ID of the node.
+		 * @param record
+		 *            The node record, in the form returned by
+		 *            {@link PostingListFile#getRecord(int)}.
+		 */
+		public void add(int nodeID, int[] record) throws IOException {
+			if (nodeID >= offsets_.length)
+				offsets_ = Arrays.copyOf(offsets_,
+						Math.max(nodeID + 1, offsets_.length * 2));
+			offsets_[nodeID] = position_;
+			maxID_ = Math.max(maxID_, nodeID);
+			count_++;
+			for (int value : record)
+				out_.writeInt(value);
+			position_ += 4L * record.length;
+		}
+
+		/**
+		 * Writes the offset table and header and renames the file into place.
+		 */
+		public void close() throws IOException {
+			// Pad the table to 8 bytes, so no offset spans two regions
+			if (position_ % 8 != 0) {
+				out_.writeInt(0);
+				position_ += 4;
+			}
+			for (int i = 0; i <= maxID_; i++)
+				out_.writeLong(offsets_[i]);
+			out_.close();
+
+			try (RandomAccessFile raf = new RandomAccessFile(temp_, "rw")) {
+				raf.writeInt(MAGIC);
+				raf.writeInt(count_);
+				raf.writeInt(maxID_);
+				raf.writeLong(position_);
+			}
+
+			if (!temp_.renameTo(file_)) {
+				file_.delete();
+				if (!temp_.renameTo(file_))
+					throw new IOException("Could not rename " + temp_);
+			}
+		}
+	}
+}
@@ -0,0 +1,454 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import util.collection.trove.TIndexedCollection;
+
+/**
+ * Indexes the values of registered property keys, both by exact value (hash)
+ * and in sorted order for range lookups. Numeric values sort numerically (and
+ * before non-numeric values), so keys like creationDate can be range queried
+ * directly.
+ *
+ * No keys are indexed until registered (see {@link #registerKey(String)}).
+ * Keys with a near-unique value per object, such as creator and creationDate,
+ * cost an ID set per distinct value, so they are only indexed on request.
+ *
+ * @author Sam Sarjant
+ */
+public class PropertyIndexModule extends
+		DAGModule<Collection<? extends DAGObject>> implements KeyIndexModule {
+	private static final long serialVersionUID = 1L;
+
+	/** The indices for edges, per property key. */
+	private Map<String, KeyIndex> edgeIndex_ = new HashMap<>();
+
+	/** The indices for nodes, per property key. */
+	private Map<String, KeyIndex> nodeIndex_ = new HashMap<>();
+
+	private Map<String, KeyIndex> getIndex(boolean nodes) {
+		return (nodes) ? nodeIndex_ : edgeIndex_;
+	}
+
+	/**
+	 * Indexes (or unindexes) all registered properties of an object.
+	 */
+	private void indexObject(DAGObject dagObj, boolean add) {
+		for (Map.Entry<String, KeyIndex> entry : getIndex(
+				dagObj instanceof DAGNode).entrySet()) {
+			if (add) {
+				String value = dagObj.getProperty(entry.getKey());
+				if (value != null)
+					entry.getValue().put(dagObj.getID(), value);
+			} else
+				entry.getValue().remove(dagObj.getID());
+		}
+	}
+
+	/**
+	 * Converts indexed IDs into DAG objects, in ID order.
+	 */
+	private Collection<DAGObject> toObjects(boolean nodes, int[] ids) {
+		Arrays.sort(ids);
+		Collection<DAGObject> objects = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			DAGObject dagObj = (nodes) ? dag_.getNodeByID(id) : dag_
+					.getEdgeByID(id);
+			if (dagObj != null)
+				objects.add(dagObj);
+		}
+		return objects;
+	}
+
+	@Override
+	public synchronized boolean addEdge(DAGEdge edge) {
+		indexObject(edge, true);
+		return true;
+	}
+
+	@Override
+	public synchronized Collection<DAGEdge> addEdges(
+			Collection<DAGEdge> edges) {
+		for (DAGEdge edge : edges)
+			indexObject(edge, true);
+		return new ArrayList<>(0);
+	}
+
+	@Override
+	public synchronized boolean addNode(DAGNode node) {
+		indexObject(node, true);
+		return true;
+	}
+
+	@Override
+	public synchronized void addNodes(Collection<DAGNode> nodes) {
+		for (DAGNode node : nodes)
+			indexObject(node, true);
+	}
+
+	@Override
+	public synchronized void addProperty(DAGObject dagObj, String key,
+			String value) {
+		KeyIndex index = getIndex(dagObj instanceof DAGNode).get(key);
+		if (index != null)
+			index.put(dagObj.getID(), value);
+	}
+
+	@Override
+	public synchronized void clear() {
+		for (KeyIndex index : nodeIndex_.values())
+			index.clear();
+		for (KeyIndex index : edgeIndex_.values())
+			index.clear();
+	}
+
+	@Override
+	public synchronized boolean clearForRenumbering() {
+		// Keep the registered keys
+		clear();
+		return true;
+	}
+
+	@Override
+	public Collection<? extends DAGObject> execute(Object... args)
+			throws IllegalArgumentException, ModuleException {
+		if (args == null || args.length < 3)
+			throw new IllegalArgumentException(
+					"Requires N/E, a property key and a value (or two values for a range).");
+		boolean nodes = args[0].toString().equalsIgnoreCase("N");
+		if (args.length == 3)
+			return findByValue(nodes, (String) args[1], (String) args[2]);
+		return findByRange(nodes, (String) args[1], (String) args[2],
+				(String) args[3]);
+	}
+
+	/**
+	 * Finds all objects whose property value lies within a range (inclusive).
+	 *
+	 * @param nodes
+	 *            If searching nodes (or edges).
+	 * @param key
+	 *            The property key.
+	 * @param lower
+	 *            The lower bound, or null for no lower bound.
+	 * @param upper
+	 *            The upper bound, or null for no upper bound.
+	 * @return The matching objects in value order, or null if the key is not
+	 *         indexed.
+	 */
+	public synchronized Collection<DAGObject> findByRange(boolean nodes,
+			String key, String lower, String upper) {
+		KeyIndex index = getIndex(nodes).get(key);
+		if (index == null)
+			return null;
+
+		NavigableMap<String, TIntSet> range = index.sorted_;
+		if (lower != null && upper != null) {
+			if (index.sorted_.comparator().compare(lower, upper) > 0)
+				return new ArrayList<>(0);
+			range = range.subMap(lower, true, upper, true);
+		} else if (lower != null)
+			range = range.tailMap(lower, true);
+		else if (upper != null)
+			range = range.headMap(upper, true);
+
+		Collection<DAGObject> objects = new ArrayList<>();
+		for (TIntSet ids : range.values())
+			objects.addAll(toObjects(nodes, ids.toArray()));
+		return objects;
+	}
+
+	/**
+	 * Finds all objects with a given property value.
+	 *
+	 * @param nodes
+	 *            If searching nodes (or edges).
+	 * @param key
+	 *            The property key.
+	 * @param value
+	 *            The exact value.
+	 * @return The matching objects in ID order, or null if the key is not
+	 *         indexed.
+	 */
+	public synchronized Collection<DAGObject> findByValue(boolean nodes,
+			String key, String value) {
+		KeyIndex index = getIndex(nodes).get(key);
+		if (index == null)
+			return null;
+		TIntSet ids = index.exact_.get(value);
+		if (ids == null)
+			return new ArrayList<>(0);
+		return toObjects(nodes, ids.toArray());
+	}
+
+	/**
+	 * @return The property keys currently indexed.
+	 */
+	@Override
+	public synchronized Collection<String> getRegisteredKeys() {
+		return new ArrayList<>(nodeIndex_.keySet());
+	}
+
+	@Override
+	public synchronized boolean initialisationComplete(
+			TIndexedCollection<DAGNode> nodes,
+			TIndexedCollection<DAGEdge> edges, boolean forceRebuild) {
+		boolean empty = true;
+		for (KeyIndex index : nodeIndex_.values())
+			empty &= index.values_.size() == 0;
+		for (KeyIndex index : edgeIndex_.values())
+			empty &= index.values_.size() == 0;
+		if (!empty && !forceRebuild)
+			return false;
+
+		System.out.print("Rebuilding property value index... ");
+		clear();
+		defaultRebuild(nodes, true, edges, true);
+		System.out.println("Done!");
+		return true;
+	}
+
+	/**
+	 * Registers a property key for indexing, indexing all existing values of
+	 * the key.
+	 *
+	 * @param key
+	 *            The property key to index.
+	 * @return The number of existing objects indexed, or -1 if the key was
+	 *         already registered.
+	 */
+	@Override
+	public synchronized int registerKey(String key) {
+		if (nodeIndex_.containsKey(key))
+			return -1;
+		KeyIndex nodeIndex = new KeyIndex();
+		KeyIndex edgeIndex = new KeyIndex();
+		nodeIndex_.put(key, nodeIndex);
+		edgeIndex_.put(key, edgeIndex);
+		return nodeIndex.indexAll(key, dag_.getNodes())
+				+ edgeIndex.indexAll(key, dag_.getEdges());
+	}
+
+	@Override
+	public synchronized boolean removeEdge(DAGEdge edge) {
+		indexObject(edge, false);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean removeNode(DAGNode node) {
+		indexObject(node, false);
+		return true;
+	}
+
+	@Override
+	public synchronized void removeProperty(DAGObject dagObj, String key) {
+		KeyIndex index = getIndex(dagObj instanceof DAGNode).get(key);
+		if (index != null)
+			index.remove(dagObj.getID());
+	}
+
+	@Override
+	public synchronized boolean saveModule(File rootDir) {
+		return super.saveModule(rootDir);
+	}
+
+	@Override
+	public synchronized Callable<Boolean> captureState(File rootDir) {
+		PropertyIndexModule copy = new PropertyIndexModule();
+		copy.nodeIndex_ = copyIndex(nodeIndex_);
+		copy.edgeIndex_ = copyIndex(edgeIndex_);
+		return saveCopy(copy, rootDir);
+	}
+
+	private static Map<String, KeyIndex> copyIndex(Map<String, KeyIndex> index) {
+		Map<String, KeyIndex> copy = new HashMap<>();
+		for (Map.Entry<String, KeyIndex> entry : index.entrySet())
+			copy.put(entry.getKey(), entry.getValue().copy());
+		return copy;
+	}
+
+	@Override
+	public boolean supportsEdge(DAGEdge edge) {
+		return true;
+	}
+
+	@Override
+	public boolean supportsNode(DAGNode node) {
+		return true;
+	}
+
+	/**
+	 * Stops indexing a property key.
+	 *
+	 * @param key
+	 *            The key to stop indexing.
+	 * @return True if the key was registered.
+	 */
+	@Override
+	public synchronized boolean unregisterKey(String key) {
+		edgeIndex_.remove(key);
+		return nodeIndex_.remove(key) != null;
+	}
+
+	/**
+	 * Parses a value as a number, if possible.
+	 *
+	 * @param value
+	 *            The value to parse.
+	 * @return The numeric value or null if not a number.
+	 */
+	private static Double parseNumber(String value) {
+		if (value.isEmpty())
+			return null;
+		char first = value.charAt(0);
+		if (!Character.isDigit(first) && first != '-' && first != '+'
+				&& first != '.')
+			return null;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The indices for a single property key.
+	 */
+	private static class KeyIndex implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/** The IDs by exact value. */
+		private Map<String, TIntSet> exact_ = new HashMap<>();
+
+		/** The IDs in value order (sharing the ID sets with exact_). */
+		private TreeMap<String, TIntSet> sorted_ = new TreeMap<>(
+				new ValueComparator());
+
+		/** The current value of each indexed ID (needed for removal). */
+		private TIntObjectHashMap<String> values_ = new TIntObjectHashMap<>();
+
+		private void clear() {
+			exact_.clear();
+			sorted_.clear();
+			values_.clear();
+		}
+
+		private KeyIndex copy() {
+			KeyIndex copy = new KeyIndex();
+			for (Map.Entry<String, TIntSet> entry : exact_.entrySet()) {
+				TIntSet ids = new TIntHashSet(entry.getValue().toArray());
+				copy.exact_.put(entry.getKey(), ids);
+				copy.sorted_.put(entry.getKey(), ids);
+			}
+			TIntObjectIterator<String> iter = values_.iterator();
+			for (int i = values_.size(); i-- > 0;) {
+				iter.advance();
+				copy.values_.put(iter.key(), iter.value());
+			}
+			return copy;
+		}
+
+		private <T extends DAGObject> int indexAll(String key,
+				TIndexedCollection<T> objects) {
+			int count = 0;
+			TIntObjectIterator<T> iter = objects.iterator();
+			for (int i = objects.size(); i-- > 0;) {
+				iter.advance();
+				T dagObj = iter.value();
+				String value = dagObj.getProperty(key);
+				if (value != null) {
+					put(dagObj.getID(), value);
+					count++;
+				}
+			}
+			return count;
+		}
+
+		private void put(int id, String value) {
+			String old = values_.put(id, value);
+			if (old != null) {
+				if (old.equals(value))
+					return;
+				removeID(id, old);
+			}
+
+			TIntSet ids = exact_.get(value);
+			if (ids == null) {
+				ids = new TIntHashSet();
+				exact_.put(value, ids);
+				sorted_.put(value, ids);
+			}
+			ids.add(id);
+		}
+
+		private void remove(int id) {
+			String old = values_.remove(id);
+			if (old != null)
+				removeID(id, old);
+		}
+
+		private void removeID(int id, String value) {
+			TIntSet ids = exact_.get(value);
+			if (ids == null)
+				return;
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				exact_.remove(value);
+				sorted_.remove(value);
+			}
+		}
+	}
+
+	/**
+	 * Orders numeric values numerically, before all non-numeric values, which
+	 * are ordered lexicographically.
+	 */
+	public static class ValueComparator implements Comparator<String>,
+			Serializable {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public int compare(String o1, String o2) {
+			Double num1 = parseNumber(o1);
+			Double num2 = parseNumber(o2);
+			if (num1 != null && num2 != null) {
+				int result = Double.compare(num1, num2);
+				if (result != 0)
+					return result;
+			} else if (num1 != null)
+				return -1;
+			else if (num2 != null)
+				return 1;
+			return o1.compareTo(o2);
+		}
+	}
+}
@@ -0,0 +1,555 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module;
+
+import gnu.trove.iterator.TIntObjectIterator;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import util.collection.trove.TIndexedCollection;
+
+/**
+ * Indexes the values of registered property keys by their (lower-cased)
+ * trigrams, so regex searches over those properties only need to check the
+ * objects containing every literal trigram of the regex rather than every
+ * object in the DAG.
+ *
+ * The index is a candidate filter only: changed or removed property values
+ * may leave stale postings behind, so every candidate must still be matched
+ * against the full regex.
+ *
+ * @author Sam Sarjant
+ */
+public class PropertyTrigramModule extends
+		DAGModule<Collection<? extends DAGObject>> implements KeyIndexModule {
+	private static final long serialVersionUID = 1L;
+	private static final int GRAM_SIZE = 3;
+
+	/** The trigram postings for edges, per property key. */
+	private Map<String, Map<String, TIntSet>> edgeIndex_ = new HashMap<>();
+
+	/** The trigram postings for nodes, per property key. */
+	private Map<String, Map<String, TIntSet>> nodeIndex_ = new HashMap<>();
+
+	/** The property keys being indexed. */
+	private Set<String> registeredKeys_ = new HashSet<>();
+
+	private Map<String, Map<String, TIntSet>> getIndex(DAGObject dagObj) {
+		return (dagObj instanceof DAGNode) ? nodeIndex_ : edgeIndex_;
+	}
+
+	/**
+	 * Adds or removes the trigrams of a value to/from the postings of a key.
+	 *
+	 * @param dagObj
+	 *            The object with the value.
+	 * @param key
+	 *            The property key.
+	 * @param value
+	 *            The property value.
+	 * @param add
+	 *            If the object is being added (or removed).
+	 */
+	private void indexValue(DAGObject dagObj, String key, String value,
+			boolean add) {
+		Map<String, Map<String, TIntSet>> index = getIndex(dagObj);
+		Map<String, TIntSet> postings = index.get(key);
+		if (postings == null) {
+			if (!add)
+				return;
+			postings = new HashMap<>();
+			index.put(key, postings);
+		}
+
+		for (String gram : trigrams(value)) {
+			TIntSet ids = postings.get(gram);
+			if (add) {
+				if (ids == null) {
+					ids = new TIntHashSet();
+					postings.put(gram, ids);
+				}
+				ids.add(dagObj.getID());
+			} else if (ids != null) {
+				ids.remove(dagObj.getID());
+				if (ids.isEmpty())
+					postings.remove(gram);
+			}
+		}
+	}
+
+	/**
+	 * Indexes (or unindexes) all registered properties of an object.
+	 */
+	private void indexObject(DAGObject dagObj, boolean add) {
+		for (String key : registeredKeys_) {
+			String value = dagObj.getProperty(key);
+			if (value != null)
+				indexValue(dagObj, key, value, add);
+		}
+	}
+
+	/**
+	 * Indexes a single key over a collection of objects.
+	 */
+	private <T extends DAGObject> int indexKey(String key,
+			TIndexedCollection<T> objects) {
+		int count = 0;
+		TIntObjectIterator<T> iter = objects.iterator();
+		for (int i = objects.size(); i-- > 0;) {
+			iter.advance();
+			T dagObj = iter.value();
+			String value = dagObj.getProperty(key);
+			if (value != null) {
+				indexValue(dagObj, key, value, true);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public synchronized boolean addEdge(DAGEdge edge) {
+		indexObject(edge, true);
+		return true;
+	}
+
+	@Override
+	public synchronized Collection<DAGEdge> addEdges(
+			Collection<DAGEdge> edges) {
+		for (DAGEdge edge : edges)
+			indexObject(edge, true);
+		return new ArrayList<>(0);
+	}
+
+	@Override
+	public synchronized boolean addNode(DAGNode node) {
+		indexObject(node, true);
+		return true;
+	}
+
+	@Override
+	public synchronized void addNodes(Collection<DAGNode> nodes) {
+		for (DAGNode node : nodes)
+			indexObject(node, true);
+	}
+
+	@Override
+	public synchronized void addProperty(DAGObject dagObj, String key,
+			String value) {
+		if (registeredKeys_.contains(key))
+			indexValue(dagObj, key, value, true);
+	}
+
+	@Override
+	public synchronized void clear() {
+		nodeIndex_.clear();
+		edgeIndex_.clear();
+	}
+
+	@Override
+	public synchronized boolean clearForRenumbering() {
+		// Keep the registered keys
+		clear();
+		return true;
+	}
+
+	/**
+	 * Finds the candidate objects that may have a property value fully
+	 * matching a regex.
+	 *
+	 * @param nodes
+	 *            If searching nodes (or edges).
+	 * @param key
+	 *            The property key.
+	 * @param regex
+	 *            The regex the value must match.
+	 * @return The candidate objects in ID order, or null if the index cannot
+	 *         narrow the search (the key is not indexed, or the regex has no
+	 *         extractable literal trigrams).
+	 */
+	public synchronized Collection<DAGObject> findCandidates(boolean nodes,
+			String key, String regex) {
+		if (!registeredKeys_.contains(key))
+			return null;
+		List<String> literals = extractLiterals(regex);
+		if (literals == null)
+			return null;
+		Set<String> grams = new HashSet<>();
+		for (String literal : literals)
+			grams.addAll(trigrams(literal));
+		if (grams.isEmpty())
+			return null;
+
+		Collection<DAGObject> candidates = new ArrayList<>();
+		Map<String, TIntSet> postings = (nodes) ? nodeIndex_.get(key)
+				: edgeIndex_.get(key);
+		if (postings == null)
+			return candidates;
+
+		// Intersect, starting from the smallest posting list
+		List<TIntSet> idSets = new ArrayList<>(grams.size());
+		TIntSet smallest = null;
+		for (String gram : grams) {
+			TIntSet ids = postings.get(gram);
+			if (ids == null)
+				return candidates;
+			idSets.add(ids);
+			if (smallest == null || ids.size() < smallest.size())
+				smallest = ids;
+		}
+
+		int[] ids = smallest.toArray();
+		Arrays.sort(ids);
+		for (int id : ids) {
+			boolean inAll = true;
+			for (TIntSet idSet : idSets) {
+				if (idSet != smallest && !idSet.contains(id)) {
+					inAll = false;
+					break;
+				}
+			}
+			if (inAll) {
+				DAGObject dagObj = (nodes) ? dag_.getNodeByID(id) : dag_
+						.getEdgeByID(id);
+				if (dagObj != null)
+					candidates.add(dagObj);
+			}
+		}
+		return candidates;
+	}
+
+	@Override
+	public Collection<? extends DAGObject> execute(Object... args)
+			throws IllegalArgumentException, ModuleException {
+		if (args == null || args.length < 3)
+			throw new IllegalArgumentException(
+					"Requires N/E, a property key and a regex.");
+		boolean nodes = args[0].toString().equalsIgnoreCase("N");
+		return findCandidates(nodes, (String) args[1], (String) args[2]);
+	}
+
+	/**
+	 * @return The property keys currently indexed.
+	 */
+	@Override
+	public synchronized Collection<String> getRegisteredKeys() {
+		return new ArrayList<>(registeredKeys_);
+	}
+
+	@Override
+	public synchronized boolean initialisationComplete(
+			TIndexedCollection<DAGNode> nodes,
+			TIndexedCollection<DAGEdge> edges, boolean forceRebuild) {
+		boolean empty = nodeIndex_.isEmpty() && edgeIndex_.isEmpty();
+		if (registeredKeys_.isEmpty() || (!empty && !forceRebuild))
+			return false;
+
+		System.out.print("Rebuilding property trigram index... ");
+		clear();
+		defaultRebuild(nodes, true, edges, true);
+		System.out.println("Done!");
+		return true;
+	}
+
+	/**
+	 * Registers a property key for indexing, indexing all existing values of
+	 * the key.
+	 *
+	 * @param key
+	 *            The property key to index.
+	 * @return The number of existing objects indexed, or -1 if the key was
+	 *         already registered.
+	 */
+	@Override
+	public synchronized int registerKey(String key) {
+		if (!registeredKeys_.add(key))
+			return -1;
+		return indexKey(key, dag_.getNodes()) + indexKey(key, dag_.getEdges());
+	}
+
+	@Override
+	public synchronized boolean removeEdge(DAGEdge edge) {
+		indexObject(edge, false);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean removeNode(DAGNode node) {
+		indexObject(node, false);
+		return true;
+	}
+
+	/**
+	 * Stops indexing a property key.
+	 *
+	 * @param key
+	 *            The key to stop indexing.
+	 * @return True if the key was registered.
+	 */
+	@Override
+	public synchronized boolean unregisterKey(String key) {
+		if (!registeredKeys_.remove(key))
+			return false;
+		nodeIndex_.remove(key);
+		edgeIndex_.remove(key);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean saveModule(File rootDir) {
+		return super.saveModule(rootDir);
+	}
+
+	@Override
+	public synchronized Callable<Boolean> captureState(File rootDir) {
+		PropertyTrigramModule copy = new PropertyTrigramModule();
+		copy.nodeIndex_ = copyIndex(nodeIndex_);
+		copy.edgeIndex_ = copyIndex(edgeIndex_);
+		copy.registeredKeys_ = new HashSet<>(registeredKeys_);
+		return saveCopy(copy, rootDir);
+	}
+
+	private static Map<String, Map<String, TIntSet>> copyIndex(
+			Map<String, Map<String, TIntSet>> index) {
+		Map<String, Map<String, TIntSet>> copy = new HashMap<>();
+		for (Map.Entry<String, Map<String, TIntSet>> keyEntry : index
+				.entrySet()) {
+			Map<String, TIntSet> grams = new HashMap<>();
+			for (Map.Entry<String, TIntSet> entry : keyEntry.getValue()
+					.entrySet())
+				grams.put(entry.getKey(), new TIntHashSet(entry.getValue()
+						.toArray()));
+			copy.put(keyEntry.getKey(), grams);
+		}
+		return copy;
+	}
+
+	@Override
+	public boolean supportsEdge(DAGEdge edge) {
+		return true;
+	}
+
+	@Override
+	public boolean supportsNode(DAGNode node) {
+		return true;
+	}
+
+	/**
+	 * Extracts the literal strings that any string fully matching the regex
+	 * must contain. This is conservative: anything that is not plainly a
+	 * required literal (classes, groups, optional characters) just ends the
+	 * current literal run.
+	 *
+	 * @param regex
+	 *            The regex to extract literals from.
+	 * @return The required literals (lower-cased), or null if the regex has a
+	 *         top-level alternation or uses comment mode.
+	 */
+	public static List<String> extractLiterals(String regex) {
+		List<String> literals = new ArrayList<>();
+		StringBuilder run = new StringBuilder();
+		int len = regex.length();
+		int i = 0;
+		while (i < len) {
+			char c = regex.charAt(i);
+			switch (c) {
+			case '\\':
+				if (i + 1 >= len) {
+					i++;
+					break;
+				}
+				char next = regex.charAt(i + 1);
+				if (next == 'Q') {
+					// Quoted section
+					int end = regex.indexOf("\\E", i + 2);
+					if (end == -1)
+						end = len;
+					appendLower(run, regex, i + 2, end);
+					i = Math.min(len, end + 2);
+				} else if (Character.isLetterOrDigit(next)) {
+					// Character class, anchor, back-reference or code point
+					endRun(run, literals);
+					i = skipEscape(regex, i);
+				} else {
+					run.append(Character.toLowerCase(next));
+					i += 2;
+				}
+				break;
+			case '[':
+				endRun(run, literals);
+				i = skipClass(regex, i);
+				break;
+			case '(':
+				if (regex.startsWith("(?", i)) {
+					int flagEnd = i + 2;
+					while (flagEnd < len
+							&& Character.isLetter(regex.charAt(flagEnd))
+							|| flagEnd < len && regex.charAt(flagEnd) == '-')
+						flagEnd++;
+					if (regex.substring(i + 2, flagEnd).indexOf('x') != -1)
+						return null;
+				}
+				endRun(run, literals);
+				i = skipGroup(regex, i);
+				break;
+			case '|':
+				return null;
+			case '*':
+			case '?':
+			case '{':
+				// Previous character is optional
+				if (run.length() > 0)
+					run.setLength(run.length() - 1);
+				endRun(run, literals);
+				i = (c == '{') ? skipTo(regex, i, '}') : i + 1;
+				break;
+			case '+':
+			case '.':
+			case '^':
+			case '$':
+				endRun(run, literals);
+				i++;
+				break;
+			default:
+				run.append(Character.toLowerCase(c));
+				i++;
+			}
+		}
+		endRun(run, literals);
+		return literals;
+	}
+
+	/**
+	 * Splits a string into its (lower-cased) trigrams.
+	 *
+	 * @param value
+	 *            The string to split.
+	 * @return The distinct trigrams of the string.
+	 */
+	public static Collection<String> trigrams(String value) {
+		if (value.length() < GRAM_SIZE)
+			return new ArrayList<String>(0);
+		Set<String> grams = new HashSet<>();
+		char[] lower = new char[value.length()];
+		for (int i = 0; i < lower.length; i++)
+			lower[i] = Character.toLowerCase(value.charAt(i));
+		for (int i = 0; i <= lower.length - GRAM_SIZE; i++)
+			grams.add(new String(lower, i, GRAM_SIZE));
+		return grams;
+	}
+
+	private static void appendLower(StringBuilder run, String str, int start,
+			int end) {
+		for (int i = start; i < end; i++)
+			run.append(Character.toLowerCase(str.charAt(i)));
+	}
+
+	private static void endRun(StringBuilder run, List<String> literals) {
+		if (run.length() >= GRAM_SIZE)
+			literals.add(run.toString());
+		run.setLength(0);
+	}
+
+	private static int skipClass(String regex, int i) {
+		int depth = 0;
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[')
+				depth++;
+			else if (c == ']' && --depth == 0)
+				return i + 1;
+		}
+		return i;
+	}
+
+	private static int skipGroup(String regex, int i) {
+		int depth = 0;
+		for (; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '[')
+				i = skipClass(regex, i) - 1;
+			else if (c == '(')
+				depth++;
+			else if (c == ')' && --depth == 0)
+				return i + 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips an escape that is not a plain literal: a character class, anchor,
+	 * back-reference or code point.
+	 *
+	 * @param i
+	 *            The index of the backslash.
+	 * @return The index after the escape.
+	 */
+	private static int skipEscape(String regex, int i) {
+		int len = regex.length();
+		char c = regex.charAt(i + 1);
+		i += 2;
+		switch (c) {
+		case 'x':
+			if (i < len && regex.charAt(i) == '{')
+				return skipTo(regex, i, '}');
+			return Math.min(len, i + 2);
+		case 'u':
+			return Math.min(len, i + 4);
+		case 'c':
+			return Math.min(len, i + 1);
+		case '0':
+			// Up to three octal digits
+			int end = Math.min(len, i + 3);
+			while (i < end && regex.charAt(i) >= '0' && regex.charAt(i) <= '7')
+				i++;
+			return i;
+		case 'k':
+			if (i < len && regex.charAt(i) == '<')
+				return skipTo(regex, i, '>');
+			return i;
+		case 'p':
+		case 'P':
+		case 'N':
+			if (i < len && regex.charAt(i) == '{')
+				return skipTo(regex, i, '}');
+			return i;
+		default:
+			// Back-references may have several digits
+			if (Character.isDigit(c))
+				while (i < len && Character.isDigit(regex.charAt(i)))
+					i++;
+			return i;
+		}
+	}
+
+	private static int skipTo(String regex, int i, char end) {
+		int index = regex.indexOf(end, i);
+		return (index == -1) ? regex.length() : index + 1;
+	}
+}
@@ -17,16 +17,23 @@ import graph.core.Edge;
 import graph.core.Node;
 import graph.core.StringNode;
 
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -40,12 +47,23 @@ import util.collection.trove.TIndexedCollection;
  * method can take both Nodes and ints, representing Nodes present in the edge
  * and the positions of those nodes (if provided).
  * 
+ * The index is saved separately from the module as sorted edge ID posting
+ * lists per node and argument position (see {@link PostingListFile}). On
+ * loading, the file is mapped and a node's edges are only resolved when the
+ * node is first used. Rebuilds are run in parallel, with each thread indexing
+ * into its own map.
+ * 
  * @author Sam Sarjant
  */
 // TODO Refactor class to use DAGEdges instead of Edges
-public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
+public class RelatedEdgeModule extends DAGModule<Collection<Edge>> implements
+		ParallelRebuildable<Map<Node, Map<Object, List<Edge>>>> {
 	private static final long serialVersionUID = 1588174113071358990L;
-	protected ConcurrentMap<Node, MultiMap<Object, Edge>> relatedEdges_ = new ConcurrentHashMap<>();
+	private static final String INDEX_SUFFIX = ".idx";
+	/** The saved posting lists of nodes not yet in the related edge map. */
+	private transient volatile PostingListFile index_;
+	/** Saved in the index file, not with the module. */
+	protected transient ConcurrentMap<Node, MultiMap<Object, Edge>> relatedEdges_ = new ConcurrentHashMap<>();
 	protected StringHashedEdgeModule stringHashedModule_;
 	protected StringStorageModule stringStorageModule_;
 
@@ -147,10 +165,15 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 	protected Collection<Edge> getEdges(Node node, Object edgeKey,
 			boolean createNew) {
 		MultiMap<Object, Edge> indexedEdges = relatedEdges_.get(node);
+		if (indexedEdges == null)
+			indexedEdges = loadIndexed(node);
 		if (indexedEdges == null) {
 			if (createNew) {
-				indexedEdges = MultiMap.createConcurrentHashSetMultiMap();
-				relatedEdges_.put(node, indexedEdges);
+				MultiMap<Object, Edge> newEdges = MultiMap
+						.createConcurrentHashSetMultiMap();
+				indexedEdges = relatedEdges_.putIfAbsent(node, newEdges);
+				if (indexedEdges == null)
+					indexedEdges = newEdges;
 			} else
 				return new ConcurrentLinkedQueue<>();
 		}
@@ -158,15 +181,59 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 		Collection<Edge> edges = (edgeKey != null) ? indexedEdges.get(edgeKey)
 				: indexedEdges.values();
 		if (edges == null) {
-			if (createNew)
-				edges = indexedEdges
-						.putCollection(edgeKey, new TreeSet<Edge>());
-			else
+			if (createNew) {
+				// Concurrent sets, as lookups read these without locking
+				synchronized (indexedEdges) {
+					edges = indexedEdges.get(edgeKey);
+					if (edges == null)
+						edges = indexedEdges.putCollection(edgeKey,
+								new ConcurrentSkipListSet<Edge>());
+				}
+			} else
 				return new ConcurrentLinkedQueue<>();
 		}
 		return edges;
 	}
 
+	protected File indexFile(File rootDir) {
+		return moduleFile(rootDir, getClass().getSimpleName() + INDEX_SUFFIX);
+	}
+
+	/**
+	 * Resolves the saved posting lists of a node into the related edge map.
+	 * 
+	 * @param node
+	 *            The node to load.
+	 * @return The node's indexed edges, or null if the node has no saved
+	 *         lists.
+	 */
+	protected MultiMap<Object, Edge> loadIndexed(Node node) {
+		PostingListFile index = index_;
+		if (index == null || !(node instanceof DAGNode))
+			return null;
+		int[] record = index.getRecord(((DAGNode) node).getID());
+		if (record == null)
+			return null;
+
+		MultiMap<Object, Edge> indexedEdges = MultiMap
+				.createConcurrentHashSetMultiMap();
+		int pos = 1;
+		for (int i = record[0]; i-- > 0;) {
+			int key = record[pos++];
+			int length = record[pos++];
+			Collection<Edge> edges = new ConcurrentSkipListSet<>();
+			for (int end = pos + length; pos < end; pos++) {
+				DAGEdge edge = dag_.getEdgeByID(record[pos]);
+				if (edge != null)
+					edges.add(edge);
+			}
+			indexedEdges.putCollection(key, edges);
+		}
+		MultiMap<Object, Edge> existing = relatedEdges_.putIfAbsent(node,
+				indexedEdges);
+		return (existing != null) ? existing : indexedEdges;
+	}
+
 	protected List<EdgeCol> locateEdgeCollections(boolean createNew,
 			Object... args) {
 		List<EdgeCol> edgeCols = new ArrayList<>();
@@ -217,8 +284,52 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 		return true;
 	}
 
+	@Override
+	public void addEdge(Map<Node, Map<Object, List<Edge>>> partial,
+			DAGEdge edge) {
+		// As locateEdgeCollections, but DAG nodes are indexed in the partial
+		Node[] nodes = edge.getNodes();
+		for (int i = 0; i < nodes.length; i++) {
+			if (nodes[i] instanceof DAGNode) {
+				Map<Object, List<Edge>> indexedEdges = partial.get(nodes[i]);
+				if (indexedEdges == null) {
+					indexedEdges = new HashMap<>();
+					partial.put(nodes[i], indexedEdges);
+				}
+				List<Edge> edges = indexedEdges.get(i + 1);
+				if (edges == null) {
+					edges = new ArrayList<>();
+					indexedEdges.put(i + 1, edges);
+				}
+				edges.add(edge);
+			} else if (canSearchHashedModule(nodes[0], nodes[i]))
+				stringHashedModule_.execute(true, nodes[i].getName()).add(
+						edge);
+		}
+	}
+
+	@Override
+	public void addNode(Map<Node, Map<Object, List<Edge>>> partial,
+			DAGNode node) {
+	}
+
+	@Override
+	public void applyRebuild(Map<Node, Map<Object, List<Edge>>> partial) {
+		for (Map.Entry<Node, Map<Object, List<Edge>>> entry : partial
+				.entrySet()) {
+			MultiMap<Object, Edge> indexedEdges = MultiMap
+					.createConcurrentHashSetMultiMap();
+			for (Map.Entry<Object, List<Edge>> edges : entry.getValue()
+					.entrySet())
+				indexedEdges.putCollection(edges.getKey(),
+						new ConcurrentSkipListSet<>(edges.getValue()));
+			relatedEdges_.put(entry.getKey(), indexedEdges);
+		}
+	}
+
 	@Override
 	public void clear() {
+		index_ = null;
 		relatedEdges_.clear();
 	}
 
@@ -253,20 +364,57 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 		return execute(indexedNodes);
 	}
 
+	@Override
+	public Collection<Class<? extends DAGModule<?>>> getDependencies() {
+		Collection<Class<? extends DAGModule<?>>> dependencies = new ArrayList<>();
+		dependencies.add(StringHashedEdgeModule.class);
+		dependencies.add(StringStorageModule.class);
+		return dependencies;
+	}
+
 	@Override
 	public boolean initialisationComplete(TIndexedCollection<DAGNode> nodes,
 			TIndexedCollection<DAGEdge> edges, boolean forceRebuild) {
-		if (!relatedEdges_.isEmpty() && !forceRebuild)
+		if ((!relatedEdges_.isEmpty() || index_ != null) && !forceRebuild)
 			return false;
 
 		// Iterate through all nodes and edges, adding aliases
 		System.out.print("Rebuilding related edge map... ");
-		relatedEdges_.clear();
+		clear();
 		defaultRebuild(nodes, false, edges, true);
 		System.out.println("Done!");
 		return true;
 	}
 
+	@Override
+	public Map<Node, Map<Object, List<Edge>>> merge(
+			Map<Node, Map<Object, List<Edge>>> partialA,
+			Map<Node, Map<Object, List<Edge>>> partialB) {
+		for (Map.Entry<Node, Map<Object, List<Edge>>> entry : partialB
+				.entrySet()) {
+			Map<Object, List<Edge>> indexedEdges = partialA.get(entry
+					.getKey());
+			if (indexedEdges == null) {
+				partialA.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			for (Map.Entry<Object, List<Edge>> edges : entry.getValue()
+					.entrySet()) {
+				List<Edge> existing = indexedEdges.get(edges.getKey());
+				if (existing == null)
+					indexedEdges.put(edges.getKey(), edges.getValue());
+				else
+					existing.addAll(edges.getValue());
+			}
+		}
+		return partialA;
+	}
+
+	@Override
+	public Map<Node, Map<Object, List<Edge>>> newPartial() {
+		return new HashMap<>();
+	}
+
 	@Override
 	public boolean removeEdge(DAGEdge edge) {
 		boolean result = false;
@@ -278,9 +426,138 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 		return result;
 	}
 
+	/**
+	 * Saves the module, with the related edge map written to the index file.
+	 * Nodes never loaded from the previous index file are copied across
+	 * as-is.
+	 */
+	@Override
+	public boolean saveModule(File rootDir) {
+		return writeIndex(rootDir, encodeRecords(), index_)
+				&& super.saveModule(rootDir);
+	}
+
+	/**
+	 * Encodes the related edge map as it is, then writes the index file once
+	 * changes resume.
+	 */
+	@Override
+	public Callable<Boolean> captureState(final File rootDir) {
+		final Map<Integer, int[]> records = encodeRecords();
+		final PostingListFile index = index_;
+		final boolean saved = super.saveModule(rootDir);
+		return new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return writeIndex(rootDir, records, index) && saved;
+			}
+		};
+	}
+
+	/**
+	 * Encodes the related edge map as records.
+	 * 
+	 * @return The record of each node in the map, or null if the node has no
+	 *         edges.
+	 */
+	private Map<Integer, int[]> encodeRecords() {
+		Map<Integer, int[]> records = new HashMap<>();
+		for (Map.Entry<Node, MultiMap<Object, Edge>> entry : relatedEdges_
+				.entrySet())
+			records.put(((DAGNode) entry.getKey()).getID(),
+					toRecord(entry.getValue()));
+		return records;
+	}
+
+	/**
+	 * Writes the index file from the encoded records (see
+	 * {@link #saveModule(File)}).
+	 * 
+	 * @param rootDir
+	 *            The root directory to save under.
+	 * @param records
+	 *            The encoded records.
+	 * @param index
+	 *            The previous index file (can be null).
+	 * @return True if the index file was written.
+	 */
+	private boolean writeIndex(File rootDir, Map<Integer, int[]> records,
+			PostingListFile index) {
+		try {
+			PostingListFile.Writer writer = new PostingListFile.Writer(
+					indexFile(rootDir));
+			for (Map.Entry<Integer, int[]> record : records.entrySet())
+				if (record.getValue() != null)
+					writer.add(record.getKey(), record.getValue());
+			if (index != null) {
+				for (int id = index.nextID(0); id != -1; id = index
+						.nextID(id + 1))
+					if (!records.containsKey(id))
+						writer.add(id, index.getRecord(id));
+			}
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes a node's indexed edges as sorted posting lists.
+	 * 
+	 * @return The node record, or null if the node has no edges.
+	 */
+	private int[] toRecord(MultiMap<Object, Edge> indexedEdges) {
+		List<int[]> lists = new ArrayList<>();
+		int length = 1;
+		for (Object key : indexedEdges.keySet()) {
+			Collection<Edge> edges = indexedEdges.get(key);
+			if (edges == null || edges.isEmpty())
+				continue;
+			int[] list = new int[edges.size() + 2];
+			int i = 2;
+			for (Edge edge : edges) {
+				// Grow if the collection has changed since sizing
+				if (i == list.length)
+					list = Arrays.copyOf(list, list.length * 2);
+				list[i++] = ((DAGEdge) edge).getID();
+			}
+			list[0] = (Integer) key;
+			list[1] = i - 2;
+			Arrays.sort(list, 2, i);
+			lists.add(Arrays.copyOf(list, i));
+			length += i;
+		}
+		if (lists.isEmpty())
+			return null;
+
+		int[] record = new int[length];
+		record[0] = lists.size();
+		int pos = 1;
+		for (int[] list : lists) {
+			System.arraycopy(list, 0, record, pos, list.length);
+			pos += list.length;
+		}
+		return record;
+	}
+
 	@Override
 	public void setDAG(DirectedAcyclicGraph directedAcyclicGraph) {
 		super.setDAG(directedAcyclicGraph);
+		// Deserialised modules are missing the (transient) index
+		if (relatedEdges_ == null)
+			relatedEdges_ = new ConcurrentHashMap<>();
+		File indexFile = indexFile(directedAcyclicGraph.rootDir_);
+		if (relatedEdges_.isEmpty() && index_ == null && indexFile.exists()) {
+			try {
+				index_ = new PostingListFile(indexFile);
+			} catch (IOException e) {
+				System.err.println("Could not load " + indexFile
+						+ ". The related edge map will be rebuilt.");
+				e.printStackTrace();
+			}
+		}
 		stringHashedModule_ = (StringHashedEdgeModule) directedAcyclicGraph
 				.getModule(StringHashedEdgeModule.class);
 		stringStorageModule_ = (StringStorageModule) directedAcyclicGraph
@@ -299,7 +576,11 @@ public class RelatedEdgeModule extends DAGModule<Collection<Edge>> {
 
 	@Override
 	public String toString() {
-		return "Related Edges: " + relatedEdges_.size();
+		PostingListFile index = index_;
+		if (index == null)
+			return "Related Edges: " + relatedEdges_.size();
+		return "Related Edges: " + relatedEdges_.size() + " loaded, "
+				+ index.getCount() + " in " + index.getFile().getName();
 	}
 
 	protected class EdgeCol {
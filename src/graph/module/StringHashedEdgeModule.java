@@ -45,7 +45,7 @@ public class StringHashedEdgeModule extends DAGModule<Collection<Edge>> {
 	}
 
 	@Override
-	public void clear() {
+	public synchronized void clear() {
 		stringHashMap_.clear();
 	}
 
@@ -13,7 +13,6 @@ package graph.module;
 import gnu.trove.set.hash.THashSet;
 import graph.core.DAGEdge;
 import graph.core.DAGNode;
-import graph.core.DirectedAcyclicGraph;
 import graph.core.Node;
 import graph.core.StringNode;
 
@@ -41,8 +40,8 @@ public class StringStorageModule extends DAGModule<Boolean> {
 
 	private static final long serialVersionUID = 1L;
 
-	public static final String FILE_LOC = DirectedAcyclicGraph.selfRef_.rootDir_
-			+ "/strings.dat";
+	/** The prefix of the string files, in the root directory of the DAG. */
+	public static final String STRING_FILE = "strings.dat";
 
 	private int fileNum_;
 
@@ -96,9 +95,22 @@ public class StringStorageModule extends DAGModule<Boolean> {
 		return edge;
 	}
 
+	/**
+	 * Gets a file of compressed strings of this module's DAG.
+	 * 
+	 * @param fileNum
+	 *            The number of the file.
+	 * @return The string file.
+	 */
+	public File getStringFile(int fileNum) {
+		return new File(dag_.rootDir_, STRING_FILE + fileNum);
+	}
+
 	/**
 	 * Writes a string to file to be compressed and returns the pointer string
 	 * to it.
+	 * Synchronised, as edges are added concurrently and all share the one
+	 * output file.
 	 * 
 	 * @param str
 	 *            The string to be written to file.
@@ -106,20 +118,21 @@ public class StringStorageModule extends DAGModule<Boolean> {
 	 * @throws IOException
 	 *             Should something go awry...
 	 */
-	private CompressedStringNode writeString(String str) throws IOException {
+	private synchronized CompressedStringNode writeString(String str)
+			throws IOException {
 		if (out_ == null) {
 			// Set up the file (append to existing or start anew)
 			fileNum_ = 0;
-			while (new File(FILE_LOC + fileNum_).exists())
+			while (getStringFile(fileNum_).exists())
 				fileNum_++;
 			// TODO Complete this
-			out_ = new BufferedWriter(new FileWriter(FILE_LOC + fileNum_));
+			out_ = new BufferedWriter(new FileWriter(getStringFile(fileNum_)));
 			outSize_ = 0;
 		} else if (outSize_ >= MAX_FILE_SIZE) {
 			// File is full - start a new one.
 			out_.close();
 			fileNum_++;
-			out_ = new BufferedWriter(new FileWriter(FILE_LOC + fileNum_));
+			out_ = new BufferedWriter(new FileWriter(getStringFile(fileNum_)));
 			outSize_ = 0;
 		}
 
@@ -138,7 +151,7 @@ public class StringStorageModule extends DAGModule<Boolean> {
 	 *            The edge to compress/decompress.
 	 * @return True if the edge predicate is registered with this module.
 	 */
-	protected boolean isCompressedEdge(Node predicate) {
+	protected synchronized boolean isCompressedEdge(Node predicate) {
 		if (registeredPreds_ == null || registeredPreds_.isEmpty())
 			return false;
 		return registeredPreds_.contains(predicate.getName());
@@ -156,6 +169,13 @@ public class StringStorageModule extends DAGModule<Boolean> {
 		return super.addEdge(edge);
 	}
 
+	@Override
+	public boolean clearForRenumbering() {
+		// Strings are stored by file position, not ID, so only need writing
+		flush();
+		return true;
+	}
+
 	@Override
 	public Boolean execute(Object... args) throws IllegalArgumentException,
 			ModuleException {
@@ -163,7 +183,9 @@ public class StringStorageModule extends DAGModule<Boolean> {
 		return false;
 	}
 
-	public void flush() {
+	public synchronized void flush() {
+		if (out_ == null)
+			return;
 		try {
 			out_.flush();
 		} catch (IOException e) {
@@ -184,12 +206,17 @@ public class StringStorageModule extends DAGModule<Boolean> {
 	 * @param predicateName
 	 *            The name of the predicate to compress string arguments for.
 	 */
-	public void registerCompressableNode(String predicateName) {
+	public synchronized void registerCompressableNode(String predicateName) {
 		if (registeredPreds_ == null)
 			registeredPreds_ = new THashSet<>();
 		registeredPreds_.add(predicateName);
 	}
 
+	@Override
+	public synchronized boolean saveModule(File rootDir) {
+		return super.saveModule(rootDir);
+	}
+
 	@Override
 	public boolean supportsEdge(DAGEdge edge) {
 		return true;
@@ -13,6 +13,7 @@ package graph.module;
 import gnu.trove.iterator.TIntObjectIterator;
 import graph.core.DAGEdge;
 import graph.core.DAGNode;
+import graph.core.DAGSnapshot;
 import graph.core.DirectedAcyclicGraph;
 import graph.core.Edge;
 import graph.core.Node;
@@ -21,11 +22,16 @@ import graph.core.StringNode;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import util.collection.IDSampler;
 import util.collection.MultiMap;
 import util.collection.trove.TIndexedCollection;
 
@@ -43,9 +49,27 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 	/** The prefix used for user-tagged concepts. */
 	public static final String TAG_PREFIX = "subDAG";
 	private transient MultiMap<String, DAGNode> taggedNodes_;
+	/** The IDs of the tagged nodes per (core or non-core) tag, for sampling. */
+	private transient Map<String, IDSampler> tagSamplers_;
 
 	public SubDAGExtractorModule() {
 		taggedNodes_ = MultiMap.createSortedSetMultiMap();
+		tagSamplers_ = new HashMap<>();
+	}
+
+	private void addTagged(String tag, DAGNode node) {
+		taggedNodes_.put(tag, node);
+		IDSampler sampler = tagSamplers_.get(tag);
+		if (sampler == null) {
+			sampler = new IDSampler();
+			tagSamplers_.put(tag, sampler);
+		}
+		sampler.add(node.getID());
+	}
+
+	private int numSampled(String tag) {
+		IDSampler sampler = tagSamplers_.get(tag);
+		return (sampler == null) ? 0 : sampler.size();
 	}
 
 	private boolean getSubNodesAndEdges(String tag, int distance,
@@ -115,37 +139,49 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 		// TODO This seems like it would create a whole new DAG!
 		logger.debug("Creating SubDAG");
 		DirectedAcyclicGraph subDAG = createNewDAG(folder);
-		subDAG.initialise();
-
-		Collection<DAGEdge> edges = new HashSet<>();
-		Collection<DAGNode> nodes = new HashSet<>();
-
-		// Find the relevant nodes and edges.
-		if (!getSubNodesAndEdges(tag, distance, edges, nodes))
-			return false;
-
-		// Assert
-		StringNode creator = new StringNode(tag);
-		logger.debug("Asserting {} nodes.", nodes.size());
-		for (DAGNode node : nodes)
-			subDAG.findOrCreateNode(node.getName(), creator, true);
-		logger.debug("Asserting {} edges.", edges.size());
-		for (DAGEdge edge : edges) {
-			Node[] edgeNodes = edge.getNodes();
-			Node[] newEdgeNodes = new Node[edgeNodes.length];
-			for (int i = 0; i < edgeNodes.length; i++) {
-				newEdgeNodes[i] = subDAG
-						.findOrCreateNode(edgeNodes[i].getIdentifier(true),
-								creator, false, false);
+		try {
+			subDAG.initialise();
+
+			Collection<DAGEdge> edges = new HashSet<>();
+			Collection<DAGNode> nodes = new HashSet<>();
+
+			// Find the relevant nodes and edges, as of the start of extraction
+			DAGSnapshot snapshot = dag_.snapshot();
+			if (!getSubNodesAndEdges(tag, distance, edges, nodes))
+				return false;
+			for (Iterator<DAGNode> iter = nodes.iterator(); iter.hasNext();)
+				if (!snapshot.getNodes().contains(iter.next()))
+					iter.remove();
+			for (Iterator<DAGEdge> iter = edges.iterator(); iter.hasNext();)
+				if (!snapshot.getEdges().contains(iter.next()))
+					iter.remove();
+
+			// Assert
+			StringNode creator = new StringNode(tag);
+			logger.debug("Asserting {} nodes.", nodes.size());
+			for (DAGNode node : nodes)
+				subDAG.findOrCreateNode(node.getName(), creator, true);
+			logger.debug("Asserting {} edges.", edges.size());
+			for (DAGEdge edge : edges) {
+				Node[] edgeNodes = edge.getNodes();
+				Node[] newEdgeNodes = new Node[edgeNodes.length];
+				for (int i = 0; i < edgeNodes.length; i++) {
+					newEdgeNodes[i] = subDAG
+							.findOrCreateNode(edgeNodes[i].getIdentifier(true),
+									creator, false, false);
+				}
+				subDAG.findOrCreateEdge(newEdgeNodes, creator, true);
 			}
-			subDAG.findOrCreateEdge(newEdgeNodes, creator, true);
-		}
 
-		// Serialise to folder
-		logger.debug("Saving state.");
-		subDAG.saveState();
+			// Serialise to folder
+			logger.debug("Saving state.");
+			subDAG.saveState();
 
-		return true;
+			return true;
+		} finally {
+			// Release its log, files and module threads
+			subDAG.close(false);
+		}
 	}
 
 	/**
@@ -193,6 +229,29 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 		}
 	}
 
+	/**
+	 * Samples a node tagged (core or non-core) with a tag uniformly at random,
+	 * in constant time.
+	 * 
+	 * @param tag
+	 *            The tag to sample from.
+	 * @param random
+	 *            The random number generator to use.
+	 * @return A random tagged node, or null if no nodes are tagged.
+	 */
+	public synchronized DAGNode getRandomTagged(String tag, Random random) {
+		// Core and non-core tags are exclusive
+		String coreTag = TAG_PREFIX + tag;
+		String nonCoreTag = NON_CORE_PREFIX + tag;
+		int numCore = numSampled(coreTag);
+		int total = numCore + numSampled(nonCoreTag);
+		if (total == 0)
+			return null;
+		IDSampler sampler = tagSamplers_
+				.get((random.nextInt(total) < numCore) ? coreTag : nonCoreTag);
+		return dag_.getNodeByID(sampler.sample(random));
+	}
+
 	public Collection<DAGNode> getTagged(String tag) {
 		String alterTag = TAG_PREFIX + tag;
 		Collection<DAGNode> allTagged = new ArrayList<>();
@@ -293,6 +352,7 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 			TIndexedCollection<DAGEdge> edges, boolean forceRebuild) {
 		if (taggedNodes_ == null) {
 			taggedNodes_ = MultiMap.createSortedSetMultiMap();
+			tagSamplers_ = new HashMap<>();
 			TIntObjectIterator<DAGNode> iter = nodes.iterator();
 			for (int i = nodes.size(); i-- > 0;) {
 				iter.advance();
@@ -300,7 +360,7 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 				String[] props = n.getProperties();
 				for (String prop : props) {
 					if (prop.startsWith(TAG_PREFIX)) {
-						taggedNodes_.put(prop, n);
+						addTagged(prop, n);
 					}
 				}
 			}
@@ -325,9 +385,20 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 				if (taggedNodes_.isValueEmpty(alterTag))
 					taggedNodes_.remove(alterTag);
 			}
+			IDSampler sampler = tagSamplers_.get(alterTag);
+			if (sampler != null) {
+				sampler.remove(dagObj.getID());
+				if (sampler.size() == 0)
+					tagSamplers_.remove(alterTag);
+			}
 		}
 	}
 
+	@Override
+	public synchronized boolean saveModule(File rootDir) {
+		return super.saveModule(rootDir);
+	}
+
 	@Override
 	public boolean supportsEdge(DAGEdge edge) {
 		return false;
@@ -351,7 +422,7 @@ public class SubDAGExtractorModule extends DAGModule<Boolean> {
 			return;
 
 		dag_.addProperty(dagObj, appliedTag, "T");
-		taggedNodes_.put(appliedTag, dagObj);
+		addTagged(appliedTag, dagObj);
 	}
 
 	@Override
@@ -11,6 +11,7 @@
 package graph.module.cli;
 
 import graph.core.DAGNode;
+import graph.core.NodeLexer;
 import graph.core.cli.CollectionCommand;
 import graph.core.cli.DAGPortHandler;
 import graph.core.cli.comparator.AliasedNodesComparator;
@@ -123,7 +124,7 @@ public class FindNodeByAliasCommand extends CollectionCommand {
 
 		ArrayList<String> split = UtilityMethods.split(data, ' ');
 		String alias = split.get(0);
-		if (alias.matches(DAGNode.QUOTED_NAME.pattern()))
+		if (NodeLexer.isQuotedName(alias))
 			alias = UtilityMethods.shrinkString(alias, 1);
 		boolean caseSensitive = true;
 		if (split.size() >= 2 && split.get(1).equals("F"))
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.core.DirectedAcyclicGraph;
+import graph.core.NodeLexer;
+import graph.core.cli.DAGCommand;
+import graph.core.cli.DAGPortHandler;
+import graph.module.DAGModule;
+import graph.module.KeyIndexModule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import util.UtilityMethods;
+
+/**
+ * The base for commands registering/unregistering property keys with a
+ * property key indexing module, or listing the registered keys.
+ *
+ * @author Sam Sarjant
+ */
+public abstract class KeyIndexCommand extends DAGCommand {
+	/**
+	 * @return The class of the indexing module (a {@link KeyIndexModule}).
+	 */
+	protected abstract Class<? extends DAGModule<?>> getModuleClass();
+
+	/**
+	 * @return The name of the indexing module, for messages.
+	 */
+	protected abstract String getModuleName();
+
+	@Override
+	protected void executeImpl() {
+		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+		DirectedAcyclicGraph dag = dagHandler.getDAG();
+		KeyIndexModule module = (KeyIndexModule) dag
+				.getModule(getModuleClass());
+		if (module == null) {
+			print("-1|" + getModuleName() + " is not in use for this DAG.\n");
+			return;
+		}
+
+		if (data.isEmpty()) {
+			Collection<String> keys = module.getRegisteredKeys();
+			print(keys.size() + "|");
+			for (String key : keys)
+				print(key + "|");
+			print("\n");
+			return;
+		}
+
+		ArrayList<String> split = UtilityMethods.split(data, ' ');
+		String key = split.get(0);
+		if (NodeLexer.isQuotedName(key))
+			key = UtilityMethods.shrinkString(key, 1);
+
+		if (split.size() >= 2 && split.get(1).equalsIgnoreCase("F")) {
+			if (module.unregisterKey(key)) {
+				saveIndex(dag);
+				print("1|Removed '" + key + "' from the index.\n");
+			} else
+				print("-1|'" + key + "' is not indexed.\n");
+			return;
+		}
+
+		int count = module.registerKey(key);
+		if (count == -1)
+			print("-1|'" + key + "' is already indexed.\n");
+		else {
+			saveIndex(dag);
+			print(count + "|Indexed '" + key + "'.\n");
+		}
+	}
+
+	/**
+	 * Saves the changed index with a checkpoint, so it matches the saved DAG.
+	 */
+	private void saveIndex(DirectedAcyclicGraph dag) {
+		dag.moduleStateChanged();
+		dag.saveState();
+	}
+}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.core.DAGObject;
+import graph.module.PropertyIndexModule;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds all nodes/edges with an exact property value.
+ *
+ * @author Sam Sarjant
+ */
+public class PropertyEqualsCommand extends PropertyLookupCommand {
+	@Override
+	public String helpText() {
+		return "{0} N/E propertykey value : Returns all nodes/edges "
+				+ "with the exact (optionally quoted) value for an "
+				+ "indexed property key.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Finds all nodes/edges with a given indexed property value.";
+	}
+
+	@Override
+	protected Collection<DAGObject> lookup(PropertyIndexModule module,
+			boolean nodes, String key, List<String> args) {
+		return module.findByValue(nodes, key, args.get(0));
+	}
+
+	@Override
+	protected int numValueArgs() {
+		return 1;
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.module.DAGModule;
+import graph.module.PropertyIndexModule;
+
+/**
+ * Registers/unregisters property keys with the property value index module, or
+ * lists the registered keys.
+ *
+ * @author Sam Sarjant
+ */
+public class PropertyIndexCommand extends KeyIndexCommand {
+	@Override
+	public String helpText() {
+		return "{0} [propertykey] [F] : Indexes the values of a property key "
+				+ "for exact (propEquals) and range (propRange) lookups. "
+				+ "Optional argument F removes the key from the index. "
+				+ "With no arguments, lists the indexed keys.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Indexes a property key for value lookups.";
+	}
+
+	@Override
+	protected Class<? extends DAGModule<?>> getModuleClass() {
+		return PropertyIndexModule.class;
+	}
+
+	@Override
+	protected String getModuleName() {
+		return "Property Index Module";
+	}
+}
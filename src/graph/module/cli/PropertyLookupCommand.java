@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.core.NodeLexer;
+import graph.core.DAGObject;
+import graph.core.cli.CollectionCommand;
+import graph.core.cli.DAGPortHandler;
+import graph.module.PropertyIndexModule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import util.UtilityMethods;
+
+/**
+ * The base for commands looking up nodes/edges through the property index
+ * module.
+ *
+ * @author Sam Sarjant
+ */
+public abstract class PropertyLookupCommand extends CollectionCommand {
+	/**
+	 * Looks up the objects using the index.
+	 *
+	 * @param module
+	 *            The property index module.
+	 * @param nodes
+	 *            If looking up nodes (or edges).
+	 * @param key
+	 *            The property key.
+	 * @param args
+	 *            The (unquoted) value arguments.
+	 * @return The matching objects, or null if the key is not indexed.
+	 */
+	protected abstract Collection<DAGObject> lookup(
+			PropertyIndexModule module, boolean nodes, String key,
+			List<String> args);
+
+	/**
+	 * @return The number of value arguments the command requires.
+	 */
+	protected abstract int numValueArgs();
+
+	/**
+	 * @return True if the lookup results are in a meaningful order that the
+	 *         sort variable should not change.
+	 */
+	protected boolean isOrdered() {
+		return false;
+	}
+
+	@Override
+	protected void executeImpl() {
+		super.executeImpl();
+		DAGPortHandler dagHandler = (DAGPortHandler) handler;
+
+		if (data.isEmpty()) {
+			printErrorNoData();
+			return;
+		}
+
+		PropertyIndexModule module = (PropertyIndexModule) dagHandler
+				.getDAG().getModule(PropertyIndexModule.class);
+		if (module == null) {
+			print("-1|Property Index Module is not in use for this DAG.\n");
+			return;
+		}
+
+		ArrayList<String> split = UtilityMethods.split(data, ' ');
+		if (split.size() != 2 + numValueArgs()) {
+			print("-1|Wrong number of arguments!\n");
+			return;
+		}
+
+		boolean nodes = split.get(0).equalsIgnoreCase("N");
+		if (!nodes && !split.get(0).equalsIgnoreCase("E")) {
+			print("-1|First argument must be 'N' or 'E'!\n");
+			return;
+		}
+
+		List<String> args = new ArrayList<>(split.size() - 1);
+		for (String arg : split.subList(1, split.size())) {
+			if (NodeLexer.isQuotedName(arg))
+				arg = UtilityMethods.shrinkString(arg, 1);
+			args.add(arg);
+		}
+
+		String key = args.remove(0);
+		Collection<DAGObject> matches = lookup(module, nodes, key, args);
+		if (matches == null) {
+			print("-1|'" + key + "' is not indexed.\n");
+			return;
+		}
+
+		matches = dagHandler.postProcess(matches, rangeStart_, rangeEnd_,
+				!isOrdered());
+		print(matches.size() + "|");
+		for (DAGObject match : matches)
+			print(dagHandler.textIDObject(match) + "|");
+		print("\n");
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.core.DAGObject;
+import graph.module.PropertyIndexModule;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds all nodes/edges with a property value between two bounds.
+ *
+ * @author Sam Sarjant
+ */
+public class PropertyRangeCommand extends PropertyLookupCommand {
+	private static final String UNBOUNDED = "*";
+
+	@Override
+	public String helpText() {
+		return "{0} N/E propertykey lower upper : Returns all "
+				+ "nodes/edges with a value for an indexed property "
+				+ "key between lower and upper (inclusive), in value "
+				+ "order. Numeric values are compared numerically. "
+				+ "Use * for an unbounded lower/upper value.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Finds all nodes/edges with an indexed property value in a range.";
+	}
+
+	@Override
+	protected Collection<DAGObject> lookup(PropertyIndexModule module,
+			boolean nodes, String key, List<String> args) {
+		String lower = args.get(0).equals(UNBOUNDED) ? null : args.get(0);
+		String upper = args.get(1).equals(UNBOUNDED) ? null : args.get(1);
+		return module.findByRange(nodes, key, lower, upper);
+	}
+
+	@Override
+	protected boolean isOrdered() {
+		// Results are in value order
+		return true;
+	}
+
+	@Override
+	protected int numValueArgs() {
+		return 2;
+	}
+}
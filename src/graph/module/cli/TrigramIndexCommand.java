@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package graph.module.cli;
+
+import graph.module.DAGModule;
+import graph.module.PropertyTrigramModule;
+
+/**
+ * Registers/unregisters property keys with the property trigram module, or
+ * lists the registered keys.
+ *
+ * @author Sam Sarjant
+ */
+public class TrigramIndexCommand extends KeyIndexCommand {
+	@Override
+	public String helpText() {
+		return "{0} [propertykey] [F] : Indexes the values of a property key "
+				+ "so searchProp can narrow its search through the index. "
+				+ "Optional argument F removes the key from the index. "
+				+ "With no arguments, lists the indexed keys.";
+	}
+
+	@Override
+	public String shortDescription() {
+		return "Indexes a property key for regex searching.";
+	}
+
+	@Override
+	protected Class<? extends DAGModule<?>> getModuleClass() {
+		return PropertyTrigramModule.class;
+	}
+
+	@Override
+	protected String getModuleName() {
+		return "Property Trigram Module";
+	}
+}
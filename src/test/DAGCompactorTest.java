@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import graph.core.DAGCompactor;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Node;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class DAGCompactorTest {
+	private static final File ROOT_DIR = new File("testCompact");
+
+	private DirectedAcyclicGraph dag_;
+
+	private DAGCompactor sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		if (ROOT_DIR.exists())
+			FileUtils.deleteDirectory(ROOT_DIR);
+		ROOT_DIR.mkdirs();
+		FileUtils.writeStringToFile(new File(ROOT_DIR,
+				DirectedAcyclicGraph.DAG_CONFIG_FILE), "writeAheadLog=false\n");
+		dag_ = new DirectedAcyclicGraph(ROOT_DIR, null, null);
+		DirectedAcyclicGraph.setCurrent(dag_);
+		dag_.initialise();
+		sut_ = new DAGCompactor(dag_);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		dag_.close(false);
+		DirectedAcyclicGraph.setCurrent(null);
+		FileUtils.deleteDirectory(ROOT_DIR);
+	}
+
+	@Test
+	public void testRenumber() {
+		Node isa = dag_.findOrCreateNode("isa", null, true);
+		DAGNode creator = (DAGNode) dag_.findOrCreateNode("Creator", null,
+				true);
+		DAGNode[] nodes = new DAGNode[10];
+		for (int i = 0; i < nodes.length; i++)
+			nodes[i] = (DAGNode) dag_.findOrCreateNode("Node" + i, creator,
+					true);
+		for (int i = 1; i < nodes.length; i++)
+			dag_.findOrCreateEdge(new Node[] { isa, nodes[i], nodes[0] },
+					creator, true);
+		// Leave gaps in the IDs
+		for (int i = 1; i < nodes.length; i += 2)
+			dag_.removeNode(nodes[i]);
+
+		sut_.renumber(DAGCompactor.NodeOrder.ID);
+		assertEquals(7, dag_.getNodes().size());
+		assertEquals(8, dag_.getNextNodeID());
+		assertEquals(4, dag_.getEdges().size());
+		assertEquals(5, dag_.getNextEdgeID());
+		assertEquals("isa", dag_.getNodeByID(1).getName());
+		assertEquals("Creator", dag_.getNodeByID(2).getName());
+		assertEquals("Node0", dag_.getNodeByID(3).getName());
+		assertEquals("Node2", dag_.getNodeByID(4).getName());
+		assertEquals("Node8", dag_.getNodeByID(7).getName());
+		assertEquals(2, dag_.getNodeByID(4).getCreatorID());
+		assertEquals("Creator", dag_.getNodeByID(4).getCreator());
+
+		DAGEdge edge = dag_.getEdgeByID(1);
+		assertEquals("(isa Node2 Node0)", edge.toString(false));
+		assertEquals(2, edge.getCreatorID());
+		assertEquals("(isa Node8 Node0)", dag_.getEdgeByID(4).toString(false));
+	}
+
+	@Test
+	public void testDanglingEdges() {
+		Node isa = dag_.findOrCreateNode("isa", null, true);
+		Node dog = dag_.findOrCreateNode("Dog", null, true);
+		Node mammal = dag_.findOrCreateNode("Mammal", null, true);
+		DAGNode cat = (DAGNode) dag_.findOrCreateNode("Cat", null, true);
+		dag_.findOrCreateEdge(new Node[] { isa, dog, mammal }, null, true);
+		dag_.findOrCreateEdge(new Node[] { isa, cat, mammal }, null, true);
+		dag_.findOrCreateEdge(new Node[] { isa, mammal, cat }, null, true);
+		// Lose the node without its edges
+		dag_.getNodes().remove(cat);
+
+		sut_.renumber(DAGCompactor.NodeOrder.ID);
+		assertEquals(3, dag_.getNodes().size());
+		assertEquals(1, dag_.getEdges().size());
+		assertEquals("(isa Dog Mammal)", dag_.getEdgeByID(1).toString(false));
+		assertNull(dag_.getEdgeByID(2));
+	}
+
+	@Test
+	public void testCompactReload() {
+		Node isa = dag_.findOrCreateNode("isa", null, true);
+		Node genls = dag_.findOrCreateNode("genls", null, true);
+		Node dog = dag_.findOrCreateNode("Dog", null, true);
+		Node extra = dag_.findOrCreateNode("Extra", null, true);
+		Node mammal = dag_.findOrCreateNode("Mammal", null, true);
+		Node fido = dag_.findOrCreateNode("Fido", null, true);
+		dag_.findOrCreateEdge(new Node[] { genls, dog, mammal }, null, true);
+		dag_.findOrCreateEdge(new Node[] { isa, fido, dog }, null, true);
+		dag_.removeNode((DAGNode) extra);
+
+		sut_.compact(DAGCompactor.NodeOrder.BFS);
+		dag_.close(false);
+
+		dag_ = new DirectedAcyclicGraph(ROOT_DIR, null, null);
+		DirectedAcyclicGraph.setCurrent(dag_);
+		dag_.initialise();
+		assertEquals(5, dag_.getNodes().size());
+		assertEquals(6, dag_.getNextNodeID());
+		assertEquals(2, dag_.getEdges().size());
+		for (int id = 1; id <= 5; id++)
+			assertNotNull(dag_.getNodeByID(id));
+		// The rebuilt modules index the new IDs
+		Node[] edgeNodes = new Node[] {
+				dag_.findOrCreateNode("isa", null, false),
+				dag_.findOrCreateNode("Fido", null, false),
+				dag_.findOrCreateNode("Dog", null, false) };
+		assertNotNull(dag_.findEdge(edgeNodes));
+		assertNull(dag_.findOrCreateNode("Extra", null, false));
+	}
+}
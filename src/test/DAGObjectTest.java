@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.PropertyKey;
+import graph.core.StringNode;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import util.serialisation.FSTSerialisationMechanism;
+
+/**
+ * 
+ * @author Sam Sarjant
+ */
+public class DAGObjectTest {
+	private DirectedAcyclicGraph sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		sut_ = new DirectedAcyclicGraph(new File("test"), null, null);
+		sut_.clear();
+		// Creators are named through the current graph
+		DirectedAcyclicGraph.setCurrent(sut_);
+	}
+
+	@After
+	public void tearDown() {
+		sut_.clear();
+		DirectedAcyclicGraph.setCurrent(null);
+	}
+
+	@Test
+	public void testProperties() {
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("PropNode", null, true);
+		assertNull(node.getProperty("colour"));
+
+		sut_.addProperty(node, "colour", "red");
+		assertEquals("red", node.getProperty("colour"));
+		assertEquals("red", node.getProperty(PropertyKey.find("colour")));
+		sut_.addProperty(node, "colour", "blue");
+		sut_.addProperty(node, "size", "big");
+		assertEquals("blue", node.getProperty("colour"));
+		assertEquals("big", node.getProperty("size"));
+		String[] props = node.getProperties();
+		assertEquals("colour", props[props.length - 4]);
+		assertEquals("blue", props[props.length - 3]);
+		assertEquals("size", props[props.length - 2]);
+		assertEquals("big", props[props.length - 1]);
+
+		sut_.removeProperty(node, "colour");
+		assertNull(node.getProperty("colour"));
+		assertEquals("big", node.getProperty("size"));
+		sut_.removeProperty(node, "size");
+		assertNull(node.getProperty("size"));
+
+		// Lookups do not create keys
+		assertNull(node.getProperty("neverAddedKey"));
+		sut_.removeProperty(node, "neverAddedKey");
+		assertNull(PropertyKey.find("neverAddedKey"));
+	}
+
+	@Test
+	public void testCreationDate() {
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("DateNode", null, true);
+		assertNotNull(node.getCreationDate());
+
+		sut_.addProperty(node, DAGObject.CREATION_DATE, "1000");
+		assertEquals(1000, node.getCreationTime());
+		assertEquals("1000", node.getProperty(DAGObject.CREATION_DATE));
+
+		// Non-numeric dates are ordinary properties in both views
+		sut_.addProperty(node, DAGObject.CREATION_DATE, "yesterday");
+		assertNull(node.getCreationDate());
+		assertEquals("yesterday", node.getProperty(DAGObject.CREATION_DATE));
+		assertArrayEquals(new String[] { DAGObject.CREATION_DATE,
+				"yesterday" }, node.getProperties());
+
+		sut_.addProperty(node, DAGObject.CREATION_DATE, "2000");
+		assertEquals("2000", node.getProperty(DAGObject.CREATION_DATE));
+		assertArrayEquals(new String[] { DAGObject.CREATION_DATE, "2000" },
+				node.getProperties());
+
+		sut_.removeProperty(node, DAGObject.CREATION_DATE);
+		assertNull(node.getProperty(DAGObject.CREATION_DATE));
+		assertEquals(0, node.getProperties().length);
+	}
+
+	@Test
+	public void testCreator() {
+		DAGNode creator = (DAGNode) sut_.findOrCreateNode("CreatorNode",
+				null, true);
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("CreatedNode",
+				creator, true);
+		assertEquals(creator.getID(), node.getCreatorID());
+		assertEquals("CreatorNode", node.getCreator());
+		assertEquals("CreatorNode", node.getProperty(DAGObject.CREATOR));
+
+		assertEquals(DAGObject.CREATOR, node.getProperties()[0]);
+		assertEquals("CreatorNode", node.getProperties()[1]);
+
+		// Only the ID is stored, so the removed creator has no name
+		sut_.removeNode(creator);
+		assertNull(node.getCreator());
+		assertFalse(Arrays.asList(node.getProperties()).contains(
+				DAGObject.CREATOR));
+
+		// Non-DAG creators are stored by name
+		DAGNode named = (DAGNode) sut_.findOrCreateNode("NamedNode",
+				new StringNode("NamedCreator"), true);
+		assertEquals(-1, named.getCreatorID());
+		assertEquals("\"NamedCreator\"", named.getCreator());
+	}
+
+	@Test
+	public void testOldLayout() throws Exception {
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("OldNode", null, true);
+
+		// The original layout: alternating string keys and values
+		Field field = DAGObject.class.getDeclaredField("properties_");
+		field.setAccessible(true);
+		field.set(node, new String[] { DAGObject.CREATOR, "OldCreator",
+				DAGObject.CREATION_DATE, "1234567", "MT", "BaseKB" });
+
+		byte[] bytes = FSTSerialisationMechanism.conf.asByteArray(node);
+		DAGNode read = (DAGNode) FSTSerialisationMechanism.conf
+				.asObject(bytes);
+		assertEquals(node.getID(), read.getID());
+		assertEquals("OldNode", read.getName());
+		assertEquals("OldCreator", read.getCreator());
+		assertEquals(1234567, read.getCreationTime());
+		assertEquals("BaseKB", read.getProperty("MT"));
+		assertArrayEquals(new String[] { DAGObject.CREATOR, "OldCreator",
+				DAGObject.CREATION_DATE, "1234567", "MT", "BaseKB" },
+				read.getProperties());
+
+		// Migrated objects round trip in the current layout
+		read = (DAGNode) FSTSerialisationMechanism.conf
+				.asObject(FSTSerialisationMechanism.conf.asByteArray(read));
+		assertEquals("OldCreator", read.getCreator());
+		assertEquals("BaseKB", read.getProperty("MT"));
+	}
+}
@@ -25,11 +25,18 @@ import graph.core.Edge;
 import graph.core.Node;
 import graph.core.PrimitiveNode;
 import graph.core.StringNode;
+import gnu.trove.iterator.TIntObjectIterator;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import javax.naming.NamingException;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -111,6 +118,27 @@ public class DirectedAcyclicGraphTest {
 		assertNotSame(edge, otherEdge);
 	}
 
+	@Test
+	public void testAddEdges() {
+		Node isa = sut_.findOrCreateNode("isa", null, true);
+		Node cow = sut_.findOrCreateNode("Cow", null, true);
+		Edge existing = sut_.findOrCreateEdge(new Node[] { isa, cow,
+				sut_.findOrCreateNode("Mammal", null, true) }, null, true);
+
+		List<Node[]> edgeNodes = sut_.parseNodes(Arrays.asList(
+				"(isa Cow Mammal)", "(isa Cow Bovine)", "(isa Cow Bovine)",
+				"(isa Dog Mammal)"), null, true);
+		assertEquals(edgeNodes.size(), 4);
+		assertSame(edgeNodes.get(1)[2], sut_.findDAGNode("Bovine"));
+		Edge[] edges = sut_.addEdges(edgeNodes, null, false);
+		assertSame(edges[0], existing);
+		assertTrue(edges[1] instanceof DAGEdge);
+		assertSame(edges[1], edges[2]);
+		assertEquals(((DAGEdge) edges[3]).getID(),
+				((DAGEdge) edges[1]).getID() + 1);
+		assertSame(edges[3], sut_.findEdge(edgeNodes.get(3)));
+	}
+
 	@Test
 	public void testRemoveNode() {
 		DAGNode test = (DAGNode) sut_.findOrCreateNode("test", new StringNode(
@@ -234,4 +262,200 @@ public class DirectedAcyclicGraphTest {
 		assertTrue(dagObj instanceof DAGEdge);
 		assertEquals(((DAGEdge) dagObj).toString(false), dagStr);
 	}
+
+	@Test
+	public void testSeparateGraphs() {
+		DirectedAcyclicGraph other = new DirectedAcyclicGraph(new File(
+				"test2"), null, null);
+		other.clear();
+		int nextID = sut_.getNextNodeID();
+		DAGNode otherNode = (DAGNode) other.findOrCreateNode("OtherTest",
+				null, true);
+		assertNotNull(otherNode);
+		assertSame(otherNode, other.getNodeByID(otherNode.getID()));
+		assertEquals(nextID, sut_.getNextNodeID());
+
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("Test", null, true);
+		assertEquals(nextID, node.getID());
+		assertNull(other.findDAGNode("Test"));
+		other.clear();
+	}
+
+	@Test
+	public void testGraphFiles() {
+		DirectedAcyclicGraph other = new DirectedAcyclicGraph(new File(
+				"test2"), null, null);
+		other.clear();
+		assertTrue(new File("test2", DirectedAcyclicGraph.DAG_CONFIG_FILE)
+				.exists());
+		assertTrue(new File("test2", "commandLog.log").exists());
+
+		// Working on another graph binds it only for the call
+		DirectedAcyclicGraph.setCurrent(sut_);
+		try {
+			assertNotNull(other.findOrCreateNode("OtherTest", null, true));
+			other.saveState();
+			assertSame(sut_, DirectedAcyclicGraph.current());
+		} finally {
+			DirectedAcyclicGraph.setCurrent(null);
+			other.clear();
+		}
+	}
+
+	@Test
+	public void testConcurrentCreate() throws Exception {
+		final Node isa = sut_.findOrCreateNode("isa", null, true);
+		final Node creator = new StringNode("TestCreator");
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						Node node = sut_.findOrCreateNode("Node" + i, creator,
+								true);
+						Node parent = sut_.findOrCreateNode("Node" + (i / 2),
+								creator, true);
+						sut_.findOrCreateEdge(new Node[] { isa, node, parent },
+								creator, true);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		// Every name and edge was only created once
+		assertEquals(201, sut_.getNodes().size());
+		assertEquals(200, sut_.getEdges().size());
+		for (int i = 0; i < 200; i++)
+			assertNotNull(sut_.findDAGNode("Node" + i));
+	}
+
+	@Test
+	public void testEphemeral() {
+		DAGNode node = (DAGNode) sut_.findOrCreateNode("Temp", null, true,
+				true);
+		assertEquals("T",
+				node.getProperty(DirectedAcyclicGraph.EPHEMERAL_MARK));
+		Node isa = sut_.findOrCreateNode("isa", null, true);
+		DAGEdge edge = (DAGEdge) sut_.findOrCreateEdge(new Node[] { isa, node,
+				isa }, null, true, true);
+		assertEquals("T",
+				edge.getProperty(DirectedAcyclicGraph.EPHEMERAL_MARK));
+		assertSame(edge, sut_.getEdgeByID(edge.getID()));
+	}
+	@Test
+	public void testParseNodesCreatesFunctions() {
+		DirectedAcyclicGraph dag = new DirectedAcyclicGraph(new File("test3"),
+				null, null) {
+			@Override
+			protected String preParseNode(String nodeStr, Node creator,
+					boolean createNew, boolean dagNodeOnly) {
+				// Reify functions as named nodes on creation
+				if (createNew && nodeStr.startsWith("("))
+					return nodeStr.replaceAll("[() ]", "");
+				return nodeStr;
+			}
+		};
+		dag.clear();
+		List<Node[]> edgeNodes = dag.parseNodes(
+				Arrays.asList("(isa (FruitFn Apple) Fruit)"), null, true);
+		assertNotNull(edgeNodes.get(0));
+		assertSame(dag.findDAGNode("FruitFnApple"), edgeNodes.get(0)[1]);
+		assertSame(dag.findDAGNode("Fruit"), edgeNodes.get(0)[2]);
+		dag.clear();
+	}
+
+	@Test
+	public void testDeltaCheckpoints() throws IOException {
+		File rootDir = new File("testDelta");
+		if (rootDir.exists())
+			FileUtils.deleteDirectory(rootDir);
+		rootDir.mkdirs();
+		// Only the checkpoints are reloaded, and the deltas are kept
+		FileUtils.writeStringToFile(new File(rootDir,
+				DirectedAcyclicGraph.DAG_CONFIG_FILE),
+				"writeAheadLog=false\nmaxDeltas=100\n");
+		DirectedAcyclicGraph dag = new DirectedAcyclicGraph(rootDir, null,
+				null);
+		dag.initialise();
+		Node isa = dag.findOrCreateNode("isa", null, true);
+		Node[] nodes = new Node[200];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = dag.findOrCreateNode("Node" + i, null, true);
+			if (i > 0)
+				dag.findOrCreateEdge(new Node[] { isa, nodes[i], nodes[0] },
+						null, true);
+		}
+		dag.addProperty((DAGNode) nodes[4], "comment", "Removed");
+		dag.saveState();
+		assertTrue(deltaDirs(rootDir).isEmpty());
+
+		// A few changes are saved as a delta
+		Node extra = dag.findOrCreateNode("Extra", null, true);
+		dag.findOrCreateEdge(new Node[] { isa, extra, nodes[1] }, null, true);
+		dag.addProperty((DAGNode) nodes[1], "comment", "Changed");
+		dag.removeProperty((DAGNode) nodes[4], "comment");
+		dag.removeNode((DAGNode) nodes[2]);
+		dag.removeEdge(dag.findEdge(isa, nodes[3], nodes[0]));
+		dag.saveState();
+		assertEquals(1, deltaDirs(rootDir).size());
+		List<String> expected = describe(dag);
+		dag.close(false);
+
+		// The base and delta reload as the graph was
+		DirectedAcyclicGraph reloaded = new DirectedAcyclicGraph(rootDir,
+				null, null);
+		reloaded.initialise();
+		assertEquals(expected, describe(reloaded));
+		assertEquals(dag.getNextNodeID(), reloaded.getNextNodeID());
+		assertEquals(dag.getNextEdgeID(), reloaded.getNextEdgeID());
+
+		// Compacting to a full checkpoint reloads the same
+		reloaded.compact();
+		assertTrue(deltaDirs(rootDir).isEmpty());
+		reloaded.close(false);
+		reloaded = new DirectedAcyclicGraph(rootDir, null, null);
+		reloaded.initialise();
+		assertEquals(expected, describe(reloaded));
+		reloaded.close(false);
+		FileUtils.deleteDirectory(rootDir);
+	}
+
+	/**
+	 * @return The delta checkpoint directories of a graph.
+	 */
+	private static List<File> deltaDirs(File rootDir) {
+		List<File> deltas = new ArrayList<>();
+		for (File file : rootDir.listFiles())
+			if (file.isDirectory() && file.getName().startsWith("delta"))
+				deltas.add(file);
+		return deltas;
+	}
+
+	/**
+	 * Describes every node and edge of a graph by ID, name and properties, in
+	 * a comparable order.
+	 */
+	private static List<String> describe(DirectedAcyclicGraph dag) {
+		List<String> described = new ArrayList<>();
+		TIntObjectIterator<DAGNode> nodeIter = dag.getNodes().iterator();
+		while (nodeIter.hasNext()) {
+			nodeIter.advance();
+			DAGNode node = nodeIter.value();
+			described.add("N" + node.getID() + " " + node.getName() + " "
+					+ Arrays.toString(node.getProperties()));
+		}
+		TIntObjectIterator<DAGEdge> edgeIter = dag.getEdges().iterator();
+		while (edgeIter.hasNext()) {
+			edgeIter.advance();
+			DAGEdge edge = edgeIter.value();
+			described.add("E" + edge.getID() + " " + edge.toString(false)
+					+ " " + Arrays.toString(edge.getProperties()));
+		}
+		Collections.sort(described);
+		return described;
+	}
 }
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import graph.core.cli.DumpCommand;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class DumpCommandTest {
+	@Test
+	public void testEscape() {
+		String plain = "A plain value";
+		assertSame(plain, DumpCommand.escape(plain));
+		assertEquals("", DumpCommand.escape(null));
+		assertEquals("a\\tb\\nc\\rd\\\\e",
+				DumpCommand.escape("a\tb\nc\rd\\e"));
+		// Escaped fields hold no separators
+		String escaped = DumpCommand.escape("key\t=\nvalue\r\n");
+		assertEquals(-1, escaped.indexOf('\t'));
+		assertEquals(-1, escaped.indexOf('\n'));
+		assertEquals(-1, escaped.indexOf('\r'));
+	}
+
+	@Test
+	public void testUnescape() {
+		String[] values = { "", "plain", "tab\there", "line\nbreak\r\n",
+				"back\\slash", "\\t literal", "\\", "ends with \\\t",
+				"\t\n\\\\n" };
+		for (String value : values)
+			assertEquals(value,
+					DumpCommand.unescape(DumpCommand.escape(value)));
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.collection.IDSampler;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class IDSamplerTest {
+	private IDSampler sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		sut_ = new IDSampler(1);
+	}
+
+	@Test
+	public void testAddRemove() {
+		assertEquals(-1, sut_.sample(new Random()));
+		assertTrue(sut_.add(5));
+		assertFalse(sut_.add(5));
+		assertFalse(sut_.add(-1));
+		assertTrue(sut_.add(1000));
+		assertTrue(sut_.add(0));
+		assertEquals(3, sut_.size());
+		assertTrue(sut_.contains(1000));
+		assertFalse(sut_.contains(6));
+
+		assertTrue(sut_.remove(5));
+		assertFalse(sut_.remove(5));
+		assertFalse(sut_.remove(2000));
+		assertFalse(sut_.contains(5));
+		assertTrue(sut_.contains(0));
+		assertTrue(sut_.contains(1000));
+		assertEquals(2, sut_.size());
+
+		// Removed IDs can be added again
+		assertTrue(sut_.add(5));
+		assertEquals(3, sut_.size());
+		sut_.clear();
+		assertEquals(0, sut_.size());
+		assertFalse(sut_.contains(1000));
+		assertTrue(sut_.add(1000));
+	}
+
+	@Test
+	public void testSample() {
+		for (int id = 1; id <= 100; id++)
+			sut_.add(id);
+		for (int id = 1; id <= 100; id += 2)
+			sut_.remove(id);
+
+		// Only present IDs are sampled, and all of them are
+		Random random = new Random(1);
+		int[] counts = new int[101];
+		for (int i = 0; i < 50000; i++)
+			counts[sut_.sample(random)]++;
+		for (int id = 1; id <= 100; id++) {
+			if (id % 2 == 1)
+				assertEquals(0, counts[id]);
+			else
+				assertTrue(counts[id] > 500 && counts[id] < 1500);
+		}
+	}
+}
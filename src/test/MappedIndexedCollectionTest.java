@@ -0,0 +1,236 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Edge;
+import graph.core.MappedDAGFile;
+import graph.core.MappedIndexedCollection;
+import graph.core.Node;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class MappedIndexedCollectionTest {
+	private static final File MAP_DIR = new File("testMapped");
+
+	private DirectedAcyclicGraph dag_;
+
+	private DAGNode creator_;
+
+	private DAGNode[] nodes_;
+
+	private MappedIndexedCollection<DAGNode> sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		if (MAP_DIR.exists())
+			FileUtils.deleteDirectory(MAP_DIR);
+		MAP_DIR.mkdirs();
+		dag_ = new DirectedAcyclicGraph(new File("test"), null, null);
+		dag_.clear();
+		// Creators are named through the current graph
+		DirectedAcyclicGraph.setCurrent(dag_);
+		creator_ = (DAGNode) dag_.findOrCreateNode("Creator", null, true);
+		nodes_ = new DAGNode[10];
+		for (int i = 0; i < nodes_.length; i++)
+			nodes_[i] = (DAGNode) dag_.findOrCreateNode("Node" + i,
+					creator_, true);
+		dag_.addProperty(nodes_[0], "comment", "The first node");
+
+		File file = new File(MAP_DIR, "nodes.map");
+		MappedDAGFile.write(dag_.getNodes(), file);
+		sut_ = new MappedIndexedCollection<>(new MappedDAGFile(file), dag_);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		DirectedAcyclicGraph.setCurrent(null);
+		dag_.clear();
+		FileUtils.deleteDirectory(MAP_DIR);
+	}
+
+	@Test
+	public void testGet() {
+		assertEquals(11, sut_.size());
+		DAGNode node = sut_.get(nodes_[0].getID());
+		assertEquals(nodes_[0], node);
+		assertEquals("Node0", node.getName());
+		assertEquals("The first node", node.getProperty("comment"));
+		assertEquals(nodes_[0].getCreationTime(), node.getCreationTime());
+		// Decoded once, then cached
+		assertSame(node, sut_.get(nodes_[0].getID()));
+		assertNull(sut_.get(dag_.getNextNodeID()));
+	}
+
+	@Test
+	public void testReadAfterWrite() throws IOException {
+		// Removed file objects
+		DAGNode removed = sut_.get(nodes_[1].getID());
+		assertTrue(sut_.remove(removed));
+		assertNull(sut_.get(removed.getID()));
+		assertFalse(sut_.contains(removed));
+		assertFalse(sut_.remove(removed));
+		assertTrue(sut_.remove(nodes_[2]));
+		assertNull(sut_.get(nodes_[2].getID()));
+		assertEquals(9, sut_.size());
+
+		// Added objects, in and out of the file
+		DAGNode extra = (DAGNode) dag_.findOrCreateNode("Extra", creator_,
+				true);
+		assertTrue(sut_.add(extra));
+		assertSame(extra, sut_.get(extra.getID()));
+		assertTrue(sut_.add(removed));
+		assertSame(removed, sut_.get(removed.getID()));
+		assertEquals(11, sut_.size());
+
+		// A changed decoded object is the one read back
+		DAGNode changed = sut_.get(nodes_[3].getID());
+		dag_.addProperty(changed, "comment", "Changed");
+		assertEquals("Changed", sut_.get(nodes_[3].getID()).getProperty(
+				"comment"));
+
+		// Every object is iterated once, in ID order
+		int count = 0;
+		int lastID = -1;
+		for (int id = sut_.nextID(0); id != -1; id = sut_.nextID(id + 1)) {
+			assertTrue(id > lastID);
+			assertNotNull(sut_.get(id));
+			lastID = id;
+			count++;
+		}
+		assertEquals(sut_.size(), count);
+
+		// Writing the collection keeps the changes
+		File file = new File(MAP_DIR, "nodes2.map");
+		MappedDAGFile.write(sut_, file);
+		MappedIndexedCollection<DAGNode> rewritten = new MappedIndexedCollection<>(
+				new MappedDAGFile(file), dag_);
+		assertEquals(11, rewritten.size());
+		assertNull(rewritten.get(nodes_[2].getID()));
+		assertEquals("Node1", rewritten.get(removed.getID()).getName());
+		assertEquals("Extra", rewritten.get(extra.getID()).getName());
+		assertEquals("Changed", rewritten.get(nodes_[3].getID())
+				.getProperty("comment"));
+	}
+
+	@Test
+	public void testCreators() {
+		DAGNode node = sut_.get(nodes_[4].getID());
+		assertEquals(creator_.getID(), node.getCreatorID());
+		assertEquals("Creator", node.getCreator());
+
+		// The written name is kept once the creator is removed
+		dag_.removeNode(creator_);
+		DAGNode orphan = sut_.get(nodes_[5].getID());
+		assertEquals(creator_.getID(), orphan.getCreatorID());
+		assertEquals("Creator", orphan.getCreator());
+		assertEquals("Creator", node.getCreator());
+	}
+
+	@Test
+	public void testSnapshot() {
+		DAGNode decoded = sut_.get(nodes_[6].getID());
+		MappedIndexedCollection<DAGNode> snapshot = sut_.snapshot();
+		sut_.remove(decoded);
+		sut_.remove(nodes_[7]);
+		DAGNode extra = (DAGNode) dag_.findOrCreateNode("Extra", null, true);
+		sut_.add(extra);
+
+		assertEquals(11, snapshot.size());
+		assertSame(decoded, snapshot.get(nodes_[6].getID()));
+		assertEquals("Node7", snapshot.get(nodes_[7].getID()).getName());
+		assertNull(snapshot.get(extra.getID()));
+		assertNull(sut_.get(nodes_[7].getID()));
+		assertEquals(10, sut_.size());
+	}
+
+	@Test
+	public void testMappedReload() throws IOException {
+		File rootDir = new File(MAP_DIR, "dag");
+		rootDir.mkdirs();
+		FileUtils.writeStringToFile(new File(rootDir,
+				DirectedAcyclicGraph.DAG_CONFIG_FILE),
+				"snapshotFormat=mapped\nwriteAheadLog=false\n");
+		DirectedAcyclicGraph dag = new DirectedAcyclicGraph(rootDir, null,
+				null);
+		DirectedAcyclicGraph.setCurrent(dag);
+		dag.initialise();
+		Node creator = dag.findOrCreateNode("Creator", null, true);
+		Node isa = dag.findOrCreateNode("isa", creator, true);
+		Node mammal = dag.findOrCreateNode("Mammal", creator, true);
+		for (String name : new String[] { "Dog", "Cat" })
+			dag.findOrCreateEdge(new Node[] { isa,
+					dag.findOrCreateNode(name, creator, true), mammal },
+					creator, true);
+		dag.compact();
+		dag.close(false);
+		assertTrue(new File(rootDir, "nodes.map").exists());
+
+		// Change the mapped graph and reload it
+		dag = new DirectedAcyclicGraph(rootDir, null, null);
+		DirectedAcyclicGraph.setCurrent(dag);
+		dag.initialise();
+		assertTrue(dag.getNodes() instanceof MappedIndexedCollection);
+		creator = dag.findOrCreateNode("Creator", null, false);
+		isa = dag.findOrCreateNode("isa", null, false);
+		mammal = dag.findOrCreateNode("Mammal", null, false);
+		DAGNode dog = (DAGNode) dag.findOrCreateNode("Dog", null, false);
+		DAGNode cat = (DAGNode) dag.findOrCreateNode("Cat", null, false);
+		assertEquals("Creator", dog.getCreator());
+		dag.removeNode(cat);
+		Node cow = dag.findOrCreateNode("Cow", creator, true);
+		dag.findOrCreateEdge(new Node[] { isa, cow, mammal }, creator, true);
+		dag.addProperty(dog, "comment", "Woof");
+		dag.removeNode((DAGNode) creator);
+		dag.compact();
+		dag.close(false);
+
+		dag = new DirectedAcyclicGraph(rootDir, null, null);
+		DirectedAcyclicGraph.setCurrent(dag);
+		dag.initialise();
+		try {
+			assertEquals(4, dag.getNodes().size());
+			assertNull(dag.getNodeByID(cat.getID()));
+			assertNull(dag.getNodeByID(((DAGNode) creator).getID()));
+			DAGNode reloadedDog = dag.getNodeByID(dog.getID());
+			assertEquals("Woof", reloadedDog.getProperty("comment"));
+			assertEquals("Creator", reloadedDog.getCreator());
+			assertEquals(2, dag.getEdges().size());
+			Edge edge = dag.findEdge(dag.getNodeByID(((DAGNode) isa).getID()),
+					dag.getNodeByID(((DAGNode) cow).getID()),
+					dag.getNodeByID(((DAGNode) mammal).getID()));
+			assertNotNull(edge);
+			// Created since the last write, so only the creator ID is kept
+			assertEquals(((DAGNode) creator).getID(),
+					((DAGEdge) edge).getCreatorID());
+		} finally {
+			dag.close(false);
+		}
+	}
+}
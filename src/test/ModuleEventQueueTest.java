@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.ModuleEventQueue;
+import graph.core.ModuleEventQueue.EventType;
+import graph.core.Node;
+import graph.module.DAGModule;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class ModuleEventQueueTest {
+	private DirectedAcyclicGraph dag_;
+
+	private RecordingModule module_;
+
+	private ModuleEventQueue sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		dag_ = new DirectedAcyclicGraph(new File("test"), null, null);
+		dag_.clear();
+		module_ = new RecordingModule();
+		sut_ = new ModuleEventQueue(module_);
+	}
+
+	@After
+	public void tearDown() {
+		sut_.close();
+		dag_.clear();
+	}
+
+	@Test
+	public void testDelivery() throws InterruptedException {
+		DAGNode isa = (DAGNode) dag_.findOrCreateNode("isa", null, true);
+		DAGNode dog = (DAGNode) dag_.findOrCreateNode("Dog", null, true);
+		DAGNode mammal = (DAGNode) dag_.findOrCreateNode("Mammal", null,
+				true);
+		DAGEdge edge = (DAGEdge) dag_.findOrCreateEdge(new Node[] { isa, dog,
+				mammal }, null, true);
+		// Hold the module thread until everything is queued
+		final CountDownLatch queued = new CountDownLatch(1);
+		sut_.runAt(0, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					queued.await();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		sut_.queue(EventType.ADD_NODE, isa, null, null);
+		sut_.queue(EventType.ADD_NODE, dog, null, null);
+		sut_.queue(EventType.ADD_NODE, mammal, null, null);
+		sut_.queue(EventType.ADD_EDGE, edge, null, null);
+		sut_.queue(EventType.ADD_PROPERTY, dog, "comment", "Woof");
+		sut_.queue(EventType.REMOVE_EDGE, edge, null, null);
+		sut_.queue(EventType.REMOVE_NODE, dog, null, null);
+		sut_.queue(EventType.CLEAR, null, null, null);
+		long fence = sut_.fence();
+		assertEquals(8, fence);
+		queued.countDown();
+
+		sut_.await(fence);
+		assertEquals(0, sut_.getPending());
+		// Runs of additions are delivered together, in order
+		assertEquals(Arrays.asList("addNodes [isa, Dog, Mammal]",
+				"addEdges [(isa Dog Mammal)]", "addProperty Dog comment=Woof",
+				"removeEdge (isa Dog Mammal)", "removeNode Dog", "clear"),
+				module_.getEvents());
+	}
+
+	@Test
+	public void testRunAt() throws InterruptedException {
+		DAGNode dog = (DAGNode) dag_.findOrCreateNode("Dog", null, true);
+		DAGNode cat = (DAGNode) dag_.findOrCreateNode("Cat", null, true);
+		sut_.queue(EventType.ADD_NODE, dog, null, null);
+		final List<String> seen = Collections
+				.synchronizedList(new ArrayList<String>());
+		sut_.runAt(sut_.fence(), new Runnable() {
+			@Override
+			public void run() {
+				seen.addAll(module_.getEvents());
+			}
+		});
+		sut_.queue(EventType.ADD_NODE, cat, null, null);
+		sut_.await(sut_.fence());
+
+		// The task sees the changes up to its fence, and no later
+		assertEquals(Arrays.asList("addNodes [Dog]"), seen);
+		assertEquals(Arrays.asList("addNodes [Dog]", "addNodes [Cat]"),
+				module_.getEvents());
+	}
+
+	@Test
+	public void testClose() throws InterruptedException {
+		DAGNode dog = (DAGNode) dag_.findOrCreateNode("Dog", null, true);
+		sut_.queue(EventType.ADD_NODE, dog, null, null);
+		sut_.close();
+		// Queued changes are delivered before the queue stops
+		assertEquals(Arrays.asList("addNodes [Dog]"), module_.getEvents());
+		assertEquals(0, sut_.getPending());
+
+		// Tasks on a stopped queue run at once
+		final List<String> seen = new ArrayList<>();
+		sut_.runAt(sut_.fence() + 1, new Runnable() {
+			@Override
+			public void run() {
+				seen.add("ran");
+			}
+		});
+		assertEquals(Arrays.asList("ran"), seen);
+		sut_.await(sut_.fence() + 1);
+	}
+
+	/**
+	 * Records the changes delivered to it.
+	 */
+	private static class RecordingModule extends DAGModule<Object> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<String> events_ = new ArrayList<>();
+
+		@Override
+		public synchronized Collection<DAGEdge> addEdges(
+				Collection<DAGEdge> edges) {
+			events_.add("addEdges " + edges);
+			return edges;
+		}
+
+		@Override
+		public synchronized void addNodes(Collection<DAGNode> nodes) {
+			events_.add("addNodes " + nodes);
+		}
+
+		@Override
+		public synchronized void addProperty(DAGObject dagObj, String key,
+				String value) {
+			events_.add("addProperty " + dagObj + " " + key + "=" + value);
+		}
+
+		@Override
+		public synchronized void clear() {
+			events_.add("clear");
+		}
+
+		@Override
+		public Object execute(Object... args) {
+			return null;
+		}
+
+		public synchronized List<String> getEvents() {
+			return new ArrayList<>(events_);
+		}
+
+		@Override
+		public synchronized boolean removeEdge(DAGEdge edge) {
+			events_.add("removeEdge " + edge);
+			return true;
+		}
+
+		@Override
+		public synchronized boolean removeNode(DAGNode node) {
+			events_.add("removeNode " + node);
+			return true;
+		}
+
+		@Override
+		public boolean supportsEdge(DAGEdge edge) {
+			return true;
+		}
+
+		@Override
+		public boolean supportsNode(DAGNode node) {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import graph.core.DAGNode;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.NodeLexer;
+import graph.core.NodeLexer.Token;
+
+import org.junit.Test;
+
+/**
+ * Checks the lexer accepts the same grammar as the original node regexes.
+ */
+public class NodeLexerTest {
+	private static final String[] SAMPLES = { "", "a", "ab", "Dog", "isa",
+			"12", "1", "007", "-5", "-5.5", "5.", "5.5", "1.2E+5", "1.2e5",
+			"1.2.3", "-1.E", "'a", "'12", "\"\"", "\"", "\"abc\"",
+			"\"ab\\\"c\"", "\"ab\"c\"", "\"a\\\\\"", "\"a\\\\\\\"",
+			"\"abc\"\n", "\"a\tb\"", "a(b", "a?b", "a'b", "a b", "_ab",
+			"(isa", "isa)", "5))", ")", "))", "-)", " )", "1E5", "3.0f",
+			"2d", "+1.5", "1,5", "true", "false", "'x'", "x", "\u00e91",
+			"1234567890123456789", "a\u00a0b" };
+
+	@Test
+	public void testClassify() {
+		for (String sample : SAMPLES) {
+			Token token = NodeLexer.classify(sample);
+			assertEquals(sample, sample.matches("\\d+"), token == Token.ID);
+			assertEquals(sample, sample.matches("-?\\d+\\.[\\dE+-]+"),
+					token == Token.DECIMAL);
+			assertEquals(sample, sample.matches(DAGNode.QUOTED_NAME.pattern()),
+					NodeLexer.isQuotedName(sample));
+			assertEquals(sample, sample.matches(DAGNode.VALID_NAME.pattern()),
+					NodeLexer.isValidName(sample));
+			assertEquals(sample,
+					DirectedAcyclicGraph.PRIMITIVE_PATTERN.matcher(sample)
+							.matches(), NodeLexer.isPrimitiveToken(sample));
+		}
+	}
+
+	@Test
+	public void testUnquote() {
+		for (String sample : SAMPLES) {
+			String expected = sample;
+			while (expected.startsWith("\""))
+				expected = expected.substring(1);
+			expected = expected.replaceFirst("([^\\\\](\\\\{2})*)\"$", "$1")
+					.replaceAll("\\t", " ");
+			assertEquals(sample, expected, NodeLexer.unquote(sample));
+		}
+	}
+}
@@ -12,13 +12,31 @@ package test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import graph.core.PrimitiveNode;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.nustaq.serialization.FSTConfiguration;
+
+import util.FSTPrimitiveNodeSerialiser;
 
 public class PrimitiveNodeTest {
+	/**
+	 * An array of primitive nodes saved by the original (concrete)
+	 * PrimitiveNode: 12345, 'x', 1.5d and 12345 again.
+	 */
+	private static final String OLD_NODES = "fb2104000118677261706"
+			+ "82e636f72652e5072696d69746976654e6f6465f780393000005300"
+			+ "0c780000530009000000000000f83f00f903";
 
 	@Before
 	public void setUp() throws Exception {
@@ -52,4 +70,66 @@ public class PrimitiveNodeTest {
 		assertNull(node);
 	}
 
+	@Test
+	public void testCanonical() {
+		assertSame(PrimitiveNode.parseNode("true"),
+				PrimitiveNode.parseNode("true"));
+		assertSame(PrimitiveNode.parseNode("3"), PrimitiveNode.parseNode("3"));
+		assertSame(PrimitiveNode.parseNode("'c'"), PrimitiveNode.parseNode("c"));
+		PrimitiveNode node = PrimitiveNode.parseNode("56873265");
+		assertSame(node, PrimitiveNode.parseNode("56873265"));
+		assertSame(node, PrimitiveNode.valueOf(56873265));
+		node = PrimitiveNode.parseNode("658.487f");
+		assertSame(node, PrimitiveNode.parseNode("658.487f"));
+	}
+
+	@Test
+	public void testConcurrentIntern() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<PrimitiveNode[]>> results = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				results.add(executor.submit(new Callable<PrimitiveNode[]>() {
+					@Override
+					public PrimitiveNode[] call() {
+						PrimitiveNode[] nodes = new PrimitiveNode[1000];
+						for (int i = 0; i < nodes.length; i++)
+							nodes[i] = PrimitiveNode.valueOf(100000 + i);
+						return nodes;
+					}
+				}));
+			}
+			PrimitiveNode[] first = results.get(0).get();
+			for (Future<PrimitiveNode[]> result : results) {
+				PrimitiveNode[] nodes = result.get();
+				for (int i = 0; i < nodes.length; i++)
+					assertSame(first[i], nodes[i]);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadOldNodes() {
+		FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+		conf.registerSerializer(PrimitiveNode.class,
+				new FSTPrimitiveNodeSerialiser(), false);
+		byte[] bytes = new byte[OLD_NODES.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) Integer.parseInt(
+					OLD_NODES.substring(i * 2, i * 2 + 2), 16);
+
+		Object[] nodes = (Object[]) conf.asObject(bytes);
+		assertEquals(4, nodes.length);
+		assertSame(PrimitiveNode.valueOf(12345), nodes[0]);
+		assertSame(PrimitiveNode.valueOf('x'), nodes[1]);
+		assertSame(PrimitiveNode.valueOf(1.5d), nodes[2]);
+		assertSame(nodes[0], nodes[3]);
+
+		// Read nodes are written as the current classes
+		nodes = (Object[]) conf.asObject(conf.asByteArray(nodes));
+		assertSame(PrimitiveNode.valueOf(12345), nodes[0]);
+		assertSame(PrimitiveNode.valueOf(1.5d), nodes[2]);
+	}
 }
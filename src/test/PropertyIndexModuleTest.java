@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import graph.core.DAGNode;
+import graph.core.DAGObject;
+import graph.core.DirectedAcyclicGraph;
+import graph.module.PropertyIndexModule;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PropertyIndexModuleTest {
+	private PropertyIndexModule sut_;
+	private DirectedAcyclicGraph dag_;
+
+	@Before
+	public void setUp() throws Exception {
+		dag_ = new DirectedAcyclicGraph(new File("test"), null, null);
+		dag_.clear();
+		sut_ = new PropertyIndexModule();
+		sut_.setDAG(dag_);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dag_.clear();
+	}
+
+	private DAGNode createNode(String name, String weight) {
+		DAGNode node = (DAGNode) dag_.findOrCreateNode(name, null, true);
+		dag_.addProperty(node, "weight", weight);
+		return node;
+	}
+
+	@Test
+	public void testDefaultKeys() {
+		assertTrue(sut_.getRegisteredKeys().isEmpty());
+		createNode("Unindexed", "1");
+		assertNull(sut_.findByValue(true, DAGObject.CREATION_DATE, "1"));
+		assertNull(sut_.findByValue(true, "weight", "1"));
+	}
+
+	@Test
+	public void testLookups() {
+		DAGNode ten = createNode("Ten", "10");
+		DAGNode abc = createNode("Abc", "abc");
+		DAGNode nine = createNode("Nine", "9");
+		DAGNode half = createNode("Half", "2.5");
+		assertEquals(4, sut_.registerKey("weight"));
+		assertEquals(-1, sut_.registerKey("weight"));
+
+		assertEquals(Arrays.asList(ten),
+				sut_.findByValue(true, "weight", "10"));
+		assertTrue(sut_.findByValue(true, "weight", "11").isEmpty());
+		assertTrue(sut_.findByValue(false, "weight", "10").isEmpty());
+
+		// Numeric values in numeric order, before non-numeric values
+		assertEquals(Arrays.asList(half, nine, ten),
+				sut_.findByRange(true, "weight", "2", "10"));
+		assertEquals(Arrays.asList(nine, ten, abc),
+				sut_.findByRange(true, "weight", "9", null));
+		assertEquals(Arrays.asList(half),
+				sut_.findByRange(true, "weight", null, "3"));
+		assertTrue(sut_.findByRange(true, "weight", "10", "2").isEmpty());
+
+		// Changes through the module hooks
+		dag_.addProperty(nine, "weight", "1");
+		sut_.addProperty(nine, "weight", "1");
+		assertTrue(sut_.findByValue(true, "weight", "9").isEmpty());
+		assertEquals(Arrays.asList(nine, half),
+				sut_.findByRange(true, "weight", null, "3"));
+		dag_.removeProperty(half, "weight");
+		sut_.removeProperty(half, "weight");
+		assertEquals(Arrays.asList(nine),
+				sut_.findByRange(true, "weight", null, "3"));
+		sut_.removeNode(ten);
+		assertTrue(sut_.findByValue(true, "weight", "10").isEmpty());
+
+		assertTrue(sut_.unregisterKey("weight"));
+		assertNull(sut_.findByValue(true, "weight", "1"));
+	}
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import graph.module.PropertyTrigramModule;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PropertyTrigramModuleTest {
+	@Test
+	public void testExtractLiterals() {
+		assertEquals(PropertyTrigramModule.extractLiterals("Hello"),
+				Arrays.asList("hello"));
+		assertEquals(PropertyTrigramModule.extractLiterals(".*foo.*bar\\d+"),
+				Arrays.asList("foo", "bar"));
+		assertEquals(PropertyTrigramModule.extractLiterals("abcd?e"),
+				Arrays.asList("abc"));
+		assertEquals(
+				PropertyTrigramModule.extractLiterals("x[abc]yzw(foo|bar)qq"),
+				Arrays.asList("yzw"));
+		assertEquals(PropertyTrigramModule.extractLiterals("a\\.b\\Q*c*\\E"),
+				Arrays.asList("a.b*c*"));
+		assertEquals(PropertyTrigramModule.extractLiterals("ab{2}cde+"),
+				Arrays.asList("cde"));
+		assertTrue(PropertyTrigramModule.extractLiterals(".*").isEmpty());
+		assertNull(PropertyTrigramModule.extractLiterals("foo|bar"));
+		assertNull(PropertyTrigramModule.extractLiterals("(?x)foo bar"));
+	}
+
+	@Test
+	public void testExtractLiteralsEscapes() {
+		assertLiterals("foo\\x41bar", "fooAbar", "foo", "bar");
+		assertLiterals("foo\\x{41}bar", "fooAbar", "foo", "bar");
+		assertLiterals("foo\\u0041bar", "fooAbar", "foo", "bar");
+		assertLiterals("foo\\0101bar", "fooAbar", "foo", "bar");
+		assertLiterals("foo\\cIbar", "foo\tbar", "foo", "bar");
+		assertLiterals("(?<n>ab)cde\\k<n>fgh", "abcdeabfgh", "cde", "fgh");
+		assertLiterals("abc\\p{Lu}def", "abcXdef", "abc", "def");
+		assertLiterals("abc\\x41?def", "abcdef", "abc", "def");
+	}
+
+	@Test
+	public void testExtractLiteralsGroups() {
+		assertLiterals("abc(def|ghi)jkl", "abcghijkl", "abc", "jkl");
+		assertLiterals("abc(def)?ghi", "abcghi", "abc", "ghi");
+		assertLiterals("abc(?:def)*ghi", "abcghi", "abc", "ghi");
+		assertLiterals("(abc)?", "");
+		assertLiterals("abcd?", "abc", "abc");
+		assertNull(PropertyTrigramModule.extractLiterals("abc|def"));
+		assertNull(PropertyTrigramModule.extractLiterals("abc(def)|ghi"));
+	}
+
+	/**
+	 * Asserts the literals extracted from a regex, and that they are all
+	 * found in a value the regex matches.
+	 */
+	private static void assertLiterals(String regex, String match,
+			String... literals) {
+		assertTrue(Pattern.compile(regex).matcher(match).matches());
+		List<String> extracted = PropertyTrigramModule.extractLiterals(regex);
+		assertEquals(Arrays.asList(literals), extracted);
+		for (String literal : extracted)
+			assertTrue(match.toLowerCase().contains(literal));
+	}
+
+	@Test
+	public void testTrigrams() {
+		Collection<String> grams = PropertyTrigramModule.trigrams("AbcD");
+		assertEquals(grams.size(), 2);
+		assertTrue(grams.contains("abc"));
+		assertTrue(grams.contains("bcd"));
+		assertTrue(PropertyTrigramModule.trigrams("ab").isEmpty());
+	}
+}
@@ -180,4 +180,28 @@ public class RelatedEdgeModuleTest {
 		assertEquals(result.size(), 1);
 		assertTrue(result.contains(stringEdge));
 	}
+
+	@Test
+	public void testSaveAndLoadIndex() {
+		Node creator = new StringNode("TestCreator");
+		DAGNode testNode = (DAGNode) dag_.findOrCreateNode("test", creator,
+				true);
+		DAGNode isa = (DAGNode) dag_.findOrCreateNode("isa", creator, true);
+		DAGNode mammal = (DAGNode) dag_.findOrCreateNode("Mammal", creator,
+				true);
+		DAGEdge testEdge = (DAGEdge) dag_.findOrCreateEdge(new Node[] {
+				isa, testNode, mammal }, creator, true);
+		assertTrue(sut_.saveModule(dag_.rootDir_));
+
+		// A new module loads the index file instead of rebuilding
+		RelatedEdgeModule loaded = new RelatedEdgeModule();
+		loaded.setDAG(dag_);
+		Collection<Edge> result = loaded.execute(testNode, 2);
+		assertEquals(result.size(), 1);
+		assertTrue(result.contains(testEdge));
+		result = loaded.execute(testNode, 1);
+		assertEquals(result.size(), 0);
+		result = loaded.execute(isa, mammal);
+		assertEquals(result.size(), 1);
+	}
 }
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.iterator.TIntObjectIterator;
+import graph.core.DAGNode;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import util.collection.trove.TArrayIndexedCollection;
+
+public class TArrayIndexedCollectionTest {
+	private TArrayIndexedCollection<DAGNode> sut_;
+
+	private DAGNode createNode(int id) {
+		DAGNode node = new DAGNode();
+		node.setID(id);
+		return node;
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		sut_ = new TArrayIndexedCollection<>();
+	}
+
+	@Test
+	public void testAddGet() {
+		DAGNode a = createNode(1);
+		DAGNode b = createNode(70000);
+		DAGNode c = createNode(5000000);
+		assertTrue(sut_.add(a));
+		assertTrue(sut_.add(b));
+		assertTrue(sut_.add(c));
+		assertFalse(sut_.add(a));
+		assertEquals(sut_.size(), 3);
+		assertSame(sut_.get(1), a);
+		assertSame(sut_.get(70000), b);
+		assertSame(sut_.get(5000000), c);
+		assertNull(sut_.get(2));
+		assertNull(sut_.get(-1));
+		assertNull(sut_.get(Integer.MAX_VALUE));
+		assertTrue(sut_.contains(b));
+		assertFalse(sut_.contains(createNode(3)));
+	}
+
+	@Test
+	public void testRemove() {
+		DAGNode a = createNode(1);
+		DAGNode b = createNode(70000);
+		sut_.add(a);
+		sut_.add(b);
+		assertTrue(sut_.remove(b));
+		assertFalse(sut_.remove(b));
+		assertNull(sut_.get(70000));
+		assertEquals(sut_.size(), 1);
+
+		// Re-adding into a released segment
+		assertTrue(sut_.add(b));
+		assertSame(sut_.get(70000), b);
+		sut_.clear();
+		assertEquals(sut_.size(), 0);
+		assertNull(sut_.get(1));
+	}
+
+	@Test
+	public void testIterationOrder() {
+		int[] ids = { 900000, 3, 65536, 65535, 12 };
+		for (int id : ids)
+			sut_.add(createNode(id));
+
+		int[] expected = { 3, 12, 65535, 65536, 900000 };
+		TIntObjectIterator<DAGNode> iter = sut_.iterator();
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue(iter.hasNext());
+			iter.advance();
+			assertEquals(iter.key(), expected[i]);
+			assertEquals(iter.value().getID(), expected[i]);
+		}
+		assertFalse(iter.hasNext());
+
+		DAGNode[] array = sut_.toArray(new DAGNode[sut_.size()]);
+		for (int i = 0; i < expected.length; i++)
+			assertEquals(array[i].getID(), expected[i]);
+	}
+
+	@Test
+	public void testSnapshot() {
+		DAGNode a = createNode(1);
+		DAGNode b = createNode(2);
+		DAGNode c = createNode(70000);
+		sut_.add(a);
+		sut_.add(b);
+		TArrayIndexedCollection<DAGNode> snapshot = sut_.snapshot();
+
+		// Writes after the snapshot are not seen by it
+		sut_.remove(a);
+		sut_.add(c);
+		assertEquals(snapshot.size(), 2);
+		assertSame(snapshot.get(1), a);
+		assertNull(snapshot.get(70000));
+		assertNull(sut_.get(1));
+		assertSame(sut_.get(70000), c);
+
+		TIntObjectIterator<DAGNode> iter = snapshot.iterator();
+		iter.advance();
+		assertSame(iter.value(), a);
+		iter.advance();
+		assertSame(iter.value(), b);
+		assertFalse(iter.hasNext());
+
+		// Removing the last object of a shared segment
+		sut_.remove(b);
+		assertSame(snapshot.get(2), b);
+		assertEquals(sut_.size(), 1);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testSnapshotReadOnly() {
+		sut_.snapshot().add(createNode(1));
+	}
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import graph.core.DAGEdge;
+import graph.core.DAGNode;
+import graph.core.DirectedAcyclicGraph;
+import graph.core.Node;
+import graph.core.WriteAheadLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author Sam Sarjant
+ */
+public class WriteAheadLogTest {
+	private static final File LOG_DIR = new File("testWAL");
+
+	private DirectedAcyclicGraph dag_;
+
+	private DirectedAcyclicGraph replayed_;
+
+	private WriteAheadLog sut_;
+
+	@Before
+	public void setUp() throws Exception {
+		if (LOG_DIR.exists())
+			FileUtils.deleteDirectory(LOG_DIR);
+		dag_ = new DirectedAcyclicGraph(new File("test"), null, null);
+		dag_.clear();
+		replayed_ = new DirectedAcyclicGraph(new File("test2"), null, null);
+		replayed_.clear();
+		sut_ = new WriteAheadLog(LOG_DIR, WriteAheadLog.SyncMode.ALWAYS, 1,
+				1);
+		sut_.open();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		sut_.close();
+		dag_.clear();
+		replayed_.clear();
+		FileUtils.deleteDirectory(LOG_DIR);
+	}
+
+	@Test
+	public void testReplay() {
+		DAGNode isa = (DAGNode) dag_.findOrCreateNode("isa", null, true);
+		DAGNode dog = (DAGNode) dag_.findOrCreateNode("Dog", null, true);
+		DAGNode mammal = (DAGNode) dag_.findOrCreateNode("Mammal", null,
+				true);
+		DAGNode cat = (DAGNode) dag_.findOrCreateNode("Cat", null, true);
+		DAGEdge edge = (DAGEdge) dag_.findOrCreateEdge(new Node[] { isa, dog,
+				mammal }, null, true);
+		sut_.logAddNode(isa);
+		sut_.logAddNode(dog);
+		sut_.logAddNode(mammal);
+		sut_.logAddNode(cat);
+		sut_.logAddEdge(edge);
+		sut_.logAddProperty(dog, "comment", "A dog");
+		sut_.logRemoveNode(cat);
+
+		// The log is not closed, as if the process died
+		WriteAheadLog log = new WriteAheadLog(LOG_DIR,
+				WriteAheadLog.SyncMode.NONE, 1, 1);
+		assertEquals(7, log.replay(replayed_));
+		assertEquals("Dog", replayed_.getNodeByID(dog.getID()).getName());
+		assertEquals("A dog",
+				replayed_.getNodeByID(dog.getID()).getProperty("comment"));
+		assertEquals(edge.toString(),
+				replayed_.getEdgeByID(edge.getID()).toString());
+		assertNull(replayed_.getNodeByID(cat.getID()));
+		assertEquals(3, replayed_.getNodes().size());
+	}
+
+	@Test
+	public void testTruncatedTail() throws IOException {
+		DAGNode dog = (DAGNode) dag_.findOrCreateNode("Dog", null, true);
+		DAGNode cat = (DAGNode) dag_.findOrCreateNode("Cat", null, true);
+		DAGNode cow = (DAGNode) dag_.findOrCreateNode("Cow", null, true);
+		sut_.logAddNode(dog);
+		sut_.logAddNode(cat);
+		sut_.close();
+
+		// Tear the last record of the first segment
+		File segment = new File(LOG_DIR, "wal0.log");
+		long length = segment.length();
+		FileOutputStream out = new FileOutputStream(segment, true);
+		out.write(new byte[] { 0, 0, 0, 20, 1, 2, 3 });
+		out.close();
+
+		sut_ = new WriteAheadLog(LOG_DIR, WriteAheadLog.SyncMode.ALWAYS, 1,
+				1);
+		sut_.open();
+		sut_.logAddNode(cow);
+
+		WriteAheadLog log = new WriteAheadLog(LOG_DIR,
+				WriteAheadLog.SyncMode.NONE, 1, 1);
+		assertEquals(3, log.replay(replayed_));
+		assertEquals(length, segment.length());
+		assertNotNull(replayed_.getNodeByID(dog.getID()));
+		assertNotNull(replayed_.getNodeByID(cat.getID()));
+		assertEquals("Cow", replayed_.getNodeByID(cow.getID()).getName());
+
+		// Replaying again reads the same records
+		replayed_.clear();
+		assertEquals(3, log.replay(replayed_));
+	}
+
+	@Test
+	public void testReplayAfterUncleanClose() throws IOException {
+		File rootDir = new File(LOG_DIR, "dag");
+		rootDir.mkdirs();
+		FileUtils.writeStringToFile(new File(rootDir,
+				DirectedAcyclicGraph.DAG_CONFIG_FILE), "walSync=always\n");
+		DirectedAcyclicGraph dag = new DirectedAcyclicGraph(rootDir, null,
+				null);
+		dag.initialise();
+		Node isa = dag.findOrCreateNode("isa", null, true);
+		Node mammal = dag.findOrCreateNode("Mammal", null, true);
+		dag.saveState();
+		Node dog = dag.findOrCreateNode("Dog", null, true);
+		DAGEdge edge = (DAGEdge) dag.findOrCreateEdge(new Node[] { isa, dog,
+				mammal }, null, true);
+		dag.addProperty(edge, "comment", "Dogs are mammals");
+
+		// Reload without closing the first graph
+		DirectedAcyclicGraph reloaded = new DirectedAcyclicGraph(rootDir,
+				null, null);
+		try {
+			reloaded.initialise();
+			assertEquals(3, reloaded.getNodes().size());
+			assertNotNull(reloaded.findOrCreateNode("Dog", null, false));
+			DAGEdge reloadedEdge = reloaded.getEdgeByID(edge.getID());
+			assertEquals(edge.toString(), reloadedEdge.toString());
+			assertEquals("Dogs are mammals",
+					reloadedEdge.getProperty("comment"));
+		} finally {
+			reloaded.close(false);
+			dag.close(false);
+		}
+	}
+}
@@ -16,6 +16,9 @@ import graph.core.DAGObject;
 import graph.core.DirectedAcyclicGraph;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import org.nustaq.serialization.FSTBasicObjectSerializer;
 import org.nustaq.serialization.FSTClazzInfo;
@@ -28,6 +31,33 @@ import util.serialisation.DefaultSerialisationMechanism;
 public class FSTDAGObjectSerialiser extends FSTBasicObjectSerializer {
 	public static final byte NODES = 2;
 
+	/**
+	 * The graphs whose ID-only nodes should be read as stand-ins rather than
+	 * looked up (because the nodes are still being loaded).
+	 */
+	private static final Set<DirectedAcyclicGraph> placeholderGraphs_ = Collections
+			.synchronizedSet(Collections
+					.newSetFromMap(new IdentityHashMap<DirectedAcyclicGraph, Boolean>()));
+
+	/**
+	 * Sets whether ID-only nodes are read as stand-in nodes (see
+	 * {@link DAGNode#placeholder(int)}) instead of being looked up in a graph.
+	 * IDs are resolved against the current graph (see
+	 * {@link DirectedAcyclicGraph#current()}).
+	 *
+	 * @param dag
+	 *            The graph being loaded.
+	 * @param placeholders
+	 *            If stand-ins should be created.
+	 */
+	public static void setNodePlaceholders(DirectedAcyclicGraph dag,
+			boolean placeholders) {
+		if (placeholders)
+			placeholderGraphs_.add(dag);
+		else
+			placeholderGraphs_.remove(dag);
+	}
+
 	@Override
 	public void writeObject(FSTObjectOutput out, Object toWrite,
 			FSTClazzInfo clzInfo, FSTFieldInfo referencedBy, int streamPosition)
@@ -66,10 +96,12 @@ public class FSTDAGObjectSerialiser extends FSTBasicObjectSerializer {
 		if (idOnly) {
 			int id = in.readInt();
 
+			DirectedAcyclicGraph dag = DirectedAcyclicGraph.current();
 			if (DAGNode.class.isAssignableFrom(objectClass))
-				obj = DirectedAcyclicGraph.selfRef_.getNodeByID(id);
+				obj = (placeholderGraphs_.contains(dag)) ? DAGNode
+						.placeholder(id) : dag.getNodeByID(id);
 			else if (DAGEdge.class.isAssignableFrom(objectClass))
-				obj = DirectedAcyclicGraph.selfRef_.getEdgeByID(id);
+				obj = dag.getEdgeByID(id);
 			else {
 				obj = (DAGObject) objectClass.newInstance();
 				obj.setID(id);
@@ -79,6 +111,7 @@ public class FSTDAGObjectSerialiser extends FSTBasicObjectSerializer {
 		} else {
 			obj = (DAGObject) objectClass.newInstance();
 			in.defaultReadObject(reference, serializationInfo, obj);
+			obj.migrateProperties();
 			in.registerObject(obj, streamPosition, serializationInfo, reference);
 		}
 		return obj;
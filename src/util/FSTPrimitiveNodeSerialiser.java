@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package util;
+
+import graph.core.PrimitiveNode;
+
+import java.io.IOException;
+
+import org.nustaq.serialization.FSTBasicObjectSerializer;
+import org.nustaq.serialization.FSTClazzInfo;
+import org.nustaq.serialization.FSTClazzInfo.FSTFieldInfo;
+import org.nustaq.serialization.FSTObjectInput;
+import org.nustaq.serialization.FSTObjectOutput;
+
+/**
+ * Reads primitive nodes saved before PrimitiveNode became abstract. Those were
+ * instances of PrimitiveNode itself, holding the boxed value in a single
+ * field, and are read as the canonical node for the value. Register this for
+ * PrimitiveNode only (not its subclasses), which are serialised as usual.
+ *
+ * @author Sam Sarjant
+ */
+public class FSTPrimitiveNodeSerialiser extends FSTBasicObjectSerializer {
+	@Override
+	public void writeObject(FSTObjectOutput out, Object toWrite,
+			FSTClazzInfo clzInfo, FSTFieldInfo referencedBy, int streamPosition)
+			throws IOException {
+		// PrimitiveNode is abstract, so only subclasses are ever written
+		throw new IOException("Cannot write " + toWrite.getClass());
+	}
+
+	@Override
+	public void readObject(FSTObjectInput in, Object toRead,
+			FSTClazzInfo clzInfo, FSTFieldInfo referencedBy)
+			throws IOException, ClassNotFoundException, IllegalAccessException,
+			InstantiationException {
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Object instantiate(Class objectClass, FSTObjectInput in,
+			FSTClazzInfo serializationInfo, FSTFieldInfo reference,
+			int streamPosition) throws IOException, ClassNotFoundException,
+			InstantiationException, IllegalAccessException {
+		// The old layout: the boxed value, then the end of the fields
+		Object primitive = in.readObject();
+		in.getCodec().readVersionTag();
+		PrimitiveNode node = PrimitiveNode.valueOf(primitive);
+		if (node == null)
+			throw new IOException("Unknown primitive value: " + primitive);
+		in.registerObject(node, streamPosition, serializationInfo, reference);
+		return node;
+	}
+}
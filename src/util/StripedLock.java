@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, selected by the hash of a key. Operations on keys with
+ * different stripes can proceed in parallel, while operations on the same key
+ * are serialised.
+ *
+ * Stripes are not ordered, so a stripe must only be held over a short critical
+ * section that never locks another stripe (e.g. never across module hooks that
+ * may create further objects).
+ *
+ * @author Sam Sarjant
+ */
+public class StripedLock {
+	private final ReentrantLock[] stripes_;
+
+	/**
+	 * Constructor for a new striped lock.
+	 *
+	 * @param numStripes
+	 *            The minimum number of stripes (rounded up to a power of 2).
+	 */
+	public StripedLock(int numStripes) {
+		int size = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+		stripes_ = new ReentrantLock[size];
+		for (int i = 0; i < size; i++)
+			stripes_[i] = new ReentrantLock();
+	}
+
+	/**
+	 * Locks the stripe for a key hash.
+	 *
+	 * @param hash
+	 *            The hash of the key.
+	 * @return The lock that was acquired, to pass to {@link #unlock(ReentrantLock)}.
+	 */
+	public ReentrantLock lock(int hash) {
+		// Spread the hash bits
+		hash ^= (hash >>> 16);
+		ReentrantLock lock = stripes_[hash & (stripes_.length - 1)];
+		lock.lock();
+		return lock;
+	}
+
+	/**
+	 * Unlocks a stripe acquired with {@link #lock(int)}.
+	 *
+	 * @param lock
+	 *            The acquired lock.
+	 */
+	public void unlock(ReentrantLock lock) {
+		lock.unlock();
+	}
+}
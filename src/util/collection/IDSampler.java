@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package util.collection;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A set of non-negative IDs supporting constant time addition, removal and
+ * uniform random sampling. The IDs are held densely in an array (removal
+ * moves the last ID into the gap), alongside the position of each ID in the
+ * array.
+ *
+ * @author Sam Sarjant
+ */
+public class IDSampler {
+	private int[] ids_;
+
+	/** The position + 1 of each ID in ids_, or 0 if not present. */
+	private int[] positions_;
+
+	private int size_;
+
+	public IDSampler() {
+		this(16);
+	}
+
+	/**
+	 * Constructor for a new sampler.
+	 *
+	 * @param capacity
+	 *            The initial capacity (and ID range).
+	 */
+	public IDSampler(int capacity) {
+		capacity = Math.max(capacity, 1);
+		ids_ = new int[capacity];
+		positions_ = new int[capacity];
+	}
+
+	/**
+	 * Adds an ID.
+	 *
+	 * @param id
+	 *            The ID to add.
+	 * @return True if the ID was not already present.
+	 */
+	public synchronized boolean add(int id) {
+		if (id < 0)
+			return false;
+		if (id >= positions_.length)
+			positions_ = Arrays.copyOf(positions_,
+					Math.max(id + 1, positions_.length * 2));
+		if (positions_[id] != 0)
+			return false;
+		if (size_ == ids_.length)
+			ids_ = Arrays.copyOf(ids_, size_ * 2);
+		ids_[size_++] = id;
+		positions_[id] = size_;
+		return true;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(positions_, 0);
+		size_ = 0;
+	}
+
+	public synchronized boolean contains(int id) {
+		return id >= 0 && id < positions_.length && positions_[id] != 0;
+	}
+
+	/**
+	 * Removes an ID.
+	 *
+	 * @param id
+	 *            The ID to remove.
+	 * @return True if the ID was present.
+	 */
+	public synchronized boolean remove(int id) {
+		if (!contains(id))
+			return false;
+		int index = positions_[id] - 1;
+		int last = ids_[--size_];
+		ids_[index] = last;
+		positions_[last] = index + 1;
+		positions_[id] = 0;
+		return true;
+	}
+
+	/**
+	 * Samples an ID uniformly at random.
+	 *
+	 * @param random
+	 *            The random number generator to use.
+	 * @return A random ID, or -1 if empty.
+	 */
+	public synchronized int sample(Random random) {
+		if (size_ == 0)
+			return -1;
+		return ids_[random.nextInt(size_)];
+	}
+
+	public synchronized int size() {
+		return size_;
+	}
+
+	@Override
+	public String toString() {
+		return "ID sampler (" + size() + " IDs)";
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package util.collection;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of canonical instances of immutable objects. Equal objects interned
+ * through the pool share a single instance, and instances no longer referenced
+ * outside the pool are garbage collected as usual. The pool is safe for
+ * concurrent use without a global lock: lookups of pooled instances do not
+ * block.
+ *
+ * @author Sam Sarjant
+ */
+public class WeakInterner<T> {
+	private final ConcurrentHashMap<WeakKey<T>, WeakKey<T>> pool_ = new ConcurrentHashMap<>();
+
+	/** The keys whose instances have been collected. */
+	private final ReferenceQueue<T> queue_ = new ReferenceQueue<>();
+
+	/**
+	 * Removes the keys of collected instances.
+	 */
+	private void expunge() {
+		Reference<? extends T> ref;
+		while ((ref = queue_.poll()) != null)
+			pool_.remove(ref);
+	}
+
+	/**
+	 * Gets the canonical instance equal to an object, making the object the
+	 * canonical instance if there is none.
+	 *
+	 * @param obj
+	 *            The object to intern.
+	 * @return The canonical instance.
+	 */
+	public T intern(T obj) {
+		expunge();
+		WeakKey<T> key = new WeakKey<>(obj, queue_);
+		while (true) {
+			WeakKey<T> existing = pool_.get(key);
+			if (existing == null)
+				existing = pool_.putIfAbsent(key, key);
+			if (existing == null)
+				return obj;
+			T canonical = existing.get();
+			if (canonical != null)
+				return canonical;
+			// Collected since the lookup
+			pool_.remove(existing, existing);
+		}
+	}
+
+	/**
+	 * @return The number of (possibly not yet collected) pooled instances.
+	 */
+	public int size() {
+		expunge();
+		return pool_.size();
+	}
+
+	/**
+	 * A weak reference to a pooled instance, equal to references to equal
+	 * instances. Once collected, a key is only equal to itself.
+	 */
+	private static class WeakKey<T> extends WeakReference<T> {
+		private final int hash_;
+
+		public WeakKey(T referent, ReferenceQueue<T> queue) {
+			super(referent, queue);
+			hash_ = referent.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof WeakKey))
+				return false;
+			Object referent = get();
+			return referent != null
+					&& referent.equals(((WeakKey<?>) obj).get());
+		}
+
+		@Override
+		public int hashCode() {
+			return hash_;
+		}
+	}
+}
@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (C) 2013 University of Waikato, Hamilton, New Zealand.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Sam Sarjant - initial API and implementation
+ ******************************************************************************/
+package util.collection.trove;
+
+import gnu.trove.iterator.TIntObjectIterator;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import util.UniqueID;
+
+/**
+ * An indexed collection backed by segmented arrays, where each object is
+ * stored at the slot given by its ID. Because IDs are handed out
+ * monotonically, this avoids the hashing and entry overhead of a hash map:
+ * lookups are a shift and a mask, iteration is in ID order, and the only
+ * per-object cost is a single array slot. Segments are allocated on demand and
+ * released when they empty, so large holes in the ID space cost (almost)
+ * nothing.
+ *
+ * Reads are lock-free. Writes are serialised on the collection.
+ *
+ * Point-in-time snapshots can be taken with {@link #snapshot()}. A snapshot
+ * shares the segments of the collection, and a segment is copied on the first
+ * write after a snapshot (copy-on-write), so a snapshot costs only the
+ * directory copy up front and at most one segment copy per written segment.
+ *
+ * @author Sam Sarjant
+ */
+public class TArrayIndexedCollection<T extends UniqueID> implements
+		TIndexedCollection<T> {
+	private static final int SEGMENT_BITS = 16;
+
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/** If this collection is a read-only snapshot. */
+	private final boolean frozen_;
+
+	/** The number of objects in each segment. */
+	private int[] segmentCounts_;
+
+	/** The version each segment was created/copied at. */
+	private int[] segmentVersions_;
+
+	/** The segments of objects, indexed by ID >> SEGMENT_BITS. */
+	private volatile AtomicReferenceArray<T>[] segments_;
+
+	/** The number of objects in the collection. */
+	private volatile int size_;
+
+	/** The current version, incremented by every snapshot. */
+	private int version_;
+
+	public TArrayIndexedCollection() {
+		this(SEGMENT_SIZE);
+	}
+
+	/**
+	 * Constructor with an initial expected maximum ID. This only sizes the
+	 * segment directory - no segments are allocated until needed.
+	 *
+	 * @param initialMaxID
+	 *            The expected maximum ID.
+	 */
+	@SuppressWarnings("unchecked")
+	public TArrayIndexedCollection(int initialMaxID) {
+		int numSegments = Math.max(1, (initialMaxID >>> SEGMENT_BITS) + 1);
+		segments_ = new AtomicReferenceArray[numSegments];
+		segmentCounts_ = new int[numSegments];
+		segmentVersions_ = new int[numSegments];
+		frozen_ = false;
+	}
+
+	/**
+	 * Constructor for a read-only snapshot sharing a segment directory.
+	 *
+	 * @param segments
+	 *            The (copied) segment directory.
+	 * @param size
+	 *            The number of objects in the segments.
+	 */
+	private TArrayIndexedCollection(AtomicReferenceArray<T>[] segments,
+			int size) {
+		segments_ = segments;
+		size_ = size;
+		frozen_ = true;
+	}
+
+	/**
+	 * Stores a segment in the directory and republishes the directory. Readers
+	 * are lock-free, so the volatile write is what makes the segment (and
+	 * everything written to it before) visible to them. Must be called while
+	 * holding the collection lock.
+	 *
+	 * @param segIndex
+	 *            The index of the segment.
+	 * @param segment
+	 *            The segment to store (or null to release it).
+	 */
+	private void publishSegment(int segIndex, AtomicReferenceArray<T> segment) {
+		AtomicReferenceArray<T>[] segments = segments_;
+		segments[segIndex] = segment;
+		segments_ = segments;
+	}
+
+	/**
+	 * Copies a segment if it is shared with a snapshot. Must be called while
+	 * holding the collection lock.
+	 *
+	 * @param segIndex
+	 *            The index of an existing segment.
+	 * @return The segment, safe to write to.
+	 */
+	private AtomicReferenceArray<T> writableSegment(int segIndex) {
+		AtomicReferenceArray<T> segment = segments_[segIndex];
+		if (segmentVersions_[segIndex] != version_) {
+			AtomicReferenceArray<T> copy = new AtomicReferenceArray<>(
+					SEGMENT_SIZE);
+			for (int i = 0; i < SEGMENT_SIZE; i++)
+				copy.lazySet(i, segment.get(i));
+			segment = copy;
+			segmentVersions_[segIndex] = version_;
+			publishSegment(segIndex, segment);
+		}
+		return segment;
+	}
+
+	private void checkWritable() {
+		if (frozen_)
+			throw new UnsupportedOperationException(
+					"Snapshots are read-only.");
+	}
+
+	/**
+	 * Ensures the segment for an ID exists, growing the directory if
+	 * necessary. Must be called while holding the collection lock.
+	 *
+	 * @param segIndex
+	 *            The index of the segment.
+	 * @return The (possibly new) segment.
+	 */
+	private AtomicReferenceArray<T> ensureSegment(int segIndex) {
+		AtomicReferenceArray<T>[] segments = segments_;
+		if (segIndex >= segments.length) {
+			int newLength = Math.max(segIndex + 1, segments.length * 2);
+			segmentCounts_ = Arrays.copyOf(segmentCounts_, newLength);
+			segmentVersions_ = Arrays.copyOf(segmentVersions_, newLength);
+			segments_ = Arrays.copyOf(segments, newLength);
+		}
+		if (segments_[segIndex] == null) {
+			segmentVersions_[segIndex] = version_;
+			publishSegment(segIndex, new AtomicReferenceArray<T>(SEGMENT_SIZE));
+		}
+		return writableSegment(segIndex);
+	}
+
+	/**
+	 * Finds the first occupied ID at or after a given ID.
+	 *
+	 * @param id
+	 *            The ID to start searching from.
+	 * @return The first occupied ID, or -1 if there are no more objects.
+	 */
+	public int nextID(int id) {
+		if (id < 0)
+			id = 0;
+		AtomicReferenceArray<T>[] segments = segments_;
+		for (int s = id >>> SEGMENT_BITS; s < segments.length; s++) {
+			AtomicReferenceArray<T> segment = segments[s];
+			if (segment != null) {
+				int start = (s == id >>> SEGMENT_BITS) ? id & SEGMENT_MASK : 0;
+				for (int i = start; i < SEGMENT_SIZE; i++)
+					if (segment.get(i) != null)
+						return (s << SEGMENT_BITS) | i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public synchronized boolean add(T obj) {
+		checkWritable();
+		int id = obj.getID();
+		if (id < 0 || get(id) == obj)
+			return false;
+		int segIndex = id >>> SEGMENT_BITS;
+		AtomicReferenceArray<T> segment = ensureSegment(segIndex);
+		T previous = segment.getAndSet(id & SEGMENT_MASK, obj);
+		if (previous == null) {
+			segmentCounts_[segIndex]++;
+			size_++;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds an array of objects under a single acquisition of the collection
+	 * lock.
+	 *
+	 * @param objects
+	 *            The objects to add.
+	 * @return The number of objects added.
+	 */
+	public synchronized int addAll(T[] objects) {
+		int added = 0;
+		for (T obj : objects)
+			if (add(obj))
+				added++;
+		return added;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public synchronized void clear() {
+		checkWritable();
+		segments_ = new AtomicReferenceArray[segments_.length];
+		segmentCounts_ = new int[segments_.length];
+		segmentVersions_ = new int[segments_.length];
+		size_ = 0;
+	}
+
+	@Override
+	public boolean contains(Object obj) {
+		if (!(obj instanceof UniqueID))
+			return false;
+		T existing = get(((UniqueID) obj).getID());
+		return existing != null && existing.equals(obj);
+	}
+
+	@Override
+	public T get(int id) {
+		if (id < 0)
+			return null;
+		AtomicReferenceArray<T>[] segments = segments_;
+		int segIndex = id >>> SEGMENT_BITS;
+		if (segIndex >= segments.length)
+			return null;
+		AtomicReferenceArray<T> segment = segments[segIndex];
+		if (segment == null)
+			return null;
+		return segment.get(id & SEGMENT_MASK);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size_ == 0;
+	}
+
+	@Override
+	public TIntObjectIterator<T> iterator() {
+		return new ArrayIterator();
+	}
+
+	@Override
+	public synchronized boolean remove(T obj) {
+		checkWritable();
+		int id = obj.getID();
+		if (id < 0)
+			return false;
+		int segIndex = id >>> SEGMENT_BITS;
+		if (segIndex >= segments_.length || segments_[segIndex] == null)
+			return false;
+		AtomicReferenceArray<T> segment = segments_[segIndex];
+		T existing = segment.get(id & SEGMENT_MASK);
+		if (existing == null || !existing.equals(obj))
+			return false;
+		size_--;
+		// Release empty segments
+		if (--segmentCounts_[segIndex] == 0)
+			publishSegment(segIndex, null);
+		else
+			writableSegment(segIndex).set(id & SEGMENT_MASK, null);
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size_;
+	}
+
+	/**
+	 * Takes a read-only, point-in-time snapshot of the collection. The
+	 * snapshot is unaffected by later writes to this collection and can be
+	 * iterated without any locking.
+	 *
+	 * @return A read-only snapshot of the collection.
+	 */
+	public synchronized TArrayIndexedCollection<T> snapshot() {
+		if (frozen_)
+			return this;
+		version_++;
+		return new TArrayIndexedCollection<>(segments_.clone(), size_);
+	}
+
+	@Override
+	public Object[] toArray() {
+		return toArray(new Object[size_]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <E> E[] toArray(E[] array) {
+		int size = size_;
+		if (array.length < size)
+			array = (E[]) Array.newInstance(array.getClass()
+					.getComponentType(), size);
+		int i = 0;
+		for (int id = nextID(0); id != -1 && i < array.length; id = nextID(id + 1))
+			array[i++] = (E) get(id);
+		if (i < array.length)
+			array[i] = null;
+		return array;
+	}
+
+	@Override
+	public String toString() {
+		return ((frozen_) ? "Array snapshot (" : "Array collection (")
+				+ size_ + " objects, "
+				+ segments_.length + " segments)";
+	}
+
+	/**
+	 * Iterates the occupied slots in ID order.
+	 */
+	private class ArrayIterator implements TIntObjectIterator<T> {
+		private int currentID_ = -1;
+		private T current_;
+		private int nextID_;
+
+		public ArrayIterator() {
+			nextID_ = nextID(0);
+		}
+
+		@Override
+		public void advance() {
+			if (nextID_ == -1)
+				throw new NoSuchElementException();
+			currentID_ = nextID_;
+			current_ = get(currentID_);
+			nextID_ = nextID(currentID_ + 1);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextID_ != -1;
+		}
+
+		@Override
+		public int key() {
+			return currentID_;
+		}
+
+		@Override
+		public void remove() {
+			if (current_ == null)
+				throw new IllegalStateException();
+			TArrayIndexedCollection.this.remove(current_);
+			current_ = null;
+		}
+
+		@Override
+		public T setValue(T value) {
+			T old = current_;
+			TArrayIndexedCollection.this.add(value);
+			current_ = value;
+			return old;
+		}
+
+		@Override
+		public T value() {
+			return current_;
+		}
+	}
+}